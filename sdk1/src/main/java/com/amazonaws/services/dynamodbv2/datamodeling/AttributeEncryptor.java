@@ -22,6 +22,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DoNotTouch;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionFlags;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionSchema;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.HandleUnknownAttributes;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.TableAadOverride;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
@@ -91,7 +92,7 @@ public class AttributeEncryptor implements AttributeTransformer {
 
     try {
       return encryptor.encryptRecord(
-          attributeValues, metadata.getEncryptionFlags(), paramsToContext(parameters));
+          attributeValues, metadata.getSchema(), paramsToContext(parameters));
     } catch (Exception ex) {
       throw new DynamoDBMappingException(ex);
     }
@@ -99,9 +100,14 @@ public class AttributeEncryptor implements AttributeTransformer {
 
   @Override
   public Map<String, AttributeValue> untransform(final Parameters<?> parameters) {
-    final Map<String, Set<EncryptionFlags>> attributeFlags = getEncryptionFlags(parameters);
+    final ModelClassMetadata metadata = getModelClassMetadata(parameters);
 
     try {
+      if (!hasUnknownAttributesToHandle(parameters, metadata)) {
+        return encryptor.decryptRecord(
+            parameters.getAttributeValues(), metadata.getSchema(), paramsToContext(parameters));
+      }
+      final Map<String, Set<EncryptionFlags>> attributeFlags = getEncryptionFlags(parameters);
       return encryptor.decryptRecord(
           parameters.getAttributeValues(), attributeFlags, paramsToContext(parameters));
     } catch (Exception ex) {
@@ -140,6 +146,25 @@ public class AttributeEncryptor implements AttributeTransformer {
     return attributeFlags;
   }
 
+  /**
+   * Returns true if the item has attributes which are not modeled and which must be signed or
+   * encrypted, in which case the precompiled schema of the model class cannot be used.
+   */
+  private boolean hasUnknownAttributesToHandle(
+      final Parameters<?> parameters, final ModelClassMetadata metadata) {
+    if (metadata.getDoNotTouch() || metadata.getUnknownAttributeBehavior().isEmpty()) {
+      return false;
+    }
+    for (final String attributeName : parameters.getAttributeValues().keySet()) {
+      if (!metadata.getSchema().containsAttribute(attributeName)
+          && !encryptor.getSignatureFieldName().equals(attributeName)
+          && !encryptor.getMaterialDescriptionFieldName().equals(attributeName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private <T> ModelClassMetadata getModelClassMetadata(Parameters<T> parameters) {
     // Due to the lack of explicit synchronization, it is possible that
     // elements in the cache will be added multiple times. Since they will
@@ -258,6 +283,7 @@ public class AttributeEncryptor implements AttributeTransformer {
 
   private static class ModelClassMetadata {
     private final Map<String, Set<EncryptionFlags>> encryptionFlags;
+    private final EncryptionSchema schema;
     private final boolean doNotTouch;
     private final Set<EncryptionFlags> unknownAttributeBehavior;
 
@@ -266,6 +292,7 @@ public class AttributeEncryptor implements AttributeTransformer {
         boolean doNotTouch,
         Set<EncryptionFlags> unknownAttributeBehavior) {
       this.encryptionFlags = encryptionFlags;
+      this.schema = EncryptionSchema.of(encryptionFlags);
       this.doNotTouch = doNotTouch;
       this.unknownAttributeBehavior = unknownAttributeBehavior;
     }
@@ -274,6 +301,10 @@ public class AttributeEncryptor implements AttributeTransformer {
       return encryptionFlags;
     }
 
+    public EncryptionSchema getSchema() {
+      return schema;
+    }
+
     public boolean getDoNotTouch() {
       return doNotTouch;
     }
@@ -0,0 +1,280 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Decrypts a stream of pages of records, such as the results of a paginated Query or Scan, with a
+ * bounded number of records in flight at once.
+ *
+ * <p>Each record is decrypted as by {@link DynamoDBEncryptor#decryptRecordAsync(Map, Map,
+ * EncryptionContext)}, so the work runs on the encryptor's {@link
+ * DynamoDBEncryptor#setAsyncExecutor(java.util.concurrent.Executor) asynchronous executor}, and a
+ * provider which is not asynchronous blocks a thread of that executor, or of the default provider
+ * pool, for each call. The iterator returned by {@link #decrypt(Iterator)} is demand driven: it
+ * reads records from the pages only as earlier results are consumed, keeping at most {@link
+ * Builder#withMaxConcurrency(int) maxConcurrency} records being decrypted or waiting to be
+ * consumed. Pages are requested from the source one at a time, and only once every record of the
+ * previous page has been started.
+ *
+ * <p>As with {@link DynamoDBEncryptor#decryptRecords(java.util.List, Map, EncryptionContext)},
+ * each record yields a {@link DecryptionResult}, so a record which cannot be decrypted does not
+ * end the stream. Exceptions thrown by the source of pages are thrown by the iterator.
+ *
+ * <p>Instances are thread-safe and may be reused. The iterators they return are not thread-safe.
+ */
+public final class DecryptionPipeline {
+  /** The default number of records in flight, which is the number of available processors. */
+  public static final int DEFAULT_MAX_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+  private final DynamoDBEncryptor encryptor;
+  private final Map<String, Set<EncryptionFlags>> attributeFlags;
+  private final EncryptionSchema schema;
+  private final EncryptionContext context;
+  private final int maxConcurrency;
+  private final boolean ordered;
+
+  private DecryptionPipeline(Builder builder) {
+    this.encryptor = builder.encryptor;
+    this.attributeFlags = builder.attributeFlags;
+    this.schema = builder.schema;
+    this.context = builder.context;
+    this.maxConcurrency = builder.maxConcurrency;
+    this.ordered = builder.ordered;
+  }
+
+  /**
+   * Returns an iterator over the decrypted records of {@code pages}. If the pipeline is ordered,
+   * results are returned in the order of the records; otherwise in the order they are decrypted.
+   *
+   * @param pages the pages of encrypted records, which are read as results are consumed
+   * @return one {@link DecryptionResult} per record
+   */
+  public Iterator<DecryptionResult> decrypt(
+      Iterator<? extends Collection<Map<String, AttributeValue>>> pages) {
+    return ordered ? new OrderedResults(pages) : new UnorderedResults(pages);
+  }
+
+  /** Returns an iterator over the decrypted records of a single page. */
+  public Iterator<DecryptionResult> decrypt(Collection<Map<String, AttributeValue>> page) {
+    return decrypt(Collections.singletonList(page).iterator());
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  private CompletableFuture<DecryptionResult> decryptAsync(Map<String, AttributeValue> item) {
+    final CompletableFuture<Map<String, AttributeValue>> decrypted;
+    try {
+      decrypted =
+          schema != null
+              ? encryptor.decryptRecordAsync(item, schema, context)
+              : encryptor.decryptRecordAsync(item, attributeFlags, context);
+    } catch (RuntimeException ex) {
+      return CompletableFuture.completedFuture(DecryptionResult.failure(ex));
+    }
+    return decrypted.handle(
+        (result, ex) -> {
+          if (ex == null) {
+            return DecryptionResult.success(result);
+          }
+          final Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+          if (cause instanceof Exception) {
+            return DecryptionResult.failure((Exception) cause);
+          }
+          // Errors are not per-record failures, so the consumer sees them thrown by next()
+          throw new CompletionException(cause);
+        });
+  }
+
+  private static DecryptionResult await(CompletableFuture<DecryptionResult> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof Error) {
+        throw (Error) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /** Reads records from the pages and tracks how many are in flight. */
+  private abstract class Results implements Iterator<DecryptionResult> {
+    private final Iterator<? extends Collection<Map<String, AttributeValue>>> pages;
+    private Iterator<Map<String, AttributeValue>> page = Collections.emptyIterator();
+    int inFlight = 0;
+
+    Results(Iterator<? extends Collection<Map<String, AttributeValue>>> pages) {
+      this.pages = checkNotNull(pages, "pages must not be null");
+    }
+
+    /** Starts decrypting a record whose result will be returned by {@link #take()}. */
+    abstract void start(CompletableFuture<DecryptionResult> result);
+
+    /** Removes and returns the next result, waiting for it if necessary. */
+    abstract DecryptionResult take();
+
+    private void fill() {
+      while (inFlight < maxConcurrency) {
+        while (!page.hasNext()) {
+          if (!pages.hasNext()) {
+            return;
+          }
+          page = pages.next().iterator();
+        }
+        start(decryptAsync(page.next()));
+        inFlight++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      fill();
+      return inFlight > 0;
+    }
+
+    @Override
+    public DecryptionResult next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      inFlight--;
+      return take();
+    }
+  }
+
+  private final class OrderedResults extends Results {
+    private final ArrayDeque<CompletableFuture<DecryptionResult>> queue = new ArrayDeque<>();
+
+    OrderedResults(Iterator<? extends Collection<Map<String, AttributeValue>>> pages) {
+      super(pages);
+    }
+
+    @Override
+    void start(CompletableFuture<DecryptionResult> result) {
+      queue.add(result);
+    }
+
+    @Override
+    DecryptionResult take() {
+      return await(queue.remove());
+    }
+  }
+
+  private final class UnorderedResults extends Results {
+    private final BlockingQueue<CompletableFuture<DecryptionResult>> completed =
+        new LinkedBlockingQueue<>();
+
+    UnorderedResults(Iterator<? extends Collection<Map<String, AttributeValue>>> pages) {
+      super(pages);
+    }
+
+    @Override
+    void start(CompletableFuture<DecryptionResult> result) {
+      result.whenComplete((r, ex) -> completed.add(result));
+    }
+
+    @Override
+    DecryptionResult take() {
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            // A result is always in flight, and every one is eventually completed
+            return await(completed.take());
+          } catch (InterruptedException ex) {
+            interrupted = true;
+          }
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /** Builds a {@link DecryptionPipeline}. Exactly one of the attribute flags and schema is set. */
+  public static final class Builder {
+    private final DynamoDBEncryptor encryptor;
+    private Map<String, Set<EncryptionFlags>> attributeFlags = null;
+    private EncryptionSchema schema = null;
+    private EncryptionContext context = null;
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private boolean ordered = true;
+
+    /** @param encryptor the encryptor which decrypts each record */
+    public Builder(DynamoDBEncryptor encryptor) {
+      this.encryptor = checkNotNull(encryptor, "encryptor must not be null");
+    }
+
+    /** Sets the encryption flags, which apply to every record. */
+    public Builder withAttributeFlags(Map<String, Set<EncryptionFlags>> attributeFlags) {
+      this.attributeFlags = attributeFlags;
+      this.schema = null;
+      return this;
+    }
+
+    /** Sets the precompiled encryption flags, which apply to every record. */
+    public Builder withSchema(EncryptionSchema schema) {
+      this.schema = schema;
+      this.attributeFlags = null;
+      return this;
+    }
+
+    /** Sets the encryption context, which applies to every record. */
+    public Builder withContext(EncryptionContext context) {
+      this.context = context;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of records being decrypted or waiting to be consumed. Defaults to
+     * {@link #DEFAULT_MAX_CONCURRENCY}.
+     */
+    public Builder withMaxConcurrency(int maxConcurrency) {
+      if (maxConcurrency < 1) {
+        throw new IllegalArgumentException("maxConcurrency must be positive");
+      }
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets whether results are returned in the order of the records, which is the default, or in
+     * the order they are decrypted. Unordered results avoid waiting on a slow record, such as one
+     * whose materials must be fetched from a remote service, while later records are ready.
+     */
+    public Builder withOrdered(boolean ordered) {
+      this.ordered = ordered;
+      return this;
+    }
+
+    public DecryptionPipeline build() {
+      if (attributeFlags == null && schema == null) {
+        throw new IllegalStateException("Either attribute flags or a schema must be set");
+      }
+      checkNotNull(context, "context must not be null");
+      return new DecryptionPipeline(this);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of decrypting a single record as part of a batch. Exactly one of {@link #getItem()}
+ * and {@link #getException()} is non-null.
+ *
+ * <p>This class is immutable.
+ *
+ * @see DynamoDBEncryptor#decryptRecords(List, Map, EncryptionContext)
+ */
+public final class DecryptionResult {
+  private final Map<String, AttributeValue> item;
+  private final Exception exception;
+
+  private DecryptionResult(Map<String, AttributeValue> item, Exception exception) {
+    this.item = item;
+    this.exception = exception;
+  }
+
+  static DecryptionResult success(Map<String, AttributeValue> item) {
+    return new DecryptionResult(item, null);
+  }
+
+  static DecryptionResult failure(Exception exception) {
+    return new DecryptionResult(null, exception);
+  }
+
+  /** Returns true if the record was verified and decrypted. */
+  public boolean isSuccessful() {
+    return exception == null;
+  }
+
+  /** Returns the decrypted record, or null if it could not be decrypted. */
+  public Map<String, AttributeValue> getItem() {
+    return item;
+  }
+
+  /**
+   * Returns the exception which prevented the record from being decrypted, or null if it was
+   * decrypted. This is usually a {@link java.security.GeneralSecurityException}, such as a {@link
+   * java.security.SignatureException} if the signature is invalid.
+   */
+  public Exception getException() {
+    return exception;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccessful()
+        ? "DecryptionResult [item=" + item + "]"
+        : "DecryptionResult [exception=" + exception + "]";
+  }
+}
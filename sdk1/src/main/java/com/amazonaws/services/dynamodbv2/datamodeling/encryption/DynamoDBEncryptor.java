@@ -15,11 +15,14 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.AttributeEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.AsyncEncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.ByteBufferInputStream;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.MaterialDescriptionCache;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import java.io.ByteArrayOutputStream;
@@ -32,14 +35,27 @@ import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -75,9 +91,18 @@ public class DynamoDBEncryptor {
       };
 
   private static final int CURRENT_VERSION = 0;
+  private static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+  private static final int DEFAULT_PROVIDER_THREADS = 16;
+  private static final int DEFAULT_DESCRIPTION_CACHE_SIZE = 1024;
 
   private String signatureFieldName = DEFAULT_SIGNATURE_FIELD;
   private String materialDescriptionFieldName = DEFAULT_METADATA_FIELD;
+  private boolean sliceDecryptedBinaryValues = false;
+  private Executor parallelExecutor;
+  private Executor asyncExecutor = null;
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  private MaterialDescriptionCache descriptionCache =
+      new MaterialDescriptionCache(DEFAULT_DESCRIPTION_CACHE_SIZE);
 
   private EncryptionMaterialsProvider encryptionMaterialsProvider;
   private final String descriptionBase;
@@ -237,19 +262,413 @@ public class DynamoDBEncryptor {
     if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), attributeFlags)) {
       return itemAttributes;
     }
+    return decryptRecord(itemAttributes, attributeFlags, null, context);
+  }
+
+  /**
+   * Returns a decrypted version of the provided record, exactly as {@link #decryptRecord(Map, Map,
+   * EncryptionContext)} would for the attribute flags {@code schema} was compiled from.
+   *
+   * @param itemAttributes the encrypted record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @return a new instance of item attributes decrypted as necessary
+   * @throws GeneralSecurityException if failed to decrypt the record or verify its signature
+   */
+  public Map<String, AttributeValue> decryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), schema)) {
+      return itemAttributes;
+    }
+    return decryptRecord(itemAttributes, schema.getAttributeFlags(), schema, context);
+  }
+
+  /** @param schema the schema compiled from {@code attributeFlags}, or null */
+  private Map<String, AttributeValue> decryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
     // Copy to avoid changing anyone elses objects
     itemAttributes = new HashMap<String, AttributeValue>(itemAttributes);
 
     Map<String, String> materialDescription = Collections.emptyMap();
-    DecryptionMaterials materials;
-    SecretKey decryptionKey;
+    if (itemAttributes.containsKey(materialDescriptionFieldName)) {
+      materialDescription = cachedDescription(itemAttributes.get(materialDescriptionFieldName));
+    }
+    context = buildDecryptionContext(itemAttributes, materialDescription, context);
+
+    DecryptionMaterials materials = encryptionMaterialsProvider.getDecryptionMaterials(context);
+    new RecordDecryptor(materials, materialDescription)
+        .decrypt(itemAttributes, attributeFlags, schema, context.getTableName());
+    return itemAttributes;
+  }
+
+  /**
+   * Verifies the signature of the provided record and returns a read-only view of its decrypted
+   * attributes. The view has the same contents as the record returned by {@link
+   * #decryptRecord(Map, Map, EncryptionContext)}, but each encrypted attribute is only decrypted
+   * and unmarshalled when it is first read, and then retained. Records of which only a few
+   * attributes are needed are therefore decrypted at a fraction of the cost.
+   *
+   * <p>The signature of the whole record is always verified before this method returns. Reading an
+   * attribute which cannot be decrypted, which can only happen if the decryption materials do not
+   * match the signing materials, throws a {@link
+   * com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException}. The view may be read
+   * by several threads at once.
+   *
+   * @param itemAttributes the encrypted record
+   * @param attributeFlags the encryption flags
+   * @param context encryption context
+   * @return a view of the record which decrypts attributes as they are read
+   * @throws GeneralSecurityException if the signature could not be verified
+   */
+  public Map<String, AttributeValue> decryptRecordLazily(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), attributeFlags)) {
+      return Collections.unmodifiableMap(itemAttributes);
+    }
+    return decryptRecordLazily(itemAttributes, attributeFlags, null, context);
+  }
+
+  /**
+   * Verifies the signature of the provided record and returns a read-only view of its decrypted
+   * attributes, exactly as {@link #decryptRecordLazily(Map, Map, EncryptionContext)} would for the
+   * attribute flags {@code schema} was compiled from.
+   *
+   * @param itemAttributes the encrypted record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @return a view of the record which decrypts attributes as they are read
+   * @throws GeneralSecurityException if the signature could not be verified
+   */
+  public Map<String, AttributeValue> decryptRecordLazily(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), schema)) {
+      return Collections.unmodifiableMap(itemAttributes);
+    }
+    return decryptRecordLazily(itemAttributes, schema.getAttributeFlags(), schema, context);
+  }
+
+  /**
+   * Verifies the signature of the provided record and returns only the attributes named in {@code
+   * projection}, decrypted as necessary. Other encrypted attributes are not decrypted. The
+   * signature covers the whole record, so it is verified exactly as by {@link #decryptRecord(Map,
+   * Map, EncryptionContext)}. There is no side effect on the input parameters upon calling this
+   * method.
+   *
+   * @param itemAttributes the encrypted record
+   * @param attributeFlags the encryption flags
+   * @param context encryption context
+   * @param projection the names of the attributes to return; names missing from the record are
+   *     ignored
+   * @return a new map of the projected attributes, decrypted as necessary
+   * @throws GeneralSecurityException if failed to decrypt the record or verify its signature
+   */
+  public Map<String, AttributeValue> decryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context,
+      Collection<String> projection)
+      throws GeneralSecurityException {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), attributeFlags)) {
+      return project(itemAttributes, projection);
+    }
+    return decryptRecordLazily(itemAttributes, attributeFlags, null, context).project(projection);
+  }
 
-    DynamoDBSigner signer = DynamoDBSigner.getInstance(DEFAULT_SIGNATURE_ALGORITHM, Utils.getRng());
+  /**
+   * Verifies the signature of the provided record and returns only the attributes named in {@code
+   * projection}, exactly as {@link #decryptRecord(Map, Map, EncryptionContext, Collection)} would
+   * for the attribute flags {@code schema} was compiled from.
+   *
+   * @param itemAttributes the encrypted record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @param projection the names of the attributes to return; names missing from the record are
+   *     ignored
+   * @return a new map of the projected attributes, decrypted as necessary
+   * @throws GeneralSecurityException if failed to decrypt the record or verify its signature
+   */
+  public Map<String, AttributeValue> decryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context,
+      Collection<String> projection)
+      throws GeneralSecurityException {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), schema)) {
+      return project(itemAttributes, projection);
+    }
+    return decryptRecordLazily(itemAttributes, schema.getAttributeFlags(), schema, context)
+        .project(projection);
+  }
+
+  /** @param schema the schema compiled from {@code attributeFlags}, or null */
+  private LazyDecryptedRecord decryptRecordLazily(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    // Copy to avoid changing anyone elses objects
+    itemAttributes = new HashMap<String, AttributeValue>(itemAttributes);
 
+    Map<String, String> materialDescription = Collections.emptyMap();
     if (itemAttributes.containsKey(materialDescriptionFieldName)) {
-      materialDescription = unmarshallDescription(itemAttributes.get(materialDescriptionFieldName));
+      materialDescription = cachedDescription(itemAttributes.get(materialDescriptionFieldName));
+    }
+    context = buildDecryptionContext(itemAttributes, materialDescription, context);
+
+    DecryptionMaterials materials = encryptionMaterialsProvider.getDecryptionMaterials(context);
+    return new RecordDecryptor(materials, materialDescription)
+        .decryptLazily(itemAttributes, attributeFlags, schema, context.getTableName());
+  }
+
+  private static Map<String, AttributeValue> project(
+      Map<String, AttributeValue> itemAttributes, Collection<String> projection) {
+    final Map<String, AttributeValue> result = new HashMap<>();
+    for (String name : projection) {
+      final AttributeValue value = itemAttributes.get(name);
+      if (value != null) {
+        result.put(name, value);
+      }
     }
-    // Copy the material description and attribute values into the context
+    return result;
+  }
+
+  /**
+   * Asynchronously decrypts the provided record, exactly as {@link #decryptRecord(Map, Map,
+   * EncryptionContext)} would. The decryption materials are requested with {@link
+   * AsyncEncryptionMaterialsProvider#getDecryptionMaterialsAsync(EncryptionContext)} if the
+   * provider supports it, and otherwise by calling the provider on an executor which tolerates
+   * blocked threads. The record is then verified and decrypted on the {@link
+   * #setAsyncExecutor(Executor) asynchronous executor}.
+   *
+   * @param itemAttributes the encrypted record
+   * @param attributeFlags the encryption flags
+   * @param context encryption context
+   * @return a future of a new instance of item attributes decrypted as necessary, which completes
+   *     exceptionally with a {@link GeneralSecurityException} if the record could not be decrypted
+   *     or its signature could not be verified
+   */
+  public CompletableFuture<Map<String, AttributeValue>> decryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context) {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), attributeFlags)) {
+      return CompletableFuture.completedFuture(itemAttributes);
+    }
+    return decryptRecordAsync(itemAttributes, attributeFlags, null, context);
+  }
+
+  /**
+   * Asynchronously decrypts the provided record, exactly as {@link #decryptRecordAsync(Map, Map,
+   * EncryptionContext)} would for the attribute flags {@code schema} was compiled from.
+   *
+   * @param itemAttributes the encrypted record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @return a future of a new instance of item attributes decrypted as necessary
+   */
+  public CompletableFuture<Map<String, AttributeValue>> decryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context) {
+    if (!itemContainsFieldsToDecryptOrSign(itemAttributes.keySet(), schema)) {
+      return CompletableFuture.completedFuture(itemAttributes);
+    }
+    return decryptRecordAsync(itemAttributes, schema.getAttributeFlags(), schema, context);
+  }
+
+  /** @param schema the schema compiled from {@code attributeFlags}, or null */
+  private CompletableFuture<Map<String, AttributeValue>> decryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
+      EncryptionContext context) {
+    final Executor executor = cryptoExecutor();
+    final Map<String, AttributeValue> item;
+    final Map<String, String> materialDescription;
+    final EncryptionContext itemContext;
+    final CompletableFuture<DecryptionMaterials> materials;
+    try {
+      // Copy to avoid changing anyone elses objects
+      item = new HashMap<String, AttributeValue>(itemAttributes);
+      materialDescription =
+          item.containsKey(materialDescriptionFieldName)
+              ? cachedDescription(item.get(materialDescriptionFieldName))
+              : Collections.<String, String>emptyMap();
+      itemContext = buildDecryptionContext(item, materialDescription, context);
+      materials =
+          AsyncEncryptionMaterialsProvider.adapt(encryptionMaterialsProvider, providerExecutor())
+              .getDecryptionMaterialsAsync(itemContext);
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+    return materials.thenApplyAsync(
+        decryptionMaterials -> {
+          try {
+            new RecordDecryptor(decryptionMaterials, materialDescription)
+                .decrypt(item, attributeFlags, schema, itemContext.getTableName());
+          } catch (GeneralSecurityException ex) {
+            throw new CompletionException(ex);
+          }
+          return item;
+        },
+        executor);
+  }
+
+  /**
+   * Returns decrypted versions of the provided records, in the same order. The result for each
+   * record either holds the decrypted record or the exception which prevented it from being
+   * decrypted, so a single bad record does not fail the whole batch. There is no side effect on
+   * the input parameters upon calling this method.
+   *
+   * <p>If the {@link EncryptionMaterialsProvider} reports that its decryption materials may be
+   * reused across records (see {@link
+   * EncryptionMaterialsProvider#isDecryptionMaterialsReusable()}), the records are grouped by the
+   * bytes of their material description and, if an {@link #setEncryptionContextOverrideOperator
+   * override operator} is set, by the table it resolves for each record. The decryption materials
+   * are then requested once per group using the first record of that group. Otherwise each record
+   * is decrypted exactly as by {@link #decryptRecord(Map, Map, EncryptionContext)}.
+   *
+   * <p>If the materials of a group cannot be obtained, the first record of the group fails with the
+   * exception thrown, and every other record with a new {@link DynamoDBMappingException} caused by
+   * it.
+   *
+   * @param items the encrypted records, such as a page of Query or Scan results
+   * @param attributeFlags the encryption flags, which apply to every record
+   * @param context encryption context, which applies to every record
+   * @return one {@link DecryptionResult} per input record
+   */
+  public List<DecryptionResult> decryptRecords(
+      List<Map<String, AttributeValue>> items,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context) {
+    final List<DecryptionResult> results = new ArrayList<DecryptionResult>(items.size());
+    if (!encryptionMaterialsProvider.isDecryptionMaterialsReusable()) {
+      for (Map<String, AttributeValue> item : items) {
+        try {
+          results.add(DecryptionResult.success(decryptRecord(item, attributeFlags, context)));
+        } catch (GeneralSecurityException | RuntimeException ex) {
+          results.add(DecryptionResult.failure(ex));
+        }
+      }
+      return results;
+    }
+
+    final Function<EncryptionContext, EncryptionContext> overrideOperator =
+        getEncryptionContextOverrideOperator();
+    final Map<DecryptorKey, RecordDecryptor> decryptors = new HashMap<>();
+    final Map<DecryptorKey, RuntimeException> failures = new HashMap<>();
+    for (Map<String, AttributeValue> item : items) {
+      try {
+        if (!itemContainsFieldsToDecryptOrSign(item.keySet(), attributeFlags)) {
+          results.add(DecryptionResult.success(item));
+          continue;
+        }
+        // Copy to avoid changing anyone elses objects
+        final Map<String, AttributeValue> itemAttributes = new HashMap<>(item);
+        final AttributeValue description = itemAttributes.get(materialDescriptionFieldName);
+        Map<String, String> materialDescription = null;
+        EncryptionContext itemContext = null;
+        String tableName = context.getTableName();
+        if (overrideOperator != null) {
+          // The operator may choose a different table, and so different materials, per record
+          materialDescription =
+              description != null
+                  ? cachedDescription(description)
+                  : Collections.<String, String>emptyMap();
+          itemContext = buildDecryptionContext(itemAttributes, materialDescription, context);
+          tableName = itemContext.getTableName();
+        }
+        final DecryptorKey key =
+            new DecryptorKey(
+                tableName, description != null ? description.getB().asReadOnlyBuffer() : null);
+
+        final RuntimeException failure = failures.get(key);
+        if (failure != null) {
+          // Each record gets its own exception, rather than sharing the mutable original
+          throw new DynamoDBMappingException(
+              "Unable to get decryption materials: " + failure, failure);
+        }
+        RecordDecryptor recordDecryptor = decryptors.get(key);
+        if (recordDecryptor == null) {
+          try {
+            if (itemContext == null) {
+              materialDescription =
+                  description != null
+                      ? cachedDescription(description)
+                      : Collections.<String, String>emptyMap();
+              itemContext = buildDecryptionContext(itemAttributes, materialDescription, context);
+            }
+            recordDecryptor =
+                new RecordDecryptor(
+                    encryptionMaterialsProvider.getDecryptionMaterials(itemContext),
+                    materialDescription);
+          } catch (RuntimeException ex) {
+            failures.put(key, ex);
+            throw ex;
+          }
+          decryptors.put(key, recordDecryptor);
+        }
+        recordDecryptor.decrypt(itemAttributes, attributeFlags, null, tableName);
+        results.add(DecryptionResult.success(itemAttributes));
+      } catch (GeneralSecurityException | RuntimeException ex) {
+        results.add(DecryptionResult.failure(ex));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Identifies the records of a batch which share their decryption materials: those read from the
+   * same table with byte-identical material descriptions.
+   */
+  private static final class DecryptorKey {
+    private final String tableName;
+    // A read-only view of the marshalled material description, or null if absent
+    private final ByteBuffer description;
+
+    private DecryptorKey(String tableName, ByteBuffer description) {
+      this.tableName = tableName;
+      this.description = description;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof DecryptorKey)) {
+        return false;
+      }
+      final DecryptorKey other = (DecryptorKey) o;
+      return Objects.equals(tableName, other.tableName)
+          && Objects.equals(description, other.description);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tableName, description);
+    }
+  }
+
+  /**
+   * Copies the material description and attribute values into the context and applies any
+   * override operator.
+   */
+  private EncryptionContext buildDecryptionContext(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, String> materialDescription,
+      EncryptionContext context) {
     context =
         new EncryptionContext.Builder(context)
             .withMaterialDescription(materialDescription)
@@ -261,34 +680,124 @@ public class DynamoDBEncryptor {
     if (encryptionContextOverrideOperator != null) {
       context = encryptionContextOverrideOperator.apply(context);
     }
+    return context;
+  }
 
-    materials = encryptionMaterialsProvider.getDecryptionMaterials(context);
-    decryptionKey = materials.getDecryptionKey();
-    if (materialDescription.containsKey(signingAlgorithmHeader)) {
-      String signingAlg = materialDescription.get(signingAlgorithmHeader);
-      signer = DynamoDBSigner.getInstance(signingAlg, Utils.getRng());
+  /**
+   * Verifies and decrypts records using a single set of {@link DecryptionMaterials} and the
+   * material description they were resolved from. The signer and cipher are reused for each
+   * record.
+   */
+  private final class RecordDecryptor {
+    private final DecryptionMaterials materials;
+    private final Map<String, String> materialDescription;
+    private final SecretKey decryptionKey;
+    private final String encryptionMode;
+    private final DynamoDBSigner signer;
+    private Cipher cipher;
+
+    private RecordDecryptor(
+        DecryptionMaterials materials, Map<String, String> materialDescription) {
+      this.materials = materials;
+      this.materialDescription = materialDescription;
+      this.decryptionKey = materials.getDecryptionKey();
+      this.encryptionMode =
+          decryptionKey != null
+              ? decryptionKey.getAlgorithm()
+                  + materialDescription.get(symmetricEncryptionModeHeader)
+              : null;
+      if (materialDescription.containsKey(signingAlgorithmHeader)) {
+        String signingAlg = materialDescription.get(signingAlgorithmHeader);
+        signer = DynamoDBSigner.getInstance(signingAlg, Utils.getRng());
+      } else {
+        signer = DynamoDBSigner.getInstance(DEFAULT_SIGNATURE_ALGORITHM, Utils.getRng());
+      }
     }
 
-    ByteBuffer signature;
-    if (!itemAttributes.containsKey(signatureFieldName)
-        || itemAttributes.get(signatureFieldName).getB() == null) {
-      signature = ByteBuffer.allocate(0);
-    } else {
-      signature = itemAttributes.get(signatureFieldName).getB().asReadOnlyBuffer();
+    /**
+     * Verifies and decrypts {@code itemAttributes} in place.
+     *
+     * @param schema the schema compiled from {@code attributeFlags}, or null
+     */
+    private void decrypt(
+        Map<String, AttributeValue> itemAttributes,
+        Map<String, Set<EncryptionFlags>> attributeFlags,
+        EncryptionSchema schema,
+        String tableName)
+        throws GeneralSecurityException {
+      verify(itemAttributes, attributeFlags, schema, tableName);
+      cipher =
+          actualDecryption(
+              itemAttributes, attributeFlags, schema, decryptionKey, encryptionMode, cipher);
     }
-    itemAttributes.remove(signatureFieldName);
 
-    String associatedData = "TABLE>" + context.getTableName() + "<TABLE";
-    signer.verifySignature(
-        itemAttributes,
-        attributeFlags,
-        associatedData.getBytes(UTF8),
-        materials.getVerificationKey(),
-        signature);
-    itemAttributes.remove(materialDescriptionFieldName);
+    /**
+     * Verifies {@code itemAttributes} and returns a view of it which decrypts each encrypted
+     * attribute when it is first read.
+     *
+     * @param schema the schema compiled from {@code attributeFlags}, or null
+     */
+    private LazyDecryptedRecord decryptLazily(
+        Map<String, AttributeValue> itemAttributes,
+        Map<String, Set<EncryptionFlags>> attributeFlags,
+        EncryptionSchema schema,
+        String tableName)
+        throws GeneralSecurityException {
+      verify(itemAttributes, attributeFlags, schema, tableName);
+      final Set<String> encryptedNames = new HashSet<>();
+      for (String name : itemAttributes.keySet()) {
+        int flags = getFlags(name, attributeFlags, schema);
+        if ((flags & EncryptionSchema.ENCRYPT) != 0) {
+          if ((flags & EncryptionSchema.SIGN) == 0) {
+            throw new IllegalArgumentException(
+                "All encrypted fields must be signed. Bad field: " + name);
+          }
+          encryptedNames.add(name);
+        }
+      }
+      return new LazyDecryptedRecord(
+          itemAttributes,
+          encryptedNames,
+          decryptionKey,
+          encryptionMode,
+          encryptedNames.isEmpty() || decryptionKey instanceof DelegatedKey
+              ? -1
+              : getBlockSize(encryptionMode),
+          sliceDecryptedBinaryValues);
+    }
 
-    actualDecryption(itemAttributes, attributeFlags, decryptionKey, materialDescription);
-    return itemAttributes;
+    /**
+     * Verifies the signature of {@code itemAttributes} and removes the signature and material
+     * description from it.
+     */
+    private void verify(
+        Map<String, AttributeValue> itemAttributes,
+        Map<String, Set<EncryptionFlags>> attributeFlags,
+        EncryptionSchema schema,
+        String tableName)
+        throws GeneralSecurityException {
+      ByteBuffer signature;
+      if (!itemAttributes.containsKey(signatureFieldName)
+          || itemAttributes.get(signatureFieldName).getB() == null) {
+        signature = ByteBuffer.allocate(0);
+      } else {
+        signature = itemAttributes.get(signatureFieldName).getB().asReadOnlyBuffer();
+      }
+      itemAttributes.remove(signatureFieldName);
+
+      if (schema != null) {
+        signer.verifySignature(
+            itemAttributes, schema, tableName, materials.getVerificationKey(), signature);
+      } else {
+        signer.verifySignature(
+            itemAttributes,
+            attributeFlags,
+            tableAssociatedData(tableName),
+            materials.getVerificationKey(),
+            signature);
+      }
+      itemAttributes.remove(materialDescriptionFieldName);
+    }
   }
 
   private boolean itemContainsFieldsToDecryptOrSign(
@@ -298,6 +807,38 @@ public class DynamoDBEncryptor {
         .anyMatch(attributeName -> !attributeFlags.get(attributeName).isEmpty());
   }
 
+  private boolean itemContainsFieldsToDecryptOrSign(
+      Set<String> attributeNamesToCheck, EncryptionSchema schema) {
+    if (!schema.touchesAnyAttribute()) {
+      return false;
+    }
+    for (String attributeName : attributeNamesToCheck) {
+      if (schema.getFlags(attributeName) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the flags of {@code attributeName} as a bitmask of {@link EncryptionSchema#SIGN} and
+   * {@link EncryptionSchema#ENCRYPT}, taken from {@code schema} if it is not null.
+   */
+  private static int getFlags(
+      String attributeName,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema) {
+    if (schema != null) {
+      return schema.getFlags(attributeName);
+    }
+    Set<EncryptionFlags> flags = attributeFlags.get(attributeName);
+    if (flags == null) {
+      return 0;
+    }
+    return (flags.contains(EncryptionFlags.SIGN) ? EncryptionSchema.SIGN : 0)
+        | (flags.contains(EncryptionFlags.ENCRYPT) ? EncryptionSchema.ENCRYPT : 0);
+  }
+
   /**
    * Returns the encrypted (and signed) record, which is a map of item attributes. There is no side
    * effect on the input parameters upon calling this method.
@@ -316,10 +857,189 @@ public class DynamoDBEncryptor {
     if (attributeFlags.isEmpty()) {
       return itemAttributes;
     }
+    return encryptRecord(itemAttributes, attributeFlags, null, context);
+  }
+
+  /**
+   * Returns the encrypted (and signed) record, exactly as {@link #encryptRecord(Map, Map,
+   * EncryptionContext)} would for the attribute flags {@code schema} was compiled from. There is
+   * no side effect on the input parameters upon calling this method.
+   *
+   * @param itemAttributes the input record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @return a new instance of item attributes encrypted as necessary
+   * @throws GeneralSecurityException if failed to encrypt the record
+   */
+  public Map<String, AttributeValue> encryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    if (schema.getAttributeFlags().isEmpty()) {
+      return itemAttributes;
+    }
+    return encryptRecord(itemAttributes, schema.getAttributeFlags(), schema, context);
+  }
+
+  /** @param schema the schema compiled from {@code attributeFlags}, or null */
+  private Map<String, AttributeValue> encryptRecord(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
+      EncryptionContext context)
+      throws GeneralSecurityException {
     // Copy to avoid changing anyone elses objects
     itemAttributes = new HashMap<String, AttributeValue>(itemAttributes);
 
-    // Copy the attribute values into the context
+    context = buildEncryptionContext(itemAttributes, context);
+    EncryptionMaterials materials = encryptionMaterialsProvider.getEncryptionMaterials(context);
+    new RecordEncryptor(materials, context.getTableName())
+        .encrypt(itemAttributes, attributeFlags, schema);
+    return itemAttributes;
+  }
+
+  /**
+   * Asynchronously encrypts and signs the provided record, exactly as {@link #encryptRecord(Map,
+   * Map, EncryptionContext)} would. The encryption materials are requested with {@link
+   * AsyncEncryptionMaterialsProvider#getEncryptionMaterialsAsync(EncryptionContext)} if the
+   * provider supports it, and otherwise by calling the provider on an executor which tolerates
+   * blocked threads. The record is then encrypted and signed on the {@link
+   * #setAsyncExecutor(Executor) asynchronous executor}.
+   *
+   * @param itemAttributes the input record
+   * @param attributeFlags the corresponding encryption flags
+   * @param context encryption context
+   * @return a future of a new instance of item attributes encrypted as necessary, which completes
+   *     exceptionally with a {@link GeneralSecurityException} if the record could not be encrypted
+   */
+  public CompletableFuture<Map<String, AttributeValue>> encryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context) {
+    if (attributeFlags.isEmpty()) {
+      return CompletableFuture.completedFuture(itemAttributes);
+    }
+    return encryptRecordAsync(itemAttributes, attributeFlags, null, context);
+  }
+
+  /**
+   * Asynchronously encrypts and signs the provided record, exactly as {@link
+   * #encryptRecordAsync(Map, Map, EncryptionContext)} would for the attribute flags {@code schema}
+   * was compiled from.
+   *
+   * @param itemAttributes the input record
+   * @param schema the precompiled attribute flags
+   * @param context encryption context
+   * @return a future of a new instance of item attributes encrypted as necessary
+   */
+  public CompletableFuture<Map<String, AttributeValue>> encryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      EncryptionContext context) {
+    if (schema.getAttributeFlags().isEmpty()) {
+      return CompletableFuture.completedFuture(itemAttributes);
+    }
+    return encryptRecordAsync(itemAttributes, schema.getAttributeFlags(), schema, context);
+  }
+
+  /** @param schema the schema compiled from {@code attributeFlags}, or null */
+  private CompletableFuture<Map<String, AttributeValue>> encryptRecordAsync(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
+      EncryptionContext context) {
+    final Executor executor = cryptoExecutor();
+    final Map<String, AttributeValue> item;
+    final EncryptionContext itemContext;
+    final CompletableFuture<EncryptionMaterials> materials;
+    try {
+      // Copy to avoid changing anyone elses objects
+      item = new HashMap<String, AttributeValue>(itemAttributes);
+      itemContext = buildEncryptionContext(item, context);
+      materials =
+          AsyncEncryptionMaterialsProvider.adapt(encryptionMaterialsProvider, providerExecutor())
+              .getEncryptionMaterialsAsync(itemContext);
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+    return materials.thenApplyAsync(
+        encryptionMaterials -> {
+          try {
+            new RecordEncryptor(encryptionMaterials, itemContext.getTableName())
+                .encrypt(item, attributeFlags, schema);
+          } catch (GeneralSecurityException ex) {
+            throw new CompletionException(ex);
+          }
+          return item;
+        },
+        executor);
+  }
+
+  /**
+   * Returns the encrypted (and signed) versions of the provided records, in the same order. There
+   * is no side effect on the input parameters upon calling this method.
+   *
+   * <p>If the {@link EncryptionMaterialsProvider} reports that its encryption materials may be
+   * reused across records (see {@link
+   * EncryptionMaterialsProvider#isEncryptionMaterialsReusable()}), the materials are requested only
+   * once per table, for the first record written to it, and the resulting signer, cipher and
+   * material description are shared by every record written to that table. Otherwise each record
+   * is encrypted exactly as by {@link #encryptRecord(Map, Map, EncryptionContext)}. In both cases,
+   * each encrypted record has the same format as one produced by {@link #encryptRecord(Map, Map,
+   * EncryptionContext)}, including the table it is signed for, which an {@link
+   * #setEncryptionContextOverrideOperator override operator} may choose per record.
+   *
+   * @param items the input records
+   * @param attributeFlags the encryption flags, which apply to every record
+   * @param context encryption context, which applies to every record
+   * @return new instances of the records encrypted as necessary
+   * @throws GeneralSecurityException if failed to encrypt any of the records
+   */
+  public List<Map<String, AttributeValue>> encryptRecords(
+      List<Map<String, AttributeValue>> items,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionContext context)
+      throws GeneralSecurityException {
+    final List<Map<String, AttributeValue>> result =
+        new ArrayList<Map<String, AttributeValue>>(items.size());
+    if (items.isEmpty() || !encryptionMaterialsProvider.isEncryptionMaterialsReusable()) {
+      for (Map<String, AttributeValue> item : items) {
+        result.add(encryptRecord(item, attributeFlags, context));
+      }
+      return result;
+    }
+    if (attributeFlags.isEmpty()) {
+      result.addAll(items);
+      return result;
+    }
+
+    // Keyed by table name, as the override operator may map records to different tables
+    final Map<String, RecordEncryptor> encryptors = new HashMap<>();
+    RecordEncryptor recordEncryptor = null;
+    for (Map<String, AttributeValue> item : items) {
+      // Copy to avoid changing anyone elses objects
+      final Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>(item);
+      if (recordEncryptor == null || getEncryptionContextOverrideOperator() != null) {
+        final EncryptionContext itemContext = buildEncryptionContext(itemAttributes, context);
+        recordEncryptor = encryptors.get(itemContext.getTableName());
+        if (recordEncryptor == null) {
+          recordEncryptor =
+              new RecordEncryptor(
+                  encryptionMaterialsProvider.getEncryptionMaterials(itemContext),
+                  itemContext.getTableName());
+          encryptors.put(itemContext.getTableName(), recordEncryptor);
+        }
+      }
+      recordEncryptor.encrypt(itemAttributes, attributeFlags, null);
+      result.add(itemAttributes);
+    }
+    return result;
+  }
+
+  /** Copies the attribute values into the context and applies any override operator. */
+  private EncryptionContext buildEncryptionContext(
+      Map<String, AttributeValue> itemAttributes, EncryptionContext context) {
     context = new EncryptionContext.Builder(context).withAttributeValues(itemAttributes).build();
 
     Function<EncryptionContext, EncryptionContext> encryptionContextOverrideOperator =
@@ -327,90 +1047,180 @@ public class DynamoDBEncryptor {
     if (encryptionContextOverrideOperator != null) {
       context = encryptionContextOverrideOperator.apply(context);
     }
+    return context;
+  }
 
-    EncryptionMaterials materials = encryptionMaterialsProvider.getEncryptionMaterials(context);
-    // We need to copy this because we modify it to record other encryption details
-    Map<String, String> materialDescription =
-        new HashMap<String, String>(materials.getMaterialDescription());
-    SecretKey encryptionKey = materials.getEncryptionKey();
-
-    actualEncryption(itemAttributes, attributeFlags, materialDescription, encryptionKey);
-
-    // The description must be stored after encryption because its data
-    // is necessary for proper decryption.
-    final String signingAlgo = materialDescription.get(signingAlgorithmHeader);
-    DynamoDBSigner signer;
-    if (signingAlgo != null) {
-      signer = DynamoDBSigner.getInstance(signingAlgo, Utils.getRng());
-    } else {
-      signer = DynamoDBSigner.getInstance(DEFAULT_SIGNATURE_ALGORITHM, Utils.getRng());
-    }
+  /**
+   * Encrypts and signs records using a single set of {@link EncryptionMaterials}. Everything which
+   * depends only on the materials (the signer, the cipher, the marshalled material description and
+   * the associated data) is computed once and reused for each record.
+   */
+  private final class RecordEncryptor {
+    private final EncryptionMaterials materials;
+    private final SecretKey encryptionKey;
+    private final String encryptionMode;
+    private final DynamoDBSigner signer;
+    private final String tableName;
+    private final byte[] associatedData;
+    private final ByteBuffer materialDescription;
+    private Cipher cipher;
 
-    if (materials.getSigningKey() instanceof PrivateKey) {
-      materialDescription.put(signingAlgorithmHeader, signer.getSigningAlgorithm());
-    }
-    if (!materialDescription.isEmpty()) {
-      itemAttributes.put(materialDescriptionFieldName, marshallDescription(materialDescription));
+    private RecordEncryptor(EncryptionMaterials materials, String tableName) {
+      this.materials = materials;
+      this.encryptionKey = materials.getEncryptionKey();
+
+      // We need to copy this because we modify it to record other encryption details
+      Map<String, String> description =
+          new HashMap<String, String>(materials.getMaterialDescription());
+      if (encryptionKey != null) {
+        description.put(symmetricEncryptionModeHeader, SYMMETRIC_ENCRYPTION_MODE);
+        encryptionMode = encryptionKey.getAlgorithm() + SYMMETRIC_ENCRYPTION_MODE;
+      } else {
+        encryptionMode = null;
+      }
+
+      final String signingAlgo = description.get(signingAlgorithmHeader);
+      if (signingAlgo != null) {
+        signer = DynamoDBSigner.getInstance(signingAlgo, Utils.getRng());
+      } else {
+        signer = DynamoDBSigner.getInstance(DEFAULT_SIGNATURE_ALGORITHM, Utils.getRng());
+      }
+
+      if (materials.getSigningKey() instanceof PrivateKey) {
+        description.put(signingAlgorithmHeader, signer.getSigningAlgorithm());
+      }
+      materialDescription =
+          description.isEmpty() ? null : marshallDescription(description).getB();
+
+      this.tableName = tableName;
+      this.associatedData = tableAssociatedData(tableName);
     }
 
-    String associatedData = "TABLE>" + context.getTableName() + "<TABLE";
-    byte[] signature =
-        signer.calculateSignature(
-            itemAttributes,
-            attributeFlags,
-            associatedData.getBytes(UTF8),
-            materials.getSigningKey());
+    /**
+     * Encrypts and signs {@code itemAttributes} in place.
+     *
+     * @param schema the schema compiled from {@code attributeFlags}, or null
+     */
+    private void encrypt(
+        Map<String, AttributeValue> itemAttributes,
+        Map<String, Set<EncryptionFlags>> attributeFlags,
+        EncryptionSchema schema)
+        throws GeneralSecurityException {
+      // Keys which may not be safe to use concurrently are only used by the calling thread
+      Map<AttributeValue, byte[]> valueDigests = null;
+      if (parallelExecutor != null && !(encryptionKey instanceof DelegatedKey)) {
+        valueDigests =
+            parallelEncryption(
+                itemAttributes, attributeFlags, schema, encryptionKey, encryptionMode);
+      }
+      if (valueDigests == null) {
+        cipher =
+            actualEncryption(
+                itemAttributes, attributeFlags, schema, encryptionKey, encryptionMode, cipher);
+      }
 
-    AttributeValue signatureAttribute = new AttributeValue();
-    signatureAttribute.setB(ByteBuffer.wrap(signature));
-    itemAttributes.put(signatureFieldName, signatureAttribute);
+      // The description must be stored after encryption because its data
+      // is necessary for proper decryption.
+      if (materialDescription != null) {
+        itemAttributes.put(
+            materialDescriptionFieldName,
+            new AttributeValue().withB(materialDescription.duplicate()));
+      }
 
-    return itemAttributes;
+      byte[] signature =
+          schema != null
+              ? signer.calculateSignature(
+                  itemAttributes, schema, tableName, materials.getSigningKey(), valueDigests)
+              : signer.calculateSignature(
+                  itemAttributes,
+                  attributeFlags,
+                  associatedData,
+                  materials.getSigningKey(),
+                  valueDigests);
+
+      AttributeValue signatureAttribute = new AttributeValue();
+      signatureAttribute.setB(ByteBuffer.wrap(signature));
+      itemAttributes.put(signatureFieldName, signatureAttribute);
+    }
   }
 
-  private void actualDecryption(
+  /**
+   * Replaces the ciphertext attribute-values of "itemAttributes" with the plaintext
+   * attribute-values as per the corresponding attribute flags.
+   *
+   * @param schema the schema compiled from {@code attributeFlags}, or null
+   * @param cipher a cipher for {@code encryptionMode} which may be reused, or null
+   * @return the cipher used, so that callers decrypting several records may reuse it
+   */
+  private Cipher actualDecryption(
       Map<String, AttributeValue> itemAttributes,
       Map<String, Set<EncryptionFlags>> attributeFlags,
+      EncryptionSchema schema,
       SecretKey encryptionKey,
-      Map<String, String> materialDescription)
+      String encryptionMode,
+      Cipher cipher)
       throws GeneralSecurityException {
-    final String encryptionMode =
-        encryptionKey != null
-            ? encryptionKey.getAlgorithm() + materialDescription.get(symmetricEncryptionModeHeader)
-            : null;
-    Cipher cipher = null;
     int blockSize = -1;
 
     for (Map.Entry<String, AttributeValue> entry : itemAttributes.entrySet()) {
-      Set<EncryptionFlags> flags = attributeFlags.get(entry.getKey());
-      if (flags != null && flags.contains(EncryptionFlags.ENCRYPT)) {
-        if (!flags.contains(EncryptionFlags.SIGN)) {
+      int flags = getFlags(entry.getKey(), attributeFlags, schema);
+      if ((flags & EncryptionSchema.ENCRYPT) != 0) {
+        if ((flags & EncryptionSchema.SIGN) == 0) {
           throw new IllegalArgumentException(
               "All encrypted fields must be signed. Bad field: " + entry.getKey());
         }
-        ByteBuffer plainText;
-        ByteBuffer cipherText = entry.getValue().getB().asReadOnlyBuffer();
-        cipherText.rewind();
-        if (encryptionKey instanceof DelegatedKey) {
-          plainText =
-              ByteBuffer.wrap(
-                  ((DelegatedKey) encryptionKey)
-                      .decrypt(toByteArray(cipherText), null, encryptionMode));
-        } else {
-          if (cipher == null) {
+        if (!(encryptionKey instanceof DelegatedKey)) {
+          if (blockSize < 0) {
             blockSize = getBlockSize(encryptionMode);
+          }
+          if (cipher == null) {
             cipher = Cipher.getInstance(encryptionMode);
           }
-          byte[] iv = new byte[blockSize];
-          cipherText.get(iv);
-          cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new IvParameterSpec(iv), Utils.getRng());
-          plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
-          cipher.doFinal(cipherText, plainText);
-          plainText.rewind();
         }
-        entry.setValue(AttributeValueMarshaller.unmarshall(plainText));
+        entry.setValue(
+            decryptValue(
+                entry.getValue(),
+                encryptionKey,
+                encryptionMode,
+                blockSize,
+                cipher,
+                sliceDecryptedBinaryValues));
       }
     }
+    return cipher;
+  }
+
+  /**
+   * Decrypts and unmarshalls a single encrypted attribute value.
+   *
+   * @param blockSize the block size of {@code encryptionMode}, unused for a {@link DelegatedKey}
+   * @param cipher a cipher for {@code encryptionMode}, unused for a {@link DelegatedKey}
+   */
+  static AttributeValue decryptValue(
+      AttributeValue encrypted,
+      SecretKey encryptionKey,
+      String encryptionMode,
+      int blockSize,
+      Cipher cipher,
+      boolean sliceDecryptedBinaryValues)
+      throws GeneralSecurityException {
+    ByteBuffer plainText;
+    ByteBuffer cipherText = encrypted.getB().asReadOnlyBuffer();
+    cipherText.rewind();
+    if (encryptionKey instanceof DelegatedKey) {
+      plainText =
+          ByteBuffer.wrap(
+              ((DelegatedKey) encryptionKey)
+                  .decrypt(toByteArray(cipherText), null, encryptionMode));
+    } else {
+      byte[] iv = new byte[blockSize];
+      cipherText.get(iv);
+      cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new IvParameterSpec(iv), Utils.getRng());
+      plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
+      cipher.doFinal(cipherText, plainText);
+      plainText.rewind();
+    }
+    return AttributeValueMarshaller.unmarshall(plainText, sliceDecryptedBinaryValues);
   }
 
   protected static int getBlockSize(final String encryptionMode) {
@@ -421,59 +1231,155 @@ public class DynamoDBEncryptor {
    * This method has the side effect of replacing the plaintext attribute-values of "itemAttributes"
    * with ciphertext attribute-values (which are always in the form of ByteBuffer) as per the
    * corresponding attribute flags.
+   *
+   * @param schema the schema compiled from {@code attributeFlags}, or null
+   * @param cipher a cipher for {@code encryptionMode} which may be reused, or null
+   * @return the cipher used, so that callers encrypting several records may reuse it
    */
-  private void actualEncryption(
+  private Cipher actualEncryption(
       Map<String, AttributeValue> itemAttributes,
       Map<String, Set<EncryptionFlags>> attributeFlags,
-      Map<String, String> materialDescription,
-      SecretKey encryptionKey)
+      EncryptionSchema schema,
+      SecretKey encryptionKey,
+      String encryptionMode,
+      Cipher cipher)
       throws GeneralSecurityException {
-    String encryptionMode = null;
-    if (encryptionKey != null) {
-      materialDescription.put(this.symmetricEncryptionModeHeader, SYMMETRIC_ENCRYPTION_MODE);
-      encryptionMode = encryptionKey.getAlgorithm() + SYMMETRIC_ENCRYPTION_MODE;
-    }
-    Cipher cipher = null;
     int blockSize = -1;
 
     for (Map.Entry<String, AttributeValue> entry : itemAttributes.entrySet()) {
-      Set<EncryptionFlags> flags = attributeFlags.get(entry.getKey());
-      if (flags != null && flags.contains(EncryptionFlags.ENCRYPT)) {
-        if (!flags.contains(EncryptionFlags.SIGN)) {
+      int flags = getFlags(entry.getKey(), attributeFlags, schema);
+      if ((flags & EncryptionSchema.ENCRYPT) != 0) {
+        if ((flags & EncryptionSchema.SIGN) == 0) {
           throw new IllegalArgumentException(
               "All encrypted fields must be signed. Bad field: " + entry.getKey());
         }
-        ByteBuffer plainText = AttributeValueMarshaller.marshall(entry.getValue());
-        plainText.rewind();
         ByteBuffer cipherText;
         if (encryptionKey instanceof DelegatedKey) {
           DelegatedKey dk = (DelegatedKey) encryptionKey;
+          ByteBuffer plainText = AttributeValueMarshaller.marshall(entry.getValue());
           cipherText = ByteBuffer.wrap(dk.encrypt(toByteArray(plainText), null, encryptionMode));
         } else {
-          if (cipher == null) {
+          if (blockSize < 0) {
             blockSize = getBlockSize(encryptionMode);
-            cipher = Cipher.getInstance(encryptionMode);
           }
-          // Encryption format: <iv><ciphertext>
-          // Note a unique iv is generated per attribute
-          cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, Utils.getRng());
-          cipherText = ByteBuffer.allocate(blockSize + cipher.getOutputSize(plainText.remaining()));
-          cipherText.position(blockSize);
-          cipher.doFinal(plainText, cipherText);
-          cipherText.flip();
-          final byte[] iv = cipher.getIV();
-          if (iv.length != blockSize) {
-            throw new IllegalStateException(
-                String.format(
-                    "Generated IV length (%d) not equal to block size (%d)", iv.length, blockSize));
+          if (cipher == null) {
+            cipher = Cipher.getInstance(encryptionMode);
           }
-          cipherText.put(iv);
-          cipherText.rewind();
+          cipherText =
+              encryptValue(
+                  entry.getValue(),
+                  AttributeValueMarshaller.getMarshalledLength(entry.getValue()),
+                  encryptionKey,
+                  blockSize,
+                  cipher);
         }
         // Replace the plaintext attribute value with the encrypted content
         entry.setValue(new AttributeValue().withB(cipherText));
       }
     }
+    return cipher;
+  }
+
+  /**
+   * Encrypts a single attribute value with {@code cipher}, which must not be a {@link
+   * DelegatedKey} cipher.
+   *
+   * @param plainTextLength the marshalled length of {@code value}
+   */
+  private static ByteBuffer encryptValue(
+      AttributeValue value,
+      int plainTextLength,
+      SecretKey encryptionKey,
+      int blockSize,
+      Cipher cipher)
+      throws GeneralSecurityException {
+    // Encryption format: <iv><ciphertext>
+    // Note a unique iv is generated per attribute
+    cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, Utils.getRng());
+    final byte[] iv = cipher.getIV();
+    if (iv.length != blockSize) {
+      throw new IllegalStateException(
+          String.format(
+              "Generated IV length (%d) not equal to block size (%d)", iv.length, blockSize));
+    }
+    // The plaintext is marshalled directly after the iv and encrypted in place
+    final int bufferLength = Math.max(plainTextLength, cipher.getOutputSize(plainTextLength));
+    final byte[] buffer = new byte[blockSize + bufferLength];
+    AttributeValueMarshaller.marshall(value, buffer, blockSize);
+    final int cipherTextLength =
+        cipher.doFinal(buffer, blockSize, plainTextLength, buffer, blockSize);
+    System.arraycopy(iv, 0, buffer, 0, blockSize);
+    return ByteBuffer.wrap(buffer, 0, blockSize + cipherTextLength);
+  }
+
+  /**
+   * Encrypts the attributes of {@code itemAttributes} in place as {@link #actualEncryption} does,
+   * but with each signed attribute marshalled, encrypted if necessary and digested by a separate
+   * task on the {@link #getParallelExecutor() parallel executor}. Does nothing and returns null if
+   * the signed attributes are smaller than the {@link #getParallelThreshold() threshold} in total,
+   * or if there are fewer than two of them.
+   *
+   * @return the digests of the signed attribute values, for {@link
+   *     DynamoDBSigner#calculateSignature(Map, Map, byte[], Key, Map)}, or null
+   */
+  private Map<AttributeValue, byte[]> parallelEncryption(
+      final Map<String, AttributeValue> itemAttributes,
+      final Map<String, Set<EncryptionFlags>> attributeFlags,
+      final EncryptionSchema schema,
+      final SecretKey encryptionKey,
+      final String encryptionMode)
+      throws GeneralSecurityException {
+    final List<Map.Entry<String, AttributeValue>> signed = new ArrayList<>();
+    final List<Boolean> encrypted = new ArrayList<>();
+    // Each length is computed once, for both the threshold and encryption
+    final int[] lengths = new int[itemAttributes.size()];
+    long totalLength = 0;
+    for (Map.Entry<String, AttributeValue> entry : itemAttributes.entrySet()) {
+      int flags = getFlags(entry.getKey(), attributeFlags, schema);
+      if ((flags & EncryptionSchema.ENCRYPT) != 0 && (flags & EncryptionSchema.SIGN) == 0) {
+        throw new IllegalArgumentException(
+            "All encrypted fields must be signed. Bad field: " + entry.getKey());
+      }
+      if ((flags & EncryptionSchema.SIGN) != 0) {
+        final int length = AttributeValueMarshaller.getMarshalledLength(entry.getValue());
+        lengths[signed.size()] = length;
+        signed.add(entry);
+        encrypted.add((flags & EncryptionSchema.ENCRYPT) != 0);
+        totalLength += length;
+      }
+    }
+    if (signed.size() < 2 || totalLength < parallelThreshold) {
+      return null;
+    }
+
+    final int blockSize = encrypted.contains(true) ? getBlockSize(encryptionMode) : -1;
+    final AttributeValue[] values = new AttributeValue[signed.size()];
+    final byte[][] digests = new byte[signed.size()][];
+    final List<ParallelTasks.Task> tasks = new ArrayList<>(signed.size());
+    for (int i = 0; i < signed.size(); i++) {
+      final int index = i;
+      tasks.add(
+          () -> {
+            AttributeValue value = signed.get(index).getValue();
+            if (encrypted.get(index)) {
+              final Cipher cipher = Cipher.getInstance(encryptionMode);
+              value =
+                  new AttributeValue()
+                      .withB(
+                          encryptValue(value, lengths[index], encryptionKey, blockSize, cipher));
+            }
+            values[index] = value;
+            digests[index] = DynamoDBSigner.calculateValueDigest(value);
+          });
+    }
+    ParallelTasks.runAll(parallelExecutor, tasks);
+
+    final Map<AttributeValue, byte[]> result = new IdentityHashMap<>(signed.size());
+    for (int i = 0; i < values.length; i++) {
+      signed.get(i).setValue(values[i]);
+      result.put(values[i], digests[i]);
+    }
+    return result;
   }
 
   /**
@@ -515,6 +1421,150 @@ public class DynamoDBEncryptor {
     this.materialDescriptionFieldName = materialDescriptionFieldName;
   }
 
+  /**
+   * Returns whether decrypted binary attributes share the buffer they were decrypted into.
+   *
+   * @see #setSliceDecryptedBinaryValues(boolean)
+   */
+  public boolean isSliceDecryptedBinaryValues() {
+    return sliceDecryptedBinaryValues;
+  }
+
+  /**
+   * If true, decrypted binary (B and BS) attribute values are returned as read-only views of the
+   * buffer they were decrypted into, rather than as copies. This halves the memory needed to
+   * decrypt records with large binary attributes. Callers must then not use {@link
+   * ByteBuffer#array()} on these values, and should read them through the ByteBuffer instead.
+   * Defaults to false.
+   *
+   * @param sliceDecryptedBinaryValues whether to return views instead of copies
+   */
+  public void setSliceDecryptedBinaryValues(final boolean sliceDecryptedBinaryValues) {
+    this.sliceDecryptedBinaryValues = sliceDecryptedBinaryValues;
+  }
+
+  /**
+   * Returns the executor used to encrypt and digest the attributes of large records in parallel,
+   * or null if they are processed one at a time.
+   *
+   * @see #setParallelExecutor(Executor)
+   */
+  public Executor getParallelExecutor() {
+    return parallelExecutor;
+  }
+
+  /**
+   * If not null, the signed attributes of records whose signed attributes are at least {@link
+   * #getParallelThreshold()} bytes in total are each marshalled, encrypted and digested by a
+   * separate task on {@code parallelExecutor}, such as a {@link
+   * java.util.concurrent.ForkJoinPool}. The calling thread takes part, and runs any task which the
+   * executor has not started by the time it is free. The encrypted records are identical to those
+   * encrypted one attribute at a time, apart from the randomly generated IVs. Records encrypted
+   * with a {@link DelegatedKey} are always processed one attribute at a time. Defaults to null.
+   *
+   * @param parallelExecutor the executor to use, or null to process attributes serially
+   */
+  public void setParallelExecutor(final Executor parallelExecutor) {
+    this.parallelExecutor = parallelExecutor;
+  }
+
+  /**
+   * Returns the executor on which the asynchronous methods, such as {@link
+   * #encryptRecordAsync(Map, Map, EncryptionContext)}, do their work, or null if they use the
+   * default executors.
+   *
+   * @see #setAsyncExecutor(Executor)
+   */
+  public Executor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * Sets the executor on which the asynchronous methods encrypt, decrypt, sign and verify records.
+   *
+   * <p>Providers which do not implement {@link AsyncEncryptionMaterialsProvider} are also called on
+   * this executor, and each such call blocks a thread of the executor for as long as the provider
+   * takes, including any remote call it makes to KMS or to a {@link
+   * com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore}. The
+   * executor should therefore have enough threads to tolerate them being blocked, and should not
+   * be {@link ForkJoinPool#commonPool()}, whose threads are shared by the whole JVM.
+   *
+   * <p>If no executor is set, records are processed on {@link ForkJoinPool#commonPool()}, and
+   * providers which are not asynchronous are called on a separate pool of {@value
+   * #DEFAULT_PROVIDER_THREADS} daemon threads, which is shared by all encryptors.
+   *
+   * @param asyncExecutor the executor to use, or null to use the default executors
+   */
+  public void setAsyncExecutor(final Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /** Returns the executor on which asynchronous methods process records. */
+  private Executor cryptoExecutor() {
+    final Executor executor = asyncExecutor;
+    return executor != null ? executor : ForkJoinPool.commonPool();
+  }
+
+  /** Returns the executor on which asynchronous methods call providers which may block. */
+  private Executor providerExecutor() {
+    final Executor executor = asyncExecutor;
+    return executor != null ? executor : DefaultProviderExecutor.INSTANCE;
+  }
+
+  /**
+   * Holds the default executor for calls to providers which are not asynchronous, which is only
+   * created once it is first needed. Its threads exit once idle for a minute.
+   */
+  private static final class DefaultProviderExecutor {
+    private static final Executor INSTANCE = create();
+
+    private static Executor create() {
+      final AtomicInteger threads = new AtomicInteger();
+      final ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              DEFAULT_PROVIDER_THREADS,
+              DEFAULT_PROVIDER_THREADS,
+              1,
+              TimeUnit.MINUTES,
+              new LinkedBlockingQueue<>(),
+              runnable -> {
+                final Thread thread =
+                    new Thread(
+                        runnable,
+                        "DynamoDBEncryptor-provider-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+
+  /**
+   * Returns the minimum total size, in marshalled bytes, of the signed attributes of a record for
+   * them to be processed in parallel.
+   *
+   * @see #setParallelThreshold(int)
+   */
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /**
+   * Sets the minimum total size, in marshalled bytes, of the signed attributes of a record for
+   * them to be processed on the {@link #setParallelExecutor(Executor) parallel executor}. Smaller
+   * records are processed one attribute at a time on the calling thread, as the cost of handing
+   * out the work would outweigh the gain. Defaults to 64 KiB.
+   *
+   * @param parallelThreshold the threshold in bytes
+   */
+  public void setParallelThreshold(final int parallelThreshold) {
+    if (parallelThreshold < 0) {
+      throw new IllegalArgumentException("parallelThreshold must not be negative");
+    }
+    this.parallelThreshold = parallelThreshold;
+  }
+
   /**
    * Marshalls the <code>description</code> into a ByteBuffer by outputting each key (modified
    * UTF-8) followed by its value (also in modified UTF-8).
@@ -546,14 +1596,69 @@ public class DynamoDBEncryptor {
     }
   }
 
+  /** Returns the associated data which binds the signature of a record to {@code tableName}. */
+  static byte[] tableAssociatedData(String tableName) {
+    return ("TABLE>" + tableName + "<TABLE").getBytes(UTF8);
+  }
+
   public String getSigningAlgorithmHeader() {
     return signingAlgorithmHeader;
   }
-  /** @see #marshallDescription(Map) */
+  /**
+   * Returns the parsed material description, which is immutable.
+   *
+   * @see #marshallDescription(Map)
+   */
   protected static Map<String, String> unmarshallDescription(AttributeValue attributeValue) {
-    attributeValue.getB().mark();
-    try (DataInputStream in =
-        new DataInputStream(new ByteBufferInputStream(attributeValue.getB()))) {
+    return MaterialDescriptionCache.immutableCopyOf(
+        parseDescription(attributeValue.getB().asReadOnlyBuffer()));
+  }
+
+  /**
+   * Returns the parsed material description of a record, which is shared by every record with the
+   * same description bytes while it remains in the {@link #getMaterialDescriptionCache() material
+   * description cache}.
+   */
+  private Map<String, String> cachedDescription(AttributeValue attributeValue) {
+    final MaterialDescriptionCache cache = descriptionCache;
+    if (cache == null) {
+      return unmarshallDescription(attributeValue);
+    }
+    return cache.get(attributeValue.getB(), DynamoDBEncryptor::parseDescription);
+  }
+
+  /**
+   * Returns the cache of the parsed material descriptions of the records decrypted by this
+   * encryptor, whose hit and miss counts show how often records share a description; or null if
+   * descriptions are not cached.
+   *
+   * @see #setMaterialDescriptionCacheSize(int)
+   */
+  public MaterialDescriptionCache getMaterialDescriptionCache() {
+    return descriptionCache;
+  }
+
+  /**
+   * Sets the maximum number of parsed material descriptions cached by this encryptor, replacing
+   * the existing cache. Records which share a description are then only parsed once while it is
+   * cached. The least recently used description is evicted when the cache is full, so a size of a
+   * few times the number of descriptions in use is enough. Descriptions which are unique to each
+   * record, such as those written by a {@link
+   * com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.DirectKmsMaterialProvider},
+   * never hit the cache, and it may be disabled for encryptors which only read such records.
+   * Defaults to 1024.
+   *
+   * @param maxSize the maximum number of descriptions to cache, or 0 to not cache them
+   */
+  public void setMaterialDescriptionCacheSize(final int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must not be negative");
+    }
+    descriptionCache = maxSize == 0 ? null : new MaterialDescriptionCache(maxSize);
+  }
+
+  private static Map<String, String> parseDescription(ByteBuffer description) {
+    try (DataInputStream in = new DataInputStream(new ByteBufferInputStream(description))) {
       Map<String, String> result = new HashMap<String, String>();
       int version = in.readInt();
       if (version != CURRENT_VERSION) {
@@ -585,8 +1690,6 @@ public class DynamoDBEncryptor {
     } catch (IOException ex) {
       // Due to the objects in use, an IOException is not possible.
       throw new RuntimeException("Unexpected exception", ex);
-    } finally {
-      attributeValue.getB().reset();
     }
   }
 
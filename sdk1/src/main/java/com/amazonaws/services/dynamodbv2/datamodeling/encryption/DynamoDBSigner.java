@@ -15,12 +15,13 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CryptoPrimitivePool;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.security.DigestException;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
@@ -53,6 +54,9 @@ class DynamoDBSigner {
       new ConcurrentHashMap<String, DynamoDBSigner>();
 
   protected static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int SHA256_LENGTH = 32;
+  private static final byte[] ENCRYPTED_DIGEST = sha256("ENCRYPTED");
+  private static final byte[] PLAINTEXT_DIGEST = sha256("PLAINTEXT");
   private final SecureRandom rnd;
   private final SecretKey hmacComparisonKey;
   private final String signingAlgorithm;
@@ -95,25 +99,44 @@ class DynamoDBSigner {
       Key verificationKey,
       ByteBuffer signature)
       throws GeneralSecurityException {
+    verifySignature(
+        sink -> writeStringToSign(itemAttributes, attributeFlags, associatedData, null, sink),
+        verificationKey,
+        signature);
+  }
+
+  /** Verifies the signature of a record using the precompiled {@code schema}. */
+  void verifySignature(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      String tableName,
+      Key verificationKey,
+      ByteBuffer signature)
+      throws GeneralSecurityException {
+    verifySignature(
+        sink -> writeStringToSign(itemAttributes, schema, tableName, null, sink),
+        verificationKey,
+        signature);
+  }
+
+  private void verifySignature(StringToSign source, Key verificationKey, ByteBuffer signature)
+      throws GeneralSecurityException {
     if (verificationKey instanceof DelegatedKey) {
       DelegatedKey dKey = (DelegatedKey) verificationKey;
-      byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+      byte[] stringToSign = bufferStringToSign(source);
       if (!dKey.verify(stringToSign, toByteArray(signature), dKey.getAlgorithm())) {
         throw new SignatureException("Bad signature");
       }
     } else if (verificationKey instanceof SecretKey) {
-      byte[] calculatedSig =
-          calculateSignature(
-              itemAttributes, attributeFlags, associatedData, (SecretKey) verificationKey);
+      byte[] calculatedSig = calculateSignature(source, (SecretKey) verificationKey);
       if (!safeEquals(signature, calculatedSig)) {
         throw new SignatureException("Bad signature");
       }
     } else if (verificationKey instanceof PublicKey) {
       PublicKey integrityKey = (PublicKey) verificationKey;
-      byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
       Signature sig = Signature.getInstance(getSigningAlgorithm());
       sig.initVerify(integrityKey);
-      sig.update(stringToSign);
+      source.writeTo(sig::update);
       if (!sig.verify(toByteArray(signature))) {
         throw new SignatureException("Bad signature");
       }
@@ -128,40 +151,146 @@ class DynamoDBSigner {
       byte[] associatedData)
       throws NoSuchAlgorithmException {
     try {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      List<String> attrNames = new ArrayList<String>(itemAttributes.keySet());
-      Collections.sort(attrNames);
-      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-      if (associatedData != null) {
-        out.write(sha256.digest(associatedData));
+      return bufferStringToSign(
+          sink -> writeStringToSign(itemAttributes, attributeFlags, associatedData, null, sink));
+    } catch (NoSuchAlgorithmException ex) {
+      throw ex;
+    } catch (GeneralSecurityException ex) {
+      // Due to the objects in use, no other GeneralSecurityException is possible.
+      throw new RuntimeException("Unexpected exception", ex);
+    }
+  }
+
+  /** Buffers the string to sign written by {@code source}. */
+  private static byte[] bufferStringToSign(StringToSign source) throws GeneralSecurityException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    source.writeTo(out::write);
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes the string to sign to {@code sink} one digest at a time, so that it can be fed directly
+   * into an initialized {@link Mac} or {@link Signature} without being buffered. The bytes written
+   * are exactly those returned by {@link #calculateStringToSign(Map, Map, byte[])}.
+   */
+  private static void writeStringToSign(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      byte[] associatedData,
+      Map<AttributeValue, byte[]> valueDigests,
+      StringToSignSink sink)
+      throws NoSuchAlgorithmException, SignatureException {
+    List<String> attrNames = new ArrayList<String>(itemAttributes.keySet());
+    Collections.sort(attrNames);
+    MessageDigest sha256 = CryptoPrimitivePool.getMessageDigest("SHA-256");
+    byte[] digest = new byte[SHA256_LENGTH];
+    if (associatedData != null) {
+      sha256.update(associatedData);
+    }
+    sink.write(digest, 0, finishDigest(sha256, digest));
+
+    for (String name : attrNames) {
+      Set<EncryptionFlags> set = attributeFlags.get(name);
+      if (set != null && set.contains(EncryptionFlags.SIGN)) {
+        AttributeValue tmp = itemAttributes.get(name);
+        sha256.update(name.getBytes(UTF8));
+        sink.write(digest, 0, finishDigest(sha256, digest));
+        if (set.contains(EncryptionFlags.ENCRYPT)) {
+          sink.write(ENCRYPTED_DIGEST, 0, ENCRYPTED_DIGEST.length);
+        } else {
+          sink.write(PLAINTEXT_DIGEST, 0, PLAINTEXT_DIGEST.length);
+        }
+
+        writeValueDigest(tmp, valueDigests, sha256, digest, sink);
+      }
+    }
+  }
+
+  /**
+   * Writes the same string to sign as {@link #writeStringToSign(Map, Map, byte[], Map,
+   * StringToSignSink)} would for the attribute flags of {@code schema} and the associated data of
+   * {@code tableName}, using the digests cached by the schema.
+   */
+  private static void writeStringToSign(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      String tableName,
+      Map<AttributeValue, byte[]> valueDigests,
+      StringToSignSink sink)
+      throws NoSuchAlgorithmException, SignatureException {
+    byte[] tableDigest = schema.getTableDigest(tableName);
+    sink.write(tableDigest, 0, tableDigest.length);
+
+    MessageDigest sha256 = null;
+    byte[] digest = null;
+    String[] signedNames = schema.getSignedNames();
+    for (int i = 0; i < signedNames.length; i++) {
+      AttributeValue tmp = itemAttributes.get(signedNames[i]);
+      if (tmp == null && !itemAttributes.containsKey(signedNames[i])) {
+        continue;
+      }
+      byte[] nameDigest = schema.getSignedNameDigest(i);
+      sink.write(nameDigest, 0, nameDigest.length);
+      if (schema.isSignedNameEncrypted(i)) {
+        sink.write(ENCRYPTED_DIGEST, 0, ENCRYPTED_DIGEST.length);
       } else {
-        out.write(sha256.digest());
+        sink.write(PLAINTEXT_DIGEST, 0, PLAINTEXT_DIGEST.length);
       }
-      sha256.reset();
-
-      for (String name : attrNames) {
-        Set<EncryptionFlags> set = attributeFlags.get(name);
-        if (set != null && set.contains(EncryptionFlags.SIGN)) {
-          AttributeValue tmp = itemAttributes.get(name);
-          out.write(sha256.digest(name.getBytes(UTF8)));
-          sha256.reset();
-          if (set.contains(EncryptionFlags.ENCRYPT)) {
-            sha256.update("ENCRYPTED".getBytes(UTF8));
-          } else {
-            sha256.update("PLAINTEXT".getBytes(UTF8));
-          }
-          out.write(sha256.digest());
-
-          sha256.reset();
-
-          sha256.update(AttributeValueMarshaller.marshall(tmp));
-          out.write(sha256.digest());
-          sha256.reset();
-        }
+
+      if (sha256 == null) {
+        sha256 = CryptoPrimitivePool.getMessageDigest("SHA-256");
+        digest = new byte[SHA256_LENGTH];
       }
-      return out.toByteArray();
-    } catch (IOException ex) {
-      // Due to the objects in use, an IOException is not possible.
+      writeValueDigest(tmp, valueDigests, sha256, digest, sink);
+    }
+  }
+
+  /**
+   * Writes the digest of {@code value}, taking it from {@code valueDigests} if that has an entry
+   * for this very instance and calculating it with {@code sha256} otherwise.
+   */
+  private static void writeValueDigest(
+      AttributeValue value,
+      Map<AttributeValue, byte[]> valueDigests,
+      MessageDigest sha256,
+      byte[] digest,
+      StringToSignSink sink)
+      throws SignatureException {
+    final byte[] precalculated = valueDigests != null ? valueDigests.get(value) : null;
+    if (precalculated != null) {
+      sink.write(precalculated, 0, precalculated.length);
+    } else {
+      AttributeValueMarshaller.marshall(value, sha256);
+      sink.write(digest, 0, finishDigest(sha256, digest));
+    }
+  }
+
+  /**
+   * Returns the digest of {@code value} as it appears in the string to sign. Callers may calculate
+   * these in advance, on any thread, and pass them to {@link #calculateSignature(Map,
+   * EncryptionSchema, String, Key, Map)}.
+   */
+  static byte[] calculateValueDigest(AttributeValue value) throws NoSuchAlgorithmException {
+    MessageDigest sha256 = CryptoPrimitivePool.getMessageDigest("SHA-256");
+    AttributeValueMarshaller.marshall(value, sha256);
+    return sha256.digest();
+  }
+
+  /** Completes {@code sha256} into {@code digest}, which also resets it for the next use. */
+  private static int finishDigest(MessageDigest sha256, byte[] digest) {
+    try {
+      return sha256.digest(digest, 0, digest.length);
+    } catch (DigestException ex) {
+      // The buffer is always large enough for a SHA-256 digest.
+      throw new RuntimeException("Unexpected exception", ex);
+    }
+  }
+
+  private static byte[] sha256(String value) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF8));
+    } catch (NoSuchAlgorithmException ex) {
+      // SHA-256 is required to be supported by every Java platform.
       throw new RuntimeException("Unexpected exception", ex);
     }
   }
@@ -173,12 +302,62 @@ class DynamoDBSigner {
       byte[] associatedData,
       Key key)
       throws GeneralSecurityException {
+    return calculateSignature(itemAttributes, attributeFlags, associatedData, key, null);
+  }
+
+  /**
+   * Signs a record some of whose attribute values have already been digested by {@link
+   * #calculateValueDigest(AttributeValue)}.
+   *
+   * @param valueDigests the digests of some of the attribute values, keyed by identity, or null
+   */
+  byte[] calculateSignature(
+      Map<String, AttributeValue> itemAttributes,
+      Map<String, Set<EncryptionFlags>> attributeFlags,
+      byte[] associatedData,
+      Key key,
+      Map<AttributeValue, byte[]> valueDigests)
+      throws GeneralSecurityException {
+    return calculateSignature(
+        sink ->
+            writeStringToSign(itemAttributes, attributeFlags, associatedData, valueDigests, sink),
+        key);
+  }
+
+  /** Signs a record using the precompiled {@code schema}. */
+  byte[] calculateSignature(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      String tableName,
+      Key key)
+      throws GeneralSecurityException {
+    return calculateSignature(itemAttributes, schema, tableName, key, null);
+  }
+
+  /**
+   * Signs a record using the precompiled {@code schema}, where some of the attribute values have
+   * already been digested by {@link #calculateValueDigest(AttributeValue)}.
+   *
+   * @param valueDigests the digests of some of the attribute values, keyed by identity, or null
+   */
+  byte[] calculateSignature(
+      Map<String, AttributeValue> itemAttributes,
+      EncryptionSchema schema,
+      String tableName,
+      Key key,
+      Map<AttributeValue, byte[]> valueDigests)
+      throws GeneralSecurityException {
+    return calculateSignature(
+        sink -> writeStringToSign(itemAttributes, schema, tableName, valueDigests, sink), key);
+  }
+
+  private byte[] calculateSignature(StringToSign source, Key key) throws GeneralSecurityException {
     if (key instanceof DelegatedKey) {
-      return calculateSignature(itemAttributes, attributeFlags, associatedData, (DelegatedKey) key);
+      return calculateSignature(source, (DelegatedKey) key);
     } else if (key instanceof SecretKey) {
-      return calculateSignature(itemAttributes, attributeFlags, associatedData, (SecretKey) key);
+      return calculateSignature(source, (SecretKey) key);
     } else if (key instanceof PrivateKey) {
-      return calculateSignature(itemAttributes, attributeFlags, associatedData, (PrivateKey) key);
+      return calculateSignature(source, (PrivateKey) key);
     } else {
       throw new IllegalArgumentException("No integrity key provided");
     }
@@ -190,8 +369,9 @@ class DynamoDBSigner {
       byte[] associatedData,
       DelegatedKey key)
       throws GeneralSecurityException {
-    byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
-    return key.sign(stringToSign, key.getAlgorithm());
+    return calculateSignature(
+        sink -> writeStringToSign(itemAttributes, attributeFlags, associatedData, null, sink),
+        key);
   }
 
   byte[] calculateSignature(
@@ -200,14 +380,9 @@ class DynamoDBSigner {
       byte[] associatedData,
       SecretKey key)
       throws GeneralSecurityException {
-    if (key instanceof DelegatedKey) {
-      return calculateSignature(itemAttributes, attributeFlags, associatedData, (DelegatedKey) key);
-    }
-    byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
-    Mac hmac = Mac.getInstance(key.getAlgorithm());
-    hmac.init(key);
-    hmac.update(stringToSign);
-    return hmac.doFinal();
+    return calculateSignature(
+        sink -> writeStringToSign(itemAttributes, attributeFlags, associatedData, null, sink),
+        key);
   }
 
   byte[] calculateSignature(
@@ -216,10 +391,32 @@ class DynamoDBSigner {
       byte[] associatedData,
       PrivateKey key)
       throws GeneralSecurityException {
-    byte[] stringToSign = calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+    return calculateSignature(
+        sink -> writeStringToSign(itemAttributes, attributeFlags, associatedData, null, sink),
+        key);
+  }
+
+  private byte[] calculateSignature(StringToSign source, DelegatedKey key)
+      throws GeneralSecurityException {
+    return key.sign(bufferStringToSign(source), key.getAlgorithm());
+  }
+
+  private byte[] calculateSignature(StringToSign source, SecretKey key)
+      throws GeneralSecurityException {
+    if (key instanceof DelegatedKey) {
+      return calculateSignature(source, (DelegatedKey) key);
+    }
+    Mac hmac = Mac.getInstance(key.getAlgorithm());
+    hmac.init(key);
+    source.writeTo(hmac::update);
+    return hmac.doFinal();
+  }
+
+  private byte[] calculateSignature(StringToSign source, PrivateKey key)
+      throws GeneralSecurityException {
     Signature sig = Signature.getInstance(signingAlgorithm);
     sig.initSign(key, rnd);
-    sig.update(stringToSign);
+    source.writeTo(sig::update);
     return sig.sign();
   }
 
@@ -247,6 +444,16 @@ class DynamoDBSigner {
     }
   }
 
+  /** Receives the string to sign as it is calculated. */
+  private interface StringToSignSink {
+    void write(byte[] input, int offset, int len) throws SignatureException;
+  }
+
+  /** Calculates the string to sign of a single record. */
+  private interface StringToSign {
+    void writeTo(StringToSignSink sink) throws GeneralSecurityException;
+  }
+
   private static byte[] toByteArray(ByteBuffer buffer) {
     if (buffer.hasArray()) {
       byte[] result = buffer.array();
@@ -18,6 +18,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.MaterialDescriptionCache;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import java.util.Collections;
 import java.util.HashMap;
@@ -165,8 +166,7 @@ public final class EncryptionContext {
     }
 
     public Builder withMaterialDescription(Map<String, String> materialDescription) {
-      this.materialDescription =
-          Collections.unmodifiableMap(new HashMap<String, String>(materialDescription));
+      this.materialDescription = MaterialDescriptionCache.immutableCopyOf(materialDescription);
       return this;
     }
 
@@ -0,0 +1,155 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, precompiled form of the attribute flags passed to {@link DynamoDBEncryptor}.
+ *
+ * <p>Encrypting or decrypting a record with a map of {@link EncryptionFlags} requires looking up
+ * the flags of every attribute, sorting the names of the signed attributes and hashing each of
+ * those names. An {@code EncryptionSchema} does this once, when it is created, so that records of
+ * the same shape can be processed with less per-record overhead. Records encrypted with a schema
+ * are identical in format to those encrypted with the map it was created from, and either form
+ * may be used to decrypt them.
+ *
+ * <p>Attributes of a record which are not present in the schema are neither encrypted nor signed,
+ * exactly as for attributes missing from the map. Callers whose records may contain attributes
+ * which need other handling should use the map form for those records.
+ *
+ * <p>Instances are thread-safe and should be created once and reused.
+ */
+public final class EncryptionSchema {
+  static final int SIGN = 1;
+  static final int ENCRYPT = 2;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int MAX_CACHED_TABLES = 1024;
+
+  private final Map<String, Set<EncryptionFlags>> attributeFlags;
+  private final Map<String, Integer> flags;
+  private final String[] signedNames;
+  private final byte[][] signedNameDigests;
+  private final boolean[] signedEncrypted;
+  private final boolean touchesAnyAttribute;
+  private final ConcurrentHashMap<String, byte[]> tableDigests = new ConcurrentHashMap<>();
+
+  private EncryptionSchema(Map<String, Set<EncryptionFlags>> attributeFlags) {
+    final Map<String, Set<EncryptionFlags>> flagsCopy = new HashMap<>();
+    final Map<String, Integer> bitmasks = new HashMap<>();
+    final List<String> signed = new ArrayList<>();
+    boolean touchesAnyAttribute = false;
+    for (Map.Entry<String, Set<EncryptionFlags>> entry : attributeFlags.entrySet()) {
+      final Set<EncryptionFlags> set =
+          entry.getValue().isEmpty()
+              ? EnumSet.noneOf(EncryptionFlags.class)
+              : EnumSet.copyOf(entry.getValue());
+      flagsCopy.put(entry.getKey(), Collections.unmodifiableSet(set));
+      int bitmask = 0;
+      if (set.contains(EncryptionFlags.SIGN)) {
+        bitmask |= SIGN;
+        signed.add(entry.getKey());
+      }
+      if (set.contains(EncryptionFlags.ENCRYPT)) {
+        bitmask |= ENCRYPT;
+      }
+      bitmasks.put(entry.getKey(), bitmask);
+      touchesAnyAttribute |= !set.isEmpty();
+    }
+    Collections.sort(signed);
+
+    this.attributeFlags = Collections.unmodifiableMap(flagsCopy);
+    this.flags = bitmasks;
+    this.touchesAnyAttribute = touchesAnyAttribute;
+    signedNames = signed.toArray(new String[signed.size()]);
+    signedNameDigests = new byte[signedNames.length][];
+    signedEncrypted = new boolean[signedNames.length];
+    for (int i = 0; i < signedNames.length; i++) {
+      signedNameDigests[i] = sha256(signedNames[i].getBytes(UTF8));
+      signedEncrypted[i] = (bitmasks.get(signedNames[i]) & ENCRYPT) != 0;
+    }
+  }
+
+  /**
+   * Compiles {@code attributeFlags} into a schema. Later changes to {@code attributeFlags} or to
+   * its sets of flags do not affect the schema.
+   */
+  public static EncryptionSchema of(Map<String, Set<EncryptionFlags>> attributeFlags) {
+    return new EncryptionSchema(attributeFlags);
+  }
+
+  /** Returns the attribute flags this schema was compiled from, as an unmodifiable map. */
+  public Map<String, Set<EncryptionFlags>> getAttributeFlags() {
+    return attributeFlags;
+  }
+
+  /** Returns true if {@code attributeName} has an entry in this schema, even an empty one. */
+  public boolean containsAttribute(String attributeName) {
+    return flags.containsKey(attributeName);
+  }
+
+  /** Returns the flags of {@code attributeName} as a bitmask of SIGN and ENCRYPT. */
+  int getFlags(String attributeName) {
+    final Integer result = flags.get(attributeName);
+    return result != null ? result : 0;
+  }
+
+  /** Returns false if no attribute is signed or encrypted by this schema. */
+  boolean touchesAnyAttribute() {
+    return touchesAnyAttribute;
+  }
+
+  /** Returns the names of the signed attributes, in the order in which they are signed. */
+  String[] getSignedNames() {
+    return signedNames;
+  }
+
+  /** Returns the SHA-256 digest of the UTF-8 encoding of {@code getSignedNames()[index]}. */
+  byte[] getSignedNameDigest(int index) {
+    return signedNameDigests[index];
+  }
+
+  /** Returns true if {@code getSignedNames()[index]} is also encrypted. */
+  boolean isSignedNameEncrypted(int index) {
+    return signedEncrypted[index];
+  }
+
+  /** Returns the SHA-256 digest of the associated data used for records of {@code tableName}. */
+  byte[] getTableDigest(String tableName) {
+    // A null table name has the same associated data as the string "null".
+    final String key = String.valueOf(tableName);
+    byte[] result = tableDigests.get(key);
+    if (result == null) {
+      result = sha256(DynamoDBEncryptor.tableAssociatedData(tableName));
+      if (tableDigests.size() < MAX_CACHED_TABLES) {
+        tableDigests.putIfAbsent(key, result);
+      }
+    }
+    return result;
+  }
+
+  private static byte[] sha256(byte[] input) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(input);
+    } catch (NoSuchAlgorithmException ex) {
+      // SHA-256 is required to be supported by every Java platform.
+      throw new RuntimeException("Unexpected exception", ex);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "EncryptionSchema " + attributeFlags;
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.security.GeneralSecurityException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * A read-only view of a verified record which decrypts each encrypted attribute when it is first
+ * read. The signature of the record must have been verified before the view is created.
+ *
+ * <p>Decrypted values are retained, so each attribute is decrypted at most once unless several
+ * threads read it at the same time, in which case all of them see the same value. The view creates
+ * a single {@link Cipher} when it first decrypts an attribute, and reuses it for every other
+ * attribute, so threads reading the same view decrypt one attribute at a time.
+ *
+ * @see DynamoDBEncryptor#decryptRecordLazily(Map, Map, EncryptionContext)
+ */
+final class LazyDecryptedRecord extends AbstractMap<String, AttributeValue> {
+  private final Map<String, AttributeValue> itemAttributes;
+  private final Set<String> encryptedNames;
+  private final SecretKey decryptionKey;
+  private final String encryptionMode;
+  private final int blockSize;
+  private final boolean sliceDecryptedBinaryValues;
+  private final ConcurrentHashMap<String, AttributeValue> decrypted = new ConcurrentHashMap<>();
+  // Guarded by cipherLock
+  private final Object cipherLock = new Object();
+  private Cipher cipher;
+  private Set<Map.Entry<String, AttributeValue>> entrySet;
+
+  /**
+   * @param itemAttributes the verified record, without its signature and material description,
+   *     which must not be modified afterwards
+   * @param encryptedNames the names of the encrypted attributes of {@code itemAttributes}
+   * @param blockSize the block size of {@code encryptionMode}, unused for a {@link DelegatedKey}
+   */
+  LazyDecryptedRecord(
+      Map<String, AttributeValue> itemAttributes,
+      Set<String> encryptedNames,
+      SecretKey decryptionKey,
+      String encryptionMode,
+      int blockSize,
+      boolean sliceDecryptedBinaryValues) {
+    this.itemAttributes = itemAttributes;
+    this.encryptedNames = encryptedNames;
+    this.decryptionKey = decryptionKey;
+    this.encryptionMode = encryptionMode;
+    this.blockSize = blockSize;
+    this.sliceDecryptedBinaryValues = sliceDecryptedBinaryValues;
+  }
+
+  @Override
+  public int size() {
+    return itemAttributes.size();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return itemAttributes.containsKey(key);
+  }
+
+  @Override
+  public AttributeValue get(Object key) {
+    if (!encryptedNames.contains(key)) {
+      return itemAttributes.get(key);
+    }
+    try {
+      return decrypt((String) key);
+    } catch (GeneralSecurityException ex) {
+      throw new DynamoDBMappingException(ex);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, AttributeValue>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  /** Returns the number of attributes which have been decrypted so far. */
+  int decryptedCount() {
+    return decrypted.size();
+  }
+
+  /**
+   * Returns a new map of the attributes named in {@code projection}, decrypting only those.
+   *
+   * @throws GeneralSecurityException if any of them could not be decrypted
+   */
+  Map<String, AttributeValue> project(Collection<String> projection)
+      throws GeneralSecurityException {
+    final Map<String, AttributeValue> result = new HashMap<>();
+    for (String name : projection) {
+      if (encryptedNames.contains(name)) {
+        result.put(name, decrypt(name));
+      } else if (itemAttributes.containsKey(name)) {
+        result.put(name, itemAttributes.get(name));
+      }
+    }
+    return result;
+  }
+
+  private AttributeValue decrypt(String name) throws GeneralSecurityException {
+    AttributeValue value = decrypted.get(name);
+    if (value == null) {
+      if (decryptionKey instanceof DelegatedKey) {
+        value = decryptValue(name, null);
+      } else {
+        synchronized (cipherLock) {
+          if (cipher == null) {
+            cipher = Cipher.getInstance(encryptionMode);
+          }
+          value = decryptValue(name, cipher);
+        }
+      }
+      final AttributeValue existing = decrypted.putIfAbsent(name, value);
+      if (existing != null) {
+        value = existing;
+      }
+    }
+    return value;
+  }
+
+  private AttributeValue decryptValue(String name, Cipher cipher) throws GeneralSecurityException {
+    return DynamoDBEncryptor.decryptValue(
+        itemAttributes.get(name),
+        decryptionKey,
+        encryptionMode,
+        blockSize,
+        cipher,
+        sliceDecryptedBinaryValues);
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<String, AttributeValue>> {
+    @Override
+    public int size() {
+      return itemAttributes.size();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, AttributeValue>> iterator() {
+      final Iterator<String> names = itemAttributes.keySet().iterator();
+      return new Iterator<Map.Entry<String, AttributeValue>>() {
+        @Override
+        public boolean hasNext() {
+          return names.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, AttributeValue> next() {
+          return new LazyEntry(names.next());
+        }
+      };
+    }
+  }
+
+  /** An entry whose value is decrypted when it is first read. */
+  private final class LazyEntry implements Map.Entry<String, AttributeValue> {
+    private final String name;
+
+    private LazyEntry(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String getKey() {
+      return name;
+    }
+
+    @Override
+    public AttributeValue getValue() {
+      return get(name);
+    }
+
+    @Override
+    public AttributeValue setValue(AttributeValue value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return name.equals(e.getKey()) && getValue().equals(e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() ^ getValue().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return name + "=" + getValue();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the independent per-attribute tasks of a single record on an {@link Executor}.
+ *
+ * <p>The calling thread runs tasks as well, and any task which has not been started by the
+ * executor when the calling thread becomes free is run by the calling thread. A saturated or
+ * rejecting executor, or one whose threads are waiting on this call, therefore only makes the call
+ * slower and cannot deadlock it.
+ */
+final class ParallelTasks {
+  private ParallelTasks() {
+    // Prevent instantiation
+  }
+
+  /** A task which may fail with a {@link GeneralSecurityException}. */
+  interface Task {
+    void run() throws GeneralSecurityException;
+  }
+
+  /**
+   * Runs every task in {@code tasks} and returns once all of them have finished. If any task
+   * fails, the tasks which have not yet started are skipped and the first failure is rethrown.
+   */
+  static void runAll(final Executor executor, final List<? extends Task> tasks)
+      throws GeneralSecurityException {
+    final Batch batch = new Batch(tasks);
+    try {
+      for (int i = 1; i < tasks.size(); i++) {
+        executor.execute(batch::runTasks);
+      }
+    } catch (final RejectedExecutionException ex) {
+      // The calling thread runs whatever the executor does not.
+    }
+    batch.runTasks();
+    batch.await();
+
+    final Throwable failure = batch.failure.get();
+    if (failure instanceof GeneralSecurityException) {
+      throw (GeneralSecurityException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  private static final class Batch {
+    private final List<? extends Task> tasks;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final CountDownLatch finished;
+
+    private Batch(final List<? extends Task> tasks) {
+      this.tasks = tasks;
+      this.finished = new CountDownLatch(tasks.size());
+    }
+
+    /** Claims and runs tasks until none are left. */
+    private void runTasks() {
+      int index;
+      while ((index = next.getAndIncrement()) < tasks.size()) {
+        try {
+          if (failure.get() == null) {
+            tasks.get(index).run();
+          }
+        } catch (final Throwable ex) {
+          failure.compareAndSet(null, ex);
+        } finally {
+          finished.countDown();
+        }
+      }
+    }
+
+    /** Waits for the tasks claimed by other threads, preserving any interrupt. */
+    private void await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          finished.await();
+          break;
+        } catch (final InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -44,4 +44,16 @@ public class AsymmetricStaticProvider extends WrappedMaterialsProvider {
       KeyPair encryptionKey, SecretKey macKey, Map<String, String> description) {
     super(encryptionKey.getPublic(), encryptionKey.getPrivate(), macKey, description);
   }
+
+  /** Returns true unless subclassed, as {@link WrappedMaterialsProvider} does. */
+  @Override
+  public boolean isEncryptionMaterialsReusable() {
+    return getClass() == AsymmetricStaticProvider.class;
+  }
+
+  /** Returns true unless subclassed, as {@link WrappedMaterialsProvider} does. */
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return getClass() == AsymmetricStaticProvider.class;
+  }
 }
@@ -0,0 +1,123 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CompletableFutureHandler;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
+import com.amazonaws.services.kms.AWSKMSAsync;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.amazonaws.services.kms.model.DecryptResult;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link DirectKmsMaterialProvider} which can also call {@link AWSKMSAsync} without blocking the
+ * calling thread. The materials it provides, and the KMS requests it makes, are identical to those
+ * of a {@link DirectKmsMaterialProvider} with the same parameters, and records encrypted by either
+ * may be decrypted by the other.
+ *
+ * <p>The synchronous methods behave exactly as those of {@link DirectKmsMaterialProvider}. The
+ * asynchronous methods call {@link #decryptAsync(DecryptRequest, EncryptionContext)} and {@link
+ * #generateDataKeyAsync(GenerateDataKeyRequest, EncryptionContext)} instead of {@link
+ * #decrypt(DecryptRequest, EncryptionContext)} and {@link
+ * #generateDataKey(GenerateDataKeyRequest, EncryptionContext)}, so subclasses which customize the
+ * KMS calls should override both. Both kinds of method share the {@link
+ * #enableDecryptionCache(int, long, java.util.concurrent.TimeUnit) decryption cache}, if enabled.
+ */
+public class AsyncDirectKmsMaterialProvider extends DirectKmsMaterialProvider
+    implements AsyncEncryptionMaterialsProvider {
+  private final AWSKMSAsync kms;
+
+  public AsyncDirectKmsMaterialProvider(AWSKMSAsync kms) {
+    this(kms, null);
+  }
+
+  public AsyncDirectKmsMaterialProvider(
+      AWSKMSAsync kms, String encryptionKeyId, Map<String, String> materialDescription) {
+    super(kms, encryptionKeyId, materialDescription);
+    this.kms = kms;
+  }
+
+  public AsyncDirectKmsMaterialProvider(AWSKMSAsync kms, String encryptionKeyId) {
+    super(kms, encryptionKeyId);
+    this.kms = kms;
+  }
+
+  @Override
+  public CompletableFuture<DecryptionMaterials> getDecryptionMaterialsAsync(
+      final EncryptionContext context) {
+    final DecryptRequest request;
+    final DecryptionMaterials cached;
+    try {
+      request = buildDecryptRequest(context);
+      cached = getCachedDecryptionMaterials(request, context);
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    return decryptCoalesced(request, context, () -> decryptAsync(request, context))
+        .thenApply(decryptResult -> toDecryptionMaterials(request, decryptResult, context));
+  }
+
+  @Override
+  public CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync(
+      final EncryptionContext context) {
+    final GenerateDataKeyRequest request;
+    try {
+      request = buildGenerateDataKeyRequest(context);
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+    return generateDataKeyAsync(request, context).thenApply(this::toEncryptionMaterials);
+  }
+
+  /**
+   * Asynchronously decrypts ciphertext. The default implementation calls {@link
+   * AWSKMSAsync#decryptAsync(DecryptRequest, com.amazonaws.handlers.AsyncHandler)}. This is the
+   * asynchronous counterpart of {@link #decrypt(DecryptRequest, EncryptionContext)}.
+   *
+   * @param request request parameters to decrypt the given ciphertext.
+   * @param context additional useful data to decrypt the ciphertext.
+   * @return a future of the decrypted plaintext for the given ciphertext.
+   */
+  protected CompletableFuture<DecryptResult> decryptAsync(
+      final DecryptRequest request, final EncryptionContext context) {
+    final CompletableFutureHandler<DecryptRequest, DecryptResult> handler =
+        new CompletableFutureHandler<>();
+    try {
+      kms.decryptAsync(request, handler);
+    } catch (RuntimeException ex) {
+      handler.onError(ex);
+    }
+    return handler.getFuture();
+  }
+
+  /**
+   * Asynchronously generates a data key. The default implementation calls {@link
+   * AWSKMSAsync#generateDataKeyAsync(GenerateDataKeyRequest,
+   * com.amazonaws.handlers.AsyncHandler)}. This is the asynchronous counterpart of {@link
+   * #generateDataKey(GenerateDataKeyRequest, EncryptionContext)}.
+   *
+   * @param request request parameters to generate the data key.
+   * @param context additional useful data to generate the data key.
+   * @return a future of the newly generated data key.
+   */
+  protected CompletableFuture<GenerateDataKeyResult> generateDataKeyAsync(
+      final GenerateDataKeyRequest request, final EncryptionContext context) {
+    final CompletableFutureHandler<GenerateDataKeyRequest, GenerateDataKeyResult> handler =
+        new CompletableFutureHandler<>();
+    try {
+      kms.generateDataKeyAsync(request, handler);
+    } catch (RuntimeException ex) {
+      handler.onError(ex);
+    }
+    return handler.getFuture();
+  }
+}
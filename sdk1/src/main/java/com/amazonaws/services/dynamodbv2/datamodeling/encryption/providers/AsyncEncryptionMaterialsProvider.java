@@ -0,0 +1,54 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link EncryptionMaterialsProvider} which can also provide its materials without blocking the
+ * calling thread, such as one which retrieves them from a remote service with an asynchronous
+ * client. The asynchronous methods of {@link
+ * com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor}, such as {@code
+ * encryptRecordAsync}, use these methods when they are available.
+ *
+ * <p>The returned futures complete exceptionally with the exceptions which the corresponding
+ * synchronous methods would throw.
+ */
+public interface AsyncEncryptionMaterialsProvider extends EncryptionMaterialsProvider {
+
+  /**
+   * Asynchronously retrieves the materials which {@link #getDecryptionMaterials(EncryptionContext)}
+   * would return.
+   *
+   * @param context Information to assist in selecting a the proper return value.
+   * @return a future of the decryption materials, or of null if no matching materials are found
+   */
+  CompletableFuture<DecryptionMaterials> getDecryptionMaterialsAsync(EncryptionContext context);
+
+  /**
+   * Asynchronously retrieves the materials which {@link #getEncryptionMaterials(EncryptionContext)}
+   * would return.
+   *
+   * @param context Information to assist in selecting a the proper return value.
+   * @return a future of the encryption materials
+   */
+  CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync(EncryptionContext context);
+
+  /**
+   * Returns {@code provider} if it is already an {@code AsyncEncryptionMaterialsProvider}, and
+   * otherwise a provider whose asynchronous methods call the synchronous methods of {@code
+   * provider} on {@code executor}. As those calls may block, {@code executor} should be able to
+   * tolerate blocked threads.
+   */
+  static AsyncEncryptionMaterialsProvider adapt(
+      final EncryptionMaterialsProvider provider, final Executor executor) {
+    if (provider instanceof AsyncEncryptionMaterialsProvider) {
+      return (AsyncEncryptionMaterialsProvider) provider;
+    }
+    return new ExecutorMaterialsProvider(provider, executor);
+  }
+}
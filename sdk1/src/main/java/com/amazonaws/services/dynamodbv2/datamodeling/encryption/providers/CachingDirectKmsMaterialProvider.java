@@ -0,0 +1,572 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.SymmetricRawMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.SingleFlight;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Wraps a {@link DirectKmsMaterialProvider} so that each data key generated by KMS encrypts several
+ * records, rather than one, which reduces the number of GenerateDataKey calls made by writers.
+ *
+ * <p>A data key is reused only for records whose KMS encryption context is identical. As {@link
+ * DirectKmsMaterialProvider} includes the hash and range key values of the record in that context,
+ * a key would rarely be reused. A table-scoped encryption context may therefore be enabled with
+ * {@link Builder#withTableScopedEncryptionContext(boolean)}, in which case only the table name is
+ * included, and the material description of each record records this so that {@link
+ * DirectKmsMaterialProvider} includes the same context when decrypting it. Records remain bound to
+ * their keys by the signature, provided the keys are signed.
+ *
+ * <p>Each data key is used for at most {@link Builder#withMaxAge(long, TimeUnit) maxAge}, {@link
+ * Builder#withMaxItems(long) maxItems} records and {@link Builder#withMaxBytes(long) maxBytes},
+ * measured as the marshalled size of the attributes of the records, whichever limit is reached
+ * first. The derived keys held by the cache are zeroized when their entry is evicted, expires, is
+ * exhausted or is cleared by {@link #refresh()}. The materials returned to callers hold their own
+ * copies of the keys.
+ *
+ * <p>Concurrent requests which find no usable data key for the same KMS encryption context share a
+ * single GenerateDataKey call, and then the new data key, within its limits.
+ *
+ * <p>If {@link Builder#withPrefetch(int, Executor) prefetching} is enabled, data keys are also
+ * generated in the background, through {@link DirectKmsMaterialProvider#generateDataKey(
+ * GenerateDataKeyRequest, EncryptionContext)}, so that a request which finds its data key exhausted
+ * can usually take a ready one rather than wait for KMS. A queue of ready keys is kept per KMS key
+ * and encryption context, so prefetching is only worthwhile when keys are shared across records,
+ * typically with a table-scoped encryption context. Ready keys age from when they were generated,
+ * and are zeroized and discarded if they expire before they are used.
+ *
+ * <p>Decryption is delegated to the wrapped provider.
+ */
+@ThreadSafe
+public class CachingDirectKmsMaterialProvider implements EncryptionMaterialsProvider {
+  /** The default maximum age of a data key, which is one minute. */
+  public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  /** The default maximum number of records encrypted with a data key. */
+  public static final long DEFAULT_MAX_ITEMS = 10_000;
+  /** The default maximum number of data keys cached at once. */
+  public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+
+  private final DirectKmsMaterialProvider delegate;
+  private final long maxAgeNanos;
+  private final long maxItems;
+  private final long maxBytes;
+  private final int maxCacheSize;
+  private final boolean tableScoped;
+  private final LongSupplier nanoClock;
+  // Guarded by itself
+  private final LinkedHashMap<String, DataKey> cache;
+  private final SingleFlight<String, DataKey> generateFlights = new SingleFlight<>();
+  private final int prefetchDepth;
+  private final Executor prefetchExecutor;
+  // Guarded by itself
+  private final LinkedHashMap<String, PrefetchQueue> prefetchQueues;
+  private final LongAdder prefetchHits = new LongAdder();
+  private final LongAdder prefetchDiscards = new LongAdder();
+  private final LongAdder prefetchFailures = new LongAdder();
+  private final LongAdder prefetches = new LongAdder();
+  private final LongAdder prefetchNanos = new LongAdder();
+
+  private CachingDirectKmsMaterialProvider(Builder builder) {
+    this.delegate = builder.delegate;
+    this.maxAgeNanos = builder.maxAgeNanos;
+    this.maxItems = builder.maxItems;
+    this.maxBytes = builder.maxBytes;
+    this.maxCacheSize = builder.maxCacheSize;
+    this.tableScoped = builder.tableScoped;
+    this.nanoClock = builder.nanoClock;
+    this.cache =
+        new LinkedHashMap<String, DataKey>(16, 0.75F, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, DataKey> eldest) {
+            if (size() > maxCacheSize) {
+              eldest.getValue().destroy();
+              return true;
+            }
+            return false;
+          }
+        };
+    this.prefetchDepth = builder.prefetchDepth;
+    this.prefetchExecutor = builder.prefetchExecutor;
+    this.prefetchQueues =
+        new LinkedHashMap<String, PrefetchQueue>(16, 0.75F, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PrefetchQueue> eldest) {
+            if (size() > maxCacheSize) {
+              eldest.getValue().close();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  @Override
+  public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+    final EncryptionContext kmsContext =
+        tableScoped ? DirectKmsMaterialProvider.withoutKeys(context) : context;
+    final GenerateDataKeyRequest request = delegate.buildGenerateDataKeyRequest(kmsContext);
+    final String cacheKey =
+        DirectKmsMaterialProvider.cacheKey(request.getKeyId(), request.getEncryptionContext());
+    final long recordBytes = recordSize(context);
+    final long now = nanoClock.getAsLong();
+
+    while (true) {
+      final DataKey cached;
+      synchronized (cache) {
+        cached = cache.get(cacheKey);
+      }
+      if (cached != null) {
+        final EncryptionMaterials materials = cached.use(recordBytes, now);
+        if (materials != null) {
+          return materials;
+        }
+        retire(cacheKey, cached);
+      }
+
+      final DataKey dataKey =
+          generateFlights.execute(
+              cacheKey, () -> newDataKey(cacheKey, request, context, kmsContext, now));
+      final EncryptionMaterials materials = dataKey.use(recordBytes, now);
+      if (materials != null) {
+        return materials;
+      }
+      // Concurrent requests exhausted the new key first, so try again
+      retire(cacheKey, dataKey);
+    }
+  }
+
+  /** Returns the number of requests which shared a GenerateDataKey call already in flight. */
+  public long getCoalescedGenerateDataKeyCount() {
+    return generateFlights.getCoalescedCount();
+  }
+
+  /**
+   * Takes a prefetched data key or generates one, and caches it, replacing any unusable key it
+   * supersedes.
+   */
+  private DataKey newDataKey(
+      String cacheKey,
+      GenerateDataKeyRequest request,
+      EncryptionContext context,
+      EncryptionContext kmsContext,
+      long now) {
+    // A KMS call is needed anyway, so this is a cheap time to zeroize keys no longer in use
+    removeExpired(now);
+
+    DataKey dataKey = prefetchDepth > 0 ? takePrefetched(cacheKey, kmsContext, now) : null;
+    if (dataKey == null) {
+      dataKey = new DataKey(toEncryptionMaterials(delegate.generateDataKey(request, context)), now);
+    }
+    final DataKey replaced;
+    synchronized (cache) {
+      replaced = cache.put(cacheKey, dataKey);
+    }
+    if (replaced != null) {
+      replaced.destroy();
+    }
+    return dataKey;
+  }
+
+  private EncryptionMaterials toEncryptionMaterials(GenerateDataKeyResult result) {
+    return delegate.toEncryptionMaterials(
+        result,
+        tableScoped
+            ? DirectKmsMaterialProvider.TABLE_COVERAGE
+            : DirectKmsMaterialProvider.KEY_COVERAGE);
+  }
+
+  /** Returns a ready data key for cacheKey, or null if there is none, and refills its queue. */
+  private DataKey takePrefetched(String cacheKey, EncryptionContext kmsContext, long now) {
+    final PrefetchQueue queue;
+    synchronized (prefetchQueues) {
+      queue = prefetchQueues.computeIfAbsent(cacheKey, k -> new PrefetchQueue(kmsContext));
+    }
+    final DataKey dataKey = queue.poll(now);
+    queue.refill();
+    return dataKey;
+  }
+
+  /** Returns the number of prefetched data keys ready to be used. */
+  public int getPrefetchQueueDepth() {
+    final List<PrefetchQueue> queues;
+    synchronized (prefetchQueues) {
+      queues = new ArrayList<>(prefetchQueues.values());
+    }
+    int depth = 0;
+    for (PrefetchQueue queue : queues) {
+      depth += queue.ready.size();
+    }
+    return depth;
+  }
+
+  /** Returns the number of exhausted data keys which were replaced by a prefetched one. */
+  public long getPrefetchHitCount() {
+    return prefetchHits.sum();
+  }
+
+  /** Returns the number of prefetched data keys which expired before they were used. */
+  public long getPrefetchDiscardCount() {
+    return prefetchDiscards.sum();
+  }
+
+  /** Returns the number of background GenerateDataKey calls which failed. */
+  public long getPrefetchFailureCount() {
+    return prefetchFailures.sum();
+  }
+
+  /** Returns the number of data keys which were successfully prefetched. */
+  public long getPrefetchCount() {
+    return prefetches.sum();
+  }
+
+  /**
+   * Returns the average time from scheduling the prefetch of a data key until it is ready, in
+   * nanoseconds, or 0 if no key has been prefetched.
+   */
+  public long getAveragePrefetchLatencyNanos() {
+    final long count = prefetches.sum();
+    return count == 0 ? 0 : prefetchNanos.sum() / count;
+  }
+
+  @Override
+  public DecryptionMaterials getDecryptionMaterials(EncryptionContext context) {
+    return delegate.getDecryptionMaterials(context);
+  }
+
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return delegate.isDecryptionMaterialsReusable();
+  }
+
+  /**
+   * Zeroizes and removes every cached and prefetched data key, and refreshes the wrapped provider.
+   */
+  @Override
+  public void refresh() {
+    final List<DataKey> removed;
+    synchronized (cache) {
+      removed = new ArrayList<>(cache.values());
+      cache.clear();
+    }
+    for (DataKey dataKey : removed) {
+      dataKey.destroy();
+    }
+    final List<PrefetchQueue> queues;
+    synchronized (prefetchQueues) {
+      queues = new ArrayList<>(prefetchQueues.values());
+      prefetchQueues.clear();
+    }
+    for (PrefetchQueue queue : queues) {
+      queue.close();
+    }
+    delegate.refresh();
+  }
+
+  /** Returns the number of data keys currently cached. */
+  int cacheSize() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  private void retire(String cacheKey, DataKey dataKey) {
+    synchronized (cache) {
+      cache.remove(cacheKey, dataKey);
+    }
+    dataKey.destroy();
+  }
+
+  private void removeExpired(long now) {
+    final List<DataKey> removed = new ArrayList<>();
+    synchronized (cache) {
+      final Iterator<DataKey> it = cache.values().iterator();
+      while (it.hasNext()) {
+        final DataKey dataKey = it.next();
+        if (dataKey.isExpired(now)) {
+          it.remove();
+          removed.add(dataKey);
+        }
+      }
+    }
+    for (DataKey dataKey : removed) {
+      dataKey.destroy();
+    }
+  }
+
+  /** Returns the approximate size of the record to be encrypted. */
+  private static long recordSize(EncryptionContext context) {
+    final Map<String, AttributeValue> attributeValues = context.getAttributeValues();
+    if (attributeValues == null) {
+      return 0;
+    }
+    long size = 0;
+    for (Map.Entry<String, AttributeValue> entry : attributeValues.entrySet()) {
+      size += entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+      size += AttributeValueMarshaller.getMarshalledLength(entry.getValue());
+    }
+    return size;
+  }
+
+  /** A cached data key, whose derived keys are zeroized when it is destroyed. */
+  private final class DataKey {
+    private final byte[] encryptionKey;
+    private final String encryptionAlgorithm;
+    private final byte[] macKey;
+    private final String macAlgorithm;
+    private final Map<String, String> description;
+    private final long createdNanos;
+    // Guarded by this
+    private long items = 0;
+    private long bytes = 0;
+    private boolean destroyed = false;
+
+    private DataKey(EncryptionMaterials materials, long createdNanos) {
+      final SecretKey encryption = materials.getEncryptionKey();
+      final SecretKey mac = (SecretKey) materials.getSigningKey();
+      this.encryptionKey = encryption.getEncoded();
+      this.encryptionAlgorithm = encryption.getAlgorithm();
+      this.macKey = mac.getEncoded();
+      this.macAlgorithm = mac.getAlgorithm();
+      this.description = Collections.unmodifiableMap(materials.getMaterialDescription());
+      this.createdNanos = createdNanos;
+    }
+
+    /**
+     * Accounts for a record of {@code recordBytes} and returns materials for it, or null if this
+     * key may not be used for it. A key is destroyed once it may not be used again.
+     */
+    private synchronized EncryptionMaterials use(long recordBytes, long now) {
+      if (isExpired(now)
+          || items >= maxItems
+          || (items > 0 && bytes + recordBytes > maxBytes)) {
+        return null;
+      }
+      items++;
+      bytes += recordBytes;
+      final EncryptionMaterials materials =
+          new SymmetricRawMaterials(
+              new SecretKeySpec(encryptionKey, encryptionAlgorithm),
+              new SecretKeySpec(macKey, macAlgorithm),
+              description);
+      if (items >= maxItems || bytes >= maxBytes) {
+        destroy();
+      }
+      return materials;
+    }
+
+    private synchronized boolean isExpired(long now) {
+      return destroyed || now - createdNanos >= maxAgeNanos;
+    }
+
+    private synchronized boolean isDestroyed() {
+      return destroyed;
+    }
+
+    private synchronized void destroy() {
+      destroyed = true;
+      Arrays.fill(encryptionKey, (byte) 0);
+      Arrays.fill(macKey, (byte) 0);
+    }
+  }
+
+  /** Data keys generated in the background for one KMS key and encryption context. */
+  private final class PrefetchQueue {
+    private final EncryptionContext kmsContext;
+    private final ConcurrentLinkedQueue<DataKey> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private PrefetchQueue(EncryptionContext kmsContext) {
+      this.kmsContext = kmsContext;
+    }
+
+    /** Returns the oldest unexpired ready key, discarding any expired ones, or null. */
+    private DataKey poll(long now) {
+      DataKey dataKey;
+      while ((dataKey = ready.poll()) != null) {
+        if (!dataKey.isExpired(now)) {
+          prefetchHits.increment();
+          return dataKey;
+        }
+        dataKey.destroy();
+        prefetchDiscards.increment();
+      }
+      return null;
+    }
+
+    /**
+     * Schedules enough prefetches to bring the queue back to its depth. Failed prefetches are not
+     * retried until the next refill, so that an executor which runs them inline cannot loop.
+     */
+    private void refill() {
+      int missing = prefetchDepth - pending.get() - ready.size();
+      for (; missing > 0 && !closed; missing--) {
+        pending.incrementAndGet();
+        final long scheduledNanos = nanoClock.getAsLong();
+        try {
+          prefetchExecutor.execute(() -> prefetch(scheduledNanos));
+        } catch (RuntimeException ex) {
+          // Such as a RejectedExecutionException; the next rollover tries again
+          pending.decrementAndGet();
+          prefetchFailures.increment();
+          return;
+        }
+      }
+    }
+
+    private void prefetch(long scheduledNanos) {
+      try {
+        final GenerateDataKeyRequest request = delegate.buildGenerateDataKeyRequest(kmsContext);
+        final GenerateDataKeyResult result = delegate.generateDataKey(request, kmsContext);
+        final long now = nanoClock.getAsLong();
+        ready.add(new DataKey(toEncryptionMaterials(result), now));
+        prefetches.increment();
+        prefetchNanos.add(now - scheduledNanos);
+        if (closed) {
+          close();
+        }
+      } catch (RuntimeException ex) {
+        prefetchFailures.increment();
+      } finally {
+        pending.decrementAndGet();
+      }
+    }
+
+    /** Stops prefetching, and zeroizes any ready keys. */
+    private void close() {
+      closed = true;
+      DataKey dataKey;
+      while ((dataKey = ready.poll()) != null) {
+        dataKey.destroy();
+      }
+    }
+  }
+
+  /** Builds a {@link CachingDirectKmsMaterialProvider}. */
+  public static final class Builder {
+    private final DirectKmsMaterialProvider delegate;
+    private long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_AGE_MILLIS);
+    private long maxItems = DEFAULT_MAX_ITEMS;
+    private long maxBytes = Long.MAX_VALUE;
+    private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private boolean tableScoped = false;
+    private LongSupplier nanoClock = System::nanoTime;
+    private int prefetchDepth = 0;
+    private Executor prefetchExecutor = null;
+
+    /** @param delegate the provider which generates and decrypts the data keys */
+    public Builder(DirectKmsMaterialProvider delegate) {
+      this.delegate = checkNotNull(delegate, "delegate must not be null");
+    }
+
+    /** Sets the maximum time a data key is used for. Defaults to one minute. */
+    public Builder withMaxAge(long maxAge, TimeUnit unit) {
+      if (maxAge <= 0) {
+        throw new IllegalArgumentException("maxAge must be positive");
+      }
+      this.maxAgeNanos = unit.toNanos(maxAge);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of records encrypted with a data key. Defaults to {@link
+     * #DEFAULT_MAX_ITEMS}.
+     */
+    public Builder withMaxItems(long maxItems) {
+      if (maxItems < 1) {
+        throw new IllegalArgumentException("maxItems must be positive");
+      }
+      this.maxItems = maxItems;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of records encrypted with a data key, measured as the
+     * marshalled size of their attributes. A single record larger than this is still encrypted,
+     * with a data key of its own. Unlimited by default.
+     */
+    public Builder withMaxBytes(long maxBytes) {
+      if (maxBytes < 1) {
+        throw new IllegalArgumentException("maxBytes must be positive");
+      }
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of data keys cached at once, one per distinct KMS encryption context.
+     * Defaults to {@link #DEFAULT_MAX_CACHE_SIZE}.
+     */
+    public Builder withMaxCacheSize(int maxCacheSize) {
+      if (maxCacheSize < 1) {
+        throw new IllegalArgumentException("maxCacheSize must be positive");
+      }
+      this.maxCacheSize = maxCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets whether the KMS encryption context includes only the table name, rather than also the
+     * hash and range key values of each record, so that a data key can be reused across records of
+     * the table. Records written this way can only be decrypted by versions of this library which
+     * support table-scoped encryption contexts. Disabled by default.
+     */
+    public Builder withTableScopedEncryptionContext(boolean tableScoped) {
+      this.tableScoped = tableScoped;
+      return this;
+    }
+
+    /**
+     * Enables prefetching, keeping up to {@code depth} data keys ready for each KMS key and
+     * encryption context in use, generated by tasks run on {@code executor}. Disabled by default.
+     */
+    public Builder withPrefetch(int depth, Executor executor) {
+      if (depth < 1) {
+        throw new IllegalArgumentException("depth must be positive");
+      }
+      this.prefetchDepth = depth;
+      this.prefetchExecutor = checkNotNull(executor, "executor must not be null");
+      return this;
+    }
+
+    /** Sets the source of {@link System#nanoTime()}, for testing. */
+    Builder withNanoClock(LongSupplier nanoClock) {
+      this.nanoClock = nanoClock;
+      return this;
+    }
+
+    public CachingDirectKmsMaterialProvider build() {
+      return new CachingDirectKmsMaterialProvider(this);
+    }
+  }
+}
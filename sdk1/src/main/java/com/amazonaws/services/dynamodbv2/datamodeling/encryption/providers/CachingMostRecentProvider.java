@@ -7,44 +7,107 @@ import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.chec
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache.MaterialsCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache.MaterialsCacheStats;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache.TTLMaterialsCache;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore;
-import com.amazonaws.services.dynamodbv2.datamodeling.internal.TTLCache;
-import com.amazonaws.services.dynamodbv2.datamodeling.internal.TTLCache.EntryLoader;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CircuitBreaker;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.LRUCache;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * This meta-Provider encrypts data with the most recent version of keying materials from a {@link
  * ProviderStore} and decrypts using whichever version is appropriate. It also caches the results
  * from the {@link ProviderStore} to avoid excessive load on the backing systems.
+ *
+ * <p>By default, the current version is reloaded by the first request after it expires. If {@link
+ * Builder#withRefreshAhead(ScheduledExecutorService) refresh-ahead} is enabled, the current version
+ * of each material used for encryption is instead polled in the background before it expires, and
+ * the provider of a new version is loaded before it is used, so that encryption does not wait for
+ * the {@link ProviderStore}. Polls are spread over a {@link Builder#withRefreshAheadJitter(double)
+ * jittered} window to spread the load of a fleet, and stop for materials which are no longer used.
+ *
+ * <p>By default, a failure to load from the {@link ProviderStore} fails the request. If {@link
+ * Builder#withStaleWhileError(long, TimeUnit) stale-while-error} is enabled, requests are instead
+ * served with the last version and providers which were loaded, for a bounded time after they
+ * expire, and the store is only retried once per {@link Builder#withStaleRetryInterval(long,
+ * TimeUnit) retry interval} while they are. A {@link Builder#withCircuitBreaker(int, long, long,
+ * TimeUnit) circuit breaker} stops calls to a failing {@link ProviderStore}, and retries them with
+ * exponential backoff, so that an outage of the store is not amplified by every request retrying
+ * it.
+ *
+ * <p>Versions and providers are cached in {@link TTLMaterialsCache}s by default. Other {@link
+ * MaterialsCache} implementations may be plugged in with {@link
+ * Builder#withCaches(MaterialsCache, MaterialsCache)}, in which case they decide how long entries
+ * are cached.
+ *
+ * <p>Entries of the default caches which expire are only evicted once they are loaded again, or
+ * to make room for others. An {@link Builder#withExpirySweeper(ScheduledExecutorService, long,
+ * TimeUnit) expiry sweeper} evicts them in the background instead, so that the providers of idle
+ * materials do not stay on the heap. Evicted providers are not destroyed, as requests which loaded
+ * them may still be using them; they are left to the garbage collector.
  */
 public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
   private static final long INITIAL_VERSION = 0;
   private static final String PROVIDER_CACHE_KEY_DELIM = "#";
   private static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+  /** The fraction of the TTL after which refresh-ahead polls, before any jitter. */
+  private static final double REFRESH_AHEAD_FRACTION = 0.75;
+  /** The default fraction of the refresh-ahead delay by which polls are brought forward. */
+  public static final double DEFAULT_REFRESH_AHEAD_JITTER = 0.2;
+  /** The default interval between retries of the store while stale materials are served. */
+  public static final long DEFAULT_STALE_RETRY_INTERVAL_MILLIS = 1000;
 
   private final long ttlInNanos;
   private final ProviderStore keystore;
   protected final String defaultMaterialName;
-  private final TTLCache<EncryptionMaterialsProvider> providerCache;
-  private final TTLCache<Long> versionCache;
+  private final MaterialsCache<EncryptionMaterialsProvider> providerCache;
+  private final MaterialsCache<Long> versionCache;
+  private final ScheduledExecutorService refreshScheduler;
+  private final double refreshJitter;
+  private final ConcurrentHashMap<String, RefreshTask> refreshTasks = new ConcurrentHashMap<>();
+  private final long maxStaleNanos;
+  private final long staleRetryNanos;
+  private final LRUCache<Stamped<Long>> lastVersions;
+  private final LRUCache<Stamped<EncryptionMaterialsProvider>> lastProviders;
+  private final CircuitBreaker circuitBreaker;
+  private final LongAdder staleServed = new LongAdder();
+  private final LongAdder storeFailures = new LongAdder();
+  private final LongAdder expiredEvictions = new LongAdder();
 
-  private final EntryLoader<Long> versionLoader =
-      new EntryLoader<Long>() {
+  // Mockable time source, to allow us to test stale and backoff behavior.
+  // package access for tests
+  LongSupplier nanoClock = System::nanoTime;
+
+  private final Function<String, Long> versionLoader =
+      new Function<String, Long>() {
         @Override
-        public Long load(String entryKey) {
-          return keystore.getMaxVersion(entryKey);
+        public Long apply(String entryKey) {
+          final long version = callStore(() -> keystore.getMaxVersion(entryKey));
+          return remember(lastVersions, entryKey, version);
         }
       };
 
-  private final EntryLoader<EncryptionMaterialsProvider> providerLoader =
-      new EntryLoader<EncryptionMaterialsProvider>() {
+  private final Function<String, EncryptionMaterialsProvider> providerLoader =
+      new Function<String, EncryptionMaterialsProvider>() {
         @Override
-        public EncryptionMaterialsProvider load(String entryKey) {
+        public EncryptionMaterialsProvider apply(String entryKey) {
           final String[] parts = entryKey.split(PROVIDER_CACHE_KEY_DELIM, 2);
           if (parts.length != 2) {
             throw new IllegalStateException("Invalid cache key for provider cache: " + entryKey);
           }
-          return keystore.getProvider(parts[0], Long.parseLong(parts[1]));
+          return remember(
+              lastProviders,
+              entryKey,
+              callStore(() -> keystore.getProvider(parts[0], Long.parseLong(parts[1]))));
         }
       };
 
@@ -76,18 +139,69 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
       final String materialName,
       final long ttlInMillis,
       final int maxCacheSize) {
-    this.keystore = checkNotNull(keystore, "keystore must not be null");
-    this.defaultMaterialName = materialName;
-    this.ttlInNanos = TimeUnit.MILLISECONDS.toNanos(ttlInMillis);
+    this(new Builder(keystore, materialName, ttlInMillis).withMaxCacheSize(maxCacheSize));
+  }
+
+  /** Creates a new {@link CachingMostRecentProvider} configured by {@code builder}. */
+  protected CachingMostRecentProvider(final Builder builder) {
+    this.keystore = builder.keystore;
+    this.defaultMaterialName = builder.materialName;
+    this.ttlInNanos = TimeUnit.MILLISECONDS.toNanos(builder.ttlInMillis);
+
+    if (builder.versionCache != null) {
+      this.versionCache = builder.versionCache;
+      this.providerCache = builder.providerCache;
+    } else {
+      final TTLMaterialsCache<Long> versions =
+          new TTLMaterialsCache<>(
+              builder.maxCacheSize,
+              builder.ttlInMillis,
+              (key, version, expired) -> onEviction(expired));
+      final TTLMaterialsCache<EncryptionMaterialsProvider> providers =
+          new TTLMaterialsCache<>(
+              builder.maxCacheSize,
+              builder.ttlInMillis,
+              (key, provider, expired) -> onEviction(expired));
+      if (builder.sweepScheduler != null) {
+        versions.scheduleExpirySweeps(
+            builder.sweepScheduler, builder.sweepPeriodNanos, TimeUnit.NANOSECONDS);
+        providers.scheduleExpirySweeps(
+            builder.sweepScheduler, builder.sweepPeriodNanos, TimeUnit.NANOSECONDS);
+      }
+      this.versionCache = versions;
+      this.providerCache = providers;
+    }
+    this.refreshScheduler = builder.refreshScheduler;
+    this.refreshJitter = builder.refreshJitter;
 
-    this.providerCache = new TTLCache<>(maxCacheSize, ttlInMillis, providerLoader);
-    this.versionCache = new TTLCache<>(maxCacheSize, ttlInMillis, versionLoader);
+    this.maxStaleNanos = builder.maxStaleNanos;
+    this.staleRetryNanos = builder.staleRetryNanos;
+    if (maxStaleNanos >= 0) {
+      this.lastVersions = new LRUCache<>(builder.maxCacheSize);
+      this.lastProviders = new LRUCache<>(builder.maxCacheSize);
+    } else {
+      this.lastVersions = null;
+      this.lastProviders = null;
+    }
+    this.circuitBreaker =
+        builder.failureThreshold > 0
+            ? new CircuitBreaker(
+                builder.failureThreshold,
+                builder.initialBackoffNanos,
+                builder.maxBackoffNanos,
+                TimeUnit.NANOSECONDS,
+                () -> nanoClock.getAsLong())
+            : null;
   }
 
   @Override
   public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
     final String materialName = getMaterialName(context);
-    final long currentVersion = versionCache.load(materialName);
+    final long currentVersion =
+        loadOrStale(versionCache, versionLoader, lastVersions, materialName);
+    if (refreshScheduler != null) {
+      refreshAhead(materialName);
+    }
 
     if (currentVersion < 0) {
       // The material hasn't been created yet, so specify a loading function
@@ -106,7 +220,9 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
                   throw new IllegalStateException("Invalid cache key for provider cache: " + s);
                 }
                 EncryptionMaterialsProvider provider =
-                    keystore.getOrCreate(parts[0], Long.parseLong(parts[1]));
+                    callStore(() -> keystore.getOrCreate(parts[0], Long.parseLong(parts[1])));
+                remember(lastProviders, s, provider);
+                remember(lastVersions, materialName, INITIAL_VERSION);
 
                 // We now should have version 0 in our keystore.
                 // Update the version cache for this material as a side effect
@@ -119,7 +235,8 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
       return newProvider.getEncryptionMaterials(context);
     } else {
       final String cacheKey = buildCacheKey(materialName, currentVersion);
-      return providerCache.load(cacheKey).getEncryptionMaterials(context);
+      return loadOrStale(providerCache, providerLoader, lastProviders, cacheKey)
+          .getEncryptionMaterials(context);
     }
   }
 
@@ -129,15 +246,36 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
     final String materialName = getMaterialName(context);
     final String cacheKey = buildCacheKey(materialName, version);
 
-    EncryptionMaterialsProvider provider = providerCache.load(cacheKey);
+    EncryptionMaterialsProvider provider =
+        loadOrStale(providerCache, providerLoader, lastProviders, cacheKey);
     return provider.getDecryptionMaterials(context);
   }
 
+  /**
+   * Returns true, as the provider used to decrypt a record is chosen by the version in its material
+   * description, and the providers of a {@link
+   * com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.MetaStore} depend
+   * only on that description. A {@link ProviderStore} whose providers depend on the rest of the
+   * context should be used through a subclass.
+   *
+   * <p>Returns false for subclasses, which may override {@link #getMaterialName(EncryptionContext)}
+   * or {@link #getDecryptionMaterials(EncryptionContext)}; they must override this method to reuse
+   * materials.
+   */
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return getClass() == CachingMostRecentProvider.class;
+  }
+
   /** Completely empties the cache of both the current and old versions. */
   @Override
   public void refresh() {
-    versionCache.clear();
-    providerCache.clear();
+    versionCache.invalidateAll();
+    providerCache.invalidateAll();
+    if (lastVersions != null) {
+      lastVersions.clear();
+      lastProviders.clear();
+    }
   }
 
   public String getMaterialName() {
@@ -153,7 +291,7 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
    * currently have a current version.
    */
   public long getCurrentVersion() {
-    return versionCache.load(getMaterialName());
+    return versionCache.load(getMaterialName(), versionLoader);
   }
 
   /**
@@ -162,13 +300,254 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
    */
   public long getLastUpdated() {
     // We cache a version of -1 to mean that there is not a current version
-    if (versionCache.load(getMaterialName()) < 0) {
+    if (versionCache.load(getMaterialName(), versionLoader) < 0) {
       return 0;
     }
     // Otherwise, return the last update time of that entry
     return TimeUnit.NANOSECONDS.toMillis(versionCache.getLastUpdated(getMaterialName()));
   }
 
+  /** Returns the number of requests served with expired materials after a load failed. */
+  public long getStaleServedCount() {
+    return staleServed.sum();
+  }
+
+  /** Returns the number of calls to the {@link ProviderStore} which failed. */
+  public long getStoreFailureCount() {
+    return storeFailures.sum();
+  }
+
+  /** Returns the number of entries of the default caches evicted because they expired. */
+  public long getExpiredEvictionCount() {
+    return expiredEvictions.sum();
+  }
+
+  /** Returns the statistics of the cache of the current version of the material. */
+  public MaterialsCacheStats getVersionCacheStats() {
+    return versionCache.stats();
+  }
+
+  /** Returns the statistics of the cache of providers, by version. */
+  public MaterialsCacheStats getProviderCacheStats() {
+    return providerCache.stats();
+  }
+
+  /**
+   * Returns the combined statistics of the caches of versions and providers. Use {@link
+   * #getVersionCacheStats()} and {@link #getProviderCacheStats()} to size each cache.
+   */
+  public MaterialsCacheStats getCacheStats() {
+    return getVersionCacheStats().plus(getProviderCacheStats());
+  }
+
+  private void onEviction(final boolean expired) {
+    if (expired) {
+      expiredEvictions.increment();
+    }
+  }
+
+  /**
+   * Returns the state of the circuit breaker around the {@link ProviderStore}, which is always
+   * {@link CircuitBreaker.State#CLOSED} if no circuit breaker is configured.
+   */
+  public CircuitBreaker.State getCircuitState() {
+    return circuitBreaker == null ? CircuitBreaker.State.CLOSED : circuitBreaker.getState();
+  }
+
+  /** Returns the number of calls to the {@link ProviderStore} rejected by the circuit breaker. */
+  public long getCircuitRejectedCount() {
+    return circuitBreaker == null ? 0 : circuitBreaker.getRejectedCount();
+  }
+
+  /** Returns the number of times the circuit breaker opened. */
+  public long getCircuitOpenCount() {
+    return circuitBreaker == null ? 0 : circuitBreaker.getOpenCount();
+  }
+
+  /**
+   * Loads key from cache, or if that fails, returns the value last loaded for key if it is within
+   * the stale window. Once a load has failed, the value last loaded is served without calling the
+   * store until the stale retry interval elapses.
+   */
+  private <T> T loadOrStale(
+      final MaterialsCache<T> cache,
+      final Function<String, T> loader,
+      final LRUCache<Stamped<T>> lastKnown,
+      final String key) {
+    if (lastKnown == null) {
+      return cache.load(key, loader);
+    }
+    try {
+      return cache.load(key, k -> loadUnlessRetryPending(loader, lastKnown, k));
+    } catch (RuntimeException ex) {
+      final Stamped<T> stale = lastKnown.get(key);
+      final long now = nanoClock.getAsLong();
+      if (!isServable(stale, now)) {
+        throw ex;
+      }
+      if (!isRetryPending(stale, now)) {
+        // The store was called and failed, so wait before calling it again
+        stale.lastFailureNano = now;
+        stale.failed = true;
+      }
+      staleServed.increment();
+      return stale.value;
+    }
+  }
+
+  /**
+   * Calls loader, unless the last load of key failed less than the stale retry interval ago and
+   * its stale value may still be served.
+   */
+  private <T> T loadUnlessRetryPending(
+      final Function<String, T> loader, final LRUCache<Stamped<T>> lastKnown, final String key) {
+    final Stamped<T> stale = lastKnown.get(key);
+    final long now = nanoClock.getAsLong();
+    if (isServable(stale, now) && isRetryPending(stale, now)) {
+      throw new IllegalStateException(
+          "Calls to the ProviderStore for " + key + " are suspended after a failure");
+    }
+    return loader.apply(key);
+  }
+
+  /** Returns whether stale may be served in place of a value which failed to load. */
+  private boolean isServable(final Stamped<?> stale, final long now) {
+    return stale != null && now - stale.loadedNano <= ttlInNanos + maxStaleNanos;
+  }
+
+  private boolean isRetryPending(final Stamped<?> stale, final long now) {
+    return stale.failed && now - stale.lastFailureNano < staleRetryNanos;
+  }
+
+  /** Records value as the last value loaded for key, if stale-while-error is enabled. */
+  private <T> T remember(final LRUCache<Stamped<T>> lastKnown, final String key, final T value) {
+    if (lastKnown != null) {
+      lastKnown.add(key, new Stamped<>(value, nanoClock.getAsLong()));
+    }
+    return value;
+  }
+
+  /**
+   * Calls the {@link ProviderStore} through the circuit breaker, if one is configured. Missing
+   * materials, which are reported by an {@link IndexOutOfBoundsException}, are not failures of the
+   * store.
+   */
+  private <T> T callStore(final Supplier<T> call) {
+    if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+      throw new IllegalStateException(
+          "Calls to the ProviderStore are suspended after repeated failures");
+    }
+    final T result;
+    try {
+      result = call.get();
+    } catch (IndexOutOfBoundsException ex) {
+      if (circuitBreaker != null) {
+        circuitBreaker.onSuccess();
+      }
+      throw ex;
+    } catch (RuntimeException | Error ex) {
+      storeFailures.increment();
+      if (circuitBreaker != null) {
+        circuitBreaker.onFailure();
+      }
+      throw ex;
+    }
+    if (circuitBreaker != null) {
+      circuitBreaker.onSuccess();
+    }
+    return result;
+  }
+
+  /** Marks materialName as in use, and schedules its refresh if it is not already scheduled. */
+  private void refreshAhead(final String materialName) {
+    final RefreshTask existing = refreshTasks.get(materialName);
+    if (existing != null) {
+      existing.used = true;
+      return;
+    }
+    final RefreshTask task = new RefreshTask(materialName);
+    if (refreshTasks.putIfAbsent(materialName, task) == null) {
+      task.schedule();
+    }
+  }
+
+  /**
+   * Loads the current version of materialName and its provider, and resets their age in the
+   * caches, so that requests find both cached. Runs on the calling thread.
+   */
+  private void refreshVersion(final String materialName) {
+    versionCache.refreshAsync(materialName, this::loadCurrentVersion, Runnable::run).join();
+  }
+
+  // Loads the current version, after caching its provider, so that requests which find the
+  // version also find its provider.
+  private Long loadCurrentVersion(final String materialName) {
+    final long version = versionLoader.apply(materialName);
+    if (version >= 0) {
+      final String cacheKey = buildCacheKey(materialName, version);
+      providerCache.put(cacheKey, providerCache.load(cacheKey, providerLoader));
+    }
+    return version;
+  }
+
+  /** A value loaded from the {@link ProviderStore}, and when it was loaded. */
+  private static final class Stamped<T> {
+    private final T value;
+    private final long loadedNano;
+    // When a load of the value's key last failed, if it has failed since the value was loaded
+    private volatile long lastFailureNano;
+    private volatile boolean failed = false;
+
+    private Stamped(final T value, final long loadedNano) {
+      this.value = value;
+      this.loadedNano = loadedNano;
+    }
+  }
+
+  /** Returns the delay before the next refresh-ahead poll, in nanoseconds. */
+  private long refreshDelayNanos() {
+    final double jitter = refreshJitter * ThreadLocalRandom.current().nextDouble();
+    return (long) (ttlInNanos * REFRESH_AHEAD_FRACTION * (1 - jitter));
+  }
+
+  /**
+   * Periodically refreshes the version of one material. The task ends, and is removed, once the
+   * material was not used for encryption since the previous refresh.
+   */
+  private final class RefreshTask implements Runnable {
+    private final String materialName;
+    // Initially false, as the version was just loaded by the request which scheduled this
+    private volatile boolean used = false;
+
+    private RefreshTask(final String materialName) {
+      this.materialName = materialName;
+    }
+
+    private void schedule() {
+      try {
+        refreshScheduler.schedule(this, refreshDelayNanos(), TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        // The scheduler is shut down, so requests load versions as usual
+        refreshTasks.remove(materialName, this);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!used) {
+        refreshTasks.remove(materialName, this);
+        return;
+      }
+      used = false;
+      try {
+        refreshVersion(materialName);
+      } catch (RuntimeException ex) {
+        // Requests reload the version as usual once it expires, and the next poll tries again
+      }
+      schedule();
+    }
+  }
+
   protected String getMaterialName(final EncryptionContext context) {
     return defaultMaterialName;
   }
@@ -179,4 +558,158 @@ public class CachingMostRecentProvider implements EncryptionMaterialsProvider {
     result.append(version);
     return result.toString();
   }
+
+  /** Builds a {@link CachingMostRecentProvider}. */
+  public static class Builder {
+    private final ProviderStore keystore;
+    private final String materialName;
+    private final long ttlInMillis;
+    private int maxCacheSize = DEFAULT_CACHE_MAX_SIZE;
+    private ScheduledExecutorService refreshScheduler = null;
+    private double refreshJitter = DEFAULT_REFRESH_AHEAD_JITTER;
+    private long maxStaleNanos = -1;
+    private long staleRetryNanos =
+        TimeUnit.MILLISECONDS.toNanos(DEFAULT_STALE_RETRY_INTERVAL_MILLIS);
+    private int failureThreshold = 0;
+    private long initialBackoffNanos;
+    private long maxBackoffNanos;
+    private MaterialsCache<Long> versionCache = null;
+    private MaterialsCache<EncryptionMaterialsProvider> providerCache = null;
+    private ScheduledExecutorService sweepScheduler = null;
+    private long sweepPeriodNanos;
+
+    /**
+     * @param keystore The key store that this provider will use to determine which material and
+     *     which version of material to use
+     * @param materialName The name of the materials associated with this provider
+     * @param ttlInMillis The length of time in milliseconds to cache the most recent provider
+     */
+    public Builder(
+        final ProviderStore keystore, final String materialName, final long ttlInMillis) {
+      this.keystore = checkNotNull(keystore, "keystore must not be null");
+      this.materialName = materialName;
+      this.ttlInMillis = ttlInMillis;
+    }
+
+    /**
+     * Sets the maximum size of the underlying caches this provider uses. Entries will be evicted
+     * from the cache once this size is exceeded.
+     */
+    public Builder withMaxCacheSize(final int maxCacheSize) {
+      this.maxCacheSize = maxCacheSize;
+      return this;
+    }
+
+    /**
+     * Enables refresh-ahead, polling the current version of each material in use on {@code
+     * scheduler} after three quarters of the TTL, less any jitter. Disabled by default.
+     */
+    public Builder withRefreshAhead(final ScheduledExecutorService scheduler) {
+      this.refreshScheduler = checkNotNull(scheduler, "scheduler must not be null");
+      return this;
+    }
+
+    /**
+     * Sets the fraction, from 0 to 1, of the refresh-ahead delay by which each poll is brought
+     * forward at random. Defaults to {@link #DEFAULT_REFRESH_AHEAD_JITTER}.
+     */
+    public Builder withRefreshAheadJitter(final double jitter) {
+      if (!(jitter >= 0 && jitter <= 1)) {
+        throw new IllegalArgumentException("jitter " + jitter + " must be between 0 and 1");
+      }
+      this.refreshJitter = jitter;
+      return this;
+    }
+
+    /**
+     * Enables stale-while-error: if loading from the {@link ProviderStore} fails, requests are
+     * served with the version and providers which were last loaded, for up to {@code maxStaleness}
+     * after they expire. Requests fail as usual once it elapses. Disabled by default.
+     */
+    public Builder withStaleWhileError(final long maxStaleness, final TimeUnit unit) {
+      if (maxStaleness < 0) {
+        throw new IllegalArgumentException(
+            "maxStaleness " + maxStaleness + " must not be negative");
+      }
+      this.maxStaleNanos = unit.toNanos(maxStaleness);
+      return this;
+    }
+
+    /**
+     * Sets how long stale-while-error serves the last version or provider loaded for a key without
+     * calling the {@link ProviderStore}, after a call to load it failed. Once it elapses, the next
+     * request for the key retries the store. Defaults to {@link
+     * #DEFAULT_STALE_RETRY_INTERVAL_MILLIS} milliseconds.
+     */
+    public Builder withStaleRetryInterval(final long interval, final TimeUnit unit) {
+      if (interval < 0) {
+        throw new IllegalArgumentException("interval " + interval + " must not be negative");
+      }
+      this.staleRetryNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Enables a circuit breaker around calls to the {@link ProviderStore}. After {@code
+     * failureThreshold} consecutive failures, calls fail without reaching the store for {@code
+     * initialBackoff}; a single call is then retried, and each further failure doubles the backoff
+     * up to {@code maxBackoff}. Disabled by default.
+     *
+     * @see CircuitBreaker
+     */
+    public Builder withCircuitBreaker(
+        final int failureThreshold,
+        final long initialBackoff,
+        final long maxBackoff,
+        final TimeUnit unit) {
+      if (failureThreshold < 1) {
+        throw new IllegalArgumentException(
+            "failureThreshold " + failureThreshold + " must be at least 1");
+      }
+      if (initialBackoff < 1 || maxBackoff < initialBackoff) {
+        throw new IllegalArgumentException(
+            "initialBackoff "
+                + initialBackoff
+                + " must be at least 1 and no more than maxBackoff "
+                + maxBackoff);
+      }
+      this.failureThreshold = failureThreshold;
+      this.initialBackoffNanos = unit.toNanos(initialBackoff);
+      this.maxBackoffNanos = unit.toNanos(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Sets the caches of versions, keyed by material name, and of providers, keyed by material name
+     * and version. The caches decide how long entries are cached, and which are evicted, in place
+     * of the TTL and maximum cache size of this builder; the TTL is still used for refresh-ahead
+     * and stale-while-error. Defaults to {@link TTLMaterialsCache}s.
+     */
+    public Builder withCaches(
+        final MaterialsCache<Long> versionCache,
+        final MaterialsCache<EncryptionMaterialsProvider> providerCache) {
+      this.versionCache = checkNotNull(versionCache, "versionCache must not be null");
+      this.providerCache = checkNotNull(providerCache, "providerCache must not be null");
+      return this;
+    }
+
+    /**
+     * Enables an expiry sweeper, which evicts the expired entries of the default caches on {@code
+     * scheduler}, every {@code period}. Caches set with {@link #withCaches(MaterialsCache,
+     * MaterialsCache)} are not swept. Disabled by default.
+     */
+    public Builder withExpirySweeper(
+        final ScheduledExecutorService scheduler, final long period, final TimeUnit unit) {
+      if (period < 1) {
+        throw new IllegalArgumentException("period " + period + " must be at least 1");
+      }
+      this.sweepScheduler = checkNotNull(scheduler, "scheduler must not be null");
+      this.sweepPeriodNanos = unit.toNanos(period);
+      return this;
+    }
+
+    public CachingMostRecentProvider build() {
+      return new CachingMostRecentProvider(this);
+    }
+  }
 }
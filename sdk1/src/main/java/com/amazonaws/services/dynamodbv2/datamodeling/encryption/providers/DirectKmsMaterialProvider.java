@@ -28,6 +28,9 @@ import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.Symme
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.WrappedRawMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Base64;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Hkdf;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.LRUCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.SingleFlight;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.kms.AWSKMS;
 import com.amazonaws.services.kms.model.DecryptRequest;
@@ -40,6 +43,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -49,19 +58,36 @@ import javax.crypto.spec.SecretKeySpec;
  * EncryptionContext for wrapping/unwrapping the key. This means that records cannot be copied/moved
  * between tables without re-encryption.
  *
+ * <p>Records written by a {@link CachingDirectKmsMaterialProvider} with a table-scoped encryption
+ * context record this in their material description, and only the TableName is included in the
+ * KMS EncryptionContext when they are decrypted.
+ *
+ * <p>Records which share a data key, such as those written by a {@link
+ * CachingDirectKmsMaterialProvider}, also share their decryption materials. If {@link
+ * #enableDecryptionCache(int, long, TimeUnit) enabled}, the materials derived from each data key
+ * are cached by its ciphertext and KMS EncryptionContext, and KMS is only called on a cache miss.
+ * If {@link #enableDecryptCoalescing() enabled}, concurrent requests to decrypt the same data key
+ * under the same KMS EncryptionContext share a single call to {@link #decrypt(DecryptRequest,
+ * EncryptionContext)}, whether or not it is cached.
+ *
  * @see <a href="http://docs.aws.amazon.com/kms/latest/developerguide/encrypt-context.html">KMS
  *     Encryption Context</a>
  */
 public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
   static final String USER_AGENT_PREFIX = "DynamodbEncryptionSdkJava/";
   private static final String USER_AGENT = USER_AGENT_PREFIX + loadVersion();
-  private static final String COVERED_ATTR_CTX_KEY = "aws-kms-ec-attr";
+  static final String COVERED_ATTR_CTX_KEY = "aws-kms-ec-attr";
   private static final String SIGNING_KEY_ALGORITHM = "amzn-ddb-sig-alg";
   private static final String TABLE_NAME_EC_KEY = "*aws-kms-table*";
 
   private static final String DEFAULT_ENC_ALG = "AES/256";
   private static final String DEFAULT_SIG_ALG = "HmacSHA256/256";
-  private static final String KEY_COVERAGE = "*keys*";
+  static final String KEY_COVERAGE = "*keys*";
+  /**
+   * The coverage of records whose KMS encryption context includes only the table name, and not the
+   * hash and range keys, so that their data key may be shared by several records of the table.
+   */
+  static final String TABLE_COVERAGE = "*table*";
   private static final String KDF_ALG = "HmacSHA256";
   private static final String KDF_SIG_INFO = "Signing";
   private static final String KDF_ENC_INFO = "Encryption";
@@ -76,6 +102,14 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
   private final int sigKeyLength;
   private final String sigKeyDesc;
 
+  private volatile DecryptionCache decryptionCache = null;
+  private final LongAdder decryptionCacheHits = new LongAdder();
+  private final LongAdder decryptionCacheMisses = new LongAdder();
+  private volatile boolean coalesceDecrypts = false;
+  private final SingleFlight<String, DecryptResult> decryptFlights = new SingleFlight<>();
+  // Mockable time source, to allow us to test TTL behavior.
+  LongSupplier nanoClock = System::nanoTime;
+
   public DirectKmsMaterialProvider(AWSKMS kms) {
     this(kms, null);
   }
@@ -114,22 +148,159 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
 
   @Override
   public DecryptionMaterials getDecryptionMaterials(EncryptionContext context) {
+    final DecryptRequest request = buildDecryptRequest(context);
+    final DecryptionMaterials cached = getCachedDecryptionMaterials(request, context);
+    if (cached != null) {
+      return cached;
+    }
+    final DecryptResult result =
+        coalesceDecrypts
+            ? decryptFlights.execute(
+                dataKeyIdentity(request, context), () -> decrypt(request, context))
+            : decrypt(request, context);
+    return toDecryptionMaterials(request, result, context);
+  }
+
+  /**
+   * Decrypts the data key of the record described by context. If {@link #enableDecryptCoalescing()
+   * enabled}, the result is shared with concurrent requests for the same data key and KMS
+   * encryption context.
+   */
+  CompletableFuture<DecryptResult> decryptCoalesced(
+      DecryptRequest request,
+      EncryptionContext context,
+      Supplier<CompletableFuture<DecryptResult>> decrypt) {
+    if (coalesceDecrypts) {
+      return decryptFlights.executeAsync(dataKeyIdentity(request, context), decrypt);
+    }
+    try {
+      return decrypt.get();
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+  }
+
+  /**
+   * Shares each call to {@link #decrypt(DecryptRequest, EncryptionContext)} with any concurrent
+   * request to decrypt the same data key under the same KMS EncryptionContext. The call is made
+   * with the {@link EncryptionContext} of the first of these requests, so only enable this if
+   * {@code decrypt} is not overridden to depend on the rest of the context.
+   */
+  public void enableDecryptCoalescing() {
+    coalesceDecrypts = true;
+  }
+
+  /** Calls {@link #decrypt(DecryptRequest, EncryptionContext)} once for every request. */
+  public void disableDecryptCoalescing() {
+    coalesceDecrypts = false;
+  }
+
+  /** Returns the number of requests which shared a decryption of their data key in flight. */
+  public long getCoalescedDecryptCount() {
+    return decryptFlights.getCoalescedCount();
+  }
+
+  /**
+   * Caches the decryption materials of up to {@code maxSize} data keys, each for at most {@code
+   * ttl}. While they are cached, records which share a data key are decrypted without calling
+   * {@link #decrypt(DecryptRequest, EncryptionContext)}. {@link
+   * #validateEncryptionKeyId(String, EncryptionContext)} is still called for every record.
+   *
+   * <p>Replaces any existing cache, and resets its statistics.
+   */
+  public void enableDecryptionCache(int maxSize, long ttl, TimeUnit unit) {
+    if (ttl < 1) {
+      throw new IllegalArgumentException("ttl " + ttl + " must be at least 1");
+    }
+    final DecryptionCache cache = new DecryptionCache(maxSize, unit.toNanos(ttl));
+    decryptionCacheHits.reset();
+    decryptionCacheMisses.reset();
+    decryptionCache = cache;
+  }
+
+  /** Stops caching decryption materials, and discards those which are cached. */
+  public void disableDecryptionCache() {
+    decryptionCache = null;
+  }
+
+  /** Returns the number of records whose decryption materials were found in the cache. */
+  public long getDecryptionCacheHitCount() {
+    return decryptionCacheHits.sum();
+  }
+
+  /** Returns the number of records whose data key had to be decrypted while caching was enabled. */
+  public long getDecryptionCacheMissCount() {
+    return decryptionCacheMisses.sum();
+  }
+
+  /** Returns the number of cached data keys, including any which have expired. */
+  public int getDecryptionCacheSize() {
+    final DecryptionCache cache = decryptionCache;
+    return cache != null ? cache.entries.size() : 0;
+  }
+
+  /**
+   * Returns the cached decryption materials of the record described by context, or null if the
+   * cache is disabled or does not hold its data key.
+   */
+  DecryptionMaterials getCachedDecryptionMaterials(
+      DecryptRequest request, EncryptionContext context) {
+    final DecryptionCache cache = decryptionCache;
+    if (cache == null) {
+      return null;
+    }
+    final DecryptionKeys keys = cache.entries.get(dataKeyIdentity(request, context));
+    if (keys == null || nanoClock.getAsLong() - keys.createdNano >= cache.ttlInNanos) {
+      decryptionCacheMisses.increment();
+      return null;
+    }
+    decryptionCacheHits.increment();
+    validateEncryptionKeyId(keys.keyId, context);
+    return new SymmetricRawMaterials(
+        keys.encryptionKey, keys.macKey, context.getMaterialDescription());
+  }
+
+  /**
+   * Derives the decryption materials of the record described by context from the result of
+   * request, caching them if the cache is enabled.
+   */
+  DecryptionMaterials toDecryptionMaterials(
+      DecryptRequest request, DecryptResult decryptResult, EncryptionContext context) {
+    final DecryptionKeys keys = deriveDecryptionKeys(decryptResult, context);
+    final DecryptionCache cache = decryptionCache;
+    if (cache != null) {
+      cache.entries.add(dataKeyIdentity(request, context), keys);
+    }
+    return new SymmetricRawMaterials(
+        keys.encryptionKey, keys.macKey, context.getMaterialDescription());
+  }
+
+  /** Builds the KMS request which unwraps the data key of the record described by context. */
+  DecryptRequest buildDecryptRequest(EncryptionContext context) {
     final Map<String, String> materialDescription = context.getMaterialDescription();
 
     final Map<String, String> ec = new HashMap<>();
-    final String providedEncAlg = materialDescription.get(CONTENT_KEY_ALGORITHM);
-    final String providedSigAlg = materialDescription.get(SIGNING_KEY_ALGORITHM);
-
-    ec.put("*" + CONTENT_KEY_ALGORITHM + "*", providedEncAlg);
-    ec.put("*" + SIGNING_KEY_ALGORITHM + "*", providedSigAlg);
+    ec.put("*" + CONTENT_KEY_ALGORITHM + "*", materialDescription.get(CONTENT_KEY_ALGORITHM));
+    ec.put("*" + SIGNING_KEY_ALGORITHM + "*", materialDescription.get(SIGNING_KEY_ALGORITHM));
 
-    populateKmsEcFromEc(context, ec);
+    populateKmsEcFromEc(
+        TABLE_COVERAGE.equals(materialDescription.get(COVERED_ATTR_CTX_KEY))
+            ? withoutKeys(context)
+            : context,
+        ec);
 
     DecryptRequest request = appendUserAgent(new DecryptRequest());
     request.setCiphertextBlob(
         ByteBuffer.wrap(Base64.decode(materialDescription.get(ENVELOPE_KEY))));
     request.setEncryptionContext(ec);
-    final DecryptResult decryptResult = decrypt(request, context);
+    return request;
+  }
+
+  private DecryptionKeys deriveDecryptionKeys(
+      DecryptResult decryptResult, EncryptionContext context) {
+    final Map<String, String> materialDescription = context.getMaterialDescription();
+    final String providedEncAlg = materialDescription.get(CONTENT_KEY_ALGORITHM);
+    final String providedSigAlg = materialDescription.get(SIGNING_KEY_ALGORITHM);
     validateEncryptionKeyId(decryptResult.getKeyId(), context);
 
     final Hkdf kdf;
@@ -150,11 +321,17 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     final SecretKey macKey =
         new SecretKeySpec(kdf.deriveKey(KDF_SIG_INFO, sigLength / 8), sigAlgParts[0]);
 
-    return new SymmetricRawMaterials(encryptionKey, macKey, materialDescription);
+    return new DecryptionKeys(
+        decryptResult.getKeyId(), encryptionKey, macKey, nanoClock.getAsLong());
   }
 
   @Override
   public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+    return toEncryptionMaterials(generateDataKey(buildGenerateDataKeyRequest(context), context));
+  }
+
+  /** Builds the KMS request which generates a data key for the record described by context. */
+  GenerateDataKeyRequest buildGenerateDataKeyRequest(EncryptionContext context) {
     final Map<String, String> ec = new HashMap<>();
     ec.put("*" + CONTENT_KEY_ALGORITHM + "*", dataKeyDesc);
     ec.put("*" + SIGNING_KEY_ALGORITHM + "*", sigKeyDesc);
@@ -171,12 +348,23 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     // we're using it as an HKDF-SHA256 key.
     req.setNumberOfBytes(256 / 8);
     req.setEncryptionContext(ec);
+    return req;
+  }
 
-    final GenerateDataKeyResult dataKeyResult = generateDataKey(req, context);
+  /** Derives the encryption materials, and their material description, from a new data key. */
+  EncryptionMaterials toEncryptionMaterials(GenerateDataKeyResult dataKeyResult) {
+    return toEncryptionMaterials(dataKeyResult, KEY_COVERAGE);
+  }
 
+  /**
+   * Derives the encryption materials from a new data key whose KMS encryption context covers
+   * either {@link #KEY_COVERAGE the keys of the record} or {@link #TABLE_COVERAGE only its table}.
+   */
+  EncryptionMaterials toEncryptionMaterials(
+      GenerateDataKeyResult dataKeyResult, String keyCoverage) {
     final Map<String, String> materialDescription = new HashMap<>();
     materialDescription.putAll(description);
-    materialDescription.put(COVERED_ATTR_CTX_KEY, KEY_COVERAGE);
+    materialDescription.put(COVERED_ATTR_CTX_KEY, keyCoverage);
     materialDescription.put(KEY_WRAPPING_ALGORITHM, "kms");
     materialDescription.put(CONTENT_KEY_ALGORITHM, dataKeyDesc);
     materialDescription.put(SIGNING_KEY_ALGORITHM, sigKeyDesc);
@@ -313,6 +501,46 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     }
   }
 
+  /**
+   * Returns {@code context} without its hash and range key names, so that {@link
+   * #populateKmsEcFromEc(EncryptionContext, Map)} includes only the table in the KMS encryption
+   * context.
+   */
+  static EncryptionContext withoutKeys(EncryptionContext context) {
+    return new EncryptionContext.Builder(context)
+        .withHashKeyName(null)
+        .withRangeKeyName(null)
+        .build();
+  }
+
+  /**
+   * Returns a key identifying the data key of the record described by context. The KMS encryption
+   * context includes the algorithms from which the materials are derived.
+   */
+  private static String dataKeyIdentity(DecryptRequest request, EncryptionContext context) {
+    return cacheKey(
+        context.getMaterialDescription().get(ENVELOPE_KEY), request.getEncryptionContext());
+  }
+
+  /** Returns a string identifying {@code id} together with the KMS encryption context ec. */
+  static String cacheKey(String id, Map<String, String> ec) {
+    final StringBuilder sb = new StringBuilder();
+    appendLengthPrefixed(sb, id);
+    for (Map.Entry<String, String> entry : new TreeMap<>(ec).entrySet()) {
+      appendLengthPrefixed(sb, entry.getKey());
+      appendLengthPrefixed(sb, entry.getValue());
+    }
+    return sb.toString();
+  }
+
+  private static void appendLengthPrefixed(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("-1:");
+    } else {
+      sb.append(value.length()).append(':').append(value);
+    }
+  }
+
   private static byte[] toArray(final ByteBuffer buff) {
     final ByteBuffer dup = buff.asReadOnlyBuffer();
     byte[] result = new byte[dup.remaining()];
@@ -325,8 +553,38 @@ public class DirectKmsMaterialProvider implements EncryptionMaterialsProvider {
     return request;
   }
 
+  /** Clears the decryption cache, if it is enabled. */
   @Override
   public void refresh() {
-    // No action needed
+    final DecryptionCache cache = decryptionCache;
+    if (cache != null) {
+      cache.entries.clear();
+    }
+  }
+
+  private static final class DecryptionCache {
+    private final LRUCache<DecryptionKeys> entries;
+    private final long ttlInNanos;
+
+    private DecryptionCache(int maxSize, long ttlInNanos) {
+      this.entries = new LRUCache<>(maxSize);
+      this.ttlInNanos = ttlInNanos;
+    }
+  }
+
+  /** The keys derived from a data key, which may be shared by the records it protects. */
+  private static final class DecryptionKeys {
+    private final String keyId;
+    private final SecretKey encryptionKey;
+    private final SecretKey macKey;
+    private final long createdNano;
+
+    private DecryptionKeys(
+        String keyId, SecretKey encryptionKey, SecretKey macKey, long createdNano) {
+      this.keyId = keyId;
+      this.encryptionKey = encryptionKey;
+      this.macKey = macKey;
+      this.createdNano = createdNano;
+    }
   }
 }
@@ -58,4 +58,26 @@ public interface EncryptionMaterialsProvider {
    * material.
    */
   public void refresh();
+
+  /**
+   * Returns true if the {@link EncryptionMaterials} returned by {@link
+   * #getEncryptionMaterials(EncryptionContext)} do not depend on the attribute values of the record
+   * being encrypted, and so may be used to encrypt several records written to the same table with
+   * the same {@link EncryptionContext}. Batch operations use this to request materials once per
+   * batch rather than once per record. The default implementation returns false.
+   */
+  public default boolean isEncryptionMaterialsReusable() {
+    return false;
+  }
+
+  /**
+   * Returns true if the {@link DecryptionMaterials} returned by {@link
+   * #getDecryptionMaterials(EncryptionContext)} depend only on the material description of the
+   * record being decrypted, and so may be used to decrypt every record with an identical material
+   * description read from the same table. Batch operations use this to request materials once per
+   * distinct description rather than once per record. The default implementation returns false.
+   */
+  public default boolean isDecryptionMaterialsReusable() {
+    return false;
+  }
 }
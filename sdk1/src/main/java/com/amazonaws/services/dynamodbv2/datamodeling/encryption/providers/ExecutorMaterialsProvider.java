@@ -0,0 +1,63 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Adapts a synchronous {@link EncryptionMaterialsProvider} by calling it on an {@link Executor}.
+ *
+ * @see AsyncEncryptionMaterialsProvider#adapt(EncryptionMaterialsProvider, Executor)
+ */
+final class ExecutorMaterialsProvider implements AsyncEncryptionMaterialsProvider {
+  private final EncryptionMaterialsProvider provider;
+  private final Executor executor;
+
+  ExecutorMaterialsProvider(final EncryptionMaterialsProvider provider, final Executor executor) {
+    this.provider = checkNotNull(provider, "provider must not be null");
+    this.executor = checkNotNull(executor, "executor must not be null");
+  }
+
+  @Override
+  public CompletableFuture<DecryptionMaterials> getDecryptionMaterialsAsync(
+      final EncryptionContext context) {
+    return CompletableFuture.supplyAsync(() -> provider.getDecryptionMaterials(context), executor);
+  }
+
+  @Override
+  public CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync(
+      final EncryptionContext context) {
+    return CompletableFuture.supplyAsync(() -> provider.getEncryptionMaterials(context), executor);
+  }
+
+  @Override
+  public DecryptionMaterials getDecryptionMaterials(final EncryptionContext context) {
+    return provider.getDecryptionMaterials(context);
+  }
+
+  @Override
+  public EncryptionMaterials getEncryptionMaterials(final EncryptionContext context) {
+    return provider.getEncryptionMaterials(context);
+  }
+
+  @Override
+  public void refresh() {
+    provider.refresh();
+  }
+
+  @Override
+  public boolean isEncryptionMaterialsReusable() {
+    return provider.isEncryptionMaterialsReusable();
+  }
+
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return provider.isDecryptionMaterialsReusable();
+  }
+}
@@ -155,6 +155,28 @@ public class KeyStoreMaterialsProvider implements EncryptionMaterialsProvider {
     }
   }
 
+  /**
+   * Returns true, as the materials do not depend on the record being encrypted.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getEncryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isEncryptionMaterialsReusable() {
+    return getClass() == KeyStoreMaterialsProvider.class;
+  }
+
+  /**
+   * Returns true, as the materials depend only on the material description.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getDecryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return getClass() == KeyStoreMaterialsProvider.class;
+  }
+
   private void validateKeys() throws KeyStoreException {
     if (!keyStore.containsAlias(encryptionAlias)) {
       throw new IllegalArgumentException("Keystore does not contain alias: " + encryptionAlias);
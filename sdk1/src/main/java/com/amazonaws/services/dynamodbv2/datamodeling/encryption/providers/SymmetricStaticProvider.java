@@ -111,4 +111,26 @@ public class SymmetricStaticProvider implements EncryptionMaterialsProvider {
   public void refresh() {
     // Do Nothing
   }
+
+  /**
+   * Returns true, as the same materials are returned for every record.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getEncryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isEncryptionMaterialsReusable() {
+    return getClass() == SymmetricStaticProvider.class;
+  }
+
+  /**
+   * Returns true, as the materials depend only on the material description.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getDecryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return getClass() == SymmetricStaticProvider.class;
+  }
 }
@@ -148,4 +148,28 @@ public class WrappedMaterialsProvider implements EncryptionMaterialsProvider {
   public void refresh() {
     // Do nothing
   }
+
+  /**
+   * Returns true, as the materials do not depend on the record being encrypted. Note that records
+   * encrypted by a batch operation will share a single content key.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getEncryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isEncryptionMaterialsReusable() {
+    return getClass() == WrappedMaterialsProvider.class;
+  }
+
+  /**
+   * Returns true, as the materials depend only on the material description, which holds the
+   * wrapped content key.
+   *
+   * <p>Returns false for subclasses, which may override {@link
+   * #getDecryptionMaterials(EncryptionContext)}; they must override this method to reuse materials.
+   */
+  @Override
+  public boolean isDecryptionMaterialsReusable() {
+    return getClass() == WrappedMaterialsProvider.class;
+  }
 }
@@ -0,0 +1,67 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A cache of materials, such as the versions and providers cached by {@link
+ * com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.CachingMostRecentProvider}.
+ * Implementations decide how long entries are cached and which are evicted; {@link
+ * TTLMaterialsCache} is the default implementation.
+ *
+ * <p>Implementations must be thread safe, and must pass the conformance tests which accompany this
+ * interface.
+ *
+ * @param <T> value type
+ */
+public interface MaterialsCache<T> {
+  /**
+   * Returns the value cached at key, or if there is none, calls {@code loader} to load it and
+   * caches the result. Concurrent loads of the same key should call {@code loader} only once.
+   * Exceptions thrown by {@code loader} are thrown to the caller, and nothing is cached.
+   *
+   * @param key The cache key to load the value at
+   * @param loader The function to use to load the value, given key as input
+   * @return The value of the given key (already existing or loaded).
+   */
+  T load(String key, Function<String, T> loader);
+
+  /**
+   * Caches value at key, replacing any value already cached. Returns the value previously cached at
+   * key, or null if there was none.
+   */
+  T put(String key, T value);
+
+  /** Removes the value cached at key, if any. */
+  void invalidate(String key);
+
+  /** Removes all cached values. */
+  void invalidateAll();
+
+  /**
+   * Returns when the value at key was cached, as a {@link System#nanoTime()} timestamp, or 0 if no
+   * value is cached at key.
+   */
+  long getLastUpdated(String key);
+
+  /** Returns the statistics of this cache. */
+  MaterialsCacheStats stats();
+
+  /**
+   * Loads a new value for key with {@code loader} on {@code executor}, and caches it once loaded.
+   * Until then, the value already cached continues to be served. If {@code loader} fails, the
+   * cached value is left in place, and the returned future completes exceptionally.
+   */
+  default CompletableFuture<T> refreshAsync(
+      final String key, final Function<String, T> loader, final Executor executor) {
+    return CompletableFuture.supplyAsync(() -> loader.apply(key), executor)
+        .thenApply(
+            value -> {
+              put(key, value);
+              return value;
+            });
+  }
+}
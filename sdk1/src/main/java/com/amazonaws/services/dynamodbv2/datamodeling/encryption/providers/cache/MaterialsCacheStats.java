@@ -0,0 +1,130 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache;
+
+/** An immutable snapshot of the statistics of a {@link MaterialsCache}. */
+public final class MaterialsCacheStats {
+  private final long hitCount;
+  private final long graceHitCount;
+  private final long missCount;
+  private final long loadSuccessCount;
+  private final long loadFailureCount;
+  private final long totalLoadTimeNanos;
+  private final long evictionCount;
+
+  /** Creates the statistics of a cache which does not serve values within a grace period. */
+  public MaterialsCacheStats(
+      final long hitCount,
+      final long missCount,
+      final long loadSuccessCount,
+      final long loadFailureCount,
+      final long totalLoadTimeNanos,
+      final long evictionCount) {
+    this(
+        hitCount,
+        0,
+        missCount,
+        loadSuccessCount,
+        loadFailureCount,
+        totalLoadTimeNanos,
+        evictionCount);
+  }
+
+  public MaterialsCacheStats(
+      final long hitCount,
+      final long graceHitCount,
+      final long missCount,
+      final long loadSuccessCount,
+      final long loadFailureCount,
+      final long totalLoadTimeNanos,
+      final long evictionCount) {
+    this.hitCount = hitCount;
+    this.graceHitCount = graceHitCount;
+    this.missCount = missCount;
+    this.loadSuccessCount = loadSuccessCount;
+    this.loadFailureCount = loadFailureCount;
+    this.totalLoadTimeNanos = totalLoadTimeNanos;
+    this.evictionCount = evictionCount;
+  }
+
+  /** Returns the number of loads which returned a cached value. */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of loads which returned a cached value past its time to live, within a grace
+   * period while it was reloaded. These are included in {@link #getHitCount()}.
+   */
+  public long getGraceHitCount() {
+    return graceHitCount;
+  }
+
+  /** Returns the number of loads which did not find a cached value. */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of calls to a loader which succeeded. */
+  public long getLoadSuccessCount() {
+    return loadSuccessCount;
+  }
+
+  /** Returns the number of calls to a loader which failed. */
+  public long getLoadFailureCount() {
+    return loadFailureCount;
+  }
+
+  /** Returns the total time spent in calls to a loader, in nanoseconds. */
+  public long getTotalLoadTimeNanos() {
+    return totalLoadTimeNanos;
+  }
+
+  /** Returns the number of values evicted by the cache. */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the fraction of loads which returned a cached value, or 1 if there were none. */
+  public double getHitRate() {
+    final long requests = hitCount + missCount;
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+
+  /** Returns the average time spent in a call to a loader, in nanoseconds. */
+  public double getAverageLoadPenaltyNanos() {
+    final long loads = loadSuccessCount + loadFailureCount;
+    return loads == 0 ? 0.0 : (double) totalLoadTimeNanos / loads;
+  }
+
+  /** Returns the sum of these statistics and {@code other}. */
+  public MaterialsCacheStats plus(final MaterialsCacheStats other) {
+    return new MaterialsCacheStats(
+        hitCount + other.hitCount,
+        graceHitCount + other.graceHitCount,
+        missCount + other.missCount,
+        loadSuccessCount + other.loadSuccessCount,
+        loadFailureCount + other.loadFailureCount,
+        totalLoadTimeNanos + other.totalLoadTimeNanos,
+        evictionCount + other.evictionCount);
+  }
+
+  @Override
+  public String toString() {
+    return "MaterialsCacheStats{hitCount="
+        + hitCount
+        + ", graceHitCount="
+        + graceHitCount
+        + ", missCount="
+        + missCount
+        + ", loadSuccessCount="
+        + loadSuccessCount
+        + ", loadFailureCount="
+        + loadFailureCount
+        + ", totalLoadTimeNanos="
+        + totalLoadTimeNanos
+        + ", evictionCount="
+        + evictionCount
+        + "}";
+  }
+}
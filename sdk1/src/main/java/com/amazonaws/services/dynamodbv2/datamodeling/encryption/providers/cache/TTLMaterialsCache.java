@@ -0,0 +1,143 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache;
+
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.TTLCache;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The default {@link MaterialsCache}, which caches up to a maximum number of values for a fixed
+ * time to live, evicting the least recently used values once full.
+ *
+ * <p>Values are reloaded by the first load after they expire. Within a grace period after they
+ * expire, concurrent loads return the expired value rather than wait for the reload. Values which
+ * are not loaded again stay cached until they are evicted to make room for others, unless {@link
+ * #evictExpired()} is called, for instance on the schedule set by {@link
+ * #scheduleExpirySweeps(ScheduledExecutorService, long, TimeUnit)}.
+ *
+ * @param <T> value type
+ */
+@ThreadSafe
+public final class TTLMaterialsCache<T> implements MaterialsCache<T> {
+  private final TTLCache<T> cache;
+
+  /**
+   * @param maxSize the maximum number of values of the cache
+   * @param ttlInMillis the time to live of values of the cache, in milliseconds
+   */
+  public TTLMaterialsCache(final int maxSize, final long ttlInMillis) {
+    this(maxSize, ttlInMillis, (key, value, expired) -> {});
+  }
+
+  /**
+   * @param maxSize the maximum number of values of the cache
+   * @param ttlInMillis the time to live of values of the cache, in milliseconds
+   * @param evictionListener notified of each value evicted because it expired or the cache was
+   *     full, after it is evicted
+   */
+  public TTLMaterialsCache(
+      final int maxSize,
+      final long ttlInMillis,
+      final EvictionListener<? super T> evictionListener) {
+    this(maxSize, ttlInMillis, evictionListener, System::nanoTime);
+  }
+
+  // package access for tests, to advance time past the TTL without waiting
+  TTLMaterialsCache(
+      final int maxSize,
+      final long ttlInMillis,
+      final EvictionListener<? super T> evictionListener,
+      final LongSupplier nanoClock) {
+    checkNotNull(evictionListener, "evictionListener must not be null");
+    this.cache =
+        new TTLCache<>(
+            maxSize,
+            ttlInMillis,
+            key -> {
+              throw new UnsupportedOperationException("No loader given for " + key);
+            },
+            (key, value, cause) ->
+                evictionListener.onEviction(key, value, cause == TTLCache.EvictionCause.EXPIRED),
+            nanoClock);
+  }
+
+  @Override
+  public T load(final String key, final Function<String, T> loader) {
+    return cache.load(key, loader);
+  }
+
+  @Override
+  public T put(final String key, final T value) {
+    return cache.put(key, value);
+  }
+
+  @Override
+  public void invalidate(final String key) {
+    cache.remove(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  @Override
+  public long getLastUpdated(final String key) {
+    return cache.getLastUpdated(key);
+  }
+
+  @Override
+  public MaterialsCacheStats stats() {
+    return new MaterialsCacheStats(
+        cache.getHitCount(),
+        cache.getGraceHitCount(),
+        cache.getMissCount(),
+        cache.getLoadSuccessCount(),
+        cache.getLoadFailureCount(),
+        cache.getTotalLoadTimeNanos(),
+        cache.getEvictionCount());
+  }
+
+  /**
+   * Evicts all values which expired past the grace period, except those being reloaded. Returns the
+   * number of values evicted.
+   */
+  public int evictExpired() {
+    return cache.evictExpired();
+  }
+
+  /**
+   * Schedules {@link #evictExpired()} to run on executor with a fixed delay of {@code period}
+   * between runs, until the returned future is cancelled. The schedule does not keep this cache
+   * from being garbage collected, and ends once it is.
+   */
+  public ScheduledFuture<?> scheduleExpirySweeps(
+      final ScheduledExecutorService executor, final long period, final TimeUnit unit) {
+    return cache.scheduleExpirySweeps(executor, period, unit);
+  }
+
+  /** Returns the number of values in the cache. */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Notified of values evicted by a {@link TTLMaterialsCache}.
+   *
+   * @param <T> value type
+   */
+  public interface EvictionListener<T> {
+    /**
+     * @param expired whether the value was evicted because it expired, rather than because the
+     *     cache was full
+     */
+    void onEviction(String key, T value, boolean expired);
+  }
+}
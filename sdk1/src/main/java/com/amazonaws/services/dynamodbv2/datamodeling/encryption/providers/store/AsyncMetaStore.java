@@ -0,0 +1,184 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CompletableFutureHandler;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A {@link MetaStore} which can also read and create materials with {@link AmazonDynamoDBAsync}
+ * without blocking the calling thread. The table, its items and the synchronous methods are
+ * exactly those of {@link MetaStore}.
+ *
+ * <p>The material items are encrypted and decrypted with the asynchronous methods of the {@link
+ * DynamoDBEncryptor}, so the encryptor's provider may itself be asynchronous. The returned futures
+ * complete exceptionally with the exceptions which the corresponding synchronous methods would
+ * throw, such as {@link IndexOutOfBoundsException} for a missing version.
+ */
+public class AsyncMetaStore extends MetaStore {
+  private final AmazonDynamoDBAsync ddb;
+
+  /**
+   * Create a new AsyncMetaStore with specified table name.
+   *
+   * @param ddb Interface for accessing DynamoDB.
+   * @param tableName DynamoDB table name for this {@link MetaStore}.
+   * @param encryptor used to perform crypto operations on the record attributes.
+   */
+  public AsyncMetaStore(
+      final AmazonDynamoDBAsync ddb, final String tableName, final DynamoDBEncryptor encryptor) {
+    super(ddb, tableName, encryptor);
+    this.ddb = ddb;
+  }
+
+  /**
+   * Create a new AsyncMetaStore with specified table name and extra data supplier.
+   *
+   * @param ddb Interface for accessing DynamoDB.
+   * @param tableName DynamoDB table name for this {@link MetaStore}.
+   * @param encryptor used to perform crypto operations on the record attributes
+   * @param extraDataSupplier provides extra data that should be stored along with the material.
+   */
+  public AsyncMetaStore(
+      final AmazonDynamoDBAsync ddb,
+      final String tableName,
+      final DynamoDBEncryptor encryptor,
+      final ExtraDataSupplier extraDataSupplier) {
+    super(ddb, tableName, encryptor, extraDataSupplier);
+    this.ddb = ddb;
+  }
+
+  /**
+   * Asynchronously returns the provider with the specified name and version, as {@link
+   * #getProvider(String, long)} does.
+   */
+  public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(
+      final String materialName, final long version) {
+    return getProviderCoalesced(
+        materialName,
+        version,
+        () ->
+            getItemAsync(materialKey(materialName, version))
+                .thenCompose(
+                    item -> getPlainTextAsync(checkMaterialItem(item, materialName, version)))
+                .thenApply(this::toProvider));
+  }
+
+  /**
+   * Asynchronously returns the most recent provider with the specified name, creating version 0 if
+   * there are none, as {@link #getProvider(String)} does.
+   */
+  public CompletableFuture<EncryptionMaterialsProvider> getProviderAsync(
+      final String materialName) {
+    return getMaxVersionAsync(materialName)
+        .thenCompose(
+            currVersion ->
+                currVersion >= 0
+                    ? getProviderAsync(materialName, currVersion)
+                    : getOrCreateAsync(materialName, 0));
+  }
+
+  /**
+   * Asynchronously creates a new provider with a version one greater than the current max
+   * version, as {@link #newProvider(String)} does.
+   */
+  public CompletableFuture<EncryptionMaterialsProvider> newProviderAsync(
+      final String materialName) {
+    return getMaxVersionAsync(materialName)
+        .thenCompose(maxVersion -> getOrCreateAsync(materialName, maxVersion + 1));
+  }
+
+  /**
+   * Asynchronously returns the provider with the specified name and version, creating it if it
+   * does not exist, as {@link #getOrCreate(String, long)} does.
+   */
+  public CompletableFuture<EncryptionMaterialsProvider> getOrCreateAsync(
+      final String materialName, final long nextId) {
+    final Map<String, AttributeValue> plaintext;
+    try {
+      plaintext = createMaterialItem(materialName, nextId);
+    } catch (RuntimeException ex) {
+      return Utils.failedFuture(ex);
+    }
+    return getEncryptedTextAsync(plaintext)
+        .thenCompose(this::conditionalPutAsync)
+        .thenCompose(this::getPlainTextAsync)
+        .thenApply(this::toProvider);
+  }
+
+  /**
+   * Asynchronously returns the maximum version number associated with {@code materialName}, or -1
+   * if there are no versions, as {@link #getMaxVersion(String)} does.
+   */
+  public CompletableFuture<Long> getMaxVersionAsync(final String materialName) {
+    final CompletableFutureHandler<QueryRequest, QueryResult> handler =
+        new CompletableFutureHandler<>();
+    try {
+      ddb.queryAsync(maxVersionQuery(materialName), handler);
+    } catch (RuntimeException ex) {
+      handler.onError(ex);
+    }
+    return handler.getFuture().thenApply(result -> getMaxVersion(result.getItems()));
+  }
+
+  private CompletableFuture<Map<String, AttributeValue>> conditionalPutAsync(
+      final Map<String, AttributeValue> item) {
+    final CompletableFutureHandler<PutItemRequest, PutItemResult> handler =
+        new CompletableFutureHandler<>();
+    try {
+      ddb.putItemAsync(conditionalPutRequest(item), handler);
+    } catch (RuntimeException ex) {
+      handler.onError(ex);
+    }
+    final CompletableFuture<Map<String, AttributeValue>> result = new CompletableFuture<>();
+    handler
+        .getFuture()
+        .whenComplete(
+            (putResult, ex) -> {
+              final Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+              if (cause == null) {
+                result.complete(item);
+              } else if (cause instanceof ConditionalCheckFailedException) {
+                // Another client created this version first, so use theirs
+                getItemAsync(keyOf(item))
+                    .whenComplete(
+                        (existing, getEx) -> {
+                          if (getEx != null) {
+                            result.completeExceptionally(getEx);
+                          } else {
+                            result.complete(existing);
+                          }
+                        });
+              } else {
+                result.completeExceptionally(cause);
+              }
+            });
+    return result;
+  }
+
+  private CompletableFuture<Map<String, AttributeValue>> getItemAsync(
+      final Map<String, AttributeValue> ddbKey) {
+    final CompletableFutureHandler<GetItemRequest, GetItemResult> handler =
+        new CompletableFutureHandler<>();
+    try {
+      ddb.getItemAsync(getItemRequest(ddbKey), handler);
+    } catch (RuntimeException ex) {
+      handler.onError(ex);
+    }
+    return handler.getFuture().thenApply(GetItemResult::getItem);
+  }
+}
@@ -14,10 +14,12 @@ package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.stor
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.WrappedMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.SingleFlight;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
@@ -42,6 +44,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.crypto.SecretKey;
@@ -54,6 +59,9 @@ import javax.crypto.spec.SecretKeySpec;
  * <p>Currently, this only supports AES-256 in AESWrap mode and HmacSHA256 for the providers
  * persisted in the table.
  *
+ * <p>Concurrent calls to {@link #getProvider(String, long)} for the same version of the same
+ * material share a single read and decryption of its item.
+ *
  * @author rubin
  */
 public class MetaStore extends ProviderStore {
@@ -94,6 +102,8 @@ public class MetaStore extends ProviderStore {
   private final DynamoDBEncryptor encryptor;
   private final EncryptionContext ddbCtx;
   private final ExtraDataSupplier extraDataSupplier;
+  private final SingleFlight<String, EncryptionMaterialsProvider> providerFlights =
+      new SingleFlight<>(MetaStore::sharedFailure);
 
   /** Provides extra data that should be persisted along with the standard material data. */
   public interface ExtraDataSupplier {
@@ -162,8 +172,42 @@ public class MetaStore extends ProviderStore {
 
   @Override
   public EncryptionMaterialsProvider getProvider(final String materialName, final long version) {
-    Map<String, AttributeValue> item = getMaterialItem(materialName, version);
-    return decryptProvider(item);
+    return providerFlights.execute(
+        materialName + "#" + version,
+        () -> decryptProvider(getMaterialItem(materialName, version)));
+  }
+
+  /**
+   * Returns the number of calls to {@link #getProvider(String, long)} which shared a read of the
+   * same version already in flight.
+   */
+  public long getCoalescedProviderCount() {
+    return providerFlights.getCoalescedCount();
+  }
+
+  /**
+   * Returns the exception thrown to a caller which shared a failed read of a provider. A missing
+   * version is still reported by an {@link IndexOutOfBoundsException}, as {@link
+   * ProviderStore#getProvider(String, long)} requires.
+   */
+  private static RuntimeException sharedFailure(final Throwable cause) {
+    if (cause instanceof IndexOutOfBoundsException) {
+      final RuntimeException ex = new IndexOutOfBoundsException(cause.getMessage());
+      ex.initCause(cause);
+      return ex;
+    }
+    return new DynamoDBMappingException(cause.getMessage(), cause);
+  }
+
+  /**
+   * Loads the given version of materialName with {@code loader}, sharing the result with any
+   * concurrent load of the same version.
+   */
+  CompletableFuture<EncryptionMaterialsProvider> getProviderCoalesced(
+      final String materialName,
+      final long version,
+      final Supplier<CompletableFuture<EncryptionMaterialsProvider>> loader) {
+    return providerFlights.executeAsync(materialName + "#" + version, loader);
   }
 
   @Override
@@ -175,21 +219,27 @@ public class MetaStore extends ProviderStore {
 
   @Override
   public long getMaxVersion(final String materialName) {
-    final List<Map<String, AttributeValue>> items =
-        ddb.query(
-                new QueryRequest()
-                    .withTableName(tableName)
-                    .withConsistentRead(Boolean.TRUE)
-                    .withKeyConditions(
-                        Collections.singletonMap(
-                            DEFAULT_HASH_KEY,
-                            new Condition()
-                                .withComparisonOperator(ComparisonOperator.EQ)
-                                .withAttributeValueList(new AttributeValue().withS(materialName))))
-                    .withLimit(1)
-                    .withScanIndexForward(false)
-                    .withAttributesToGet(DEFAULT_RANGE_KEY))
-            .getItems();
+    return getMaxVersion(ddb.query(maxVersionQuery(materialName)).getItems());
+  }
+
+  /** Returns the query whose first item, if any, holds the max version of materialName. */
+  QueryRequest maxVersionQuery(final String materialName) {
+    return new QueryRequest()
+        .withTableName(tableName)
+        .withConsistentRead(Boolean.TRUE)
+        .withKeyConditions(
+            Collections.singletonMap(
+                DEFAULT_HASH_KEY,
+                new Condition()
+                    .withComparisonOperator(ComparisonOperator.EQ)
+                    .withAttributeValueList(new AttributeValue().withS(materialName))))
+        .withLimit(1)
+        .withScanIndexForward(false)
+        .withAttributesToGet(DEFAULT_RANGE_KEY);
+  }
+
+  /** Returns the max version held by the result items of {@link #maxVersionQuery(String)}. */
+  static long getMaxVersion(final List<Map<String, AttributeValue>> items) {
     if (items.isEmpty()) {
       return -1L;
     } else {
@@ -234,10 +284,23 @@ public class MetaStore extends ProviderStore {
 
   private Map<String, AttributeValue> getMaterialItem(
       final String materialName, final long version) {
+    return checkMaterialItem(ddbGet(materialKey(materialName, version)), materialName, version);
+  }
+
+  /** Returns the primary key of the item which holds the given version of materialName. */
+  static Map<String, AttributeValue> materialKey(final String materialName, final long version) {
     final Map<String, AttributeValue> ddbKey = new HashMap<>();
     ddbKey.put(DEFAULT_HASH_KEY, new AttributeValue().withS(materialName));
     ddbKey.put(DEFAULT_RANGE_KEY, new AttributeValue().withN(Long.toString(version)));
-    final Map<String, AttributeValue> item = ddbGet(ddbKey);
+    return ddbKey;
+  }
+
+  /**
+   * Returns {@code item}, or throws {@link IndexOutOfBoundsException} if the given version of
+   * materialName was not found.
+   */
+  static Map<String, AttributeValue> checkMaterialItem(
+      final Map<String, AttributeValue> item, final String materialName, final long version) {
     if (item == null || item.isEmpty()) {
       throw new IndexOutOfBoundsException("No material found: " + materialName + "#" + version);
     }
@@ -307,22 +370,33 @@ public class MetaStore extends ProviderStore {
 
   private Map<String, AttributeValue> conditionalPut(final Map<String, AttributeValue> item) {
     try {
-      final PutItemRequest put =
-          new PutItemRequest().withTableName(tableName).withItem(item).withExpected(doesNotExist);
-      ddb.putItem(put);
+      ddb.putItem(conditionalPutRequest(item));
       return item;
     } catch (final ConditionalCheckFailedException ex) {
-      final Map<String, AttributeValue> ddbKey = new HashMap<>();
-      ddbKey.put(DEFAULT_HASH_KEY, item.get(DEFAULT_HASH_KEY));
-      ddbKey.put(DEFAULT_RANGE_KEY, item.get(DEFAULT_RANGE_KEY));
-      return ddbGet(ddbKey);
+      return ddbGet(keyOf(item));
     }
   }
 
+  /** Returns the request which puts {@code item} only if there is no item with its key. */
+  PutItemRequest conditionalPutRequest(final Map<String, AttributeValue> item) {
+    return new PutItemRequest().withTableName(tableName).withItem(item).withExpected(doesNotExist);
+  }
+
+  /** Returns the primary key of {@code item}. */
+  static Map<String, AttributeValue> keyOf(final Map<String, AttributeValue> item) {
+    final Map<String, AttributeValue> ddbKey = new HashMap<>();
+    ddbKey.put(DEFAULT_HASH_KEY, item.get(DEFAULT_HASH_KEY));
+    ddbKey.put(DEFAULT_RANGE_KEY, item.get(DEFAULT_RANGE_KEY));
+    return ddbKey;
+  }
+
   private Map<String, AttributeValue> ddbGet(final Map<String, AttributeValue> ddbKey) {
-    return ddb.getItem(
-            new GetItemRequest().withTableName(tableName).withConsistentRead(true).withKey(ddbKey))
-        .getItem();
+    return ddb.getItem(getItemRequest(ddbKey)).getItem();
+  }
+
+  /** Returns the consistent read of the item with the primary key {@code ddbKey}. */
+  GetItemRequest getItemRequest(final Map<String, AttributeValue> ddbKey) {
+    return new GetItemRequest().withTableName(tableName).withConsistentRead(true).withKey(ddbKey);
   }
 
   /**
@@ -333,7 +407,7 @@ public class MetaStore extends ProviderStore {
    * @param version version of the material.
    * @return newly generated plaintext material item.
    */
-  private Map<String, AttributeValue> createMaterialItem(
+  Map<String, AttributeValue> createMaterialItem(
       final String materialName, final long version) {
     final SecretKeySpec encryptionKey = new SecretKeySpec(Utils.getRandom(32), DEFAULT_ENCRYPTION);
     final SecretKeySpec integrityKey = new SecretKeySpec(Utils.getRandom(32), DEFAULT_INTEGRITY);
@@ -358,8 +432,11 @@ public class MetaStore extends ProviderStore {
   }
 
   private EncryptionMaterialsProvider decryptProvider(final Map<String, AttributeValue> item) {
-    final Map<String, AttributeValue> plaintext = getPlainText(item);
+    return toProvider(getPlainText(item));
+  }
 
+  /** Builds the provider held by a decrypted material item. */
+  EncryptionMaterialsProvider toProvider(final Map<String, AttributeValue> plaintext) {
     final String type = plaintext.get(MATERIAL_TYPE_VERSION).getS();
     final SecretKey encryptionKey;
     final SecretKey integrityKey;
@@ -398,6 +475,50 @@ public class MetaStore extends ProviderStore {
     }
   }
 
+  /**
+   * Asynchronously decrypts a material item, exactly as {@link #getPlainText(Map)} does.
+   *
+   * @param ciphertext the ciphertext to be decrypted.
+   * @return a future of the decrypted item, which completes exceptionally with an {@link
+   *     AmazonClientException} if the item could not be decrypted.
+   */
+  CompletableFuture<Map<String, AttributeValue>> getPlainTextAsync(
+      final Map<String, AttributeValue> ciphertext) {
+    return wrapSecurityExceptions(
+        encryptor.decryptRecordAsync(
+            ciphertext, encryptor.allDecryptionFlagsExcept(ciphertext, doNotEncrypt), ddbCtx));
+  }
+
+  /**
+   * Asynchronously encrypts a material item, exactly as {@link #getEncryptedText(Map)} does.
+   *
+   * @param plaintext plaintext to be encrypted.
+   * @return a future of the encrypted item, which completes exceptionally with an {@link
+   *     AmazonClientException} if the item could not be encrypted.
+   */
+  CompletableFuture<Map<String, AttributeValue>> getEncryptedTextAsync(
+      final Map<String, AttributeValue> plaintext) {
+    return wrapSecurityExceptions(
+        encryptor.encryptRecordAsync(
+            plaintext, encryptor.allEncryptionFlagsExcept(plaintext, doNotEncrypt), ddbCtx));
+  }
+
+  private static <T> CompletableFuture<T> wrapSecurityExceptions(final CompletableFuture<T> f) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    f.whenComplete(
+        (value, ex) -> {
+          final Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+          if (cause == null) {
+            result.complete(value);
+          } else if (cause instanceof GeneralSecurityException) {
+            result.completeExceptionally(new AmazonClientException(cause));
+          } else {
+            result.completeExceptionally(cause);
+          }
+        });
+    return result;
+  }
+
   /**
    * Encrypts attributes in the plaintext item using {@link DynamoDBEncryptor}. except the attribute
    * names specified in doNotEncrypt.
@@ -15,24 +15,30 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import javax.crypto.Mac;
 
 /** @author Greg Rubin */
 public class AttributeValueMarshaller {
   private static final Charset UTF8 = Charset.forName("UTF-8");
   private static final int TRUE_FLAG = 1;
   private static final int FALSE_FLAG = 0;
+  private static final int SINK_BUFFER_SIZE = 512;
 
   private AttributeValueMarshaller() {
     // Prevent instantiation
@@ -63,30 +69,89 @@ public class AttributeValueMarshaller {
    * @see java.io.DataInput
    */
   public static ByteBuffer marshall(final AttributeValue attributeValue) {
-    try (ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(resultBytes); ) {
-      marshall(attributeValue, out);
-      out.close();
-      resultBytes.close();
-      return ByteBuffer.wrap(resultBytes.toByteArray());
+    final byte[] result = new byte[getMarshalledLength(attributeValue)];
+    marshall(attributeValue, result, 0);
+    return ByteBuffer.wrap(result);
+  }
+
+  /**
+   * Returns the exact number of bytes which {@link #marshall(AttributeValue)} would produce for
+   * {@code attributeValue}, without encoding it.
+   */
+  public static int getMarshalledLength(final AttributeValue attributeValue) {
+    final LengthEncoder out = new LengthEncoder();
+    marshall(attributeValue, out);
+    return out.length;
+  }
+
+  /**
+   * Writes the same encoding as {@link #marshall(AttributeValue)} into {@code dest}, starting at
+   * {@code offset}. {@code dest} must have room for {@link #getMarshalledLength(AttributeValue)}
+   * bytes after {@code offset}.
+   *
+   * @return the number of bytes written
+   */
+  public static int marshall(final AttributeValue attributeValue, byte[] dest, int offset) {
+    final ArrayEncoder out = new ArrayEncoder(dest, offset);
+    marshall(attributeValue, out);
+    return out.position - offset;
+  }
+
+  /**
+   * Writes the same encoding as {@link #marshall(AttributeValue)} to {@code sink}, without first
+   * collecting it in a buffer. {@code sink} is flushed, but not closed.
+   *
+   * @see #marshall(AttributeValue)
+   */
+  public static void marshall(final AttributeValue attributeValue, final OutputStream sink)
+      throws IOException {
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(sink, SINK_BUFFER_SIZE));
+    try {
+      marshall(attributeValue, new StreamEncoder(out));
+    } catch (final UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+    out.flush();
+  }
+
+  /**
+   * Updates {@code digest} with the encoding of {@code attributeValue}, exactly as if it were
+   * updated with the result of {@link #marshall(AttributeValue)}.
+   */
+  public static void marshall(final AttributeValue attributeValue, final MessageDigest digest) {
+    marshall(attributeValue, (UpdateSink) digest::update);
+  }
+
+  /**
+   * Updates {@code mac}, which must already be initialized, with the encoding of {@code
+   * attributeValue}, exactly as if it were updated with the result of {@link
+   * #marshall(AttributeValue)}.
+   */
+  public static void marshall(final AttributeValue attributeValue, final Mac mac) {
+    marshall(attributeValue, (UpdateSink) mac::update);
+  }
+
+  private static void marshall(final AttributeValue attributeValue, final UpdateSink sink) {
+    try {
+      marshall(attributeValue, new UpdateOutputStream(sink));
     } catch (final IOException ex) {
       // Due to the objects in use, an IOException is not possible.
       throw new RuntimeException("Unexpected exception", ex);
     }
   }
 
-  private static void marshall(final AttributeValue attributeValue, final DataOutputStream out)
-      throws IOException {
+  private static void marshall(final AttributeValue attributeValue, final Encoder out) {
 
     if (attributeValue.getB() != null) {
       out.writeChar('b');
-      writeBytes(attributeValue.getB(), out);
+      out.writeBytes(attributeValue.getB());
     } else if (attributeValue.getBS() != null) {
       out.writeChar('B');
       writeBytesList(attributeValue.getBS(), out);
     } else if (attributeValue.getN() != null) {
       out.writeChar('n');
-      writeString(trimZeros(attributeValue.getN()), out);
+      out.writeString(trimZeros(attributeValue.getN()));
     } else if (attributeValue.getNS() != null) {
       out.writeChar('N');
 
@@ -97,7 +162,7 @@ public class AttributeValueMarshaller {
       writeStringList(ns, out);
     } else if (attributeValue.getS() != null) {
       out.writeChar('s');
-      writeString(attributeValue.getS(), out);
+      out.writeString(attributeValue.getS());
     } else if (attributeValue.getSS() != null) {
       out.writeChar('S');
       writeStringList(attributeValue.getSS(), out);
@@ -146,27 +211,42 @@ public class AttributeValueMarshaller {
 
   /** @see #marshall(AttributeValue) */
   public static AttributeValue unmarshall(final ByteBuffer plainText) {
-    try (final DataInputStream in =
-        new DataInputStream(new ByteBufferInputStream(plainText.asReadOnlyBuffer()))) {
-      return unmarshall(in);
-    } catch (IOException ex) {
-      // Due to the objects in use, an IOException is not possible.
-      throw new RuntimeException("Unexpected exception", ex);
+    return unmarshall(plainText, false);
+  }
+
+  /**
+   * Parses an AttributeValue from the remaining bytes of {@code plainText}, without changing its
+   * position.
+   *
+   * <p>If {@code sliceBinaryValues} is true, binary values (B and BS) are returned as read-only
+   * views of {@code plainText} rather than copies. This avoids holding two copies of large binary
+   * values, but the caller must not modify {@code plainText} afterwards.
+   *
+   * @see #marshall(AttributeValue)
+   */
+  public static AttributeValue unmarshall(
+      final ByteBuffer plainText, final boolean sliceBinaryValues) {
+    final ByteBuffer in = plainText.duplicate().order(ByteOrder.BIG_ENDIAN);
+    try {
+      return readAttributeValue(in, sliceBinaryValues);
+    } catch (final BufferUnderflowException ex) {
+      throw new IllegalArgumentException("Improperly formatted data", ex);
     }
   }
 
-  private static AttributeValue unmarshall(final DataInputStream in) throws IOException {
-    char type = in.readChar();
+  private static AttributeValue readAttributeValue(
+      final ByteBuffer in, final boolean sliceBinaryValues) {
+    char type = in.getChar();
     AttributeValue result = new AttributeValue();
     switch (type) {
       case '\0':
         result.setNULL(Boolean.TRUE);
         break;
       case 'b':
-        result.setB(readBytes(in));
+        result.setB(readBytes(in, sliceBinaryValues));
         break;
       case 'B':
-        result.setBS(readBytesList(in));
+        result.setBS(readBytesList(in, sliceBinaryValues));
         break;
       case 'n':
         result.setN(readString(in));
@@ -181,7 +261,7 @@ public class AttributeValueMarshaller {
         result.setSS(readStringList(in));
         break;
       case '?':
-        final byte boolValue = in.readByte();
+        final byte boolValue = in.get();
 
         if (boolValue == TRUE_FLAG) {
           result.setBOOL(Boolean.TRUE);
@@ -192,22 +272,22 @@ public class AttributeValueMarshaller {
         }
         break;
       case 'L':
-        final int lCount = in.readInt();
+        final int lCount = readCount(in);
         final List<AttributeValue> l = new ArrayList<AttributeValue>(lCount);
         for (int lIdx = 0; lIdx < lCount; lIdx++) {
-          l.add(unmarshall(in));
+          l.add(readAttributeValue(in, sliceBinaryValues));
         }
         result.setL(l);
         break;
       case 'M':
-        final int mCount = in.readInt();
+        final int mCount = readCount(in);
         final Map<String, AttributeValue> m = new HashMap<String, AttributeValue>();
         for (int mIdx = 0; mIdx < mCount; mIdx++) {
-          final AttributeValue key = unmarshall(in);
+          final AttributeValue key = readAttributeValue(in, sliceBinaryValues);
           if (key.getS() == null) {
             throw new IllegalArgumentException("Improperly formatted data");
           }
-          AttributeValue value = unmarshall(in);
+          AttributeValue value = readAttributeValue(in, sliceBinaryValues);
           m.put(key.getS(), value);
         }
         result.setM(m);
@@ -219,7 +299,79 @@ public class AttributeValueMarshaller {
     return result;
   }
 
-  private static String trimZeros(final String n) {
+  /**
+   * Returns the canonical form of the number {@code n}, which is {@code "0"} for any zero and
+   * otherwise the plain string of {@code n} without leading or trailing zeros. Plain integers and
+   * decimals are handled by scanning their characters; exponents and other forms accepted by {@link
+   * BigDecimal} fall back to it.
+   */
+  static String trimZeros(final String n) {
+    final int length = n.length();
+    int pos = 0;
+    boolean negative = false;
+    if (length > 0 && (n.charAt(0) == '-' || n.charAt(0) == '+')) {
+      negative = n.charAt(0) == '-';
+      pos++;
+    }
+    final int intStart = pos;
+    while (pos < length && isAsciiDigit(n.charAt(pos))) {
+      pos++;
+    }
+    final int intEnd = pos;
+    int fracStart = pos;
+    int fracEnd = pos;
+    if (pos < length && n.charAt(pos) == '.') {
+      fracStart = ++pos;
+      while (pos < length && isAsciiDigit(n.charAt(pos))) {
+        pos++;
+      }
+      fracEnd = pos;
+    }
+    if (pos != length || (intStart == intEnd && fracStart == fracEnd)) {
+      return trimZerosSlow(n);
+    }
+
+    int firstDigit = intStart;
+    while (firstDigit < intEnd && n.charAt(firstDigit) == '0') {
+      firstDigit++;
+    }
+    int lastFraction = fracEnd;
+    while (lastFraction > fracStart && n.charAt(lastFraction - 1) == '0') {
+      lastFraction--;
+    }
+    if (firstDigit == intEnd && lastFraction == fracStart) {
+      return "0";
+    }
+    final boolean hasFraction = lastFraction > fracStart;
+    final boolean canonicalInteger =
+        firstDigit == intStart ? intStart != intEnd : hasFraction && intEnd - intStart == 1;
+    final boolean canonicalFraction =
+        lastFraction == fracEnd && (hasFraction || fracStart == intEnd);
+    if (canonicalInteger && canonicalFraction && (negative || intStart == 0)) {
+      // Already canonical, such as "123", "-1.5" or "0.25".
+      return n;
+    }
+
+    final StringBuilder result = new StringBuilder(length + 1);
+    if (negative) {
+      result.append('-');
+    }
+    if (firstDigit == intEnd) {
+      result.append('0');
+    } else {
+      result.append(n, firstDigit, intEnd);
+    }
+    if (hasFraction) {
+      result.append('.').append(n, fracStart, lastFraction);
+    }
+    return result.toString();
+  }
+
+  private static boolean isAsciiDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static String trimZerosSlow(final String n) {
     BigDecimal number = new BigDecimal(n);
     if (number.compareTo(BigDecimal.ZERO) == 0) {
       return "0";
@@ -227,19 +379,17 @@ public class AttributeValueMarshaller {
     return number.stripTrailingZeros().toPlainString();
   }
 
-  private static void writeStringList(List<String> values, final DataOutputStream out)
-      throws IOException {
+  private static void writeStringList(List<String> values, final Encoder out) {
     final List<String> sorted = new ArrayList<String>(values);
     Collections.sort(sorted);
     out.writeInt(sorted.size());
     for (final String v : sorted) {
-      writeString(v, out);
+      out.writeString(v);
     }
   }
 
-  private static List<String> readStringList(final DataInputStream in)
-      throws IOException, IllegalArgumentException {
-    final int nCount = in.readInt();
+  private static List<String> readStringList(final ByteBuffer in) {
+    final int nCount = readCount(in);
     List<String> ns = new ArrayList<String>(nCount);
     for (int nIdx = 0; nIdx < nCount; nIdx++) {
       ns.add(readString(in));
@@ -247,57 +397,306 @@ public class AttributeValueMarshaller {
     return ns;
   }
 
-  private static void writeString(String value, final DataOutputStream out) throws IOException {
-    final byte[] bytes = value.getBytes(UTF8);
-    out.writeInt(bytes.length);
-    out.write(bytes);
-  }
-
-  private static String readString(final DataInputStream in)
-      throws IOException, IllegalArgumentException {
-    byte[] bytes;
-    int length;
-    length = in.readInt();
-    bytes = new byte[length];
-    if (in.read(bytes) != length) {
-      throw new IllegalArgumentException("Improperly formatted data");
+  private static String readString(final ByteBuffer in) {
+    final int length = readLength(in);
+    final String result;
+    if (in.hasArray()) {
+      result = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+    } else {
+      final byte[] bytes = new byte[length];
+      in.duplicate().get(bytes);
+      result = new String(bytes, UTF8);
     }
-    String tmp = new String(bytes, UTF8);
-    return tmp;
+    in.position(in.position() + length);
+    return result;
   }
 
-  private static void writeBytesList(List<ByteBuffer> values, final DataOutputStream out)
-      throws IOException {
+  private static void writeBytesList(List<ByteBuffer> values, final Encoder out) {
     final List<ByteBuffer> sorted = new ArrayList<ByteBuffer>(values);
     Collections.sort(sorted);
     out.writeInt(sorted.size());
     for (final ByteBuffer v : sorted) {
-      writeBytes(v, out);
+      out.writeBytes(v);
     }
   }
 
-  private static List<ByteBuffer> readBytesList(final DataInputStream in) throws IOException {
-    final int bCount = in.readInt();
+  private static List<ByteBuffer> readBytesList(
+      final ByteBuffer in, final boolean sliceBinaryValues) {
+    final int bCount = readCount(in);
     List<ByteBuffer> bs = new ArrayList<ByteBuffer>(bCount);
     for (int bIdx = 0; bIdx < bCount; bIdx++) {
-      bs.add(readBytes(in));
+      bs.add(readBytes(in, sliceBinaryValues));
     }
     return bs;
   }
 
-  private static void writeBytes(ByteBuffer value, final DataOutputStream out) throws IOException {
-    value = value.asReadOnlyBuffer();
-    value.rewind();
-    out.writeInt(value.remaining());
-    while (value.hasRemaining()) {
-      out.writeByte(value.get());
+  private static ByteBuffer readBytes(final ByteBuffer in, final boolean sliceBinaryValues) {
+    final int length = readLength(in);
+    if (sliceBinaryValues) {
+      final ByteBuffer result = in.slice();
+      result.limit(length);
+      in.position(in.position() + length);
+      return result.asReadOnlyBuffer();
     }
-  }
-
-  private static ByteBuffer readBytes(final DataInputStream in) throws IOException {
-    final int length = in.readInt();
     final byte[] buf = new byte[length];
-    in.readFully(buf);
+    in.get(buf);
     return ByteBuffer.wrap(buf);
   }
+
+  /** Reads the length of a string or binary value, which must be present in full. */
+  private static int readLength(final ByteBuffer in) {
+    final int length = in.getInt();
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("Improperly formatted data");
+    }
+    return length;
+  }
+
+  /**
+   * Reads the number of elements of a collection. Every element takes at least one byte, so this
+   * also guards against allocating for more elements than could be present.
+   */
+  private static int readCount(final ByteBuffer in) {
+    final int count = in.getInt();
+    if (count < 0 || count > in.remaining()) {
+      throw new IllegalArgumentException("Improperly formatted data");
+    }
+    return count;
+  }
+
+  /**
+   * Destination of the primitives making up the encoding. The byte order and string encoding are
+   * those of {@link DataOutputStream} and UTF-8 respectively.
+   */
+  private abstract static class Encoder {
+    abstract void writeChar(int v);
+
+    abstract void writeByte(int v);
+
+    abstract void writeInt(int v);
+
+    /** Writes the length of the UTF-8 encoding of {@code value}, followed by the encoding. */
+    abstract void writeString(String value);
+
+    /** Writes the length of the whole of {@code value}, followed by its contents. */
+    abstract void writeBytes(ByteBuffer value);
+  }
+
+  /** Counts the bytes of the encoding without writing them. */
+  private static final class LengthEncoder extends Encoder {
+    private int length;
+
+    @Override
+    void writeChar(int v) {
+      length = Math.addExact(length, 2);
+    }
+
+    @Override
+    void writeByte(int v) {
+      length = Math.addExact(length, 1);
+    }
+
+    @Override
+    void writeInt(int v) {
+      length = Math.addExact(length, 4);
+    }
+
+    @Override
+    void writeString(String value) {
+      length = Math.addExact(length, 4 + getUtf8Length(value));
+    }
+
+    @Override
+    void writeBytes(ByteBuffer value) {
+      length = Math.addExact(length, 4 + value.limit());
+    }
+  }
+
+  /** Writes the encoding into an array which is known to be large enough. */
+  private static final class ArrayEncoder extends Encoder {
+    private final byte[] dest;
+    private int position;
+
+    private ArrayEncoder(byte[] dest, int position) {
+      this.dest = dest;
+      this.position = position;
+    }
+
+    @Override
+    void writeChar(int v) {
+      dest[position++] = (byte) (v >>> 8);
+      dest[position++] = (byte) v;
+    }
+
+    @Override
+    void writeByte(int v) {
+      dest[position++] = (byte) v;
+    }
+
+    @Override
+    void writeInt(int v) {
+      dest[position++] = (byte) (v >>> 24);
+      dest[position++] = (byte) (v >>> 16);
+      dest[position++] = (byte) (v >>> 8);
+      dest[position++] = (byte) v;
+    }
+
+    @Override
+    void writeString(String value) {
+      final int lengthPosition = position;
+      position += 4;
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        if (c < 0x80) {
+          dest[position++] = (byte) c;
+        } else if (c < 0x800) {
+          dest[position++] = (byte) (0xC0 | (c >> 6));
+          dest[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          final int codePoint = value.codePointAt(i);
+          if (Character.isSupplementaryCodePoint(codePoint)) {
+            dest[position++] = (byte) (0xF0 | (codePoint >> 18));
+            dest[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            dest[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            dest[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            i++;
+          } else {
+            // String.getBytes replaces unpaired surrogates with '?'
+            dest[position++] = '?';
+          }
+        } else {
+          dest[position++] = (byte) (0xE0 | (c >> 12));
+          dest[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          dest[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      final int end = position;
+      position = lengthPosition;
+      writeInt(end - lengthPosition - 4);
+      position = end;
+    }
+
+    @Override
+    void writeBytes(ByteBuffer value) {
+      value = value.duplicate();
+      value.rewind();
+      final int length = value.remaining();
+      writeInt(length);
+      value.get(dest, position, length);
+      position += length;
+    }
+  }
+
+  /** Writes the encoding to a {@link DataOutputStream}. */
+  private static final class StreamEncoder extends Encoder {
+    private final DataOutputStream out;
+
+    private StreamEncoder(DataOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    void writeChar(int v) {
+      try {
+        out.writeChar(v);
+      } catch (final IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    void writeByte(int v) {
+      try {
+        out.writeByte(v);
+      } catch (final IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    void writeInt(int v) {
+      try {
+        out.writeInt(v);
+      } catch (final IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    void writeString(String value) {
+      try {
+        final byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } catch (final IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    void writeBytes(ByteBuffer value) {
+      try {
+        value = value.duplicate();
+        value.rewind();
+        out.writeInt(value.remaining());
+        if (value.hasArray()) {
+          out.write(value.array(), value.arrayOffset(), value.remaining());
+        } else {
+          final byte[] chunk = new byte[Math.min(value.remaining(), SINK_BUFFER_SIZE)];
+          while (value.hasRemaining()) {
+            final int length = Math.min(value.remaining(), chunk.length);
+            value.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+          }
+        }
+      } catch (final IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  /** Returns the length of {@code value} encoded as by {@code value.getBytes(UTF8)}. */
+  private static int getUtf8Length(String value) {
+    int length = value.length();
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c >= 0x800) {
+        if (!Character.isSurrogate(c)) {
+          length += 2;
+        } else if (Character.isSupplementaryCodePoint(value.codePointAt(i))) {
+          // Four bytes for the two chars of the pair
+          length += 2;
+          i++;
+        }
+        // An unpaired surrogate is replaced by the single byte '?'
+      } else if (c >= 0x80) {
+        length += 1;
+      }
+    }
+    return length;
+  }
+
+  /** Receives the encoding of an AttributeValue, such as {@link MessageDigest#update}. */
+  private interface UpdateSink {
+    void update(byte[] input, int offset, int len);
+  }
+
+  /** Passes everything written to it on to an {@link UpdateSink}. */
+  private static final class UpdateOutputStream extends OutputStream {
+    private final UpdateSink sink;
+
+    private UpdateOutputStream(final UpdateSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(final int b) {
+      sink.update(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      sink.update(b, off, len);
+    }
+  }
 }
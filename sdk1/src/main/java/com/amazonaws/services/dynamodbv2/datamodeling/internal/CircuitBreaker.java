@@ -0,0 +1,155 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
+import com.amazonaws.annotation.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker with exponential backoff, which stops calls to a failing dependency.
+ *
+ * <p>The breaker opens after {@code failureThreshold} consecutive failures, and rejects calls
+ * until its backoff elapses. It then lets a single trial call through: if the trial succeeds the
+ * breaker closes, otherwise it opens again for twice as long as before, up to the maximum backoff.
+ *
+ * <p>Callers must call {@link #tryAcquire()} before each call, and report the outcome of each
+ * permitted call with {@link #onSuccess()} or {@link #onFailure()}.
+ */
+@ThreadSafe
+public final class CircuitBreaker {
+  /** The state of a {@link CircuitBreaker}. */
+  public enum State {
+    /** Calls are permitted. */
+    CLOSED,
+    /** Calls are rejected until the backoff elapses. */
+    OPEN,
+    /** A single trial call is permitted, to determine whether to close the breaker. */
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final LongSupplier nanoClock;
+
+  private final LongAdder successes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder rejections = new LongAdder();
+  private final LongAdder opens = new LongAdder();
+
+  // Guarded by this
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long backoffNanos = 0;
+  private long openUntilNano = 0;
+
+  /**
+   * @param failureThreshold the number of consecutive failures after which the breaker opens
+   * @param initialBackoff how long the breaker first stays open
+   * @param maxBackoff the maximum time the breaker stays open
+   * @param unit the unit of {@code initialBackoff} and {@code maxBackoff}
+   */
+  public CircuitBreaker(
+      final int failureThreshold,
+      final long initialBackoff,
+      final long maxBackoff,
+      final TimeUnit unit) {
+    this(failureThreshold, initialBackoff, maxBackoff, unit, System::nanoTime);
+  }
+
+  public CircuitBreaker(
+      final int failureThreshold,
+      final long initialBackoff,
+      final long maxBackoff,
+      final TimeUnit unit,
+      final LongSupplier nanoClock) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException(
+          "failureThreshold " + failureThreshold + " must be at least 1");
+    }
+    if (initialBackoff < 1 || maxBackoff < initialBackoff) {
+      throw new IllegalArgumentException(
+          "initialBackoff "
+              + initialBackoff
+              + " must be at least 1 and no more than maxBackoff "
+              + maxBackoff);
+    }
+    this.failureThreshold = failureThreshold;
+    this.initialBackoffNanos = unit.toNanos(initialBackoff);
+    this.maxBackoffNanos = unit.toNanos(maxBackoff);
+    this.nanoClock = checkNotNull(nanoClock, "nanoClock must not be null");
+  }
+
+  /**
+   * Returns whether a call is permitted. Once the backoff of an open breaker elapses, permits only
+   * the first caller to make a trial call.
+   */
+  public synchronized boolean tryAcquire() {
+    if (state == State.OPEN && nanoClock.getAsLong() - openUntilNano >= 0) {
+      state = State.HALF_OPEN;
+      return true;
+    }
+    if (state == State.CLOSED) {
+      return true;
+    }
+    rejections.increment();
+    return false;
+  }
+
+  /** Reports that a permitted call succeeded, closing the breaker. */
+  public synchronized void onSuccess() {
+    successes.increment();
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    backoffNanos = 0;
+  }
+
+  /** Reports that a permitted call failed, opening the breaker if it failed too many times. */
+  public synchronized void onFailure() {
+    failures.increment();
+    consecutiveFailures++;
+    if (state == State.OPEN) {
+      // A call permitted before the breaker opened, which must not extend the backoff
+      return;
+    }
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      backoffNanos =
+          backoffNanos == 0 ? initialBackoffNanos : Math.min(maxBackoffNanos, backoffNanos * 2);
+      openUntilNano = nanoClock.getAsLong() + backoffNanos;
+      state = State.OPEN;
+      opens.increment();
+    }
+  }
+
+  /**
+   * Returns the state of the breaker. An open breaker whose backoff elapsed is reported as open
+   * until the next call to {@link #tryAcquire()}.
+   */
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Returns the number of calls reported as succeeded. */
+  public long getSuccessCount() {
+    return successes.sum();
+  }
+
+  /** Returns the number of calls reported as failed. */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /** Returns the number of calls rejected while the breaker was open. */
+  public long getRejectedCount() {
+    return rejections.sum();
+  }
+
+  /** Returns the number of times the breaker opened. */
+  public long getOpenCount() {
+    return opens.sum();
+  }
+}
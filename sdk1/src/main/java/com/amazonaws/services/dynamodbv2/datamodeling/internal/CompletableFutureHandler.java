@@ -0,0 +1,38 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link AsyncHandler} which completes a {@link CompletableFuture} with the result of an
+ * asynchronous AWS SDK call, so that the call can be composed with other asynchronous work.
+ *
+ * <pre>
+ * CompletableFutureHandler&lt;DecryptRequest, DecryptResult&gt; handler =
+ *     new CompletableFutureHandler&lt;&gt;();
+ * kms.decryptAsync(request, handler);
+ * return handler.getFuture();
+ * </pre>
+ */
+public final class CompletableFutureHandler<REQUEST extends AmazonWebServiceRequest, RESULT>
+    implements AsyncHandler<REQUEST, RESULT> {
+  private final CompletableFuture<RESULT> future = new CompletableFuture<>();
+
+  /** Returns the future completed by this handler. */
+  public CompletableFuture<RESULT> getFuture() {
+    return future;
+  }
+
+  @Override
+  public void onError(final Exception exception) {
+    future.completeExceptionally(exception);
+  }
+
+  @Override
+  public void onSuccess(final REQUEST request, final RESULT result) {
+    future.complete(result);
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches {@link MessageDigest} instances per thread, keyed by algorithm, to avoid the cost of
+ * looking up a JCA provider on every record.
+ *
+ * <p>Only primitives which never hold key material are pooled. Keyed primitives such as {@link
+ * javax.crypto.Cipher}, {@link javax.crypto.Mac} and {@link java.security.Signature} keep the last
+ * key they were initialized with, so pooling them on long-lived threads would keep content, signing
+ * and wrapping keys reachable after the materials which own them are destroyed. Callers create
+ * those with {@code getInstance} instead.
+ *
+ * <p>The returned instance belongs to the calling thread and is returned again by the next call
+ * with the same arguments on that thread. Callers must therefore finish using it before calling any
+ * code which may request the same primitive. Instances must not be shared with other threads.
+ *
+ * <p>Virtual threads are usually short-lived and numerous, so caching on them would only retain
+ * garbage. On runtimes which support them, calls from a virtual thread return a new instance each
+ * time.
+ *
+ * <p>Instances are created on the first use by each thread, so a provider registered afterwards
+ * with a higher priority is not used by threads which already hold an instance.
+ */
+public final class CryptoPrimitivePool {
+  private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+  private static final ThreadLocal<Map<Key, Object>> POOL =
+      new ThreadLocal<Map<Key, Object>>() {
+        @Override
+        protected Map<Key, Object> initialValue() {
+          return new HashMap<>();
+        }
+      };
+
+  private CryptoPrimitivePool() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns this thread's {@link MessageDigest} for {@code algorithm} from the default provider.
+   * The digest is reset before it is returned.
+   */
+  public static MessageDigest getMessageDigest(final String algorithm)
+      throws NoSuchAlgorithmException {
+    final Map<Key, Object> pool = pool();
+    if (pool == null) {
+      return MessageDigest.getInstance(algorithm);
+    }
+    final Key key = new Key(MessageDigest.class, algorithm);
+    MessageDigest result = (MessageDigest) pool.get(key);
+    if (result == null) {
+      result = MessageDigest.getInstance(algorithm);
+      pool.put(key, result);
+    } else {
+      result.reset();
+    }
+    return result;
+  }
+
+  /** Returns the calling thread's pool, or null if the calling thread should not be pooled. */
+  private static Map<Key, Object> pool() {
+    if (IS_VIRTUAL != null) {
+      try {
+        if ((boolean) IS_VIRTUAL.invokeExact(Thread.currentThread())) {
+          return null;
+        }
+      } catch (final Throwable ex) {
+        // Thread.isVirtual() does not throw.
+        throw new RuntimeException("Unexpected exception", ex);
+      }
+    }
+    return POOL.get();
+  }
+
+  // Thread.isVirtual() only exists on Java 19 and later.
+  private static MethodHandle findIsVirtual() {
+    try {
+      return MethodHandles.publicLookup()
+          .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    } catch (final NoSuchMethodException | IllegalAccessException ex) {
+      return null;
+    }
+  }
+
+  private static final class Key {
+    private final Class<?> type;
+    private final String algorithm;
+
+    private Key(final Class<?> type, final String algorithm) {
+      this.type = type;
+      this.algorithm = algorithm;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return type == other.type && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, algorithm);
+    }
+  }
+}
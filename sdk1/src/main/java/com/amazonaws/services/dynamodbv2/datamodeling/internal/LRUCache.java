@@ -2,42 +2,160 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
+
 import com.amazonaws.annotation.ThreadSafe;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * A bounded cache that has a LRU eviction policy when the cache is full.
  *
+ * <p>Reads are lock-free, and only record when each entry was last accessed, as a clock which is
+ * advanced by writes alone; a read is then a plain store to its entry, with no write to state
+ * shared by all readers. Entries read between the same two writes are therefore equally recent.
+ * Writes are serialized, and evict the least recently used of the {@value #EVICTION_SAMPLE_SIZE}
+ * oldest entries in the eviction queue, the one queued earliest among equally recent entries;
+ * entries which were accessed since they were queued move to the back of the queue as they are
+ * sampled. The eviction policy is therefore LRU, at the granularity of writes, for caches of up to
+ * {@value #EVICTION_SAMPLE_SIZE} entries, and an approximation of it for larger caches.
+ *
+ * <p>The cache may optionally also be bounded by the total {@link Weigher weight} of its entries,
+ * and report the entries it evicts to an {@link EvictionListener}.
+ *
+ * <p>The cache counts its hits, misses and evictions, cheaply enough that the counts are always on.
+ *
  * @param <T> value type
  */
 @ThreadSafe
 public final class LRUCache<T> {
+  /** The number of entries sampled for each eviction. */
+  static final int EVICTION_SAMPLE_SIZE = 16;
+
   /** Used for the internal cache. */
-  private final Map<String, T> map;
+  private final ConcurrentHashMap<String, Node<T>> map = new ConcurrentHashMap<>();
 
   /** Maximum size of the cache. */
   private final int maxSize;
 
+  /** Maximum total weight of the entries of the cache. */
+  private final long maxWeight;
+
+  private final Weigher<? super T> weigher;
+
+  private final EvictionListener<? super T> evictionListener;
+
+  /** Orders accesses to entries. Only advanced by writes, while holding evictionLock. */
+  private volatile long clock = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  // Guarded by evictionLock
+  private final Object evictionLock = new Object();
+  private final ArrayDeque<Node<T>> evictionQueue = new ArrayDeque<>();
+  private long totalWeight = 0;
+  private int removedInQueue = 0;
+
   /** @param maxSize the maximum number of entries of the cache */
   public LRUCache(final int maxSize) {
+    this(maxSize, Long.MAX_VALUE, (key, value) -> 0);
+  }
+
+  /**
+   * @param maxSize the maximum number of entries of the cache
+   * @param maxWeight the maximum total weight of the entries of the cache
+   * @param weigher calculates the weight of each entry when it is added
+   */
+  public LRUCache(final int maxSize, final long maxWeight, final Weigher<? super T> weigher) {
+    this(maxSize, maxWeight, weigher, (key, value) -> {});
+  }
+
+  /**
+   * @param maxSize the maximum number of entries of the cache
+   * @param maxWeight the maximum total weight of the entries of the cache
+   * @param weigher calculates the weight of each entry when it is added
+   * @param evictionListener notified of each entry evicted to keep the cache within its bounds,
+   *     after the entry is evicted
+   */
+  public LRUCache(
+      final int maxSize,
+      final long maxWeight,
+      final Weigher<? super T> weigher,
+      final EvictionListener<? super T> evictionListener) {
     if (maxSize < 1) {
       throw new IllegalArgumentException("maxSize " + maxSize + " must be at least 1");
     }
+    if (maxWeight < 1) {
+      throw new IllegalArgumentException("maxWeight " + maxWeight + " must be at least 1");
+    }
     this.maxSize = maxSize;
-    map = Collections.synchronizedMap(new LRUHashMap<>(maxSize));
+    this.maxWeight = maxWeight;
+    this.weigher = checkNotNull(weigher, "weigher must not be null");
+    this.evictionListener = checkNotNull(evictionListener, "evictionListener must not be null");
   }
 
   /** Adds an entry to the cache, evicting the earliest entry if necessary. */
   public T add(final String key, final T value) {
-    return map.put(key, value);
+    final long weight = weigher.weigh(key, value);
+    if (weight < 0) {
+      throw new IllegalArgumentException("weight " + weight + " must not be negative");
+    }
+    final T previous;
+    List<Node<T>> evicted = null;
+    synchronized (evictionLock) {
+      final Node<T> existing = map.get(key);
+      if (existing != null) {
+        // Update in place, so that the entry keeps its place in the eviction queue
+        previous = existing.value;
+        totalWeight += weight - existing.weight;
+        existing.value = value;
+        existing.weight = weight;
+        existing.lastAccess = tick();
+      } else {
+        previous = null;
+        final Node<T> node = new Node<>(key, value, weight, tick());
+        map.put(key, node);
+        evictionQueue.addLast(node);
+        totalWeight += weight;
+      }
+      while (map.size() > maxSize || totalWeight > maxWeight) {
+        if (evicted == null) {
+          evicted = new ArrayList<>(1);
+        }
+        evicted.add(evictOne());
+      }
+    }
+    if (evicted != null) {
+      evictions.add(evicted.size());
+      for (Node<T> node : evicted) {
+        evictionListener.onEviction(node.key, node.value);
+      }
+    }
+    return previous;
   }
 
   /** Returns the value of the given key; or null of no such entry exists. */
   public T get(final String key) {
-    return map.get(key);
+    final Node<T> node = map.get(key);
+    if (node == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    // Skip the write when this entry was already accessed since the last write
+    final long now = clock;
+    if (node.lastAccess != now) {
+      node.lastAccess = now;
+    }
+    return node.value;
   }
 
   /** Returns the current size of the cache. */
@@ -50,31 +168,190 @@ public final class LRUCache<T> {
     return maxSize;
   }
 
+  /** Returns the current total weight of the entries of the cache. */
+  public long getWeight() {
+    synchronized (evictionLock) {
+      return totalWeight;
+    }
+  }
+
+  /** Returns the maximum total weight of the entries of the cache. */
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /** Returns the number of calls to {@link #get(String)} which found an entry. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Returns the number of calls to {@link #get(String)} which did not find an entry. */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Returns the number of entries evicted to keep the cache within its bounds. */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
   public void clear() {
-    map.clear();
+    synchronized (evictionLock) {
+      map.clear();
+      evictionQueue.clear();
+      totalWeight = 0;
+      removedInQueue = 0;
+    }
+  }
+
+  /**
+   * Removes the entry at key only if its value is {@code value}, compared by identity. Returns
+   * whether the entry was removed.
+   */
+  public boolean remove(final String key, final T value) {
+    synchronized (evictionLock) {
+      final Node<T> node = map.get(key);
+      if (node == null || node.value != value) {
+        return false;
+      }
+      map.remove(key);
+      unlink(node);
+      return true;
+    }
+  }
+
+  /**
+   * Calls action with each entry of the cache, without counting as an access. Entries added or
+   * removed concurrently may or may not be included.
+   */
+  public void forEach(final BiConsumer<String, ? super T> action) {
+    for (Node<T> node : map.values()) {
+      action.accept(node.key, node.value);
+    }
   }
 
   public T remove(String key) {
-    return map.remove(key);
+    synchronized (evictionLock) {
+      final Node<T> node = map.remove(key);
+      if (node == null) {
+        return null;
+      }
+      unlink(node);
+      return node.value;
+    }
   }
 
   @Override
   public String toString() {
-    return map.toString();
+    final StringBuilder sb = new StringBuilder("{");
+    for (Map.Entry<String, Node<T>> entry : map.entrySet()) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append(entry.getKey()).append('=').append(entry.getValue().value);
+    }
+    return sb.append('}').toString();
   }
 
-  @SuppressWarnings("serial")
-  private static class LRUHashMap<T> extends LinkedHashMap<String, T> {
-    private final int maxSize;
+  // Removes the least recently accessed of the oldest entries of the eviction queue.
+  // Sampled entries which were accessed since they were queued move to the back of the queue,
+  // so that later evictions sample entries which were not.
+  private Node<T> evictOne() {
+    @SuppressWarnings("unchecked")
+    final Node<T>[] sample = new Node[EVICTION_SAMPLE_SIZE];
+    int sampled = 0;
+    while (sampled < EVICTION_SAMPLE_SIZE && !evictionQueue.isEmpty()) {
+      final Node<T> node = evictionQueue.pollFirst();
+      if (node.removed) {
+        removedInQueue--;
+      } else {
+        sample[sampled++] = node;
+      }
+    }
+    Node<T> victim = sample[0];
+    for (int i = 1; i < sampled; i++) {
+      if (sample[i].lastAccess < victim.lastAccess) {
+        victim = sample[i];
+      }
+    }
+    // Put back the sampled entries which were not accessed, in their original order
+    for (int i = sampled - 1; i >= 0; i--) {
+      if (sample[i] != victim && sample[i].lastAccess <= sample[i].queuedAt) {
+        evictionQueue.addFirst(sample[i]);
+      }
+    }
+    for (int i = 0; i < sampled; i++) {
+      if (sample[i] != victim && sample[i].lastAccess > sample[i].queuedAt) {
+        sample[i].queuedAt = tick();
+        evictionQueue.addLast(sample[i]);
+      }
+    }
+    map.remove(victim.key, victim);
+    totalWeight -= victim.weight;
+    return victim;
+  }
+
+  // Returns a time after that of every earlier read, and advances the clock past it so that later
+  // reads are more recent. Guarded by evictionLock.
+  private long tick() {
+    final long now = clock + 1;
+    clock = now + 1;
+    return now;
+  }
 
-    private LRUHashMap(final int maxSize) {
-      super(10, 0.75F, true);
-      this.maxSize = maxSize;
+  // Marks a node removed from the map as removed from the eviction queue, compacting the queue
+  // once most of its nodes are removed ones.
+  private void unlink(final Node<T> node) {
+    node.removed = true;
+    totalWeight -= node.weight;
+    removedInQueue++;
+    if (removedInQueue > evictionQueue.size() / 2) {
+      final Iterator<Node<T>> it = evictionQueue.iterator();
+      while (it.hasNext()) {
+        if (it.next().removed) {
+          it.remove();
+        }
+      }
+      removedInQueue = 0;
     }
+  }
+
+  /**
+   * Calculates the weight of cache entries.
+   *
+   * @param <T> value type
+   */
+  public interface Weigher<T> {
+    /** Returns the weight of an entry, which must not be negative. */
+    long weigh(String key, T value);
+  }
+
+  /**
+   * Notified of entries evicted by a cache to keep within its bounds.
+   *
+   * @param <T> value type
+   */
+  public interface EvictionListener<T> {
+    void onEviction(String key, T value);
+  }
+
+  private static final class Node<T> {
+    private final String key;
+    private volatile T value;
+    // Written by readers without synchronization; a stale or torn value only affects which of the
+    // sampled entries is evicted
+    private long lastAccess;
+    // Guarded by evictionLock
+    private long weight;
+    private long queuedAt;
+    private boolean removed = false;
 
-    @Override
-    protected boolean removeEldestEntry(final Entry<String, T> eldest) {
-      return size() > maxSize;
+    private Node(final String key, final T value, final long weight, final long queuedAt) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.lastAccess = queuedAt;
+      this.queuedAt = queuedAt;
     }
   }
 }
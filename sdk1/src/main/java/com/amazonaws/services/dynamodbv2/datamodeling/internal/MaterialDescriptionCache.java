@@ -0,0 +1,125 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.annotation.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A bounded cache from the marshalled bytes of a material description to its parsed, immutable
+ * form. Most records of a table share a handful of byte-identical descriptions, so the parsed map
+ * can be shared as well, and consumers of the description may cache by its identity.
+ *
+ * <p>When the cache is full, the least recently used description is evicted, so that descriptions
+ * which are unique to a record, such as those holding a per-record wrapped data key, do not
+ * displace those which are shared by many records.
+ */
+@ThreadSafe
+public final class MaterialDescriptionCache {
+  private final LRUCache<Map<String, String>> cache;
+
+  /** @param maxSize the maximum number of entries of the cache */
+  public MaterialDescriptionCache(final int maxSize) {
+    this.cache = new LRUCache<>(maxSize);
+  }
+
+  /**
+   * Returns the parsed form of the remaining bytes of {@code description}, calling {@code parser}
+   * only if they are not cached. The position of {@code description} is not changed, and it is not
+   * retained by the cache.
+   *
+   * @param parser parses a read-only duplicate of {@code description}
+   * @return an immutable map, which is the same instance for equal bytes while they remain cached
+   */
+  public Map<String, String> get(
+      final ByteBuffer description, final Function<ByteBuffer, Map<String, String>> parser) {
+    final byte[] bytes = new byte[description.remaining()];
+    description.duplicate().get(bytes);
+    // ISO-8859-1 maps each byte to one char, so equal keys have equal bytes
+    final String key = new String(bytes, StandardCharsets.ISO_8859_1);
+    final Map<String, String> cached = cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final Map<String, String> parsed =
+        immutableCopyOf(parser.apply(description.asReadOnlyBuffer()));
+    cache.add(key, parsed);
+    return parsed;
+  }
+
+  /** Returns the number of lookups which were answered from the cache. */
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  /** Returns the number of lookups which had to parse the description. */
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  /** Returns the number of descriptions evicted to keep the cache within its bounds. */
+  public long getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+
+  /** Returns the current size of the cache. */
+  public int size() {
+    return cache.size();
+  }
+
+  /** Returns the maximum size of the cache. */
+  public int getMaxSize() {
+    return cache.getMaxSize();
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * Returns an immutable copy of {@code description}, or {@code description} itself if it was
+   * returned by a {@code MaterialDescriptionCache} or by this method, and so is already immutable.
+   */
+  public static Map<String, String> immutableCopyOf(final Map<String, String> description) {
+    if (description instanceof ImmutableDescription) {
+      return description;
+    }
+    return new ImmutableDescription(new HashMap<>(description));
+  }
+
+  /** A map which is known to be immutable, so that it need not be copied again. */
+  private static final class ImmutableDescription extends AbstractMap<String, String> {
+    private final Map<String, String> map;
+
+    private ImmutableDescription(final Map<String, String> map) {
+      this.map = Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return map.entrySet();
+    }
+
+    @Override
+    public String get(final Object key) {
+      return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+  }
+}
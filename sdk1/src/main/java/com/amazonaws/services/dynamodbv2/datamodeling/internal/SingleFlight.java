@@ -0,0 +1,144 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key, so that only one of them calls the loader and the
+ * others wait for and share its result. Once a call completes, the next call for its key calls the
+ * loader again; results are not cached.
+ *
+ * <p>An exception thrown by the loader is thrown to the caller which called it. Every other caller
+ * which shared the call gets a new exception caused by it, so that callers on different threads do
+ * not share one mutable exception. {@link Error}s are thrown to every caller as they are.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+@ThreadSafe
+public final class SingleFlight<K, V> {
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final Function<Throwable, RuntimeException> sharedFailure;
+
+  /**
+   * Creates a {@link SingleFlight} whose callers get a {@link DynamoDBMappingException} if a call
+   * they shared failed.
+   */
+  public SingleFlight() {
+    this(cause -> new DynamoDBMappingException(cause.getMessage(), cause));
+  }
+
+  /**
+   * @param sharedFailure creates the exception thrown to each caller which shared a failed call,
+   *     from the exception of that call
+   */
+  public SingleFlight(final Function<Throwable, RuntimeException> sharedFailure) {
+    this.sharedFailure = Utils.checkNotNull(sharedFailure, "sharedFailure must not be null");
+  }
+
+  /**
+   * Returns the result of {@code loader}, or of the call already in flight for {@code key}.
+   *
+   * @param loader a loader which may only throw unchecked exceptions
+   */
+  public V execute(final K key, final Supplier<V> loader) {
+    final CompletableFuture<V> flight = new CompletableFuture<>();
+    final CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      coalesced.increment();
+      return await(existing);
+    }
+    calls.increment();
+    try {
+      final V result = loader.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error ex) {
+      flight.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Returns a future of the result of {@code loader}, or of the call already in flight for {@code
+   * key}. The call is in flight until the future returned by {@code loader} completes.
+   */
+  public CompletableFuture<V> executeAsync(
+      final K key, final Supplier<CompletableFuture<V>> loader) {
+    final CompletableFuture<V> flight = new CompletableFuture<>();
+    final CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      coalesced.increment();
+      // A dependent future, so that callers cannot complete the shared one
+      return existing.handle(
+          (v, ex) -> {
+            if (ex != null) {
+              throw new CompletionException(shared(ex));
+            }
+            return v;
+          });
+    }
+    calls.increment();
+    CompletableFuture<V> result;
+    try {
+      result = loader.get();
+    } catch (RuntimeException ex) {
+      result = Utils.failedFuture(ex);
+    }
+    result.whenComplete(
+        (v, ex) -> {
+          inFlight.remove(key, flight);
+          if (ex != null) {
+            flight.completeExceptionally(ex);
+          } else {
+            flight.complete(v);
+          }
+        });
+    return flight.thenApply(v -> v);
+  }
+
+  /** Returns the number of calls to a loader. */
+  public long getCallCount() {
+    return calls.sum();
+  }
+
+  /** Returns the number of calls which shared the result of a call already in flight. */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /** Returns the number of calls currently in flight. */
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+
+  private V await(final CompletableFuture<V> flight) {
+    try {
+      return flight.join();
+    } catch (CompletionException ex) {
+      throw shared(ex);
+    }
+  }
+
+  /** Returns a new exception for a caller which shared a call which failed with {@code ex}. */
+  private RuntimeException shared(final Throwable ex) {
+    final Throwable cause =
+        ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return sharedFailure.apply(cause);
+  }
+}
@@ -5,17 +5,34 @@ package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 import static com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils.checkNotNull;
 
 import com.amazonaws.annotation.ThreadSafe;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 /**
  * A cache, backed by an LRUCache, that uses a loader to calculate values on cache miss or expired
  * TTL.
  *
  * <p>Note that this cache does not proactively evict expired entries, however will immediately
- * evict entries discovered to be expired on load.
+ * evict entries discovered to be expired on load. Expired entries of keys which are not loaded
+ * again may be evicted by {@link #evictExpired()}, optionally on a schedule set with {@link
+ * #scheduleExpirySweeps(ScheduledExecutorService, long, TimeUnit)}.
+ *
+ * <p>Loads of new entries are deduplicated per key: concurrent loads of the same key wait for a
+ * single call to the loader, while loads of different keys proceed in parallel.
+ *
+ * <p>The cache counts its hits, misses, calls to loaders and evictions, and the time spent in
+ * loaders. The counters are {@link LongAdder}s, so they are cheap enough to always be on.
  *
  * @param <T> value type
  */
@@ -30,9 +47,24 @@ public final class TTLCache<T> {
   /** Used for loading new values into the cache on cache miss or expiration. */
   private final EntryLoader<T> defaultLoader;
 
+  /** Notified of evicted entries. */
+  private final EvictionListener<? super T> evictionListener;
+
+  /** The loads of new entries in progress, by key. */
+  private final ConcurrentHashMap<String, CompletableFuture<T>> newEntryLoads =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder graceHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loadSuccesses = new LongAdder();
+  private final LongAdder loadFailures = new LongAdder();
+  private final LongAdder loadTimeNanos = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
   // Mockable time source, to allow us to test TTL behavior.
   // package access for tests
-  MsClock clock = MsClock.WALLCLOCK;
+  MsClock clock;
 
   private static final long TTL_GRACE_IN_NANO = TimeUnit.MILLISECONDS.toNanos(500);
 
@@ -41,6 +73,36 @@ public final class TTLCache<T> {
    * @param ttlInMillis the time to live value for entries of the cache, in milliseconds
    */
   public TTLCache(final int maxSize, final long ttlInMillis, final EntryLoader<T> loader) {
+    this(maxSize, ttlInMillis, loader, (key, value, cause) -> {});
+  }
+
+  /**
+   * @param maxSize the maximum number of entries of the cache
+   * @param ttlInMillis the time to live value for entries of the cache, in milliseconds
+   * @param evictionListener notified of each entry evicted because it expired or the cache was
+   *     full, after the entry is evicted
+   */
+  public TTLCache(
+      final int maxSize,
+      final long ttlInMillis,
+      final EntryLoader<T> loader,
+      final EvictionListener<? super T> evictionListener) {
+    this(maxSize, ttlInMillis, loader, evictionListener, MsClock.WALLCLOCK::timestampNano);
+  }
+
+  /**
+   * @param maxSize the maximum number of entries of the cache
+   * @param ttlInMillis the time to live value for entries of the cache, in milliseconds
+   * @param evictionListener notified of each entry evicted because it expired or the cache was
+   *     full, after the entry is evicted
+   * @param nanoClock the time source of the cache, in nanoseconds
+   */
+  public TTLCache(
+      final int maxSize,
+      final long ttlInMillis,
+      final EntryLoader<T> loader,
+      final EvictionListener<? super T> evictionListener,
+      final LongSupplier nanoClock) {
     if (maxSize < 1) {
       throw new IllegalArgumentException("maxSize " + maxSize + " must be at least 1");
     }
@@ -48,8 +110,16 @@ public final class TTLCache<T> {
       throw new IllegalArgumentException("ttlInMillis " + maxSize + " must be at least 1");
     }
     this.ttlInNanos = TimeUnit.MILLISECONDS.toNanos(ttlInMillis);
-    this.cache = new LRUCache<>(maxSize);
     this.defaultLoader = checkNotNull(loader, "loader must not be null");
+    this.evictionListener = checkNotNull(evictionListener, "evictionListener must not be null");
+    checkNotNull(nanoClock, "nanoClock must not be null");
+    this.clock = nanoClock::getAsLong;
+    this.cache =
+        new LRUCache<>(
+            maxSize,
+            Long.MAX_VALUE,
+            (key, value) -> 0,
+            (key, ls) -> onEviction(key, ls.getState().data, EvictionCause.SIZE));
   }
 
   /**
@@ -100,27 +170,35 @@ public final class TTLCache<T> {
 
     if (ls == null) {
       // The entry doesn't exist yet, so load a new one.
+      misses.increment();
       return loadNewEntryIfAbsent(key, f);
     } else if (clock.timestampNano() - ls.getState().lastUpdatedNano
         > ttlInNanos + TTL_GRACE_IN_NANO) {
       // The data has expired past the grace period.
       // Evict the old entry and load a new entry.
-      cache.remove(key);
+      misses.increment();
+      if (cache.remove(key, ls)) {
+        onEviction(key, ls.getState().data, EvictionCause.EXPIRED);
+      }
       return loadNewEntryIfAbsent(key, f);
     } else if (clock.timestampNano() - ls.getState().lastUpdatedNano <= ttlInNanos) {
       // The data hasn't expired. Return as-is from the cache.
+      hits.increment();
       return ls.getState().data;
     } else if (!ls.tryLock()) {
       // We are in the TTL grace period. If we couldn't grab the lock, then some other
       // thread is currently loading the new value. Because we are in the grace period,
       // use the cached data instead of waiting for the lock.
+      hits.increment();
+      graceHits.increment();
       return ls.getState().data;
     }
 
     // We are in the grace period and have acquired a lock.
     // Update the cache with the value determined by the loading function.
+    misses.increment();
     try {
-      T loadedData = f.apply(key);
+      T loadedData = callLoader(key, f);
       ls.update(loadedData, clock.timestampNano());
       return ls.getState().data;
     } finally {
@@ -128,31 +206,92 @@ public final class TTLCache<T> {
     }
   }
 
-  // Synchronously calculate the value for a new entry in the cache if it doesn't already exist.
+  // Calculate the value for a new entry in the cache if it doesn't already exist.
   // Otherwise return the cached value.
   // It is important that this is the only place where we use the loader for a new entry,
   // given that we don't have the entry yet to lock on.
   // This ensures that the loading function is only called once if multiple threads
-  // attempt to add a new entry for the same key at the same time.
-  private synchronized T loadNewEntryIfAbsent(final String key, Function<String, T> f) {
-    // If the entry already exists in the cache, return it
-    final LockedState<T> cachedState = cache.get(key);
-    if (cachedState != null) {
-      return cachedState.getState().data;
+  // attempt to add a new entry for the same key at the same time: the first registers
+  // its load, and the others wait for its result. If that load fails, the waiting threads
+  // try again with their own loading functions, as the failure may be specific to its function.
+  private T loadNewEntryIfAbsent(final String key, Function<String, T> f) {
+    while (true) {
+      // If the entry already exists in the cache, return it
+      final LockedState<T> cachedState = cache.get(key);
+      if (cachedState != null) {
+        return cachedState.getState().data;
+      }
+
+      final CompletableFuture<T> newLoad = new CompletableFuture<>();
+      final CompletableFuture<T> existingLoad = newEntryLoads.putIfAbsent(key, newLoad);
+      if (existingLoad != null) {
+        try {
+          return existingLoad.join();
+        } catch (CompletionException | CancellationException ex) {
+          continue;
+        }
+      }
+
+      try {
+        // Check again, in case a load completed since the entry was missing
+        final LockedState<T> loadedState = cache.get(key);
+        if (loadedState != null) {
+          newLoad.complete(loadedState.getState().data);
+          return loadedState.getState().data;
+        }
+
+        // Otherwise, load the data and create a new entry
+        T loadedData = callLoader(key, f);
+        LockedState<T> ls = new LockedState<>(loadedData, clock.timestampNano());
+        cache.add(key, ls);
+        newLoad.complete(loadedData);
+        return loadedData;
+      } catch (RuntimeException | Error ex) {
+        newLoad.completeExceptionally(ex);
+        throw ex;
+      } finally {
+        newEntryLoads.remove(key, newLoad);
+      }
+    }
+  }
+
+  // Calls the loader, counting the outcome and the time spent in it.
+  private T callLoader(final String key, final Function<String, T> f) {
+    final long start = clock.timestampNano();
+    try {
+      final T loadedData = f.apply(key);
+      loadSuccesses.increment();
+      return loadedData;
+    } catch (RuntimeException | Error ex) {
+      loadFailures.increment();
+      throw ex;
+    } finally {
+      loadTimeNanos.add(clock.timestampNano() - start);
     }
+  }
 
-    // Otherwise, load the data and create a new entry
-    T loadedData = f.apply(key);
-    LockedState<T> ls = new LockedState<>(loadedData, clock.timestampNano());
-    cache.add(key, ls);
-    return loadedData;
+  private void onEviction(final String key, final T value, final EvictionCause cause) {
+    evictions.increment();
+    evictionListener.onEviction(key, value, cause);
   }
 
   /**
    * Put a new entry in the cache. Returns the value previously at that key in the cache, or null if
    * the entry previously didn't exist or is expired.
+   *
+   * <p>If a new entry is being loaded at this key, waits for the load to complete first, so that
+   * the value put replaces the loaded one.
    */
-  public synchronized T put(final String key, final T value) {
+  public T put(final String key, final T value) {
+    final CompletableFuture<T> newLoad = newEntryLoads.get(key);
+    if (newLoad != null) {
+      try {
+        newLoad.join();
+      } catch (CompletionException | CancellationException ex) {
+        // The load failed, so there is no loaded value to replace
+      }
+    }
+
     LockedState<T> ls = new LockedState<>(value, clock.timestampNano());
     LockedState<T> oldLockedState = cache.add(key, ls);
     if (oldLockedState == null
@@ -174,6 +313,55 @@ public final class TTLCache<T> {
     return ls.getState().lastUpdatedNano;
   }
 
+  /**
+   * Evicts all entries which expired past the grace period, except those being reloaded. Returns
+   * the number of entries evicted.
+   */
+  public int evictExpired() {
+    final int[] evicted = {0};
+    cache.forEach(
+        (key, ls) -> {
+          if (clock.timestampNano() - ls.getState().lastUpdatedNano
+                  > ttlInNanos + TTL_GRACE_IN_NANO
+              && ls.tryLock()) {
+            try {
+              if (cache.remove(key, ls)) {
+                evicted[0]++;
+                onEviction(key, ls.getState().data, EvictionCause.EXPIRED);
+              }
+            } finally {
+              ls.unlock();
+            }
+          }
+        });
+    return evicted[0];
+  }
+
+  /**
+   * Schedules {@link #evictExpired()} to run on executor with a fixed delay of {@code period}
+   * between runs, until the returned future is cancelled. The schedule does not keep this cache
+   * from being garbage collected, and ends once it is.
+   */
+  public ScheduledFuture<?> scheduleExpirySweeps(
+      final ScheduledExecutorService executor, final long period, final TimeUnit unit) {
+    final WeakReference<TTLCache<T>> ref = new WeakReference<>(this);
+    return executor.scheduleWithFixedDelay(() -> sweep(ref), period, period, unit);
+  }
+
+  private static void sweep(final WeakReference<? extends TTLCache<?>> ref) {
+    final TTLCache<?> cache = ref.get();
+    if (cache == null) {
+      // Throwing ends the schedule
+      throw new CancellationException("Cache was garbage collected");
+    }
+    cache.evictExpired();
+  }
+
+  /** Removes the entry at key from the cache, if it exists. */
+  public void remove(final String key) {
+    cache.remove(key);
+  }
+
   /** Returns the current size of the cache. */
   public int size() {
     return cache.size();
@@ -184,6 +372,50 @@ public final class TTLCache<T> {
     return cache.getMaxSize();
   }
 
+  /**
+   * Returns the number of loads which returned a cached value, including those served within the
+   * grace period.
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of loads which returned a cached value past its TTL, within the grace
+   * period, while another thread reloaded it.
+   */
+  public long getGraceHitCount() {
+    return graceHits.sum();
+  }
+
+  /**
+   * Returns the number of loads which found no cached value, or one which needed to be reloaded,
+   * and so called a loader or waited for another thread's call.
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Returns the number of calls to a loader which succeeded. */
+  public long getLoadSuccessCount() {
+    return loadSuccesses.sum();
+  }
+
+  /** Returns the number of calls to a loader which failed. */
+  public long getLoadFailureCount() {
+    return loadFailures.sum();
+  }
+
+  /** Returns the total time spent in calls to a loader, in nanoseconds. */
+  public long getTotalLoadTimeNanos() {
+    return loadTimeNanos.sum();
+  }
+
+  /** Returns the number of entries evicted because they expired or the cache was full. */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
   /** Clears all entries from the cache. */
   public void clear() {
     cache.clear();
@@ -198,11 +430,29 @@ public final class TTLCache<T> {
     T load(String entryKey);
   }
 
+  /** Why an entry was evicted. */
+  public enum EvictionCause {
+    /** The entry expired past the grace period. */
+    EXPIRED,
+    /** The entry was least recently used when the cache was full. */
+    SIZE
+  }
+
+  /**
+   * Notified of entries evicted by a {@link TTLCache}.
+   *
+   * @param <T> value type
+   */
+  public interface EvictionListener<T> {
+    void onEviction(String key, T value, EvictionCause cause);
+  }
+
   // An object which stores a state alongside a lock,
   // and performs updates to that state atomically.
-  // The state may only be updated if the lock is acquired by the current thread.
+  // The state may only be updated by the thread which acquired the lock.
+  // The lock is never waited for, so a flag is enough, and cheaper than a fair lock.
   private static class LockedState<T> {
-    private final ReentrantLock lock = new ReentrantLock(true);
+    private final AtomicBoolean locked = new AtomicBoolean(false);
     private final AtomicReference<State<T>> state;
 
     public LockedState(T data, long createTimeNano) {
@@ -214,16 +464,16 @@ public final class TTLCache<T> {
     }
 
     public void unlock() {
-      lock.unlock();
+      locked.set(false);
     }
 
     public boolean tryLock() {
-      return lock.tryLock();
+      return locked.compareAndSet(false, true);
     }
 
     public void update(T data, long createTimeNano) {
-      if (!lock.isHeldByCurrentThread()) {
-        throw new IllegalStateException("Lock not held by current thread");
+      if (!locked.get()) {
+        throw new IllegalStateException("Lock not held");
       }
       state.set(new State<>(data, createTimeNano));
     }
@@ -17,6 +17,7 @@ package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class Utils {
   private static final ThreadLocal<SecureRandom> RND =
@@ -51,6 +52,13 @@ public class Utils {
     }
   }
 
+  /** Returns a future which has already completed exceptionally with {@code ex}. */
+  public static <T> CompletableFuture<T> failedFuture(final Throwable ex) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    result.completeExceptionally(ex);
+    return result;
+  }
+
   /*
    * Loads the version of the library
    */
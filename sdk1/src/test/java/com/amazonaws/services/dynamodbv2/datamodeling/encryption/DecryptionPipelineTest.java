@@ -0,0 +1,240 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.security.GeneralSecurityException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DecryptionPipelineTest {
+  private static SecretKey encryptionKey;
+  private static SecretKey macKey;
+
+  private DynamoDBEncryptor encryptor;
+  private EncryptionContext context;
+  private Map<String, Set<EncryptionFlags>> attributeFlags;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    KeyGenerator aesGen = KeyGenerator.getInstance("AES");
+    aesGen.init(128, Utils.getRng());
+    encryptionKey = aesGen.generateKey();
+
+    KeyGenerator macGen = KeyGenerator.getInstance("HmacSHA256");
+    macGen.init(256, Utils.getRng());
+    macKey = macGen.generateKey();
+  }
+
+  @BeforeMethod
+  public void setUp() {
+    encryptor = DynamoDBEncryptor.getInstance(new SymmetricStaticProvider(encryptionKey, macKey));
+    encryptor.setAsyncExecutor(Runnable::run);
+    context =
+        new EncryptionContext.Builder().withTableName("TableName").withHashKeyName("id").build();
+    attributeFlags = new HashMap<>();
+    attributeFlags.put("id", Collections.singleton(EncryptionFlags.SIGN));
+    attributeFlags.put("data", EnumSet.of(EncryptionFlags.ENCRYPT, EncryptionFlags.SIGN));
+  }
+
+  @Test
+  public void orderedAcrossPages() throws GeneralSecurityException {
+    List<List<Map<String, AttributeValue>>> pages =
+        Arrays.asList(encryptedPage(0, 3), encryptedPage(3, 0), encryptedPage(3, 4));
+    pages.get(2).get(1).put("id", new AttributeValue().withN("666"));
+
+    DecryptionPipeline pipeline =
+        new DecryptionPipeline.Builder(encryptor)
+            .withAttributeFlags(attributeFlags)
+            .withContext(context)
+            .withMaxConcurrency(2)
+            .build();
+    assertTrue(pipeline.isOrdered());
+    List<DecryptionResult> results = drain(pipeline.decrypt(pages.iterator()));
+    assertEquals(7, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      if (i == 4) {
+        assertFalse(results.get(i).isSuccessful());
+        assertTrue(results.get(i).getException() instanceof SignatureException);
+      } else {
+        assertEquals(record(i), results.get(i).getItem());
+      }
+    }
+  }
+
+  @Test
+  public void schemaSinglePage() throws GeneralSecurityException {
+    DecryptionPipeline pipeline =
+        new DecryptionPipeline.Builder(encryptor)
+            .withSchema(EncryptionSchema.of(attributeFlags))
+            .withContext(context)
+            .build();
+    List<DecryptionResult> results = drain(pipeline.decrypt(encryptedPage(0, 5)));
+    assertEquals(5, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(record(i), results.get(i).getItem());
+    }
+  }
+
+  @Test
+  public void boundsRecordsInFlight() throws GeneralSecurityException {
+    final List<List<Map<String, AttributeValue>>> pages = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      pages.add(encryptedPage(i, 1));
+    }
+    final AtomicInteger pagesRead = new AtomicInteger();
+    Iterator<List<Map<String, AttributeValue>>> source =
+        new Iterator<List<Map<String, AttributeValue>>>() {
+          @Override
+          public boolean hasNext() {
+            return pagesRead.get() < pages.size();
+          }
+
+          @Override
+          public List<Map<String, AttributeValue>> next() {
+            return pages.get(pagesRead.getAndIncrement());
+          }
+        };
+
+    Iterator<DecryptionResult> results =
+        new DecryptionPipeline.Builder(encryptor)
+            .withAttributeFlags(attributeFlags)
+            .withContext(context)
+            .withMaxConcurrency(3)
+            .build()
+            .decrypt(source);
+    assertEquals(0, pagesRead.get());
+    for (int consumed = 0; consumed < 10; consumed++) {
+      assertTrue(results.hasNext());
+      assertEquals(Math.min(10, consumed + 3), pagesRead.get());
+      assertEquals(record(consumed), results.next().getItem());
+    }
+    assertFalse(results.hasNext());
+    try {
+      results.next();
+      fail("Expected exception");
+    } catch (NoSuchElementException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void unorderedDoesNotWaitForSlowRecords() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    DynamoDBEncryptor slowEncryptor =
+        DynamoDBEncryptor.getInstance(
+            new SymmetricStaticProvider(encryptionKey, macKey) {
+              @Override
+              public DecryptionMaterials getDecryptionMaterials(EncryptionContext context) {
+                if ("0".equals(context.getAttributeValues().get("id").getN())) {
+                  try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                  } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                  }
+                }
+                return super.getDecryptionMaterials(context);
+              }
+            });
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      slowEncryptor.setAsyncExecutor(pool);
+      DecryptionPipeline pipeline =
+          new DecryptionPipeline.Builder(slowEncryptor)
+              .withAttributeFlags(attributeFlags)
+              .withContext(context)
+              .withMaxConcurrency(2)
+              .withOrdered(false)
+              .build();
+      Iterator<DecryptionResult> results = pipeline.decrypt(encryptedPage(0, 2));
+      assertEquals(record(1), results.next().getItem());
+      release.countDown();
+      assertEquals(record(0), results.next().getItem());
+      assertFalse(results.hasNext());
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void pageSourceFailuresAreThrown() {
+    Iterator<List<Map<String, AttributeValue>>> source =
+        new Iterator<List<Map<String, AttributeValue>>>() {
+          @Override
+          public boolean hasNext() {
+            return true;
+          }
+
+          @Override
+          public List<Map<String, AttributeValue>> next() {
+            throw new IllegalStateException("Scan failed");
+          }
+        };
+    new DecryptionPipeline.Builder(encryptor)
+        .withAttributeFlags(attributeFlags)
+        .withContext(context)
+        .build()
+        .decrypt(source)
+        .hasNext();
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void requiresFlags() {
+    new DecryptionPipeline.Builder(encryptor).withContext(context).build();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void requiresPositiveConcurrency() {
+    new DecryptionPipeline.Builder(encryptor).withMaxConcurrency(0);
+  }
+
+  private static Map<String, AttributeValue> record(int id) {
+    Map<String, AttributeValue> record = new HashMap<>();
+    record.put("id", new AttributeValue().withN(Integer.toString(id)));
+    record.put("data", new AttributeValue().withS("Record " + id));
+    return record;
+  }
+
+  private List<Map<String, AttributeValue>> encryptedPage(int firstId, int size)
+      throws GeneralSecurityException {
+    List<Map<String, AttributeValue>> page = new ArrayList<>();
+    for (int i = firstId; i < firstId + size; i++) {
+      page.add(encryptor.encryptRecord(record(i), attributeFlags, context));
+    }
+    return page;
+  }
+
+  private static List<DecryptionResult> drain(Iterator<DecryptionResult> results) {
+    List<DecryptionResult> list = new ArrayList<>();
+    results.forEachRemaining(list::add);
+    return list;
+  }
+}
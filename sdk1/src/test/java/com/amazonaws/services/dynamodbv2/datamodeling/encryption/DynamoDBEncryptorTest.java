@@ -21,15 +21,21 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.testng.AssertJUnit.assertArrayEquals;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.collections.Sets.newHashSet;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.AsyncEncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.MaterialDescriptionCache;
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.testing.AttrMatcher;
@@ -43,14 +49,25 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Security;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import org.bouncycastle.jce.ECNamedCurveTable;
@@ -527,6 +544,691 @@ public class DynamoDBEncryptorTest {
     assertThat(decryptedAttributes, AttrMatcher.match(attribs));
   }
 
+  @Test
+  public void encryptRecordsRequestsMaterialsOnce() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> items = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Map<String, AttributeValue> item = new HashMap<>(attribs);
+      item.put("hashKey", new AttributeValue().withN(Integer.toString(i)));
+      items.add(Collections.unmodifiableMap(item));
+    }
+
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(items, attributeFlags, context);
+    assertEquals(items.size(), encryptedItems.size());
+    assertEquals(1, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+
+    for (int i = 0; i < items.size(); i++) {
+      assertThat(encryptedItems.get(i), AttrMatcher.invert(items.get(i)));
+      Map<String, AttributeValue> decryptedAttributes =
+          encryptor.decryptAllFieldsExcept(
+              encryptedItems.get(i), context, "hashKey", "rangeKey", "version");
+      assertThat(decryptedAttributes, AttrMatcher.match(items.get(i)));
+    }
+  }
+
+  @Test
+  public void encryptRecordsSignsForTheOverriddenTableOfEachRecord()
+      throws GeneralSecurityException {
+    // Records with even and odd hash keys are written to different tables
+    encryptor.setEncryptionContextOverrideOperator(
+        ctx ->
+            new EncryptionContext.Builder(ctx)
+                .withTableName(
+                    "table-" + Integer.parseInt(ctx.getAttributeValues().get("hashKey").getN()) % 2)
+                .build());
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> items = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Map<String, AttributeValue> item = new HashMap<>(attribs);
+      item.put("hashKey", new AttributeValue().withN(Integer.toString(i)));
+      items.add(item);
+    }
+
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(items, attributeFlags, context);
+    assertEquals(2, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+    for (int i = 0; i < items.size(); i++) {
+      assertThat(
+          encryptor.decryptRecord(encryptedItems.get(i), attributeFlags, context),
+          AttrMatcher.match(items.get(i)));
+    }
+
+    // Each record is only valid for the table it was mapped to
+    encryptor.setEncryptionContextOverrideOperator(null);
+    try {
+      encryptor.decryptRecord(encryptedItems.get(1), attributeFlags, context);
+      Assert.fail("Expected exception");
+    } catch (SignatureException ex) {
+      // Expected exception
+    }
+  }
+
+  @Test
+  public void encryptRecordsWithoutReusableMaterials() throws GeneralSecurityException {
+    final EncryptionMaterialsProvider delegate =
+        new SymmetricStaticProvider(encryptionKey, macKey, Collections.<String, String>emptyMap());
+    prov =
+        new InstrumentedEncryptionMaterialsProvider(
+            new EncryptionMaterialsProvider() {
+              @Override
+              public DecryptionMaterials getDecryptionMaterials(EncryptionContext context) {
+                return delegate.getDecryptionMaterials(context);
+              }
+
+              @Override
+              public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+                return delegate.getEncryptionMaterials(context);
+              }
+
+              @Override
+              public void refresh() {
+                delegate.refresh();
+              }
+            });
+    encryptor = DynamoDBEncryptor.getInstance(prov, "encryptor-");
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(Arrays.asList(attribs, attribs, attribs), attributeFlags, context);
+    assertEquals(3, encryptedItems.size());
+    assertEquals(3, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+    for (Map<String, AttributeValue> encryptedItem : encryptedItems) {
+      Map<String, AttributeValue> decryptedAttributes =
+          encryptor.decryptAllFieldsExcept(
+              encryptedItem, context, "hashKey", "rangeKey", "version");
+      assertThat(decryptedAttributes, AttrMatcher.match(attribs));
+    }
+  }
+
+  @Test
+  public void encryptRecordsEmpty() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    assertTrue(
+        encryptor
+            .encryptRecords(
+                Collections.<Map<String, AttributeValue>>emptyList(), attributeFlags, context)
+            .isEmpty());
+    assertEquals(0, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+  }
+
+  @Test
+  public void decryptRecordsRequestsMaterialsOncePerDescription() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> items = new ArrayList<>();
+    List<Map<String, AttributeValue>> encryptedItems = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Map<String, AttributeValue> item = new HashMap<>(attribs);
+      item.put("hashKey", new AttributeValue().withN(Integer.toString(i)));
+      items.add(item);
+      encryptedItems.add(encryptor.encryptRecord(item, attributeFlags, context));
+    }
+
+    List<DecryptionResult> results =
+        encryptor.decryptRecords(encryptedItems, attributeFlags, context);
+    assertEquals(items.size(), results.size());
+    assertEquals(1, prov.getCallCount("getDecryptionMaterials()"));
+    for (int i = 0; i < items.size(); i++) {
+      assertTrue(results.get(i).isSuccessful());
+      assertNull(results.get(i).getException());
+      assertThat(results.get(i).getItem(), AttrMatcher.match(items.get(i)));
+    }
+  }
+
+  @Test
+  public void decryptRecordsRequestsMaterialsOncePerOverriddenTable()
+      throws GeneralSecurityException {
+    // Records with even and odd hash keys are read from different tables
+    encryptor.setEncryptionContextOverrideOperator(
+        ctx ->
+            new EncryptionContext.Builder(ctx)
+                .withTableName(
+                    "table-" + Integer.parseInt(ctx.getAttributeValues().get("hashKey").getN()) % 2)
+                .build());
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> items = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Map<String, AttributeValue> item = new HashMap<>(attribs);
+      item.put("hashKey", new AttributeValue().withN(Integer.toString(i)));
+      items.add(item);
+    }
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(items, attributeFlags, context);
+
+    List<DecryptionResult> results =
+        encryptor.decryptRecords(encryptedItems, attributeFlags, context);
+    assertEquals(2, prov.getCallCount("getDecryptionMaterials()"));
+    for (int i = 0; i < items.size(); i++) {
+      assertThat(results.get(i).getItem(), AttrMatcher.match(items.get(i)));
+    }
+  }
+
+  @Test
+  public void decryptRecordsReportsFailuresPerRecord() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(Arrays.asList(attribs, attribs, attribs), attributeFlags, context);
+    encryptedItems.get(1).put("hashKey", new AttributeValue().withN("666"));
+
+    List<DecryptionResult> results =
+        encryptor.decryptRecords(encryptedItems, attributeFlags, context);
+    assertEquals(3, results.size());
+    assertThat(results.get(0).getItem(), AttrMatcher.match(attribs));
+    Assert.assertFalse(results.get(1).isSuccessful());
+    assertNull(results.get(1).getItem());
+    assertTrue(results.get(1).getException() instanceof SignatureException);
+    assertThat(results.get(2).getItem(), AttrMatcher.match(attribs));
+  }
+
+  @Test
+  public void decryptRecordsReportsDistinctFailuresPerDescription()
+      throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    List<Map<String, AttributeValue>> encryptedItems =
+        encryptor.encryptRecords(Arrays.asList(attribs, attribs, attribs), attributeFlags, context);
+    for (Map<String, AttributeValue> item : encryptedItems) {
+      // An unsupported description version
+      item.put(
+          encryptor.getMaterialDescriptionFieldName(),
+          new AttributeValue().withB(ByteBuffer.wrap(new byte[] {0, 0, 0, 9})));
+    }
+
+    List<DecryptionResult> results =
+        encryptor.decryptRecords(encryptedItems, attributeFlags, context);
+    Exception first = results.get(0).getException();
+    assertTrue(first instanceof IllegalArgumentException);
+    for (int i = 1; i < results.size(); i++) {
+      Exception ex = results.get(i).getException();
+      assertTrue(ex instanceof DynamoDBMappingException);
+      assertSame(first, ex.getCause());
+    }
+    assertNotSame(results.get(1).getException(), results.get(2).getException());
+  }
+
+  @Test
+  public void fullEncryptionWithSlicedBinaryValues() throws GeneralSecurityException {
+    assertFalse(encryptor.isSliceDecryptedBinaryValues());
+    encryptor.setSliceDecryptedBinaryValues(true);
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> decryptedAttributes =
+        encryptor.decryptAllFieldsExcept(
+            encryptedAttributes, context, "hashKey", "rangeKey", "version");
+    assertThat(decryptedAttributes, AttrMatcher.match(attribs));
+    assertTrue(decryptedAttributes.get("byteArrayValue").getB().isReadOnly());
+  }
+
+  @Test
+  public void schemaInteroperatesWithAttributeFlags() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+
+    Map<String, AttributeValue> encryptedWithSchema =
+        encryptor.encryptRecord(Collections.unmodifiableMap(attribs), schema, context);
+    assertThat(encryptedWithSchema, AttrMatcher.invert(attribs));
+    assertThat(
+        encryptor.decryptRecord(encryptedWithSchema, attributeFlags, context),
+        AttrMatcher.match(attribs));
+
+    Map<String, AttributeValue> encryptedWithFlags =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+    assertThat(
+        encryptor.decryptRecord(Collections.unmodifiableMap(encryptedWithFlags), schema, context),
+        AttrMatcher.match(attribs));
+  }
+
+  @Test
+  public void schemaIgnoresUnknownAttributes() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+    Map<String, AttributeValue> item = new HashMap<>(attribs);
+    item.put("unknown", new AttributeValue().withS("Not signed"));
+
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(item, schema, context);
+    assertAttrEquals(item.get("unknown"), encryptedAttributes.get("unknown"));
+    encryptedAttributes.put("unknown", new AttributeValue().withS("Changed"));
+    Map<String, AttributeValue> decryptedAttributes =
+        encryptor.decryptRecord(encryptedAttributes, attributeFlags, context);
+    assertAttrEquals(new AttributeValue().withS("Changed"), decryptedAttributes.get("unknown"));
+  }
+
+  @Test(expectedExceptions = SignatureException.class)
+  public void schemaBadSignature() throws GeneralSecurityException {
+    EncryptionSchema schema =
+        EncryptionSchema.of(
+            encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version"));
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(attribs, schema, context);
+    encryptedAttributes.get("hashKey").setN("666");
+    encryptor.decryptRecord(encryptedAttributes, schema, context);
+  }
+
+  @Test
+  public void schemaWithoutFlagsDoesNothing() throws GeneralSecurityException {
+    EncryptionSchema schema =
+        EncryptionSchema.of(Collections.<String, Set<EncryptionFlags>>emptyMap());
+    assertTrue(attribs == encryptor.encryptRecord(attribs, schema, context));
+    assertTrue(attribs == encryptor.decryptRecord(attribs, schema, context));
+    assertEquals(0, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+  }
+
+  @Test
+  public void parallelEncryption() throws GeneralSecurityException {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      AtomicInteger submitted = new AtomicInteger();
+      assertNull(encryptor.getParallelExecutor());
+      encryptor.setParallelExecutor(
+          task -> {
+            submitted.incrementAndGet();
+            pool.execute(task);
+          });
+      encryptor.setParallelThreshold(0);
+      Map<String, Set<EncryptionFlags>> attributeFlags =
+          encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+
+      Map<String, AttributeValue> encryptedAttributes =
+          encryptor.encryptRecord(Collections.unmodifiableMap(attribs), attributeFlags, context);
+      assertTrue(submitted.get() > 0);
+      assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+      assertAttrEquals(attribs.get("hashKey"), encryptedAttributes.get("hashKey"));
+      assertNotNull(encryptedAttributes.get("stringValue").getB());
+
+      DynamoDBEncryptor serial = DynamoDBEncryptor.getInstance(prov, "encryptor-");
+      assertThat(
+          serial.decryptRecord(encryptedAttributes, attributeFlags, context),
+          AttrMatcher.match(attribs));
+      assertThat(
+          serial.decryptRecord(
+              encryptor.encryptRecord(attribs, EncryptionSchema.of(attributeFlags), context),
+              attributeFlags,
+              context),
+          AttrMatcher.match(attribs));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parallelSignedOnlyMatchesSerial() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, attribs.keySet().toArray(new String[0]));
+    Map<String, AttributeValue> serialAttributes =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      encryptor.setParallelExecutor(pool);
+      encryptor.setParallelThreshold(0);
+      Map<String, AttributeValue> parallelAttributes =
+          encryptor.encryptRecord(attribs, attributeFlags, context);
+      // HMAC signatures are deterministic, so the records must be identical
+      assertThat(parallelAttributes, AttrMatcher.match(serialAttributes));
+      assertEquals(
+          serialAttributes.get(encryptor.getSignatureFieldName()).getB(),
+          parallelAttributes.get(encryptor.getSignatureFieldName()).getB());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parallelBelowThresholdIsSerial() throws GeneralSecurityException {
+    assertEquals(64 * 1024, encryptor.getParallelThreshold());
+    encryptor.setParallelExecutor(
+        task -> {
+          throw new AssertionError("Small records must not use the executor");
+        });
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+    assertThat(
+        encryptor.decryptAllFieldsExcept(
+            encryptedAttributes, context, "hashKey", "rangeKey", "version"),
+        AttrMatcher.match(attribs));
+  }
+
+  @Test
+  public void parallelWithRejectingExecutor() throws GeneralSecurityException {
+    encryptor.setParallelExecutor(
+        task -> {
+          throw new RejectedExecutionException();
+        });
+    encryptor.setParallelThreshold(0);
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+    assertThat(
+        encryptor.decryptAllFieldsExcept(
+            encryptedAttributes, context, "hashKey", "rangeKey", "version"),
+        AttrMatcher.match(attribs));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void negativeParallelThreshold() {
+    encryptor.setParallelThreshold(-1);
+  }
+
+  @Test
+  public void materialDescriptionsAreCached() throws GeneralSecurityException {
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+    MaterialDescriptionCache cache = encryptor.getMaterialDescriptionCache();
+    for (int i = 0; i < 2; i++) {
+      assertThat(
+          encryptor.decryptAllFieldsExcept(
+              encryptedAttributes, context, "hashKey", "rangeKey", "version"),
+          AttrMatcher.match(attribs));
+    }
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+
+    // Each encryptor has its own cache
+    DynamoDBEncryptor other = DynamoDBEncryptor.getInstance(prov, "encryptor-");
+    other.decryptAllFieldsExcept(encryptedAttributes, context, "hashKey", "rangeKey", "version");
+    assertEquals(1, other.getMaterialDescriptionCache().getMissCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void materialDescriptionCacheCanBeDisabled() throws GeneralSecurityException {
+    assertEquals(1024, encryptor.getMaterialDescriptionCache().getMaxSize());
+    encryptor.setMaterialDescriptionCacheSize(10);
+    assertEquals(10, encryptor.getMaterialDescriptionCache().getMaxSize());
+    encryptor.setMaterialDescriptionCacheSize(0);
+    assertNull(encryptor.getMaterialDescriptionCache());
+
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptAllFieldsExcept(attribs, context, "hashKey", "rangeKey", "version");
+    assertThat(
+        encryptor.decryptAllFieldsExcept(
+            encryptedAttributes, context, "hashKey", "rangeKey", "version"),
+        AttrMatcher.match(attribs));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void negativeMaterialDescriptionCacheSize() {
+    encryptor.setMaterialDescriptionCacheSize(-1);
+  }
+
+  @Test
+  public void lazyDecryptionDecryptsOnRead() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+
+    Map<String, AttributeValue> view =
+        encryptor.decryptRecordLazily(
+            Collections.unmodifiableMap(encryptedAttributes), attributeFlags, context);
+    LazyDecryptedRecord lazy = (LazyDecryptedRecord) view;
+    assertEquals(attribs.size(), view.size());
+    assertTrue(view.containsKey("stringValue"));
+    assertFalse(view.containsKey(encryptor.getSignatureFieldName()));
+    assertEquals(0, lazy.decryptedCount());
+
+    assertAttrEquals(attribs.get("hashKey"), view.get("hashKey"));
+    assertEquals(0, lazy.decryptedCount());
+    assertAttrEquals(attribs.get("stringValue"), view.get("stringValue"));
+    assertTrue(view.get("stringValue") == view.get("stringValue"));
+    assertEquals(1, lazy.decryptedCount());
+
+    assertThat(view, AttrMatcher.match(attribs));
+    assertEquals(attribs.size() - 3, lazy.decryptedCount());
+    assertThat(new HashMap<>(view), AttrMatcher.match(attribs));
+  }
+
+  @Test
+  public void lazyDecryptionSharesViewAcrossThreads() throws Exception {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> view =
+        encryptor.decryptRecordLazily(
+            encryptor.encryptRecord(attribs, attributeFlags, context), attributeFlags, context);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Map<String, AttributeValue>>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(pool.submit(() -> new HashMap<>(view)));
+      }
+      for (Future<Map<String, AttributeValue>> result : results) {
+        assertThat(result.get(), AttrMatcher.match(attribs));
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(attribs.size() - 3, ((LazyDecryptedRecord) view).decryptedCount());
+  }
+
+  @Test(expectedExceptions = SignatureException.class)
+  public void lazyDecryptionVerifiesSignature() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+    encryptedAttributes.get("hashKey").setN("666");
+    encryptor.decryptRecordLazily(encryptedAttributes, attributeFlags, context);
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void lazyDecryptionIsReadOnly() throws GeneralSecurityException {
+    EncryptionSchema schema =
+        EncryptionSchema.of(
+            encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version"));
+    Map<String, AttributeValue> view =
+        encryptor.decryptRecordLazily(
+            encryptor.encryptRecord(attribs, schema, context), schema, context);
+    assertThat(view, AttrMatcher.match(attribs));
+    view.put("stringValue", new AttributeValue().withS("Changed"));
+  }
+
+  @Test
+  public void projectedDecryption() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+    List<String> projection = Arrays.asList("hashKey", "stringValue", "missing");
+
+    for (Map<String, AttributeValue> projected :
+        Arrays.asList(
+            encryptor.decryptRecord(encryptedAttributes, attributeFlags, context, projection),
+            encryptor.decryptRecord(encryptedAttributes, schema, context, projection))) {
+      assertEquals(newHashSet("hashKey", "stringValue"), projected.keySet());
+      assertAttrEquals(attribs.get("hashKey"), projected.get("hashKey"));
+      assertAttrEquals(attribs.get("stringValue"), projected.get("stringValue"));
+    }
+  }
+
+  @Test(expectedExceptions = SignatureException.class)
+  public void projectedDecryptionVerifiesSignature() throws GeneralSecurityException {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecord(attribs, attributeFlags, context);
+    // Tamper with an attribute which is not projected
+    encryptedAttributes.get("intValue").setB(encryptedAttributes.get("stringValue").getB());
+    encryptor.decryptRecord(
+        encryptedAttributes, attributeFlags, context, Collections.singleton("hashKey"));
+  }
+
+  @Test
+  public void asyncRoundTripWithSyncProvider() throws Exception {
+    AtomicInteger submitted = new AtomicInteger();
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      encryptor.setAsyncExecutor(
+          task -> {
+            submitted.incrementAndGet();
+            pool.execute(task);
+          });
+      Map<String, Set<EncryptionFlags>> attributeFlags =
+          encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+
+      Map<String, AttributeValue> encryptedAttributes =
+          encryptor
+              .encryptRecordAsync(Collections.unmodifiableMap(attribs), attributeFlags, context)
+              .get();
+      assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+      assertAttrEquals(attribs.get("hashKey"), encryptedAttributes.get("hashKey"));
+      assertThat(
+          encryptor.decryptRecord(encryptedAttributes, attributeFlags, context),
+          AttrMatcher.match(attribs));
+      assertThat(
+          encryptor
+              .decryptRecordAsync(
+                  Collections.unmodifiableMap(encryptedAttributes), attributeFlags, context)
+              .get(),
+          AttrMatcher.match(attribs));
+      // The sync provider and the record crypto both ran on the executor
+      assertEquals(4, submitted.get());
+      assertEquals(1, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+      assertEquals(2, prov.getCallCount("getDecryptionMaterials()"));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void asyncUsesAsyncProvider() throws Exception {
+    AtomicInteger asyncCalls = new AtomicInteger();
+    AsyncEncryptionMaterialsProvider asyncProv =
+        new AsyncEncryptionMaterialsProvider() {
+          @Override
+          public CompletableFuture<DecryptionMaterials> getDecryptionMaterialsAsync(
+              EncryptionContext context) {
+            asyncCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(prov.getDecryptionMaterials(context));
+          }
+
+          @Override
+          public CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync(
+              EncryptionContext context) {
+            asyncCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(prov.getEncryptionMaterials(context));
+          }
+
+          @Override
+          public DecryptionMaterials getDecryptionMaterials(EncryptionContext context) {
+            throw new AssertionError("Synchronous method must not be called");
+          }
+
+          @Override
+          public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+            throw new AssertionError("Synchronous method must not be called");
+          }
+
+          @Override
+          public void refresh() {}
+        };
+    DynamoDBEncryptor asyncEncryptor = DynamoDBEncryptor.getInstance(asyncProv, "encryptor-");
+    asyncEncryptor.setAsyncExecutor(Runnable::run);
+    EncryptionSchema schema =
+        EncryptionSchema.of(
+            encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version"));
+
+    Map<String, AttributeValue> encryptedAttributes =
+        asyncEncryptor.encryptRecordAsync(attribs, schema, context).get();
+    assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+    assertThat(
+        encryptor.decryptRecord(encryptedAttributes, schema, context), AttrMatcher.match(attribs));
+    assertThat(
+        asyncEncryptor.decryptRecordAsync(encryptedAttributes, schema, context).get(),
+        AttrMatcher.match(attribs));
+    assertEquals(2, asyncCalls.get());
+  }
+
+  @Test
+  public void asyncBadSignature() throws Exception {
+    Map<String, Set<EncryptionFlags>> attributeFlags =
+        encryptor.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version");
+    Map<String, AttributeValue> encryptedAttributes =
+        encryptor.encryptRecordAsync(attribs, attributeFlags, context).get();
+    encryptedAttributes.get("hashKey").setN("666");
+    try {
+      encryptor.decryptRecordAsync(encryptedAttributes, attributeFlags, context).get();
+      Assert.fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof SignatureException);
+    }
+  }
+
+  @Test
+  public void asyncWithoutFlagsDoesNothing() throws Exception {
+    encryptor.setAsyncExecutor(
+        task -> {
+          throw new AssertionError("Nothing to do, so the executor must not be used");
+        });
+    Map<String, Set<EncryptionFlags>> attributeFlags = Collections.emptyMap();
+    assertTrue(attribs == encryptor.encryptRecordAsync(attribs, attributeFlags, context).get());
+    assertTrue(attribs == encryptor.decryptRecordAsync(attribs, attributeFlags, context).get());
+    assertEquals(0, prov.getCallCount("getEncryptionMaterials(EncryptionContext context)"));
+  }
+
+  @Test
+  public void asyncProviderFailure() throws Exception {
+    DynamoDBEncryptor failing =
+        DynamoDBEncryptor.getInstance(
+            new SymmetricStaticProvider(encryptionKey, macKey) {
+              @Override
+              public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+                throw new IllegalStateException("No materials");
+              }
+            });
+    try {
+      failing
+          .encryptRecordAsync(
+              attribs,
+              failing.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version"),
+              context)
+          .get();
+      Assert.fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void asyncCallsSyncProvidersOffTheCommonPoolByDefault() throws Exception {
+    final AtomicReference<Thread> providerThread = new AtomicReference<>();
+    DynamoDBEncryptor defaults =
+        DynamoDBEncryptor.getInstance(
+            new SymmetricStaticProvider(encryptionKey, macKey) {
+              @Override
+              public EncryptionMaterials getEncryptionMaterials(EncryptionContext context) {
+                providerThread.set(Thread.currentThread());
+                return super.getEncryptionMaterials(context);
+              }
+            });
+    encryptor.setAsyncExecutor(Runnable::run);
+    encryptor.setAsyncExecutor(null);
+    assertNull(encryptor.getAsyncExecutor());
+    assertNull(defaults.getAsyncExecutor());
+
+    Map<String, AttributeValue> encryptedAttributes =
+        defaults
+            .encryptRecordAsync(
+                attribs,
+                defaults.allEncryptionFlagsExcept(attribs, "hashKey", "rangeKey", "version"),
+                context)
+            .get();
+    assertThat(encryptedAttributes, AttrMatcher.invert(attribs));
+    assertFalse(providerThread.get() instanceof ForkJoinWorkerThread);
+    assertTrue(providerThread.get().isDaemon());
+    assertTrue(providerThread.get().getName().startsWith("DynamoDBEncryptor-provider-"));
+  }
+
   private void assertToByteArray(
       final String msg, final byte[] expected, final ByteBuffer testValue)
       throws ReflectiveOperationException {
@@ -598,6 +1300,16 @@ public class DynamoDBEncryptorTest {
       delegate.refresh();
     }
 
+    @Override
+    public boolean isEncryptionMaterialsReusable() {
+      return delegate.isEncryptionMaterialsReusable();
+    }
+
+    @Override
+    public boolean isDecryptionMaterialsReusable() {
+      return delegate.isDecryptionMaterialsReusable();
+    }
+
     public int getCallCount(String method) {
       AtomicInteger count = calls.get(method);
       if (count != null) {
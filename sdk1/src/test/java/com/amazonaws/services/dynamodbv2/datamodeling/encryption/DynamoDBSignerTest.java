@@ -14,6 +14,9 @@
  */
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
 
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+
 import com.amazonaws.services.dynamodbv2.datamodeling.internal.Utils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import java.nio.ByteBuffer;
@@ -28,6 +31,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECParameterSpec;
@@ -147,6 +151,31 @@ public class DynamoDBSignerTest {
         scrambledAttributes, attributeFlags, new byte[0], macKey, ByteBuffer.wrap(signature));
   }
 
+  @Test
+  public void macMatchesStringToSign() throws GeneralSecurityException {
+    Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>();
+    Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<String, Set<EncryptionFlags>>();
+
+    itemAttributes.put("Key1", new AttributeValue().withS("Value1"));
+    attributeFlags.put("Key1", EnumSet.of(EncryptionFlags.SIGN));
+    itemAttributes.put("Key2", new AttributeValue().withN("100"));
+    attributeFlags.put("Key2", EnumSet.of(EncryptionFlags.SIGN));
+    itemAttributes.put(
+        "Key3", new AttributeValue().withB(ByteBuffer.wrap(new byte[] {0, 1, 2, 3})));
+    attributeFlags.put("Key3", EnumSet.of(EncryptionFlags.SIGN, EncryptionFlags.ENCRYPT));
+    itemAttributes.put("Key4", new AttributeValue().withS("Ignored"));
+    byte[] associatedData = new byte[] {1, 2, 3};
+    byte[] stringToSign =
+        DynamoDBSigner.calculateStringToSign(itemAttributes, attributeFlags, associatedData);
+    assertEquals(32 * 10, stringToSign.length);
+
+    Mac hmac = Mac.getInstance(macKey.getAlgorithm());
+    hmac.init(macKey);
+    assertArrayEquals(
+        hmac.doFinal(stringToSign),
+        signerRsa.calculateSignature(itemAttributes, attributeFlags, associatedData, macKey));
+  }
+
   @Test
   public void macNoAdMatchesEmptyAd() throws GeneralSecurityException {
     Map<String, AttributeValue> itemAttributes = new HashMap<String, AttributeValue>();
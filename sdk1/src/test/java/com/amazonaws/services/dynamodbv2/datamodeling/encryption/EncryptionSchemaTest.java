@@ -0,0 +1,84 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+public class EncryptionSchemaTest {
+  @Test
+  public void compilesFlags() throws Exception {
+    Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+    attributeFlags.put("c", EnumSet.of(EncryptionFlags.SIGN, EncryptionFlags.ENCRYPT));
+    attributeFlags.put("a", EnumSet.of(EncryptionFlags.SIGN));
+    attributeFlags.put("b", EnumSet.noneOf(EncryptionFlags.class));
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+
+    assertEquals(Arrays.asList("a", "c"), Arrays.asList(schema.getSignedNames()));
+    assertFalse(schema.isSignedNameEncrypted(0));
+    assertTrue(schema.isSignedNameEncrypted(1));
+    assertArrayEquals(
+        MessageDigest.getInstance("SHA-256").digest("c".getBytes(StandardCharsets.UTF_8)),
+        schema.getSignedNameDigest(1));
+    assertEquals(EncryptionSchema.SIGN, schema.getFlags("a"));
+    assertEquals(0, schema.getFlags("b"));
+    assertEquals(EncryptionSchema.SIGN | EncryptionSchema.ENCRYPT, schema.getFlags("c"));
+    assertEquals(0, schema.getFlags("unknown"));
+    assertTrue(schema.containsAttribute("b"));
+    assertFalse(schema.containsAttribute("unknown"));
+    assertTrue(schema.touchesAnyAttribute());
+    assertEquals(attributeFlags, schema.getAttributeFlags());
+  }
+
+  @Test
+  public void copiesFlags() {
+    Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+    Set<EncryptionFlags> flags = EnumSet.of(EncryptionFlags.SIGN);
+    attributeFlags.put("a", flags);
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+    flags.add(EncryptionFlags.ENCRYPT);
+    attributeFlags.put("b", flags);
+
+    assertEquals(EnumSet.of(EncryptionFlags.SIGN), schema.getAttributeFlags().get("a"));
+    assertEquals(EncryptionSchema.SIGN, schema.getFlags("a"));
+    assertFalse(schema.containsAttribute("b"));
+  }
+
+  @Test
+  public void withoutSignedAttributes() {
+    Map<String, Set<EncryptionFlags>> attributeFlags = new HashMap<>();
+    attributeFlags.put("a", EnumSet.noneOf(EncryptionFlags.class));
+    EncryptionSchema schema = EncryptionSchema.of(attributeFlags);
+
+    assertEquals(0, schema.getSignedNames().length);
+    assertFalse(schema.touchesAnyAttribute());
+  }
+
+  @Test
+  public void cachesTableDigest() throws Exception {
+    EncryptionSchema schema = EncryptionSchema.of(new HashMap<String, Set<EncryptionFlags>>());
+    byte[] digest = schema.getTableDigest("TableName");
+
+    assertArrayEquals(
+        MessageDigest.getInstance("SHA-256")
+            .digest("TABLE>TableName<TABLE".getBytes(StandardCharsets.UTF_8)),
+        digest);
+    assertSame(digest, schema.getTableDigest("TableName"));
+    assertArrayEquals(
+        MessageDigest.getInstance("SHA-256")
+            .digest("TABLE>null<TABLE".getBytes(StandardCharsets.UTF_8)),
+        schema.getTableDigest(null));
+  }
+}
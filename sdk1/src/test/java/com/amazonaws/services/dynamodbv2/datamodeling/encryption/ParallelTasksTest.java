@@ -0,0 +1,119 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.security.GeneralSecurityException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+public class ParallelTasksTest {
+  @Test
+  public void runsEveryTask() throws GeneralSecurityException {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      int[] results = new int[100];
+      Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+      List<ParallelTasks.Task> tasks = new ArrayList<>();
+      for (int i = 0; i < results.length; i++) {
+        final int index = i;
+        tasks.add(
+            () -> {
+              threads.add(Thread.currentThread());
+              results[index] = index * 2;
+            });
+      }
+      ParallelTasks.runAll(pool, tasks);
+      for (int i = 0; i < results.length; i++) {
+        assertEquals(i * 2, results[i]);
+      }
+      assertFalse(threads.isEmpty());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void callerRunsRejectedTasks() throws GeneralSecurityException {
+    Thread caller = Thread.currentThread();
+    AtomicInteger count = new AtomicInteger();
+    List<ParallelTasks.Task> tasks = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tasks.add(
+          () -> {
+            assertSame(caller, Thread.currentThread());
+            count.incrementAndGet();
+          });
+    }
+    ParallelTasks.runAll(
+        task -> {
+          throw new RejectedExecutionException();
+        },
+        tasks);
+    assertEquals(10, count.get());
+  }
+
+  @Test
+  public void callerRunsTasksTheExecutorNeverStarts() throws GeneralSecurityException {
+    List<Runnable> neverRun = new ArrayList<>();
+    AtomicInteger count = new AtomicInteger();
+    List<ParallelTasks.Task> tasks = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tasks.add(count::incrementAndGet);
+    }
+    ParallelTasks.runAll(neverRun::add, tasks);
+    assertEquals(10, count.get());
+    assertEquals(9, neverRun.size());
+    // Runners started after the tasks are finished have nothing left to do
+    for (Runnable runner : neverRun) {
+      runner.run();
+    }
+    assertEquals(10, count.get());
+  }
+
+  @Test
+  public void rethrowsFirstFailure() {
+    SignatureException failure = new SignatureException("Bad");
+    AtomicInteger count = new AtomicInteger();
+    List<ParallelTasks.Task> tasks = new ArrayList<>();
+    tasks.add(
+        () -> {
+          throw failure;
+        });
+    for (int i = 0; i < 10; i++) {
+      tasks.add(count::incrementAndGet);
+    }
+    try {
+      ParallelTasks.runAll(Runnable::run, tasks);
+      fail("Expected SignatureException");
+    } catch (GeneralSecurityException ex) {
+      assertSame(failure, ex);
+    }
+    // Tasks started after the failure are skipped
+    assertTrue(count.get() < 10);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void rethrowsRuntimeExceptions() throws GeneralSecurityException {
+    ParallelTasks.runAll(
+        Runnable::run,
+        Collections.singletonList(
+            () -> {
+              throw new IllegalStateException();
+            }));
+  }
+}
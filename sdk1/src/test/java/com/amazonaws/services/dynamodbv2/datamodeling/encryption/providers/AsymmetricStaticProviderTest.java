@@ -17,6 +17,7 @@ package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
@@ -119,6 +120,19 @@ public class AsymmetricStaticProviderTest {
     prov.refresh();
   }
 
+  @Test
+  public void materialsReusableUnlessSubclassed() {
+    AsymmetricStaticProvider prov =
+        new AsymmetricStaticProvider(encryptionPair, macKey, description);
+    assertTrue(prov.isEncryptionMaterialsReusable());
+    assertTrue(prov.isDecryptionMaterialsReusable());
+
+    AsymmetricStaticProvider subclass =
+        new AsymmetricStaticProvider(encryptionPair, macKey, description) {};
+    assertFalse(subclass.isEncryptionMaterialsReusable());
+    assertFalse(subclass.isDecryptionMaterialsReusable());
+  }
+
   private static EncryptionContext ctx(EncryptionMaterials mat) {
     return new EncryptionContext.Builder()
         .withMaterialDescription(mat.getMaterialDescription())
@@ -0,0 +1,217 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionFlags;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.testing.AttrMatcher;
+import com.amazonaws.services.dynamodbv2.testing.FakeKMS;
+import com.amazonaws.services.kms.AbstractAWSKMSAsync;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.amazonaws.services.kms.model.DecryptResult;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.amazonaws.services.kms.model.InvalidCiphertextException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.MatcherAssert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AsyncDirectKmsMaterialProviderTest {
+  private FakeKMS kms;
+  private FakeAsyncKMS asyncKms;
+  private String keyId;
+  private EncryptionContext ctx;
+
+  @BeforeMethod
+  public void setUp() {
+    kms = new FakeKMS();
+    asyncKms = new FakeAsyncKMS(kms);
+    keyId = kms.createKey().getKeyMetadata().getKeyId();
+    Map<String, AttributeValue> attrVals = new HashMap<>();
+    attrVals.put("hk", new AttributeValue("HashKeyValue"));
+    ctx =
+        new EncryptionContext.Builder()
+            .withHashKeyName("hk")
+            .withTableName("KmsTableName")
+            .withAttributeValues(attrVals)
+            .build();
+  }
+
+  @Test
+  public void simple() throws Exception {
+    AsyncDirectKmsMaterialProvider prov = new AsyncDirectKmsMaterialProvider(asyncKms, keyId);
+
+    EncryptionMaterials eMat = prov.getEncryptionMaterialsAsync(ctx).get();
+    assertNotNull(eMat.getEncryptionKey());
+    assertNotNull(eMat.getSigningKey());
+    assertEquals(1, asyncKms.generateDataKeyCalls.get());
+    assertEquals("KmsTableName", kms.getSingleEc().get("*aws-kms-table*"));
+    assertEquals("HashKeyValue", kms.getSingleEc().get("hk"));
+
+    DecryptionMaterials dMat = prov.getDecryptionMaterialsAsync(decryptCtx(eMat)).get();
+    assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+    assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    assertEquals(1, asyncKms.decryptCalls.get());
+  }
+
+  @Test
+  public void sharesDecryptionCacheWithSyncMethods() throws Exception {
+    AsyncDirectKmsMaterialProvider prov = new AsyncDirectKmsMaterialProvider(asyncKms, keyId);
+    prov.enableDecryptionCache(10, 1, TimeUnit.MINUTES);
+
+    EncryptionContext dCtx = decryptCtx(prov.getEncryptionMaterialsAsync(ctx).get());
+    DecryptionMaterials asyncMat = prov.getDecryptionMaterialsAsync(dCtx).get();
+    DecryptionMaterials syncMat = prov.getDecryptionMaterials(dCtx);
+    DecryptionMaterials cachedAsyncMat = prov.getDecryptionMaterialsAsync(dCtx).get();
+    assertEquals(asyncMat.getDecryptionKey(), syncMat.getDecryptionKey());
+    assertEquals(asyncMat.getDecryptionKey(), cachedAsyncMat.getDecryptionKey());
+    assertEquals(1, asyncKms.decryptCalls.get());
+    assertEquals(2, prov.getDecryptionCacheHitCount());
+  }
+
+  @Test
+  public void interoperatesWithSyncProvider() throws Exception {
+    AsyncDirectKmsMaterialProvider asyncProv =
+        new AsyncDirectKmsMaterialProvider(asyncKms, keyId);
+    DirectKmsMaterialProvider syncProv = new DirectKmsMaterialProvider(kms, keyId);
+
+    EncryptionMaterials asyncMat = asyncProv.getEncryptionMaterialsAsync(ctx).get();
+    DecryptionMaterials syncDecrypted = syncProv.getDecryptionMaterials(decryptCtx(asyncMat));
+    assertEquals(asyncMat.getEncryptionKey(), syncDecrypted.getDecryptionKey());
+    assertEquals(asyncMat.getSigningKey(), syncDecrypted.getVerificationKey());
+    assertEquals(asyncMat.getMaterialDescription(), syncDecrypted.getMaterialDescription());
+
+    EncryptionMaterials syncMat = syncProv.getEncryptionMaterials(ctx);
+    DecryptionMaterials asyncDecrypted =
+        asyncProv.getDecryptionMaterialsAsync(decryptCtx(syncMat)).get();
+    assertEquals(syncMat.getEncryptionKey(), asyncDecrypted.getDecryptionKey());
+    assertEquals(syncMat.getSigningKey(), asyncDecrypted.getVerificationKey());
+
+    // The synchronous methods of the async provider use the same client
+    DecryptionMaterials dMat = asyncProv.getDecryptionMaterials(decryptCtx(asyncMat));
+    assertEquals(asyncMat.getEncryptionKey(), dMat.getDecryptionKey());
+  }
+
+  @Test
+  public void encryptorRoundTrip() throws Exception {
+    DynamoDBEncryptor encryptor =
+        DynamoDBEncryptor.getInstance(new AsyncDirectKmsMaterialProvider(asyncKms, keyId));
+    Map<String, AttributeValue> item = new HashMap<>(ctx.getAttributeValues());
+    item.put("data", new AttributeValue("Secret"));
+    Map<String, Set<EncryptionFlags>> flags = encryptor.allEncryptionFlagsExcept(item, "hk");
+
+    Map<String, AttributeValue> encrypted = encryptor.encryptRecordAsync(item, flags, ctx).get();
+    MatcherAssert.assertThat(encrypted, AttrMatcher.invert(item));
+    MatcherAssert.assertThat(
+        encryptor.decryptRecordAsync(encrypted, flags, ctx).get(), AttrMatcher.match(item));
+    assertEquals(1, asyncKms.generateDataKeyCalls.get());
+    assertEquals(1, asyncKms.decryptCalls.get());
+  }
+
+  @Test
+  public void kmsErrorsCompleteExceptionally() throws Exception {
+    EncryptionMaterials eMat =
+        new AsyncDirectKmsMaterialProvider(asyncKms, keyId).getEncryptionMaterialsAsync(ctx).get();
+    // A different KMS cannot decrypt the data key
+    AsyncDirectKmsMaterialProvider prov =
+        new AsyncDirectKmsMaterialProvider(new FakeAsyncKMS(new FakeKMS()), keyId);
+    try {
+      prov.getDecryptionMaterialsAsync(decryptCtx(eMat)).get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof InvalidCiphertextException);
+    }
+  }
+
+  @Test
+  public void missingMaterialDescriptionCompletesExceptionally() throws Exception {
+    AsyncDirectKmsMaterialProvider prov = new AsyncDirectKmsMaterialProvider(asyncKms, keyId);
+    try {
+      prov.getDecryptionMaterialsAsync(ctx).get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertNotNull(ex.getCause());
+    }
+    assertEquals(0, asyncKms.decryptCalls.get());
+  }
+
+  private EncryptionContext decryptCtx(EncryptionMaterials mat) {
+    return new EncryptionContext.Builder(ctx)
+        .withMaterialDescription(mat.getMaterialDescription())
+        .build();
+  }
+
+  /** Completes the asynchronous calls on a new thread with the results of a {@link FakeKMS}. */
+  private static class FakeAsyncKMS extends AbstractAWSKMSAsync {
+    private final FakeKMS kms;
+    private final AtomicInteger decryptCalls = new AtomicInteger();
+    private final AtomicInteger generateDataKeyCalls = new AtomicInteger();
+
+    FakeAsyncKMS(FakeKMS kms) {
+      this.kms = kms;
+    }
+
+    @Override
+    public DecryptResult decrypt(DecryptRequest request) {
+      return kms.decrypt(request);
+    }
+
+    @Override
+    public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest request) {
+      return kms.generateDataKey(request);
+    }
+
+    @Override
+    public Future<DecryptResult> decryptAsync(
+        DecryptRequest request, AsyncHandler<DecryptRequest, DecryptResult> handler) {
+      decryptCalls.incrementAndGet();
+      return CompletableFuture.supplyAsync(
+          () -> {
+            try {
+              DecryptResult result = kms.decrypt(request);
+              handler.onSuccess(request, result);
+              return result;
+            } catch (RuntimeException ex) {
+              handler.onError(ex);
+              throw ex;
+            }
+          });
+    }
+
+    @Override
+    public Future<GenerateDataKeyResult> generateDataKeyAsync(
+        GenerateDataKeyRequest request,
+        AsyncHandler<GenerateDataKeyRequest, GenerateDataKeyResult> handler) {
+      generateDataKeyCalls.incrementAndGet();
+      return CompletableFuture.supplyAsync(
+          () -> {
+            try {
+              GenerateDataKeyResult result = kms.generateDataKey(request);
+              handler.onSuccess(request, result);
+              return result;
+            } catch (RuntimeException ex) {
+              handler.onError(ex);
+              throw ex;
+            }
+          });
+    }
+  }
+}
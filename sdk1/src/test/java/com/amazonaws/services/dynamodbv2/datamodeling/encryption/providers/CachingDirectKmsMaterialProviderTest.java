@@ -0,0 +1,380 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionFlags;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.testing.AttrMatcher;
+import com.amazonaws.services.dynamodbv2.testing.FakeKMS;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.hamcrest.MatcherAssert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CachingDirectKmsMaterialProviderTest {
+  private FakeKMS kms;
+  private AtomicInteger generateDataKeyCalls;
+  private Map<String, String> lastKmsEc;
+  private String keyId;
+  private DirectKmsMaterialProvider direct;
+  private AtomicLong nanos;
+
+  @BeforeMethod
+  public void setUp() {
+    generateDataKeyCalls = new AtomicInteger();
+    kms =
+        new FakeKMS() {
+          @Override
+          public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest req) {
+            generateDataKeyCalls.incrementAndGet();
+            lastKmsEc = req.getEncryptionContext();
+            return super.generateDataKey(req);
+          }
+        };
+    keyId = kms.createKey().getKeyMetadata().getKeyId();
+    direct = new DirectKmsMaterialProvider(kms, keyId);
+    nanos = new AtomicLong();
+  }
+
+  @Test
+  public void tableScopedReusesKeysUpToMaxItems() {
+    CachingDirectKmsMaterialProvider prov =
+        builder().withTableScopedEncryptionContext(true).withMaxItems(3).build();
+
+    EncryptionMaterials first = prov.getEncryptionMaterials(ctx("a"));
+    for (int i = 0; i < 7; i++) {
+      EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx("record" + i));
+      // A plain DirectKmsMaterialProvider decrypts the records of every key
+      DecryptionMaterials dMat =
+          direct.getDecryptionMaterials(decryptCtx(ctx("record" + i), eMat));
+      assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+      assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+    }
+    assertEquals(3, generateDataKeyCalls.get());
+    assertEquals(
+        DirectKmsMaterialProvider.TABLE_COVERAGE,
+        first.getMaterialDescription().get(DirectKmsMaterialProvider.COVERED_ATTR_CTX_KEY));
+    assertEquals("KmsTableName", lastKmsEc.get("*aws-kms-table*"));
+    assertFalse(lastKmsEc.containsKey("hk"));
+  }
+
+  @Test
+  public void fullContextReusesKeysOnlyForTheSameRecordKey() {
+    CachingDirectKmsMaterialProvider prov = builder().build();
+
+    EncryptionMaterials a1 = prov.getEncryptionMaterials(ctx("a"));
+    EncryptionMaterials a2 = prov.getEncryptionMaterials(ctx("a"));
+    EncryptionMaterials b = prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(2, generateDataKeyCalls.get());
+    assertEquals(a1.getEncryptionKey(), a2.getEncryptionKey());
+    assertFalse(a1.getEncryptionKey().equals(b.getEncryptionKey()));
+    assertEquals(
+        DirectKmsMaterialProvider.KEY_COVERAGE,
+        a1.getMaterialDescription().get(DirectKmsMaterialProvider.COVERED_ATTR_CTX_KEY));
+    assertEquals(
+        a2.getEncryptionKey(),
+        direct.getDecryptionMaterials(decryptCtx(ctx("a"), a2)).getDecryptionKey());
+  }
+
+  @Test
+  public void keysExpireAfterMaxAge() {
+    CachingDirectKmsMaterialProvider prov =
+        builder()
+            .withTableScopedEncryptionContext(true)
+            .withMaxAge(10, TimeUnit.SECONDS)
+            .withNanoClock(nanos::get)
+            .build();
+    EncryptionMaterials first = prov.getEncryptionMaterials(ctx("a"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+    EncryptionMaterials reused = prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(first.getEncryptionKey(), reused.getEncryptionKey());
+    assertEquals(1, generateDataKeyCalls.get());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    EncryptionMaterials second = prov.getEncryptionMaterials(ctx("c"));
+    assertEquals(2, generateDataKeyCalls.get());
+    assertFalse(first.getEncryptionKey().equals(second.getEncryptionKey()));
+    assertEquals(1, prov.cacheSize());
+  }
+
+  @Test
+  public void keysAreRetiredAfterMaxBytes() {
+    CachingDirectKmsMaterialProvider prov =
+        builder().withTableScopedEncryptionContext(true).withMaxBytes(100).build();
+    String large = new String(new char[60]).replace('\0', 'x');
+    prov.getEncryptionMaterials(ctx(large));
+    assertEquals(1, generateDataKeyCalls.get());
+    // The second record would exceed the limit
+    prov.getEncryptionMaterials(ctx(large));
+    assertEquals(2, generateDataKeyCalls.get());
+    prov.getEncryptionMaterials(ctx("small"));
+    assertEquals(2, generateDataKeyCalls.get());
+
+    // A record larger than the limit is encrypted with a key of its own
+    String huge = new String(new char[200]).replace('\0', 'x');
+    prov.getEncryptionMaterials(ctx(huge));
+    prov.getEncryptionMaterials(ctx("small"));
+    assertEquals(4, generateDataKeyCalls.get());
+  }
+
+  @Test
+  public void refreshDoesNotAffectReturnedMaterials() {
+    CachingDirectKmsMaterialProvider prov =
+        builder().withTableScopedEncryptionContext(true).build();
+    EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx("a"));
+    byte[] encoded = eMat.getEncryptionKey().getEncoded();
+    prov.refresh();
+    assertEquals(0, prov.cacheSize());
+    assertTrue(Arrays.equals(encoded, eMat.getEncryptionKey().getEncoded()));
+    assertFalse(Arrays.equals(new byte[encoded.length], encoded));
+    assertEquals(
+        eMat.getEncryptionKey(),
+        direct.getDecryptionMaterials(decryptCtx(ctx("a"), eMat)).getDecryptionKey());
+    prov.getEncryptionMaterials(ctx("a"));
+    assertEquals(2, generateDataKeyCalls.get());
+  }
+
+  @Test
+  public void cacheSizeIsBounded() {
+    CachingDirectKmsMaterialProvider prov = builder().withMaxCacheSize(2).build();
+    prov.getEncryptionMaterials(ctx("a"));
+    prov.getEncryptionMaterials(ctx("b"));
+    prov.getEncryptionMaterials(ctx("a"));
+    prov.getEncryptionMaterials(ctx("c"));
+    assertEquals(2, prov.cacheSize());
+    assertEquals(3, generateDataKeyCalls.get());
+    // "b" was the least recently used
+    prov.getEncryptionMaterials(ctx("a"));
+    prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(4, generateDataKeyCalls.get());
+  }
+
+  @Test
+  public void encryptorRoundTrip() throws Exception {
+    DynamoDBEncryptor writer =
+        DynamoDBEncryptor.getInstance(builder().withTableScopedEncryptionContext(true).build());
+    DynamoDBEncryptor reader = DynamoDBEncryptor.getInstance(direct);
+    for (String hashKey : Arrays.asList("a", "b", "c")) {
+      EncryptionContext context = ctx(hashKey);
+      Map<String, AttributeValue> item = new HashMap<>(context.getAttributeValues());
+      item.put("data", new AttributeValue("Secret " + hashKey));
+      Map<String, Set<EncryptionFlags>> flags = writer.allEncryptionFlagsExcept(item, "hk");
+
+      Map<String, AttributeValue> encrypted = writer.encryptRecord(item, flags, context);
+      MatcherAssert.assertThat(
+          reader.decryptRecord(encrypted, flags, context), AttrMatcher.match(item));
+    }
+    assertEquals(1, generateDataKeyCalls.get());
+  }
+
+  @Test
+  public void concurrentMissesShareGenerateDataKey() throws Exception {
+    final AtomicReference<CachingDirectKmsMaterialProvider> provRef = new AtomicReference<>();
+    FakeKMS slowKms =
+        new FakeKMS() {
+          @Override
+          public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest req) {
+            generateDataKeyCalls.incrementAndGet();
+            // Wait for the other writers to join this call
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (provRef.get().getCoalescedGenerateDataKeyCount() < 3
+                && System.nanoTime() < deadline) {
+              Thread.yield();
+            }
+            return super.generateDataKey(req);
+          }
+        };
+    // Only two of the four writers may use the shared key
+    final CachingDirectKmsMaterialProvider prov =
+        new CachingDirectKmsMaterialProvider.Builder(new DirectKmsMaterialProvider(slowKms, keyId))
+            .withTableScopedEncryptionContext(true)
+            .withMaxItems(2)
+            .build();
+    provRef.set(prov);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<EncryptionMaterials>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        final String hashKey = "record" + i;
+        results.add(pool.submit(() -> prov.getEncryptionMaterials(ctx(hashKey))));
+      }
+      for (Future<EncryptionMaterials> result : results) {
+        assertNotNull(result.get(10, TimeUnit.SECONDS).getEncryptionKey());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertTrue(prov.getCoalescedGenerateDataKeyCount() >= 3);
+    // The first key is exhausted by two writers, and the others need at most two more
+    assertTrue(generateDataKeyCalls.get() >= 2);
+    assertTrue(generateDataKeyCalls.get() <= 3);
+  }
+
+  @Test
+  public void prefetchedKeysServeRollover() {
+    CachingDirectKmsMaterialProvider prov =
+        builder()
+            .withTableScopedEncryptionContext(true)
+            .withMaxItems(2)
+            .withPrefetch(1, Runnable::run)
+            .build();
+    List<EncryptionMaterials> materials = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      materials.add(prov.getEncryptionMaterials(ctx("record" + i)));
+    }
+    // The first request generates its key and prefetches one, and the rollover takes it
+    assertEquals(3, generateDataKeyCalls.get());
+    assertEquals(1, prov.getPrefetchHitCount());
+    assertEquals(2, prov.getPrefetchCount());
+    assertEquals(1, prov.getPrefetchQueueDepth());
+    assertFalse(
+        materials.get(1).getEncryptionKey().equals(materials.get(2).getEncryptionKey()));
+    for (int i = 0; i < 3; i++) {
+      EncryptionMaterials eMat = materials.get(i);
+      assertEquals(
+          eMat.getEncryptionKey(),
+          direct.getDecryptionMaterials(decryptCtx(ctx("record" + i), eMat)).getDecryptionKey());
+    }
+
+    prov.refresh();
+    assertEquals(0, prov.getPrefetchQueueDepth());
+  }
+
+  @Test
+  public void prefetchRunsInBackground() {
+    List<Runnable> tasks = new ArrayList<>();
+    CachingDirectKmsMaterialProvider prov =
+        builder()
+            .withTableScopedEncryptionContext(true)
+            .withMaxItems(1)
+            .withPrefetch(2, tasks::add)
+            .withNanoClock(nanos::get)
+            .build();
+    prov.getEncryptionMaterials(ctx("a"));
+    assertEquals(2, tasks.size());
+    assertEquals(0, prov.getPrefetchQueueDepth());
+    // Prefetches already scheduled are not scheduled again
+    prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(2, tasks.size());
+    assertEquals(2, generateDataKeyCalls.get());
+
+    nanos.addAndGet(1000);
+    for (Runnable task : tasks) {
+      task.run();
+    }
+    tasks.clear();
+    assertEquals(2, prov.getPrefetchQueueDepth());
+    assertEquals(1000, prov.getAveragePrefetchLatencyNanos());
+
+    prov.getEncryptionMaterials(ctx("c"));
+    assertEquals(4, generateDataKeyCalls.get());
+    assertEquals(1, prov.getPrefetchHitCount());
+    assertEquals(1, prov.getPrefetchQueueDepth());
+    assertEquals(1, tasks.size());
+  }
+
+  @Test
+  public void expiredPrefetchedKeysAreDiscarded() {
+    CachingDirectKmsMaterialProvider prov =
+        builder()
+            .withTableScopedEncryptionContext(true)
+            .withMaxAge(10, TimeUnit.SECONDS)
+            .withPrefetch(1, Runnable::run)
+            .withNanoClock(nanos::get)
+            .build();
+    prov.getEncryptionMaterials(ctx("a"));
+    assertEquals(2, generateDataKeyCalls.get());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(4, generateDataKeyCalls.get());
+    assertEquals(1, prov.getPrefetchDiscardCount());
+    assertEquals(0, prov.getPrefetchHitCount());
+  }
+
+  @Test
+  public void prefetchFailuresDoNotAffectRequests() {
+    final AtomicInteger calls = new AtomicInteger();
+    FakeKMS flakyKms =
+        new FakeKMS() {
+          @Override
+          public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest req) {
+            // Every prefetch fails
+            if (calls.incrementAndGet() % 2 == 1) {
+              throw new IllegalStateException("Throttled");
+            }
+            return super.generateDataKey(req);
+          }
+        };
+    CachingDirectKmsMaterialProvider prov =
+        new CachingDirectKmsMaterialProvider.Builder(new DirectKmsMaterialProvider(flakyKms, keyId))
+            .withTableScopedEncryptionContext(true)
+            .withMaxItems(1)
+            .withPrefetch(1, Runnable::run)
+            .build();
+    prov.getEncryptionMaterials(ctx("a"));
+    prov.getEncryptionMaterials(ctx("b"));
+    assertEquals(2, prov.getPrefetchFailureCount());
+    assertEquals(0, prov.getPrefetchQueueDepth());
+
+    CachingDirectKmsMaterialProvider rejecting =
+        builder()
+            .withPrefetch(
+                1,
+                task -> {
+                  throw new RejectedExecutionException();
+                })
+            .build();
+    assertNotNull(rejecting.getEncryptionMaterials(ctx("a")));
+    assertEquals(1, rejecting.getPrefetchFailureCount());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidMaxItems() {
+    builder().withMaxItems(0);
+  }
+
+  private CachingDirectKmsMaterialProvider.Builder builder() {
+    return new CachingDirectKmsMaterialProvider.Builder(direct);
+  }
+
+  private static EncryptionContext ctx(String hashKey) {
+    Map<String, AttributeValue> attrVals = new HashMap<>();
+    attrVals.put("hk", new AttributeValue(hashKey));
+    return new EncryptionContext.Builder()
+        .withHashKeyName("hk")
+        .withTableName("KmsTableName")
+        .withAttributeValues(attrVals)
+        .build();
+  }
+
+  private static EncryptionContext decryptCtx(EncryptionContext ctx, EncryptionMaterials mat) {
+    assertNotNull(mat.getMaterialDescription());
+    return new EncryptionContext.Builder(ctx)
+        .withMaterialDescription(mat.getMaterialDescription())
+        .build();
+  }
+}
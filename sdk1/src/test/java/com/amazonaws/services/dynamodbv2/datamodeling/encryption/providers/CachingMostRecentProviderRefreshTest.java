@@ -0,0 +1,424 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache.MaterialsCacheStats;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache.TTLMaterialsCache;
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CircuitBreaker.State;
+import com.amazonaws.services.dynamodbv2.testing.FakeProviderStore;
+import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CachingMostRecentProviderRefreshTest {
+  private static final String MATERIAL_NAME = "material";
+  private static final long TTL_IN_MILLIS = 1000;
+  private static final long SHORT_TTL_IN_MILLIS = 100;
+  private static final IllegalStateException STORE_FAILURE =
+      new IllegalStateException("Store unavailable");
+
+  private FakeProviderStore store;
+  private ScheduledThreadPoolExecutor scheduler;
+  private EncryptionContext ctx;
+  private AtomicLong clock;
+
+  @BeforeMethod
+  public void setup() {
+    store = new FakeProviderStore();
+    scheduler = new ScheduledThreadPoolExecutor(1);
+    ctx = new EncryptionContext.Builder().build();
+    clock = new AtomicLong();
+  }
+
+  @AfterMethod
+  public void teardown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void refreshAheadLoadsNewVersionsInTheBackground() throws InterruptedException {
+    final CachingMostRecentProvider prov = refreshingProvider();
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    store.newProvider(MATERIAL_NAME);
+    store.clearCalls();
+
+    // Still within the TTL, so the cached version is used, and the material is marked as in use
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    assertEquals(0, store.getMaxVersionCalls.get());
+
+    waitUntil(() -> scheduler.getCompletedTaskCount() == 1);
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(1, store.getProviderCalls.get());
+
+    // Both the new version and its provider are cached
+    store.clearCalls();
+    assertEquals("1", version(prov.getEncryptionMaterials(ctx)));
+    assertEquals(0, store.getMaxVersionCalls.get());
+    assertEquals(0, store.getProviderCalls.get());
+  }
+
+  @Test
+  public void refreshAheadKeepsCurrentVersionFresh() throws InterruptedException {
+    final CachingMostRecentProvider prov = refreshingProvider();
+    prov.getEncryptionMaterials(ctx);
+    store.clearCalls();
+
+    // Keep using the material for longer than the TTL
+    final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TTL_IN_MILLIS * 2);
+    while (System.nanoTime() < end) {
+      assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+      Thread.sleep(50);
+    }
+    assertTrue(scheduler.getCompletedTaskCount() >= 2);
+    // Every call to the store came from a background refresh
+    assertEquals(scheduler.getCompletedTaskCount(), store.getMaxVersionCalls.get());
+  }
+
+  @Test
+  public void refreshAheadStopsForUnusedMaterials() throws InterruptedException {
+    final CachingMostRecentProvider prov = refreshingProvider();
+    prov.getEncryptionMaterials(ctx);
+    store.clearCalls();
+
+    waitUntil(() -> scheduler.getCompletedTaskCount() == 1);
+    assertEquals(0, store.getMaxVersionCalls.get());
+    assertTrue(scheduler.getQueue().isEmpty());
+
+    // Using the material again schedules a new refresh
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(1, scheduler.getQueue().size());
+  }
+
+  @Test
+  public void refreshAheadFailuresAreRetried() throws InterruptedException {
+    final CachingMostRecentProvider prov = refreshingProvider();
+    prov.getEncryptionMaterials(ctx);
+    prov.getEncryptionMaterials(ctx);
+    store.failure = new IllegalStateException("Store unavailable");
+    store.clearCalls();
+
+    waitUntil(() -> scheduler.getCompletedTaskCount() == 1);
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(1, scheduler.getQueue().size());
+  }
+
+  @Test
+  public void requestsLoadVersionsOnceSchedulerIsShutDown() {
+    final CachingMostRecentProvider prov = refreshingProvider();
+    scheduler.shutdown();
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    store.newProvider(MATERIAL_NAME);
+    prov.refresh();
+    assertEquals("1", version(prov.getEncryptionMaterials(ctx)));
+  }
+
+  @Test
+  public void staleWhileErrorServesLastLoadedMaterials() throws InterruptedException {
+    final CachingMostRecentProvider prov =
+        clocked(
+            new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, SHORT_TTL_IN_MILLIS)
+                .withStaleWhileError(1, TimeUnit.SECONDS));
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    assertEquals("0", version(eMat));
+    store.failure = STORE_FAILURE;
+    expire();
+
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    final DecryptionMaterials dMat = prov.getDecryptionMaterials(decryptCtx(eMat));
+    assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+    assertEquals(3, prov.getStaleServedCount());
+    // The provider was served stale for decryption without retrying the store
+    assertEquals(2, prov.getStoreFailureCount());
+
+    // Past the stale window
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(SHORT_TTL_IN_MILLIS + 1001));
+    assertFailsWithStoreFailure(prov);
+  }
+
+  @Test
+  public void staleWhileErrorRetriesStoreOncePerInterval() throws InterruptedException {
+    final CachingMostRecentProvider prov =
+        clocked(
+            new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, SHORT_TTL_IN_MILLIS)
+                .withStaleWhileError(1, TimeUnit.HOURS)
+                .withStaleRetryInterval(50, TimeUnit.MILLISECONDS));
+    prov.getEncryptionMaterials(ctx);
+    store.failure = STORE_FAILURE;
+    expire();
+    store.clearCalls();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    }
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(1, store.getProviderCalls.get());
+    assertEquals(20, prov.getStaleServedCount());
+
+    // Once the interval elapses, the next request retries the store
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(1, store.getMaxVersionCalls.get());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    prov.getEncryptionMaterials(ctx);
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(2, store.getMaxVersionCalls.get());
+    assertEquals(2, store.getProviderCalls.get());
+
+    // A successful load ends the backoff
+    store.failure = null;
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+    final long staleServed = prov.getStaleServedCount();
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    assertEquals(staleServed, prov.getStaleServedCount());
+    assertEquals(3, store.getMaxVersionCalls.get());
+  }
+
+  @Test
+  public void withoutStaleWhileErrorFailuresFailRequests() throws InterruptedException {
+    final CachingMostRecentProvider prov =
+        new CachingMostRecentProvider(store, MATERIAL_NAME, SHORT_TTL_IN_MILLIS);
+    prov.getEncryptionMaterials(ctx);
+    store.failure = STORE_FAILURE;
+    expire();
+    assertFailsWithStoreFailure(prov);
+    assertEquals(0, prov.getStaleServedCount());
+    assertEquals(State.CLOSED, prov.getCircuitState());
+  }
+
+  @Test
+  public void circuitBreakerBacksOffStoreCalls() throws InterruptedException {
+    final CachingMostRecentProvider prov =
+        clocked(
+            new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, SHORT_TTL_IN_MILLIS)
+                .withStaleWhileError(1, TimeUnit.HOURS)
+                .withStaleRetryInterval(0, TimeUnit.MILLISECONDS)
+                .withCircuitBreaker(1, 100, 150, TimeUnit.MILLISECONDS));
+    prov.getEncryptionMaterials(ctx);
+    store.failure = STORE_FAILURE;
+    expire();
+    store.clearCalls();
+
+    // The first failure opens the breaker, so the provider load is rejected
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    assertEquals(State.OPEN, prov.getCircuitState());
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(0, store.getProviderCalls.get());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    }
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(21, prov.getCircuitRejectedCount());
+
+    // A failed trial doubles the backoff, up to its maximum
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(2, store.getMaxVersionCalls.get());
+    assertEquals(2, prov.getCircuitOpenCount());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(2, store.getMaxVersionCalls.get());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(3, store.getMaxVersionCalls.get());
+
+    // A successful trial closes the breaker
+    store.failure = null;
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(150));
+    final long staleServed = prov.getStaleServedCount();
+    assertEquals("0", version(prov.getEncryptionMaterials(ctx)));
+    assertEquals(State.CLOSED, prov.getCircuitState());
+    assertEquals(staleServed, prov.getStaleServedCount());
+    assertEquals(4, store.getMaxVersionCalls.get());
+    assertEquals(1, store.getProviderCalls.get());
+  }
+
+  @Test
+  public void missingMaterialsDoNotOpenCircuitBreaker() {
+    final CachingMostRecentProvider prov =
+        new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+            .withCircuitBreaker(1, 1, 1, TimeUnit.HOURS)
+            .build();
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    final EncryptionContext missing =
+        new EncryptionContext.Builder()
+            .withMaterialDescription(Collections.singletonMap("fake-version", "7"))
+            .build();
+    try {
+      prov.getDecryptionMaterials(missing);
+      fail("Expected exception");
+    } catch (IndexOutOfBoundsException ex) {
+      // Expected
+    }
+    assertEquals(State.CLOSED, prov.getCircuitState());
+    assertEquals(0, prov.getStoreFailureCount());
+    prov.getDecryptionMaterials(decryptCtx(eMat));
+  }
+
+  @Test
+  public void decryptionMaterialsReusableUnlessSubclassed() {
+    CachingMostRecentProvider prov =
+        new CachingMostRecentProvider(store, MATERIAL_NAME, TTL_IN_MILLIS);
+    assertTrue(prov.isDecryptionMaterialsReusable());
+
+    CachingMostRecentProvider subclass =
+        new CachingMostRecentProvider(store, MATERIAL_NAME, TTL_IN_MILLIS) {};
+    assertFalse(subclass.isDecryptionMaterialsReusable());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidMaxStaleness() {
+    new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withStaleWhileError(-1, TimeUnit.SECONDS);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidStaleRetryInterval() {
+    new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withStaleRetryInterval(-1, TimeUnit.SECONDS);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidBackoff() {
+    new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withCircuitBreaker(1, 2, 1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void pluggedInCachesAreUsed() {
+    final TTLMaterialsCache<Long> versionCache = new TTLMaterialsCache<>(10, TTL_IN_MILLIS);
+    final TTLMaterialsCache<EncryptionMaterialsProvider> providerCache =
+        new TTLMaterialsCache<>(10, TTL_IN_MILLIS);
+    final CachingMostRecentProvider prov =
+        new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+            .withCaches(versionCache, providerCache)
+            .build();
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    prov.getEncryptionMaterials(ctx);
+    prov.getDecryptionMaterials(decryptCtx(eMat));
+    assertEquals(1, versionCache.size());
+    assertEquals(1, providerCache.size());
+
+    final MaterialsCacheStats versionStats = versionCache.stats();
+    assertEquals(1, versionStats.getMissCount());
+    assertEquals(1, versionStats.getHitCount());
+    final MaterialsCacheStats providerStats = providerCache.stats();
+    // Created by the first request, then found by the others
+    assertEquals(1, providerStats.getMissCount());
+    assertEquals(2, providerStats.getHitCount());
+
+    prov.refresh();
+    assertEquals(0, versionCache.size());
+    assertEquals(0, providerCache.size());
+  }
+
+  @Test
+  public void cacheStatsCountRequests() {
+    final CachingMostRecentProvider prov =
+        new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS).build();
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    prov.getEncryptionMaterials(ctx);
+    prov.getDecryptionMaterials(decryptCtx(eMat));
+
+    final MaterialsCacheStats versionStats = prov.getVersionCacheStats();
+    assertEquals(1, versionStats.getHitCount());
+    assertEquals(1, versionStats.getMissCount());
+    assertEquals(1, versionStats.getLoadSuccessCount());
+    final MaterialsCacheStats providerStats = prov.getProviderCacheStats();
+    assertEquals(2, providerStats.getHitCount());
+    assertEquals(1, providerStats.getMissCount());
+
+    final MaterialsCacheStats stats = prov.getCacheStats();
+    assertEquals(3, stats.getHitCount());
+    assertEquals(2, stats.getMissCount());
+    assertEquals(0, stats.getGraceHitCount());
+    assertEquals(0, stats.getLoadFailureCount());
+    assertEquals(0.6, stats.getHitRate(), 1e-9);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidJitter() {
+    new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withRefreshAheadJitter(1.5);
+  }
+
+  @Test
+  public void expirySweeperEvictsIdleMaterials() throws InterruptedException {
+    final CachingMostRecentProvider prov =
+        new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, SHORT_TTL_IN_MILLIS)
+            .withExpirySweeper(scheduler, 50, TimeUnit.MILLISECONDS)
+            .build();
+    prov.getEncryptionMaterials(ctx);
+
+    // Both the version and its provider expire, past the grace period
+    waitUntil(() -> prov.getExpiredEvictionCount() == 2);
+    store.clearCalls();
+    prov.getEncryptionMaterials(ctx);
+    assertEquals(1, store.getMaxVersionCalls.get());
+    assertEquals(1, store.getProviderCalls.get());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidSweepPeriod() {
+    new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withExpirySweeper(scheduler, 0, TimeUnit.MILLISECONDS);
+  }
+
+  private CachingMostRecentProvider refreshingProvider() {
+    return new CachingMostRecentProvider.Builder(store, MATERIAL_NAME, TTL_IN_MILLIS)
+        .withRefreshAhead(scheduler)
+        .withRefreshAheadJitter(0)
+        .build();
+  }
+
+  private CachingMostRecentProvider clocked(CachingMostRecentProvider.Builder builder) {
+    final CachingMostRecentProvider prov = builder.build();
+    prov.nanoClock = clock::get;
+    return prov;
+  }
+
+  /** Waits until cached entries are past their TTL, so that requests load them again. */
+  private static void expire() throws InterruptedException {
+    Thread.sleep(SHORT_TTL_IN_MILLIS + 50);
+  }
+
+  private void assertFailsWithStoreFailure(CachingMostRecentProvider prov) {
+    try {
+      prov.getEncryptionMaterials(ctx);
+      fail("Expected exception");
+    } catch (IllegalStateException ex) {
+      assertSame(STORE_FAILURE, ex);
+    }
+  }
+
+  private static EncryptionContext decryptCtx(EncryptionMaterials materials) {
+    return new EncryptionContext.Builder()
+        .withMaterialDescription(materials.getMaterialDescription())
+        .build();
+  }
+
+  private static String version(EncryptionMaterials materials) {
+    return materials.getMaterialDescription().get("fake-version");
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
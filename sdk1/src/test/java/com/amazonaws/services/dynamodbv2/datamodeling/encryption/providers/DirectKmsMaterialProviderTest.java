@@ -31,15 +31,26 @@ import com.amazonaws.services.kms.model.DecryptRequest;
 import com.amazonaws.services.kms.model.DecryptResult;
 import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
 import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.amazonaws.services.kms.model.InvalidCiphertextException;
 import com.amazonaws.util.Base64;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.SecretKey;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -403,6 +414,200 @@ public class DirectKmsMaterialProviderTest {
     new DirectKmsMaterialProvider(kmsSpy, keyId).getEncryptionMaterials(ctx);
   }
 
+  @Test
+  public void decryptionCacheSharesDataKeys() {
+    final AtomicInteger decryptCalls = new AtomicInteger();
+    FakeKMS countingKms = countingDecrypts(decryptCalls);
+    DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(countingKms, keyId);
+    prov.enableDecryptionCache(10, 1, TimeUnit.MINUTES);
+    CachingDirectKmsMaterialProvider writer =
+        new CachingDirectKmsMaterialProvider.Builder(prov)
+            .withTableScopedEncryptionContext(true)
+            .build();
+
+    for (int i = 0; i < 5; i++) {
+      EncryptionContext recordCtx = keyedCtx(Integer.toString(i));
+      EncryptionMaterials eMat = writer.getEncryptionMaterials(recordCtx);
+      DecryptionMaterials dMat = prov.getDecryptionMaterials(withDescription(recordCtx, eMat));
+      assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+      assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+      assertEquals(eMat.getMaterialDescription(), dMat.getMaterialDescription());
+    }
+    assertEquals(1, decryptCalls.get());
+    assertEquals(4, prov.getDecryptionCacheHitCount());
+    assertEquals(1, prov.getDecryptionCacheMissCount());
+    assertEquals(1, prov.getDecryptionCacheSize());
+
+    prov.refresh();
+    assertEquals(0, prov.getDecryptionCacheSize());
+    EncryptionContext recordCtx = keyedCtx("0");
+    prov.getDecryptionMaterials(
+        withDescription(recordCtx, writer.getEncryptionMaterials(recordCtx)));
+    assertEquals(2, decryptCalls.get());
+  }
+
+  @Test
+  public void decryptionCacheExpires() {
+    final AtomicInteger decryptCalls = new AtomicInteger();
+    final AtomicLong nanos = new AtomicLong();
+    DirectKmsMaterialProvider prov =
+        new DirectKmsMaterialProvider(countingDecrypts(decryptCalls), keyId);
+    prov.nanoClock = nanos::get;
+    prov.enableDecryptionCache(10, 10, TimeUnit.SECONDS);
+
+    EncryptionContext dCtx = ctx(prov.getEncryptionMaterials(ctx));
+    prov.getDecryptionMaterials(dCtx);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+    prov.getDecryptionMaterials(dCtx);
+    assertEquals(1, decryptCalls.get());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    prov.getDecryptionMaterials(dCtx);
+    assertEquals(2, decryptCalls.get());
+    prov.getDecryptionMaterials(dCtx);
+    assertEquals(2, decryptCalls.get());
+
+    prov.disableDecryptionCache();
+    prov.getDecryptionMaterials(dCtx);
+    assertEquals(3, decryptCalls.get());
+    assertEquals(0, prov.getDecryptionCacheSize());
+  }
+
+  @Test(expectedExceptions = InvalidCiphertextException.class)
+  public void decryptionCacheIsKeyedByKmsEc() {
+    DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(kms, keyId);
+    prov.enableDecryptionCache(10, 1, TimeUnit.MINUTES);
+    EncryptionContext recordCtx = keyedCtx("a");
+    EncryptionMaterials eMat = prov.getEncryptionMaterials(recordCtx);
+    prov.getDecryptionMaterials(withDescription(recordCtx, eMat));
+
+    // The same data key under another key must still be checked by KMS
+    prov.getDecryptionMaterials(withDescription(keyedCtx("b"), eMat));
+  }
+
+  @Test(expectedExceptions = DynamoDBMappingException.class)
+  public void decryptionCacheValidatesEncryptionKeyId() {
+    ExtendedKmsMaterialProvider prov =
+        new ExtendedKmsMaterialProvider(kms, keyId, "encryptionKeyId");
+    prov.enableDecryptionCache(10, 1, TimeUnit.MINUTES);
+    Map<String, AttributeValue> attrVals = new HashMap<>();
+    attrVals.put("encryptionKeyId", new AttributeValue().withS(keyId));
+    ctx = new EncryptionContext.Builder().withAttributeValues(attrVals).build();
+    EncryptionContext dCtx =
+        new EncryptionContext.Builder(ctx(prov.getEncryptionMaterials(ctx)))
+            .withAttributeValues(attrVals)
+            .build();
+    prov.getDecryptionMaterials(dCtx);
+
+    attrVals.put("encryptionKeyId", new AttributeValue().withS("otherKeyId"));
+    prov.getDecryptionMaterials(
+        new EncryptionContext.Builder(dCtx).withAttributeValues(attrVals).build());
+  }
+
+  @Test
+  public void concurrentDecryptsAreCoalesced() throws Exception {
+    final AtomicInteger decryptCalls = new AtomicInteger();
+    final AtomicReference<DirectKmsMaterialProvider> provRef = new AtomicReference<>();
+    FakeKMS slowKms =
+        new FakeKMS() {
+          @Override
+          public DecryptResult decrypt(DecryptRequest req) {
+            decryptCalls.incrementAndGet();
+            // Wait for the other readers to join this call
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (provRef.get().getCoalescedDecryptCount() < 2 && System.nanoTime() < deadline) {
+              Thread.yield();
+            }
+            return super.decrypt(req);
+          }
+        };
+    DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(slowKms, keyId);
+    prov.enableDecryptCoalescing();
+    provRef.set(prov);
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    final EncryptionContext dCtx = ctx(eMat);
+
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<DecryptionMaterials>> results = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        results.add(pool.submit(() -> prov.getDecryptionMaterials(dCtx)));
+      }
+      for (Future<DecryptionMaterials> result : results) {
+        assertEquals(eMat.getEncryptionKey(), result.get(10, TimeUnit.SECONDS).getDecryptionKey());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(1, decryptCalls.get());
+    assertEquals(2, prov.getCoalescedDecryptCount());
+  }
+
+  @Test
+  public void concurrentDecryptsAreNotCoalescedByDefault() throws Exception {
+    final AtomicInteger decryptCalls = new AtomicInteger();
+    final CountDownLatch allDecrypting = new CountDownLatch(3);
+    FakeKMS slowKms =
+        new FakeKMS() {
+          @Override
+          public DecryptResult decrypt(DecryptRequest req) {
+            decryptCalls.incrementAndGet();
+            // Only returns once every reader is decrypting concurrently
+            allDecrypting.countDown();
+            try {
+              assertTrue(allDecrypting.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException ex) {
+              throw new IllegalStateException(ex);
+            }
+            return super.decrypt(req);
+          }
+        };
+    DirectKmsMaterialProvider prov = new DirectKmsMaterialProvider(slowKms, keyId);
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    final EncryptionContext dCtx = ctx(eMat);
+
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<DecryptionMaterials>> results = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        results.add(pool.submit(() -> prov.getDecryptionMaterials(dCtx)));
+      }
+      for (Future<DecryptionMaterials> result : results) {
+        assertEquals(eMat.getEncryptionKey(), result.get(10, TimeUnit.SECONDS).getDecryptionKey());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(3, decryptCalls.get());
+    assertEquals(0, prov.getCoalescedDecryptCount());
+  }
+
+  private static FakeKMS countingDecrypts(final AtomicInteger decryptCalls) {
+    return new FakeKMS() {
+      @Override
+      public DecryptResult decrypt(DecryptRequest req) {
+        decryptCalls.incrementAndGet();
+        return super.decrypt(req);
+      }
+    };
+  }
+
+  private static EncryptionContext keyedCtx(String hashKey) {
+    Map<String, AttributeValue> attrVals = new HashMap<>();
+    attrVals.put("hk", new AttributeValue(hashKey));
+    return new EncryptionContext.Builder()
+        .withHashKeyName("hk")
+        .withTableName("KmsTableName")
+        .withAttributeValues(attrVals)
+        .build();
+  }
+
+  private static EncryptionContext withDescription(
+      EncryptionContext context, EncryptionMaterials mat) {
+    return new EncryptionContext.Builder(context)
+        .withMaterialDescription(mat.getMaterialDescription())
+        .build();
+  }
+
   private static class ExtendedKmsMaterialProvider extends DirectKmsMaterialProvider {
     private final String encryptionKeyIdAttributeName;
 
@@ -15,8 +15,10 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
@@ -250,6 +252,21 @@ public class KeyStoreMaterialsProviderTest {
     prov.refresh();
   }
 
+  @Test
+  public void materialsReusableUnlessSubclassed() throws Exception {
+    KeyStoreMaterialsProvider prov =
+        new KeyStoreMaterialsProvider(
+            keyStore, "enc", "sig", passwordProtection, passwordProtection, description);
+    assertTrue(prov.isEncryptionMaterialsReusable());
+    assertTrue(prov.isDecryptionMaterialsReusable());
+
+    KeyStoreMaterialsProvider subclass =
+        new KeyStoreMaterialsProvider(
+            keyStore, "enc", "sig", passwordProtection, passwordProtection, description) {};
+    assertFalse(subclass.isEncryptionMaterialsReusable());
+    assertFalse(subclass.isDecryptionMaterialsReusable());
+  }
+
   @Test
   public void asymSimpleMac() throws Exception {
     KeyStoreMaterialsProvider prov =
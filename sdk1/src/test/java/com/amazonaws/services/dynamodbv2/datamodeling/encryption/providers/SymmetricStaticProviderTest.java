@@ -15,6 +15,7 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
@@ -168,6 +169,18 @@ public class SymmetricStaticProviderTest {
     prov.refresh();
   }
 
+  @Test
+  public void materialsReusableUnlessSubclassed() {
+    SymmetricStaticProvider prov = new SymmetricStaticProvider(encryptionKey, macKey, description);
+    assertTrue(prov.isEncryptionMaterialsReusable());
+    assertTrue(prov.isDecryptionMaterialsReusable());
+
+    SymmetricStaticProvider subclass =
+        new SymmetricStaticProvider(encryptionKey, macKey, description) {};
+    assertFalse(subclass.isEncryptionMaterialsReusable());
+    assertFalse(subclass.isDecryptionMaterialsReusable());
+  }
+
   @SuppressWarnings("unused")
   private static EncryptionContext ctx(EncryptionMaterials mat) {
     return ctx(mat.getMaterialDescription());
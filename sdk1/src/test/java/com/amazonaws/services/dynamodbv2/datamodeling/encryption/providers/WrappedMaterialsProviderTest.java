@@ -3,6 +3,7 @@ package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
 import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
@@ -115,6 +116,21 @@ public class WrappedMaterialsProviderTest {
     prov.refresh();
   }
 
+  @Test
+  public void materialsReusableUnlessSubclassed() {
+    WrappedMaterialsProvider prov =
+        new WrappedMaterialsProvider(
+            symEncryptionKey, symEncryptionKey, macKey, Collections.emptyMap());
+    assertTrue(prov.isEncryptionMaterialsReusable());
+    assertTrue(prov.isDecryptionMaterialsReusable());
+
+    WrappedMaterialsProvider subclass =
+        new WrappedMaterialsProvider(
+            symEncryptionKey, symEncryptionKey, macKey, Collections.emptyMap()) {};
+    assertFalse(subclass.isEncryptionMaterialsReusable());
+    assertFalse(subclass.isDecryptionMaterialsReusable());
+  }
+
   @Test
   public void wrapUnwrapAsymMatExplicitWrappingAlgorithmPkcs1() throws GeneralSecurityException {
     Map<String, String> desc = new HashMap<String, String>();
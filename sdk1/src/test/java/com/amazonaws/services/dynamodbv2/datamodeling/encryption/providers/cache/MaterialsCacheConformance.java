@@ -0,0 +1,201 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+/**
+ * Tests which every {@link MaterialsCache} must pass. Implementations are tested by extending this
+ * class, with caches which do not expire or evict values during a test.
+ */
+public abstract class MaterialsCacheConformance {
+  /** Returns a new, empty cache. */
+  protected abstract <T> MaterialsCache<T> newCache();
+
+  @Test
+  public void loadCallsLoaderOnlyOnMiss() {
+    final MaterialsCache<String> cache = newCache();
+    final AtomicInteger loads = new AtomicInteger();
+    assertEquals("k1-1", cache.load("k1", k -> k + "-" + loads.incrementAndGet()));
+    assertEquals("k1-1", cache.load("k1", k -> k + "-" + loads.incrementAndGet()));
+    assertEquals("k2-2", cache.load("k2", k -> k + "-" + loads.incrementAndGet()));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void loadFailuresAreThrownAndNotCached() {
+    final MaterialsCache<String> cache = newCache();
+    final IllegalStateException failure = new IllegalStateException();
+    try {
+      cache.load(
+          "k1",
+          k -> {
+            throw failure;
+          });
+      fail("Expected exception");
+    } catch (IllegalStateException ex) {
+      assertSame(failure, ex);
+    }
+    assertEquals("v1", cache.load("k1", k -> "v1"));
+  }
+
+  @Test
+  public void concurrentLoadsOfTheSameKeyCallLoaderOnce() throws Exception {
+    final MaterialsCache<String> cache = newCache();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(
+            pool.submit(
+                () ->
+                    cache.load(
+                        "k1",
+                        k -> {
+                          loads.incrementAndGet();
+                          started.countDown();
+                          await(release);
+                          return "v1";
+                        })));
+      }
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      // Give the other loads time to start waiting
+      Thread.sleep(50);
+      release.countDown();
+      for (Future<String> result : results) {
+        assertEquals("v1", result.get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(1, loads.get());
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void putReplacesValue() {
+    final MaterialsCache<String> cache = newCache();
+    assertNull(cache.put("k1", "v1"));
+    assertEquals("v1", cache.put("k1", "v2"));
+    assertEquals("v2", cache.load("k1", this::unexpectedLoad));
+  }
+
+  @Test
+  public void invalidateRemovesValues() {
+    final MaterialsCache<String> cache = newCache();
+    cache.put("k1", "v1");
+    cache.put("k2", "v2");
+    cache.put("k3", "v3");
+    cache.invalidate("k1");
+    cache.invalidate("missing");
+    assertEquals("new", cache.load("k1", k -> "new"));
+    assertEquals("v2", cache.load("k2", this::unexpectedLoad));
+
+    cache.invalidateAll();
+    assertEquals("new", cache.load("k2", k -> "new"));
+    assertEquals("new", cache.load("k3", k -> "new"));
+  }
+
+  @Test
+  public void getLastUpdated() {
+    final MaterialsCache<String> cache = newCache();
+    assertEquals(0, cache.getLastUpdated("k1"));
+    final long before = System.nanoTime();
+    cache.put("k1", "v1");
+    final long after = System.nanoTime();
+    assertTrue(cache.getLastUpdated("k1") - before >= 0);
+    assertTrue(after - cache.getLastUpdated("k1") >= 0);
+    cache.invalidate("k1");
+    assertEquals(0, cache.getLastUpdated("k1"));
+  }
+
+  @Test
+  public void refreshAsyncServesCachedValueUntilLoaded() throws Exception {
+    final MaterialsCache<String> cache = newCache();
+    final List<Runnable> tasks = new ArrayList<>();
+    cache.put("k1", "v1");
+    final CompletableFuture<String> refreshed = cache.refreshAsync("k1", k -> "v2", tasks::add);
+    assertEquals("v1", cache.load("k1", this::unexpectedLoad));
+    assertEquals(1, tasks.size());
+
+    tasks.get(0).run();
+    assertEquals("v2", refreshed.get());
+    assertEquals("v2", cache.load("k1", this::unexpectedLoad));
+  }
+
+  @Test
+  public void refreshAsyncFailuresKeepCachedValue() throws Exception {
+    final MaterialsCache<String> cache = newCache();
+    cache.put("k1", "v1");
+    final CompletableFuture<String> refreshed =
+        cache.refreshAsync(
+            "k1",
+            k -> {
+              throw new IllegalStateException();
+            },
+            Runnable::run);
+    try {
+      refreshed.get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+    assertEquals("v1", cache.load("k1", this::unexpectedLoad));
+  }
+
+  @Test
+  public void statsCountLoads() {
+    final MaterialsCache<String> cache = newCache();
+    cache.load("k1", k -> "v1");
+    cache.load("k1", k -> "v1");
+    cache.load("k1", k -> "v1");
+    try {
+      cache.load(
+          "k2",
+          k -> {
+            throw new IllegalStateException();
+          });
+    } catch (IllegalStateException ex) {
+      // Expected
+    }
+
+    final MaterialsCacheStats stats = cache.stats();
+    assertEquals(2, stats.getHitCount());
+    assertEquals(2, stats.getMissCount());
+    assertEquals(1, stats.getLoadSuccessCount());
+    assertEquals(1, stats.getLoadFailureCount());
+    assertTrue(stats.getTotalLoadTimeNanos() >= 0);
+    assertEquals(0.5, stats.getHitRate(), 0.0);
+  }
+
+  private String unexpectedLoad(String key) {
+    throw new AssertionError("Unexpected load of " + key);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class TTLMaterialsCacheTest extends MaterialsCacheConformance {
+  // Past a TTL of 1ms and the 500ms grace period
+  private static final long PAST_TTL_AND_GRACE = TimeUnit.MILLISECONDS.toNanos(502);
+
+  @Override
+  protected <T> MaterialsCache<T> newCache() {
+    return new TTLMaterialsCache<>(100, 60_000);
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    final TTLMaterialsCache<String> cache = new TTLMaterialsCache<>(2, 60_000);
+    cache.put("k1", "v1");
+    cache.put("k2", "v2");
+    cache.put("k3", "v3");
+    assertEquals(2, cache.size());
+    assertEquals("new", cache.load("k1", k -> "new"));
+  }
+
+  @Test
+  public void expiredValuesAreReloaded() {
+    final AtomicLong clock = new AtomicLong();
+    final TTLMaterialsCache<String> cache =
+        new TTLMaterialsCache<>(2, 1, (k, v, expired) -> {}, clock::get);
+    cache.put("k1", "v1");
+    clock.addAndGet(PAST_TTL_AND_GRACE);
+    assertEquals("v2", cache.load("k1", k -> "v2"));
+  }
+
+  @Test
+  public void evictionsAreReported() {
+    final AtomicLong clock = new AtomicLong();
+    final List<String> evicted = new ArrayList<>();
+    final TTLMaterialsCache<String> cache =
+        new TTLMaterialsCache<>(
+            1, 1, (k, v, expired) -> evicted.add(k + "=" + v + ":" + expired), clock::get);
+    cache.put("k1", "v1");
+    cache.put("k2", "v2");
+    assertEquals(Collections.singletonList("k1=v1:false"), evicted);
+
+    clock.addAndGet(PAST_TTL_AND_GRACE);
+    assertEquals(1, cache.evictExpired());
+    assertEquals(0, cache.size());
+    assertEquals("k2=v2:true", evicted.get(1));
+    assertEquals(2, cache.stats().getEvictionCount());
+  }
+
+  @Test
+  public void unexpiredValuesAreNotSwept() {
+    final TTLMaterialsCache<String> cache = new TTLMaterialsCache<>(2, 60_000);
+    cache.put("k1", "v1");
+    assertEquals(0, cache.evictExpired());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void scheduledSweepsEvictExpiredValues() throws InterruptedException {
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    try {
+      final AtomicLong clock = new AtomicLong();
+      final TTLMaterialsCache<String> cache =
+          new TTLMaterialsCache<>(2, 1, (k, v, expired) -> {}, clock::get);
+      final ScheduledFuture<?> sweeps =
+          cache.scheduleExpirySweeps(executor, 10, TimeUnit.MILLISECONDS);
+      cache.put("k1", "v1");
+      clock.addAndGet(PAST_TTL_AND_GRACE);
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (cache.size() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals(0, cache.size());
+      assertFalse(sweeps.isDone());
+      sweeps.cancel(false);
+      assertTrue(sweeps.isCancelled());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidMaxSize() {
+    new TTLMaterialsCache<String>(0, 1000);
+  }
+}
@@ -0,0 +1,330 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.fail;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.DynamoDBEncryptor;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.EncryptionContext;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.DecryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.materials.EncryptionMaterials;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AsyncMetaStoreTests {
+  private static final String TABLE_NAME = "keystoreTable";
+  private static final String MATERIAL_NAME = "material";
+  private static final SecretKey AES_KEY =
+      new SecretKeySpec(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15}, "AES");
+  private static final SecretKey HMAC_KEY =
+      new SecretKeySpec(new byte[] {0, 1, 2, 3, 4, 5, 6, 7}, "HmacSHA256");
+  private static final EncryptionMaterialsProvider BASE_PROVIDER =
+      new SymmetricStaticProvider(AES_KEY, HMAC_KEY);
+  private static final DynamoDBEncryptor ENCRYPTOR = DynamoDBEncryptor.getInstance(BASE_PROVIDER);
+
+  private AmazonDynamoDB client;
+  private ExecutorService executor;
+  private AsyncAdapter asyncClient;
+  private AsyncMetaStore store;
+  private EncryptionContext ctx;
+
+  @BeforeMethod
+  public void setup() {
+    client = synchronize(DynamoDBEmbedded.create(), AmazonDynamoDB.class);
+    MetaStore.createTable(client, TABLE_NAME, new ProvisionedThroughput(1L, 1L));
+    executor = Executors.newCachedThreadPool();
+    asyncClient = new AsyncAdapter(client, executor);
+    store = new AsyncMetaStore(asyncClient, TABLE_NAME, ENCRYPTOR);
+    ctx = new EncryptionContext.Builder().build();
+  }
+
+  @AfterMethod
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testNoMaterials() throws Exception {
+    assertEquals(-1L, (long) await(store.getMaxVersionAsync(MATERIAL_NAME)));
+  }
+
+  @Test
+  public void singleMaterial() throws Exception {
+    final EncryptionMaterialsProvider prov = await(store.newProviderAsync(MATERIAL_NAME));
+    assertEquals(0L, (long) await(store.getMaxVersionAsync(MATERIAL_NAME)));
+
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    assertNotNull(eMat.getEncryptionKey());
+    assertEquals(0, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+    assertDecrypts(prov, eMat);
+  }
+
+  @Test
+  public void singleMaterialExplicitAccess() throws Exception {
+    final EncryptionMaterialsProvider prov1 = await(store.newProviderAsync(MATERIAL_NAME));
+    final EncryptionMaterialsProvider prov2 = await(store.getProviderAsync(MATERIAL_NAME));
+
+    final EncryptionMaterials eMat = prov1.getEncryptionMaterials(ctx);
+    assertEquals(0, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+    assertDecrypts(prov2, eMat);
+  }
+
+  @Test
+  public void singleMaterialExplicitAccessWithVersion() throws Exception {
+    final EncryptionMaterialsProvider prov1 = await(store.newProviderAsync(MATERIAL_NAME));
+    final EncryptionMaterialsProvider prov2 = await(store.getProviderAsync(MATERIAL_NAME, 0));
+
+    assertDecrypts(prov2, prov1.getEncryptionMaterials(ctx));
+  }
+
+  @Test
+  public void singleMaterialWithImplicitCreation() throws Exception {
+    final EncryptionMaterialsProvider prov = await(store.getProviderAsync(MATERIAL_NAME));
+    assertEquals(0L, (long) await(store.getMaxVersionAsync(MATERIAL_NAME)));
+
+    final EncryptionMaterials eMat = prov.getEncryptionMaterials(ctx);
+    assertEquals(0, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+    assertDecrypts(prov, eMat);
+  }
+
+  @Test
+  public void twoDifferentMaterials() throws Exception {
+    final EncryptionMaterialsProvider prov1 = await(store.newProviderAsync(MATERIAL_NAME));
+    final EncryptionMaterialsProvider prov2 = await(store.newProviderAsync(MATERIAL_NAME));
+    assertEquals(1L, (long) await(store.getMaxVersionAsync(MATERIAL_NAME)));
+
+    final EncryptionMaterials eMat = prov1.getEncryptionMaterials(ctx);
+    assertEquals(0, store.getVersionFromMaterialDescription(eMat.getMaterialDescription()));
+    try {
+      prov2.getDecryptionMaterials(ctx(eMat));
+      fail("Missing expected exception");
+    } catch (final DynamoDBMappingException ex) {
+      // Expected Exception
+    }
+    final EncryptionMaterials eMat2 = prov2.getEncryptionMaterials(ctx);
+    assertEquals(1, store.getVersionFromMaterialDescription(eMat2.getMaterialDescription()));
+  }
+
+  @Test
+  public void getOrCreateCollision() throws Exception {
+    final EncryptionMaterialsProvider prov1 = await(store.getOrCreateAsync(MATERIAL_NAME, 0));
+    // The conditional put fails, so the version created first is read back
+    final EncryptionMaterialsProvider prov2 = await(store.getOrCreateAsync(MATERIAL_NAME, 0));
+    assertEquals(0L, (long) await(store.getMaxVersionAsync(MATERIAL_NAME)));
+    assertEquals(1, asyncClient.getItemCalls.get());
+
+    assertDecrypts(prov2, prov1.getEncryptionMaterials(ctx));
+  }
+
+  @Test
+  public void concurrentGetOrCreateAgreeOnMaterial() throws Exception {
+    // Hold every put until all of them are in flight, so that all but one conditionally fail
+    final int count = 4;
+    final CountDownLatch putsStarted = new CountDownLatch(count);
+    final AsyncAdapter racingClient =
+        new AsyncAdapter(client, executor) {
+          @Override
+          public PutItemResult putItem(final PutItemRequest request) {
+            putsStarted.countDown();
+            try {
+              putsStarted.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            return super.putItem(request);
+          }
+        };
+    final AsyncMetaStore racingStore = new AsyncMetaStore(racingClient, TABLE_NAME, ENCRYPTOR);
+
+    final List<CompletableFuture<EncryptionMaterialsProvider>> results = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      results.add(racingStore.getOrCreateAsync(MATERIAL_NAME, 0));
+    }
+    final EncryptionMaterials eMat = await(results.get(0)).getEncryptionMaterials(ctx);
+    for (final CompletableFuture<EncryptionMaterialsProvider> result : results) {
+      assertDecrypts(await(result), eMat);
+    }
+    assertEquals(0L, (long) await(racingStore.getMaxVersionAsync(MATERIAL_NAME)));
+    assertEquals(count - 1, racingClient.getItemCalls.get());
+  }
+
+  @Test
+  public void interoperatesWithSynchronousMethods() throws Exception {
+    final EncryptionMaterialsProvider syncProv = store.newProvider(MATERIAL_NAME);
+    final EncryptionMaterialsProvider asyncProv = await(store.newProviderAsync(MATERIAL_NAME));
+    assertEquals(1, store.getMaxVersion(MATERIAL_NAME));
+
+    assertDecrypts(
+        await(store.getProviderAsync(MATERIAL_NAME, 0)), syncProv.getEncryptionMaterials(ctx));
+    assertDecrypts(store.getProvider(MATERIAL_NAME, 1), asyncProv.getEncryptionMaterials(ctx));
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void invalidVersion() throws Exception {
+    await(store.getProviderAsync(MATERIAL_NAME, 1000));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void clientFailuresCompleteExceptionally() throws Exception {
+    final AsyncAdapter failingClient =
+        new AsyncAdapter(client, executor) {
+          @Override
+          public Future<QueryResult> queryAsync(
+              final QueryRequest request, final AsyncHandler<QueryRequest, QueryResult> handler) {
+            throw new IllegalStateException("Client failure");
+          }
+        };
+    await(new AsyncMetaStore(failingClient, TABLE_NAME, ENCRYPTOR).newProviderAsync(MATERIAL_NAME));
+  }
+
+  private void assertDecrypts(
+      final EncryptionMaterialsProvider prov, final EncryptionMaterials eMat) {
+    final DecryptionMaterials dMat = prov.getDecryptionMaterials(ctx(eMat));
+    assertEquals(eMat.getEncryptionKey(), dMat.getDecryptionKey());
+    assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
+  }
+
+  private static EncryptionContext ctx(final EncryptionMaterials mat) {
+    return new EncryptionContext.Builder()
+        .withMaterialDescription(mat.getMaterialDescription())
+        .build();
+  }
+
+  /** Waits for future, and throws the exception it completed with, if any. */
+  private static <T> T await(final CompletableFuture<T> future) throws Exception {
+    try {
+      return future.get(10, TimeUnit.SECONDS);
+    } catch (final ExecutionException ex) {
+      if (ex.getCause() instanceof Exception) {
+        throw (Exception) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Adapts a synchronous client to {@link com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync}
+   * by running each asynchronous call on an executor, as DynamoDB Local has no asynchronous
+   * client.
+   */
+  private static class AsyncAdapter extends AbstractAmazonDynamoDBAsync {
+    private final AmazonDynamoDB delegate;
+    private final ExecutorService executor;
+    private final AtomicInteger getItemCalls = new AtomicInteger();
+
+    private AsyncAdapter(final AmazonDynamoDB delegate, final ExecutorService executor) {
+      this.delegate = delegate;
+      this.executor = executor;
+    }
+
+    @Override
+    public GetItemResult getItem(final GetItemRequest request) {
+      getItemCalls.incrementAndGet();
+      return delegate.getItem(request);
+    }
+
+    @Override
+    public PutItemResult putItem(final PutItemRequest request) {
+      return delegate.putItem(request);
+    }
+
+    @Override
+    public QueryResult query(final QueryRequest request) {
+      return delegate.query(request);
+    }
+
+    @Override
+    public Future<GetItemResult> getItemAsync(
+        final GetItemRequest request, final AsyncHandler<GetItemRequest, GetItemResult> handler) {
+      return runAsync(request, handler, this::getItem);
+    }
+
+    @Override
+    public Future<PutItemResult> putItemAsync(
+        final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> handler) {
+      return runAsync(request, handler, this::putItem);
+    }
+
+    @Override
+    public Future<QueryResult> queryAsync(
+        final QueryRequest request, final AsyncHandler<QueryRequest, QueryResult> handler) {
+      return runAsync(request, handler, this::query);
+    }
+
+    private <REQUEST extends AmazonWebServiceRequest, RESULT> Future<RESULT> runAsync(
+        final REQUEST request,
+        final AsyncHandler<REQUEST, RESULT> handler,
+        final Function<REQUEST, RESULT> call) {
+      return executor.submit(
+          () -> {
+            final RESULT result;
+            try {
+              result = call.apply(request);
+            } catch (final RuntimeException ex) {
+              handler.onError(ex);
+              throw ex;
+            }
+            handler.onSuccess(request, result);
+            return result;
+          });
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T synchronize(final T obj, final Class<T> clazz) {
+    return (T)
+        Proxy.newProxyInstance(
+            clazz.getClassLoader(),
+            new Class[] {clazz},
+            new InvocationHandler() {
+              private final Object lock = new Object();
+
+              @Override
+              public Object invoke(final Object proxy, final Method method, final Object[] args)
+                  throws Throwable {
+                synchronized (lock) {
+                  try {
+                    return method.invoke(obj, args);
+                  } catch (final InvocationTargetException ex) {
+                    throw ex.getCause();
+                  }
+                }
+              }
+            });
+  }
+}
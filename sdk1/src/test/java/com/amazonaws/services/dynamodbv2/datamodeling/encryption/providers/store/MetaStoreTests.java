@@ -14,6 +14,7 @@ package com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.stor
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.fail;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
@@ -31,10 +32,18 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import org.testng.annotations.BeforeMethod;
@@ -287,6 +296,52 @@ public class MetaStoreTests {
     assertEquals(eMat.getSigningKey(), dMat.getVerificationKey());
   }
 
+  @Test
+  public void concurrentGetProviderIsCoalesced() throws Exception {
+    store.newProvider(MATERIAL_NAME);
+    final AtomicInteger getItemCalls = new AtomicInteger();
+    final AtomicReference<MetaStore> storeRef = new AtomicReference<>();
+    final AmazonDynamoDB slowClient =
+        (AmazonDynamoDB)
+            Proxy.newProxyInstance(
+                AmazonDynamoDB.class.getClassLoader(),
+                new Class[] {AmazonDynamoDB.class},
+                (proxy, method, args) -> {
+                  if (method.getName().equals("getItem")) {
+                    getItemCalls.incrementAndGet();
+                    // Wait for the other readers to join this read
+                    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (storeRef.get().getCoalescedProviderCount() < 2
+                        && System.nanoTime() < deadline) {
+                      Thread.yield();
+                    }
+                  }
+                  try {
+                    return method.invoke(client, args);
+                  } catch (final InvocationTargetException ex) {
+                    throw ex.getCause();
+                  }
+                });
+    final MetaStore slowStore = new MetaStore(slowClient, SOURCE_TABLE_NAME, ENCRYPTOR);
+    storeRef.set(slowStore);
+
+    final ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      final List<Future<EncryptionMaterialsProvider>> results = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        results.add(pool.submit(() -> slowStore.getProvider(MATERIAL_NAME, 0)));
+      }
+      final EncryptionMaterialsProvider first = results.get(0).get(10, TimeUnit.SECONDS);
+      for (final Future<EncryptionMaterialsProvider> result : results) {
+        assertSame(first, result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(1, getItemCalls.get());
+    assertEquals(2, slowStore.getCoalescedProviderCount());
+  }
+
   @Test(expectedExceptions = IndexOutOfBoundsException.class)
   public void invalidVersion() {
     store.getProvider(MATERIAL_NAME, 1000);
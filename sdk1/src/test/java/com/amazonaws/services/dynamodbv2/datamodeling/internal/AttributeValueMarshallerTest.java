@@ -15,11 +15,19 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 
 import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.marshall;
+import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.trimZeros;
 import static com.amazonaws.services.dynamodbv2.datamodeling.internal.AttributeValueMarshaller.unmarshall;
+import static org.quicktheories.QuickTheory.qt;
+import static org.quicktheories.generators.SourceDSL.integers;
+import static org.quicktheories.generators.SourceDSL.longs;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +37,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import org.testng.Assert;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
@@ -315,6 +325,215 @@ public class AttributeValueMarshallerTest {
     assertEquals(oldObject, newObject);
   }
 
+  @Test
+  public void testMarshallToSinks() throws Exception {
+    AttributeValue av = buildComplexAttributeValue();
+    byte[] expected = marshall(av).array();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    marshall(av, out);
+    AssertJUnit.assertArrayEquals(expected, out.toByteArray());
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    marshall(av, digest);
+    AssertJUnit.assertArrayEquals(
+        MessageDigest.getInstance("SHA-256").digest(expected), digest.digest());
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+    marshall(av, mac);
+    byte[] actualMac = mac.doFinal();
+    AssertJUnit.assertArrayEquals(mac.doFinal(expected), actualMac);
+  }
+
+  @Test
+  public void testMarshallLargeBuffersToSinks() throws Exception {
+    byte[] large = new byte[5000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) i;
+    }
+    ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+    direct.put(large);
+    direct.rewind();
+    ByteBuffer sliced = ByteBuffer.wrap(large, 100, 200).slice();
+
+    for (ByteBuffer buffer :
+        Arrays.asList(ByteBuffer.wrap(large), ByteBuffer.wrap(large).asReadOnlyBuffer(), direct)) {
+      AttributeValue av = new AttributeValue().withBS(buffer, sliced);
+      byte[] expected = marshall(av).array();
+      assertEquals(av, unmarshall(ByteBuffer.wrap(expected)));
+
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      marshall(av, digest);
+      AssertJUnit.assertArrayEquals(
+          MessageDigest.getInstance("SHA-256").digest(expected), digest.digest());
+    }
+  }
+
+  @Test
+  public void testMarshalledLength() {
+    AttributeValue av = buildComplexAttributeValue();
+    Assert.assertEquals(
+        AttributeValueMarshaller.getMarshalledLength(av), marshall(av).remaining());
+
+    byte[] dest = new byte[AttributeValueMarshaller.getMarshalledLength(av) + 20];
+    Assert.assertEquals(
+        AttributeValueMarshaller.marshall(av, dest, 10),
+        AttributeValueMarshaller.getMarshalledLength(av));
+    AssertJUnit.assertArrayEquals(
+        marshall(av).array(), Arrays.copyOfRange(dest, 10, dest.length - 10));
+  }
+
+  @Test
+  public void testUnicodeStrings() throws Exception {
+    List<String> strings =
+        Arrays.asList(
+            "",
+            "ascii",
+            "caf\u00e9",
+            "\u20ac uro",
+            "\ud83d\ude00 emoji",
+            "unpaired \ud83d high",
+            "unpaired \ude00 low",
+            "trailing \ud83d",
+            "\ude00\ud83d reversed");
+    for (String string : strings) {
+      // The stream encoding relies on String.getBytes
+      AttributeValue av = new AttributeValue().withS(string);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      marshall(av, out);
+      AssertJUnit.assertArrayEquals(string, out.toByteArray(), marshall(av).array());
+      Assert.assertEquals(AttributeValueMarshaller.getMarshalledLength(av), out.size());
+
+      av = new AttributeValue().withSS(string, "other");
+      Assert.assertEquals(AttributeValueMarshaller.getMarshalledLength(av), marshall(av).limit());
+    }
+  }
+
+  @Test
+  public void testUnmarshallSlices() {
+    AttributeValue av =
+        new AttributeValue()
+            .withL(
+                new AttributeValue().withB(ByteBuffer.wrap(new byte[] {0, 1, 2, 3})),
+                new AttributeValue()
+                    .withBS(ByteBuffer.wrap(new byte[] {4, 5}), ByteBuffer.wrap(new byte[] {6})),
+                new AttributeValue().withS("string"));
+    ByteBuffer plainText = marshall(av);
+    AttributeValue result = AttributeValueMarshaller.unmarshall(plainText, true);
+    assertEquals(av, result);
+    Assert.assertEquals(plainText.position(), 0);
+
+    ByteBuffer b = result.getL().get(0).getB();
+    AssertJUnit.assertTrue(b.isReadOnly());
+    Assert.assertEquals(b.remaining(), 4);
+    // The value is a view of the plaintext rather than a copy. It starts after the list tag and
+    // size, and the binary tag and length.
+    plainText.put(12, (byte) 42);
+    Assert.assertEquals(b.get(0), 42);
+    for (ByteBuffer element : result.getL().get(1).getBS()) {
+      AssertJUnit.assertTrue(element.isReadOnly());
+    }
+
+    AttributeValue copy = unmarshall(marshall(av));
+    AssertJUnit.assertFalse(copy.getL().get(0).getB().isReadOnly());
+  }
+
+  @Test
+  public void testUnmarshallOffsetBuffer() {
+    AttributeValue av = buildComplexAttributeValue();
+    byte[] marshalled = marshall(av).array();
+    byte[] padded = new byte[marshalled.length + 7];
+    System.arraycopy(marshalled, 0, padded, 5, marshalled.length);
+    ByteBuffer buffer = ByteBuffer.wrap(padded, 5, marshalled.length).slice();
+
+    assertEquals(av, unmarshall(buffer));
+    assertEquals(av, unmarshall(buffer.asReadOnlyBuffer()));
+    ByteBuffer direct = ByteBuffer.allocateDirect(marshalled.length);
+    direct.put(marshalled).flip();
+    assertEquals(av, AttributeValueMarshaller.unmarshall(direct, true));
+  }
+
+  @Test
+  public void testUnmarshallTruncated() {
+    byte[] marshalled = marshall(buildComplexAttributeValue()).array();
+    for (int length = 0; length < marshalled.length; length++) {
+      try {
+        unmarshall(ByteBuffer.wrap(marshalled, 0, length));
+        Assert.fail("Expected IllegalArgumentException for length " + length);
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testTrimZeros() {
+    String[] numbers = {
+      "0", "-0", "+0", "000", "0.000", "-0.0", ".0", "0.", "1", "-1", "+1", "007", "-007", "1000",
+      "-3700", "1.5", "-1.5", "1.500", "01.50", "0.25", "-0.25", "00.25", ".25", "-.25", "25.",
+      "+25.00", "123456789012345678901234567890.123456789012345678901234567890",
+      "1e3", "1E+3", "-1.5e-3", "0e10", "1.000E2", "\u0661\u0662"
+    };
+    for (String n : numbers) {
+      Assert.assertEquals(trimZeros(n), referenceTrimZeros(n), n);
+    }
+    String canonical = new String("-12.5");
+    AssertJUnit.assertSame(canonical, trimZeros(canonical));
+  }
+
+  @Test
+  public void testTrimZerosRejectsInvalidNumbers() {
+    String[] invalid = {"", "-", "+", ".", "-.", "1.2.3", "1-", "0x10", " 1", "1e", "NaN"};
+    for (String n : invalid) {
+      try {
+        trimZeros(n);
+        Assert.fail("Expected NumberFormatException for " + n);
+      } catch (NumberFormatException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testTrimZerosMatchesBigDecimal() {
+    qt().forAll(longs().all(), integers().between(-25, 25), integers().between(0, 15))
+        .check(
+            (unscaled, scale, padding) -> {
+              // Pad the plain string with up to three leading and trailing zeros, and give some
+              // of the results an explicit '+' sign
+              String n = new BigDecimal(BigInteger.valueOf(unscaled), scale).toPlainString();
+              for (int i = 0; i < padding % 4; i++) {
+                n = n.startsWith("-") ? "-0" + n.substring(1) : "0" + n;
+              }
+              if (padding / 4 > 0 && !n.contains(".")) {
+                n = n + ".";
+              }
+              for (int i = 0; i < padding / 4; i++) {
+                n = n + "0";
+              }
+              if (padding % 2 == 1 && !n.startsWith("-")) {
+                n = "+" + n;
+              }
+              return trimZeros(n).equals(referenceTrimZeros(n));
+            });
+    qt().forAll(longs().all(), integers().between(-40, 40))
+        .check(
+            (unscaled, exponent) -> {
+              // Exponents are handled by BigDecimal
+              String n = unscaled + (exponent < 0 ? "e" : "E+") + exponent;
+              return trimZeros(n).equals(referenceTrimZeros(n));
+            });
+  }
+
+  private static String referenceTrimZeros(String n) {
+    BigDecimal number = new BigDecimal(n);
+    if (number.compareTo(BigDecimal.ZERO) == 0) {
+      return "0";
+    }
+    return number.stripTrailingZeros().toPlainString();
+  }
+
   private static final String COMPLEX_ATTRIBUTE_MARSHALLED =
       "AE0AAAADAHM"
           + "AAAAJSW5uZXJMaXN0AEwAAAAGAHMAAAALQ29tcGxleExpc3QAbgAAAAE1AGIAA"
@@ -0,0 +1,112 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.internal.CircuitBreaker.State;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest {
+  private final AtomicLong clock = new AtomicLong();
+  private CircuitBreaker breaker;
+
+  @BeforeMethod
+  public void setup() {
+    clock.set(0);
+    breaker = new CircuitBreaker(3, 100, 300, TimeUnit.NANOSECONDS, clock::get);
+  }
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    fail(2);
+    assertEquals(State.CLOSED, breaker.getState());
+    breaker.onSuccess();
+    fail(2);
+    assertEquals(State.CLOSED, breaker.getState());
+    fail(1);
+    assertEquals(State.OPEN, breaker.getState());
+
+    assertFalse(breaker.tryAcquire());
+    assertFalse(breaker.tryAcquire());
+    assertEquals(5, breaker.getFailureCount());
+    assertEquals(2, breaker.getRejectedCount());
+    assertEquals(1, breaker.getOpenCount());
+  }
+
+  @Test
+  public void permitsSingleTrialAfterBackoff() {
+    fail(3);
+    clock.set(99);
+    assertFalse(breaker.tryAcquire());
+    clock.set(100);
+    assertTrue(breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire());
+
+    breaker.onSuccess();
+    assertEquals(State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire());
+  }
+
+  @Test
+  public void backoffDoublesUpToMaximum() {
+    fail(3);
+    assertTrue(openFor(100));
+    breaker.onFailure();
+    assertTrue(openFor(200));
+    breaker.onFailure();
+    assertTrue(openFor(300));
+    breaker.onFailure();
+    assertTrue(openFor(300));
+    assertEquals(4, breaker.getOpenCount());
+
+    // A successful trial resets the backoff
+    breaker.onSuccess();
+    fail(3);
+    assertTrue(openFor(100));
+  }
+
+  @Test
+  public void lateFailuresDoNotExtendBackoff() {
+    fail(3);
+    clock.set(50);
+    // Reported by calls which were permitted before the breaker opened
+    breaker.onFailure();
+    breaker.onFailure();
+    assertTrue(openFor(50));
+    assertEquals(1, breaker.getOpenCount());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidFailureThreshold() {
+    new CircuitBreaker(0, 100, 300, TimeUnit.MILLISECONDS);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidBackoff() {
+    new CircuitBreaker(1, 300, 100, TimeUnit.MILLISECONDS);
+  }
+
+  private void fail(int times) {
+    for (int i = 0; i < times; i++) {
+      assertTrue(breaker.tryAcquire());
+      breaker.onFailure();
+    }
+  }
+
+  /** Returns whether the breaker permits a trial after exactly nanos, and not before. */
+  private boolean openFor(long nanos) {
+    clock.addAndGet(nanos - 1);
+    if (breaker.tryAcquire()) {
+      return false;
+    }
+    clock.incrementAndGet();
+    return breaker.tryAcquire() && breaker.getState() == State.HALF_OPEN;
+  }
+}
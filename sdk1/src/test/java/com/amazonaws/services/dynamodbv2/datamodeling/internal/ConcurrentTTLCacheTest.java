@@ -39,6 +39,16 @@ public class ConcurrentTTLCacheTest {
     TestFramework.runOnce(new PutLoadCase());
   }
 
+  @Test
+  public void testDifferentKeysCase() throws Throwable {
+    TestFramework.runOnce(new DifferentKeysCase());
+  }
+
+  @Test
+  public void testFailedLoadCase() throws Throwable {
+    TestFramework.runOnce(new FailedLoadCase());
+  }
+
   // Ensure the loader is only called once if two threads attempt to load during the grace period
   class GracePeriodCase extends MultithreadedTestCase {
     TTLCache<String> cache;
@@ -241,4 +251,94 @@ public class ConcurrentTTLCacheTest {
       assertTick(2);
     }
   }
+
+  // Ensure a slow load of a new entry does not block the load of a different new entry
+  class DifferentKeysCase extends MultithreadedTestCase {
+    TTLCache<String> cache;
+    MsClock clock = mock(MsClock.class);
+
+    @Override
+    public void initialize() {
+      when(clock.timestampNano()).thenReturn((long) 0);
+      cache =
+          new TTLCache<>(
+              3,
+              ttlInMillis,
+              new TTLCache.EntryLoader<String>() {
+                @Override
+                public String load(String entryKey) {
+                  if ("k1".equals(entryKey)) {
+                    // Wait until thread2 has loaded k2 to complete load
+                    waitForTick(2);
+                  }
+                  return entryKey + "-loaded";
+                }
+              });
+      cache.clock = clock;
+    }
+
+    // The thread that loads k1 slowly
+    public void thread1() {
+      String loadedValue = cache.load("k1");
+      assertTick(2);
+      assertEquals("k1-loaded", loadedValue);
+    }
+
+    // The thread that loads k2 while k1 is loading
+    public void thread2() {
+      waitForTick(1);
+      String loadedValue = cache.load("k2");
+      assertEquals("k2-loaded", loadedValue);
+      // assert that this thread was not blocked by the first thread
+      assertTick(1);
+    }
+  }
+
+  // Ensure a thread waiting for a failed load of the same new entry retries the load itself
+  class FailedLoadCase extends MultithreadedTestCase {
+    TTLCache<String> cache;
+    TTLCache.EntryLoader loader;
+    MsClock clock = mock(MsClock.class);
+
+    @Override
+    public void initialize() {
+      loader =
+          spy(
+              new TTLCache.EntryLoader<String>() {
+                @Override
+                public String load(String entryKey) {
+                  // Wait until thread2 is waiting to fail load
+                  waitForTick(2);
+                  throw new IllegalStateException("Load failed");
+                }
+              });
+      when(clock.timestampNano()).thenReturn((long) 0);
+      cache = new TTLCache<>(3, ttlInMillis, loader);
+      cache.clock = clock;
+    }
+
+    // The thread whose load fails
+    public void thread1() {
+      try {
+        cache.load("k1");
+        fail("Expected exception");
+      } catch (IllegalStateException ex) {
+        assertTick(2);
+      }
+    }
+
+    // The thread that waits for the first thread's load, then loads with its own function
+    public void thread2() {
+      waitForTick(1);
+      String loadedValue = cache.load("k1", k -> "retriedValue");
+      assertEquals("retriedValue", loadedValue);
+      assertTick(2);
+    }
+
+    @Override
+    public void finish() {
+      verify(loader, times(1)).load("k1");
+      assertEquals("retriedValue", cache.load("k1"));
+    }
+  }
 }
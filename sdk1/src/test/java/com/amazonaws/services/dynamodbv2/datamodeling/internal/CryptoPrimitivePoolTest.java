@@ -0,0 +1,63 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import static org.testng.AssertJUnit.assertArrayEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.annotations.Test;
+
+public class CryptoPrimitivePoolTest {
+  @Test
+  public void sameThreadReusesInstance() throws Exception {
+    assertSame(
+        CryptoPrimitivePool.getMessageDigest("SHA-256"),
+        CryptoPrimitivePool.getMessageDigest("SHA-256"));
+  }
+
+  @Test
+  public void keyedByAlgorithm() throws Exception {
+    assertNotSame(
+        CryptoPrimitivePool.getMessageDigest("SHA-256"),
+        CryptoPrimitivePool.getMessageDigest("SHA-384"));
+  }
+
+  @Test
+  public void differentThreadsGetDifferentInstances() throws Exception {
+    final MessageDigest digest = CryptoPrimitivePool.getMessageDigest("SHA-256");
+    final AtomicReference<MessageDigest> other = new AtomicReference<>();
+    final Thread thread =
+        new Thread(
+            () -> {
+              try {
+                other.set(CryptoPrimitivePool.getMessageDigest("SHA-256"));
+              } catch (final Exception ex) {
+                throw new RuntimeException(ex);
+              }
+            });
+    thread.start();
+    thread.join();
+    assertNotSame(digest, other.get());
+    assertEquals(digest.getAlgorithm(), other.get().getAlgorithm());
+  }
+
+  @Test
+  public void messageDigestIsReset() throws Exception {
+    final byte[] data = "Hello world".getBytes(StandardCharsets.UTF_8);
+    final byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+
+    CryptoPrimitivePool.getMessageDigest("SHA-256").update(new byte[] {1, 2, 3});
+    assertArrayEquals(expected, CryptoPrimitivePool.getMessageDigest("SHA-256").digest(data));
+  }
+
+  @Test(expectedExceptions = NoSuchAlgorithmException.class)
+  public void unknownAlgorithm() throws Exception {
+    CryptoPrimitivePool.getMessageDigest("SHA-NotAnAlgorithm");
+  }
+}
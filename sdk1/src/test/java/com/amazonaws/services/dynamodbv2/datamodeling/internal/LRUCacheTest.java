@@ -3,9 +3,19 @@
 package com.amazonaws.services.dynamodbv2.datamodeling.internal;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import org.testng.annotations.Test;
 
 public class LRUCacheTest {
@@ -107,4 +117,192 @@ public class LRUCacheTest {
     assertEquals("v3", cache.get("k3"));
     assertNull(cache.get("k2"));
   }
+
+  @Test
+  public void testWeightBound() {
+    final LRUCache<String> cache = new LRUCache<>(10, 10, (k, v) -> v.length());
+    assertEquals(10, cache.getMaxWeight());
+    cache.add("k1", "1234");
+    cache.add("k2", "1234");
+    assertEquals(8, cache.getWeight());
+    cache.get("k1");
+    cache.add("k3", "123");
+    assertEquals(2, cache.size());
+    assertEquals(7, cache.getWeight());
+    assertNull(cache.get("k2"));
+    assertEquals("1234", cache.get("k1"));
+
+    // Replacing an entry replaces its weight
+    cache.add("k1", "1");
+    assertEquals(4, cache.getWeight());
+    cache.remove("k3");
+    assertEquals(1, cache.getWeight());
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void testOverweightEntryIsNotRetained() {
+    final LRUCache<String> cache = new LRUCache<>(10, 5, (k, v) -> v.length());
+    cache.add("k1", "12");
+    cache.add("k2", "123456");
+    assertNull(cache.get("k2"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNegativeWeight() {
+    new LRUCache<String>(3, 10, (k, v) -> -1).add("k1", "v1");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testZeroMaxWeight() {
+    new LRUCache<String>(3, 0, (k, v) -> 1);
+  }
+
+  @Test
+  public void testReadsBetweenWritesAreEquallyRecent() {
+    final LRUCache<String> cache = new LRUCache<>(3);
+    cache.add("k1", "v1");
+    cache.add("k2", "v2");
+    cache.add("k3", "v3");
+    // Both reads are more recent than any write, but not than each other
+    cache.get("k3");
+    cache.get("k2");
+    cache.add("k4", "v4");
+    assertNull(cache.get("k1"));
+    // So the one queued earlier is evicted first
+    cache.add("k5", "v5");
+    assertNull(cache.get("k2"));
+    assertEquals("v3", cache.get("k3"));
+    assertEquals("v4", cache.get("k4"));
+    assertEquals("v5", cache.get("k5"));
+  }
+
+  @Test
+  public void testRecentlyUsedEntriesSurviveInLargeCache() {
+    final int maxSize = LRUCache.EVICTION_SAMPLE_SIZE * 8;
+    final LRUCache<String> cache = new LRUCache<>(maxSize);
+    for (int i = 0; i < maxSize; i++) {
+      cache.add("k" + i, "v" + i);
+    }
+    for (int round = 0; round < 10; round++) {
+      // Keep the oldest entries in use, while adding many new ones
+      for (int i = 0; i < 4; i++) {
+        assertNotNull(cache.get("k" + i));
+      }
+      for (int i = 0; i < maxSize / 2; i++) {
+        cache.add("new" + round + "-" + i, "v");
+      }
+    }
+    assertEquals(maxSize, cache.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals("v" + i, cache.get("k" + i));
+    }
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final LRUCache<String> cache = new LRUCache<>(50, 200, (k, v) -> v.length());
+    final ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(
+            pool.submit(
+                () -> {
+                  final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                  for (int i = 0; i < 20_000; i++) {
+                    final String key = "k" + rnd.nextInt(100);
+                    final int op = rnd.nextInt(10);
+                    if (op == 0) {
+                      cache.remove(key);
+                    } else if (op < 4) {
+                      cache.add(key, key + "-" + rnd.nextInt(10));
+                    } else {
+                      final String value = cache.get(key);
+                      assertTrue(value == null || value.startsWith(key + "-"));
+                    }
+                  }
+                }));
+      }
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertTrue(cache.size() <= 50);
+    assertTrue(cache.getWeight() <= 200);
+    long weight = 0;
+    for (int i = 0; i < 100; i++) {
+      final String value = cache.get("k" + i);
+      weight += value == null ? 0 : value.length();
+    }
+    assertEquals(weight, cache.getWeight());
+  }
+
+  @Test
+  public void testEvictionListener() {
+    final List<String> evicted = new ArrayList<>();
+    final LRUCache<String> cache =
+        new LRUCache<>(2, 10, (k, v) -> v.length(), (k, v) -> evicted.add(k + "=" + v));
+    cache.add("k1", "v1");
+    cache.add("k2", "v2");
+    cache.add("k3", "v3");
+    cache.add("k4", "123456789");
+    assertEquals(3, evicted.size());
+    assertEquals("k1=v1", evicted.get(0));
+    assertTrue(evicted.contains("k2=v2"));
+    assertTrue(evicted.contains("k3=v3"));
+
+    // Removals and replacements are not evictions
+    cache.add("k4", "v4");
+    cache.remove("k4");
+    assertEquals(3, evicted.size());
+  }
+
+  @Test
+  public void testConditionalRemove() {
+    final LRUCache<String> cache = new LRUCache<>(3);
+    final String value = new String("v1");
+    cache.add("k1", value);
+    assertFalse(cache.remove("k1", new String("v1")));
+    assertFalse(cache.remove("k2", value));
+    assertTrue(cache.remove("k1", value));
+    assertNull(cache.get("k1"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testForEach() {
+    final LRUCache<String> cache = new LRUCache<>(3);
+    cache.add("k1", "v1");
+    cache.add("k2", "v2");
+    cache.add("k3", "v3");
+    final List<String> entries = new ArrayList<>();
+    cache.forEach((k, v) -> entries.add(k + "=" + v));
+    assertEquals(3, entries.size());
+    assertTrue(entries.containsAll(Arrays.asList("k1=v1", "k2=v2", "k3=v3")));
+
+    // Iterating is not an access, so k1 is still the least recently used
+    cache.add("k4", "v4");
+    assertNull(cache.get("k1"));
+  }
+
+  @Test
+  public void testStats() {
+    final LRUCache<String> cache = new LRUCache<>(1);
+    cache.add("k1", "v1");
+    cache.get("k1");
+    cache.get("k1");
+    cache.get("k2");
+    cache.add("k2", "v2");
+    cache.remove("k2");
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    // Removals are not evictions
+    assertEquals(1, cache.getEvictionCount());
+  }
 }
@@ -0,0 +1,111 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.testng.annotations.Test;
+
+public class MaterialDescriptionCacheTest {
+  private final AtomicInteger parses = new AtomicInteger();
+  private final Function<ByteBuffer, Map<String, String>> parser =
+      buffer -> {
+        parses.incrementAndGet();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return Collections.singletonMap("desc", new String(bytes, StandardCharsets.UTF_8));
+      };
+
+  @Test
+  public void cachesByContent() {
+    MaterialDescriptionCache cache = new MaterialDescriptionCache(10);
+    ByteBuffer first = bytes("a");
+    Map<String, String> parsed = cache.get(first, parser);
+    assertEquals(Collections.singletonMap("desc", "a"), parsed);
+    assertEquals(0, first.position());
+
+    // Equal bytes in a different buffer, at a different position, share the parsed map
+    ByteBuffer second = ByteBuffer.wrap("xxa".getBytes(StandardCharsets.UTF_8));
+    second.position(2);
+    assertSame(parsed, cache.get(second, parser));
+    assertEquals(2, second.position());
+    assertEquals(1, parses.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // The cache does not retain the caller's buffer
+    first.put(0, (byte) 'b');
+    assertSame(parsed, cache.get(bytes("a"), parser));
+    assertEquals(Collections.singletonMap("desc", "b"), cache.get(first, parser));
+    assertEquals(2, parses.get());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void bounded() {
+    MaterialDescriptionCache cache = new MaterialDescriptionCache(3);
+    assertEquals(3, cache.getMaxSize());
+    for (int i = 0; i < 10; i++) {
+      cache.get(bytes("k" + i), parser);
+      assertTrue(cache.size() <= 3);
+    }
+    assertEquals(10, cache.getMissCount());
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    MaterialDescriptionCache cache = new MaterialDescriptionCache(3);
+    Map<String, String> shared = cache.get(bytes("shared"), parser);
+    for (int i = 0; i < 10; i++) {
+      // Descriptions unique to one record do not displace one in use
+      cache.get(bytes("unique" + i), parser);
+      assertSame(shared, cache.get(bytes("shared"), parser));
+    }
+    assertEquals(11, cache.getMissCount());
+    assertEquals(10, cache.getHitCount());
+    assertEquals(8, cache.getEvictionCount());
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void parsedDescriptionsAreImmutable() {
+    Map<String, String> mutable = new HashMap<>();
+    mutable.put("k", "v");
+    MaterialDescriptionCache cache = new MaterialDescriptionCache(3);
+    Map<String, String> parsed = cache.get(bytes("a"), buffer -> mutable);
+    mutable.put("k", "changed");
+    assertEquals("v", parsed.get("k"));
+    parsed.put("k", "changed");
+  }
+
+  @Test
+  public void immutableCopyOf() {
+    Map<String, String> mutable = new HashMap<>();
+    mutable.put("k", "v");
+    Map<String, String> copy = MaterialDescriptionCache.immutableCopyOf(mutable);
+    assertEquals(mutable, copy);
+    assertEquals(mutable.hashCode(), copy.hashCode());
+    assertSame(copy, MaterialDescriptionCache.immutableCopyOf(copy));
+    mutable.put("k", "changed");
+    assertEquals("v", copy.get("k"));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void invalidSize() {
+    new MaterialDescriptionCache(0);
+  }
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,227 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.datamodeling.internal;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.testng.annotations.Test;
+
+public class SingleFlightTest {
+  @Test
+  public void coalescesConcurrentCalls() throws Exception {
+    final SingleFlight<String, Object> flights = new SingleFlight<>();
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      results.add(
+          pool.submit(
+              () ->
+                  flights.execute(
+                      "key",
+                      () -> {
+                        loads.incrementAndGet();
+                        await(release);
+                        return new Object();
+                      })));
+      waitUntil(() -> flights.inFlightCount() == 1);
+      for (int i = 0; i < 3; i++) {
+        results.add(pool.submit(() -> flights.execute("key", this::unexpectedLoad)));
+      }
+      waitUntil(() -> flights.getCoalescedCount() == 3);
+      release.countDown();
+
+      Object first = results.get(0).get(10, TimeUnit.SECONDS);
+      for (Future<Object> result : results) {
+        assertSame(first, result.get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(1, loads.get());
+      assertEquals(1, flights.getCallCount());
+      assertEquals(0, flights.inFlightCount());
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void sharesExceptions() throws Exception {
+    final SingleFlight<String, Object> flights = new SingleFlight<>();
+    final CountDownLatch release = new CountDownLatch(1);
+    final IllegalStateException failure = new IllegalStateException("Load failed");
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> leader =
+          pool.submit(
+              () ->
+                  flights.execute(
+                      "key",
+                      () -> {
+                        await(release);
+                        throw failure;
+                      }));
+      waitUntil(() -> flights.inFlightCount() == 1);
+      Future<Object> follower = pool.submit(() -> flights.execute("key", this::unexpectedLoad));
+      waitUntil(() -> flights.getCoalescedCount() == 1);
+      release.countDown();
+
+      try {
+        leader.get(10, TimeUnit.SECONDS);
+        fail("Expected exception");
+      } catch (ExecutionException ex) {
+        assertSame(failure, ex.getCause());
+      }
+      try {
+        follower.get(10, TimeUnit.SECONDS);
+        fail("Expected exception");
+      } catch (ExecutionException ex) {
+        // Each follower gets its own exception, caused by the leader's
+        assertTrue(ex.getCause() instanceof DynamoDBMappingException);
+        assertSame(failure, ex.getCause().getCause());
+      }
+      assertEquals(0, flights.inFlightCount());
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void doesNotCacheResults() {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    assertEquals("a1", flights.execute("a", () -> "a1"));
+    assertEquals("a2", flights.execute("a", () -> "a2"));
+    assertEquals("b1", flights.execute("b", () -> "b1"));
+    assertEquals(3, flights.getCallCount());
+    assertEquals(0, flights.getCoalescedCount());
+  }
+
+  @Test
+  public void coalescesAsyncCalls() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    CompletableFuture<String> source = new CompletableFuture<>();
+    CompletableFuture<String> first = flights.executeAsync("key", () -> source);
+    CompletableFuture<String> second =
+        flights.executeAsync("key", () -> Utils.failedFuture(new AssertionError()));
+    assertEquals(1, flights.getCoalescedCount());
+    assertEquals(1, flights.inFlightCount());
+
+    // Callers cannot complete the shared result
+    second.complete("other");
+    source.complete("value");
+    assertEquals("value", first.get());
+    assertEquals("other", second.get());
+    assertEquals(0, flights.inFlightCount());
+    assertEquals(
+        "next", flights.executeAsync("key", () -> CompletableFuture.completedFuture("next")).get());
+  }
+
+  @Test
+  public void asyncLoaderExceptionsCompleteExceptionally() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    CompletableFuture<String> result =
+        flights.executeAsync(
+            "key",
+            () -> {
+              throw new IllegalStateException();
+            });
+    try {
+      result.get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(0, flights.inFlightCount());
+  }
+
+  @Test
+  public void sharedAsyncFailuresAreNotShared() throws Exception {
+    final SingleFlight<String, String> flights = new SingleFlight<>();
+    final IllegalStateException failure = new IllegalStateException("Load failed");
+    final CompletableFuture<String> source = new CompletableFuture<>();
+    final CompletableFuture<String> first = flights.executeAsync("key", () -> source);
+    final CompletableFuture<String> second =
+        flights.executeAsync("key", () -> Utils.failedFuture(new AssertionError()));
+    final CompletableFuture<String> third =
+        flights.executeAsync("key", () -> Utils.failedFuture(new AssertionError()));
+    source.completeExceptionally(failure);
+
+    try {
+      first.get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertSame(failure, ex.getCause());
+    }
+    final List<Throwable> followerFailures = new ArrayList<>();
+    for (CompletableFuture<String> result : Arrays.asList(second, third)) {
+      try {
+        result.get();
+        fail("Expected exception");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof DynamoDBMappingException);
+        assertSame(failure, ex.getCause().getCause());
+        followerFailures.add(ex.getCause());
+      }
+    }
+    assertNotSame(followerFailures.get(0), followerFailures.get(1));
+  }
+
+  @Test
+  public void sharedFailuresAreCreatedByTheGivenFunction() throws Exception {
+    final SingleFlight<String, String> flights =
+        new SingleFlight<>(cause -> new IllegalArgumentException("shared", cause));
+    final IllegalStateException failure = new IllegalStateException("Load failed");
+    final CompletableFuture<String> source = new CompletableFuture<>();
+    flights.executeAsync("key", () -> source);
+    final CompletableFuture<String> follower =
+        flights.executeAsync("key", () -> Utils.failedFuture(new AssertionError()));
+    source.completeExceptionally(failure);
+
+    try {
+      follower.get();
+      fail("Expected exception");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalArgumentException);
+      assertEquals("shared", ex.getCause().getMessage());
+      assertSame(failure, ex.getCause().getCause());
+    }
+  }
+
+  private Object unexpectedLoad() {
+    throw new AssertionError("Call was not coalesced");
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
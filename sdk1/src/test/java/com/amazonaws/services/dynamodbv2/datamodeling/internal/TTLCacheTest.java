@@ -14,6 +14,8 @@ import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import org.testng.annotations.Test;
@@ -368,4 +370,129 @@ public class TTLCacheTest {
     assertTrue(cache.size() == 1);
     assertEquals(cachedValue, "v2");
   }
+
+  @Test
+  public void testEvictExpired() {
+    final long ttlInMillis = 1000;
+    final List<String> evicted = new ArrayList<>();
+    MsClock clock = mock(MsClock.class);
+    final TTLCache<String> cache =
+        new TTLCache<String>(
+            3,
+            ttlInMillis,
+            mock(TTLCache.EntryLoader.class),
+            (key, value, cause) -> evicted.add(key + "=" + value + ":" + cause));
+    cache.clock = clock;
+
+    when(clock.timestampNano()).thenReturn((long) 0);
+    cache.put("k1", "v1");
+    when(clock.timestampNano()).thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis));
+    cache.put("k2", "v2");
+
+    // k1 is past the grace period, but k2 is not
+    when(clock.timestampNano())
+        .thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis) + TTL_GRACE_IN_NANO + 1);
+    assertEquals(1, cache.evictExpired());
+    assertEquals(1, cache.size());
+    assertEquals(1, evicted.size());
+    assertEquals("k1=v1:EXPIRED", evicted.get(0));
+    assertEquals(0, cache.evictExpired());
+  }
+
+  @Test
+  public void testEvictionListener() {
+    final long ttlInMillis = 1000;
+    final List<String> evicted = new ArrayList<>();
+    MsClock clock = mock(MsClock.class);
+    TTLCache.EntryLoader loader = spy(TTLCache.EntryLoader.class);
+    when(loader.load(any())).thenReturn("loaded value");
+    final TTLCache<String> cache =
+        new TTLCache<String>(
+            1, ttlInMillis, loader, (key, value, cause) -> evicted.add(key + ":" + cause));
+    cache.clock = clock;
+
+    when(clock.timestampNano()).thenReturn((long) 0);
+    cache.put("k1", "v1");
+    cache.put("k2", "v2");
+    assertEquals("k1:SIZE", evicted.get(0));
+
+    // Expired entries evicted on load are reported too
+    when(clock.timestampNano())
+        .thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis) + TTL_GRACE_IN_NANO + 1);
+    assertEquals("loaded value", cache.load("k2"));
+    assertEquals("k2:EXPIRED", evicted.get(1));
+    assertEquals(2, evicted.size());
+  }
+
+  @Test
+  public void testStats() {
+    final long ttlInMillis = 1000;
+    MsClock clock = mock(MsClock.class);
+    TTLCache.EntryLoader loader = spy(TTLCache.EntryLoader.class);
+    when(loader.load(any())).thenReturn("loaded value");
+    final TTLCache<String> cache = new TTLCache<String>(1, ttlInMillis, loader);
+    cache.clock = clock;
+
+    // A miss which calls the loader, then a hit
+    when(clock.timestampNano()).thenReturn((long) 0);
+    cache.load("k1");
+    cache.load("k1");
+
+    // A failed load
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            cache.load(
+                "k2",
+                k -> {
+                  throw new IllegalStateException("Failed");
+                }));
+
+    // A reload within the grace period
+    when(clock.timestampNano()).thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis) + 1);
+    cache.load("k1");
+
+    // An expired entry, which is evicted and loaded again
+    when(clock.timestampNano())
+        .thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis * 2) + TTL_GRACE_IN_NANO + 2);
+    cache.load("k1");
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0, cache.getGraceHitCount());
+    assertEquals(4, cache.getMissCount());
+    assertEquals(3, cache.getLoadSuccessCount());
+    assertEquals(1, cache.getLoadFailureCount());
+    assertEquals(0, cache.getTotalLoadTimeNanos());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testGraceHitStats() {
+    final long ttlInMillis = 1000;
+    MsClock clock = mock(MsClock.class);
+    final TTLCache<String> cache =
+        new TTLCache<String>(1, ttlInMillis, mock(TTLCache.EntryLoader.class));
+    cache.clock = clock;
+
+    when(clock.timestampNano()).thenReturn((long) 0);
+    cache.put("k1", "v1");
+
+    // Within the grace period, a load while the entry is being reloaded is served the cached value
+    when(clock.timestampNano()).thenReturn(TimeUnit.MILLISECONDS.toNanos(ttlInMillis) + 1);
+    final String[] servedDuringReload = {null};
+    assertEquals(
+        "v2",
+        cache.load(
+            "k1",
+            k -> {
+              servedDuringReload[0] = cache.load(k);
+              return "v2";
+            }));
+    assertEquals("v1", servedDuringReload[0]);
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getGraceHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getLoadSuccessCount());
+  }
 }
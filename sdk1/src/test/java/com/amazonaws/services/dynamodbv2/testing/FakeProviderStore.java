@@ -0,0 +1,93 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package com.amazonaws.services.dynamodbv2.testing;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.EncryptionMaterialsProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.SymmetricStaticProvider;
+import com.amazonaws.services.dynamodbv2.datamodeling.encryption.providers.store.ProviderStore;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An in-memory {@link ProviderStore}, which counts the calls made to it and can be made to fail
+ * them.
+ */
+public class FakeProviderStore extends ProviderStore {
+  private static final SecureRandom rnd = new SecureRandom();
+  private static final String VERSION_FIELD = "fake-version";
+
+  private final Map<String, List<EncryptionMaterialsProvider>> materials = new HashMap<>();
+  public final AtomicInteger getMaxVersionCalls = new AtomicInteger();
+  public final AtomicInteger getProviderCalls = new AtomicInteger();
+  /** If set, every call to the store throws it. */
+  public volatile RuntimeException failure = null;
+
+  @Override
+  public synchronized EncryptionMaterialsProvider getProvider(
+      final String materialName, final long version) {
+    getProviderCalls.incrementAndGet();
+    checkFailure();
+    final List<EncryptionMaterialsProvider> versions = materials.get(materialName);
+    if (versions == null || version < 0 || version >= versions.size()) {
+      throw new IndexOutOfBoundsException("No material found: " + materialName + "#" + version);
+    }
+    return versions.get((int) version);
+  }
+
+  @Override
+  public synchronized EncryptionMaterialsProvider getOrCreate(
+      final String materialName, final long nextId) {
+    checkFailure();
+    final List<EncryptionMaterialsProvider> versions =
+        materials.computeIfAbsent(materialName, k -> new ArrayList<>());
+    while (versions.size() <= nextId) {
+      versions.add(newProvider(versions.size()));
+    }
+    return versions.get((int) nextId);
+  }
+
+  @Override
+  public synchronized long getMaxVersion(final String materialName) {
+    getMaxVersionCalls.incrementAndGet();
+    checkFailure();
+    final List<EncryptionMaterialsProvider> versions = materials.get(materialName);
+    return versions == null ? -1 : versions.size() - 1;
+  }
+
+  @Override
+  public long getVersionFromMaterialDescription(final Map<String, String> description) {
+    return Long.parseLong(description.get(VERSION_FIELD));
+  }
+
+  /** Resets the call counts. */
+  public void clearCalls() {
+    getMaxVersionCalls.set(0);
+    getProviderCalls.set(0);
+  }
+
+  private void checkFailure() {
+    final RuntimeException ex = failure;
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+  private static EncryptionMaterialsProvider newProvider(final long version) {
+    final byte[] encryptionKey = new byte[16];
+    final byte[] macKey = new byte[32];
+    rnd.nextBytes(encryptionKey);
+    rnd.nextBytes(macKey);
+    final Map<String, String> description = new HashMap<>();
+    description.put(VERSION_FIELD, Long.toString(version));
+    return new SymmetricStaticProvider(
+        new SecretKeySpec(encryptionKey, "AES"),
+        new SecretKeySpec(macKey, "HmacSHA256"),
+        Collections.unmodifiableMap(description));
+  }
+}